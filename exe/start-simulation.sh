@@ -0,0 +1,43 @@
+echo 'call start-simulation.sh'
+
+# usage : sh start-simulation.sh [NUMBER_OF_UNITS]
+# Launches NUMBER_OF_UNITS apis-main processes E001 .. ENNN.
+# E001 also runs the in-process emulator that simulates the devices of all units.
+
+N=${1:-10}
+
+CLUSTER_XML=cluster.xml
+if [ "$(uname)" = 'Darwin' ] ; then
+	CLUSTER_XML=cluster-mac.xml
+fi
+
+WORK_DIR=./simulation
+mkdir -p $WORK_DIR
+
+MEMBER_UNIT_IDS=`i=1; while [ $i -le $N ] ; do printf '"E%03d"' $i; [ $i -lt $N ] && printf ','; i=$((i+1)); done`
+sed -e "s/\"memberUnitIds\" : \[[^]]*\]/\"memberUnitIds\" : [$MEMBER_UNIT_IDS]/" policy.json > $WORK_DIR/policy.json
+
+i=1
+while [ $i -le $N ] ; do
+	UNIT_ID=`printf 'E%03d' $i`
+	ACCOUNT=`printf 'e%03d' $i`
+	CONFIG=$WORK_DIR/config-$UNIT_ID.json
+	sed -e "s/E001/$UNIT_ID/g" -e "s/e001/$ACCOUNT/g" \
+		-e "s|\"policyFile\" : \"./policy.json\"|\"policyFile\" : \"$WORK_DIR/policy.json\"|" \
+		-e "s|{tmpdir}/apis/state/|{tmpdir}/apis/simulation/$UNIT_ID/state/|" \
+		-e "s|{tmpdir}/apis/dealLog/|{tmpdir}/apis/simulation/$UNIT_ID/dealLog/|" \
+		-e "s/\"numberOfUnits\" : [0-9]*/\"numberOfUnits\" : $N/" \
+		config.json > $CONFIG
+	if [ $i -eq 1 ] ; then
+		sed -i.bak -e '/"inProcessEmulator"/,/}/ s/"enabled" : false/"enabled" : true/' $CONFIG
+		rm -f $CONFIG.bak
+	fi
+	java -Djava.net.preferIPv4Stack=true -Duser.timezone=Asia/Tokyo -Djava.util.logging.config.file=./logging.properties -Dvertx.metrics.options.enabled=true -Dvertx.hazelcast.config=./$CLUSTER_XML -jar ../target/apis-main-3.0.0-fat.jar -conf $CONFIG -cluster -cluster-host 127.0.0.1 > $WORK_DIR/$UNIT_ID.log 2>&1 &
+	if [ $i -eq 1 ] ; then
+		# let the emulator start listening before the other units poll it
+		sleep 10
+	fi
+	i=$((i+1))
+done
+
+echo '... done'
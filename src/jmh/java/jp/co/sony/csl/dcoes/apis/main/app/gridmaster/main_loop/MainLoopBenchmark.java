@@ -0,0 +1,69 @@
+package jp.co.sony.csl.dcoes.apis.main.app.gridmaster.main_loop;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import jp.co.sony.csl.dcoes.apis.main.benchmark.ClusterState;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the GridMaster main loop steps.
+ * Lives in the same package to reach {@link DealExecution#sortDeals_(io.vertx.core.Vertx, JsonObject, List)}.
+ * @author OES Project
+ *          
+ * GridMaster のメインループの処理のベンチマーク.
+ * {@link DealExecution#sortDeals_(io.vertx.core.Vertx, JsonObject, List)} に届くよう同じパッケージに置く.
+ * @author OES Project
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MainLoopBenchmark {
+
+	/**
+	 * Sort all DEAL objects of the cluster.
+	 * The list is copied on every call because it is sorted in place.
+	 * @param cluster the synthetic cluster
+	 * @return the sorted list
+	 *          
+	 * クラスタの全 DEAL オブジェクトを並び替える.
+	 * その場で並び替えるので毎回リストをコピーする.
+	 * @param cluster 合成クラスタ
+	 * @return 並び替えたリスト
+	 */
+	@Benchmark
+	public List<JsonObject> sortDeals(ClusterState cluster) {
+		List<JsonObject> result = new ArrayList<>(cluster.deals);
+		DealExecution.sortDeals_(cluster.vertx, cluster.policy, result);
+		return result;
+	}
+
+	/**
+	 * Calculate the global data of the cluster.
+	 * @param cluster the synthetic cluster
+	 * @return the global data
+	 * @throws Exception if the calculation failed
+	 *          
+	 * クラスタのグローバルデータを計算する.
+	 * @param cluster 合成クラスタ
+	 * @return グローバルデータ
+	 * @throws Exception 計算が失敗した
+	 */
+	@Benchmark
+	public JsonObject globalDataCalculation(ClusterState cluster) throws Exception {
+		return cluster.<JsonObject>onContext(h -> GlobalDataCalculation.execute(cluster.vertx, h));
+	}
+
+}
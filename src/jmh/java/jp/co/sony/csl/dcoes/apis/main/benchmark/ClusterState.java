@@ -0,0 +1,196 @@
+package jp.co.sony.csl.dcoes.apis.main.benchmark;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import jp.co.sony.csl.dcoes.apis.common.util.EncryptionUtil;
+import jp.co.sony.csl.dcoes.apis.common.util.vertx.VertxConfig;
+import jp.co.sony.csl.dcoes.apis.main.app.HwConfigKeeping;
+import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
+import jp.co.sony.csl.dcoes.apis.main.app.gridmaster.main_loop.DealExecution;
+import jp.co.sony.csl.dcoes.apis.main.app.mediator.util.DealUtil;
+import jp.co.sony.csl.dcoes.apis.main.evaluation.safety.DealCurrentLedger;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A synthetic cluster shared by the benchmarks.
+ * Starts a clustered vertx as the tests do, fills the CONFIG, POLICY and HWCONFIG caches from the sample files, stores the DEAL objects of {@link SyntheticCluster} in shared memory and caches the unit data as the GridMaster does.
+ * The unit of this process is {@code E001}, the discharging side of the master deal.
+ * Asynchronous operations are run on {@link #context} through {@link #onContext(Consumer)}, as they are in a Verticle.
+ * @author OES Project
+ *          
+ * ベンチマークで共有する合成クラスタ.
+ * テストと同様に clustered vertx を起動し, サンプルファイルから CONFIG, POLICY, HWCONFIG のキャッシュを埋め, {@link SyntheticCluster} の DEAL オブジェクトを共有メモリに格納し, GridMaster と同様にユニットデータをキャッシュする.
+ * このプロセスのユニットは master deal の送電側である {@code E001}.
+ * 非同期処理は Verticle 内と同様に {@link #onContext(Consumer)} で {@link #context} 上で実行する.
+ * @author OES Project
+ */
+@State(Scope.Benchmark)
+public class ClusterState {
+
+	/**
+	 * Number of units of the cluster.
+	 *          
+	 * クラスタのユニット数.
+	 */
+	@Param({"10", "100", "1000"})
+	public int numberOfUnits;
+
+	/**
+	 * The vertx object.
+	 *          
+	 * vertx オブジェクト.
+	 */
+	public Vertx vertx;
+	/**
+	 * The event loop context the operations are run on.
+	 *          
+	 * 処理を実行するイベントループコンテキスト.
+	 */
+	public Context context;
+	/**
+	 * The POLICY object of the cluster.
+	 *          
+	 * クラスタの POLICY オブジェクト.
+	 */
+	public JsonObject policy;
+	/**
+	 * The DEAL objects of the cluster.
+	 *          
+	 * クラスタの DEAL オブジェクト.
+	 */
+	public List<JsonObject> deals;
+	/**
+	 * Unit data of all units keyed by unit ID.
+	 *          
+	 * ユニット ID をキーとする全ユニットのユニットデータ.
+	 */
+	public JsonObject unitData;
+
+	/**
+	 * Start the cluster.
+	 * @throws Exception on failure
+	 *          
+	 * クラスタを起動する.
+	 * @throws Exception 失敗
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		JsonObject config = resource("sample-config.json");
+		VertxConfig.config.setJsonObject(config);
+		ClusterState.<Void>await(EncryptionUtil::initialize);
+		vertx = ClusterState.<Vertx>await(h -> Vertx.clusteredVertx(new VertxOptions(), h));
+		VertxConfig.config.setJsonObject(config);
+		context = vertx.getOrCreateContext();
+		// The ledger is fed by the GridMaster only ; start without one left by a previous trial
+		// 台帳は GridMaster だけが更新する ; 前の試行が残したものなしで始める
+		DealCurrentLedger.reset();
+		// Keep the logs of the hot paths out of the measurements
+		// ホットパスのログを計測に含めない
+		java.util.logging.Logger.getLogger("").setLevel(java.util.logging.Level.WARNING);
+		HwConfigKeeping.cache.setJsonObject(resource("sample-hwConfig.json"));
+		policy = SyntheticCluster.policy(resource("sample-policy.json"), numberOfUnits);
+		PolicyKeeping.cache().setJsonObject(policy);
+		deals = SyntheticCluster.deals(numberOfUnits);
+		for (JsonObject aDeal : deals) {
+			onContext(h -> DealUtil.add(vertx, aDeal.copy(), h));
+		}
+		unitData = SyntheticCluster.unitData(numberOfUnits, deals);
+		DealExecution.unitDataCache.setJsonObject(unitData);
+		DealExecution.unitDataView.reset(unitData);
+	}
+
+	/**
+	 * Stop the cluster.
+	 * @throws Exception on failure
+	 *          
+	 * クラスタを停止する.
+	 * @throws Exception 失敗
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		DealCurrentLedger.reset();
+		DealExecution.unitDataView.reset(null);
+		DealExecution.unitDataCache.setJsonObject(null);
+		ClusterState.<Void>await(vertx::close);
+	}
+
+	/**
+	 * Wait for an asynchronous operation.
+	 * @param <T> the type of the result
+	 * @param operation the operation, called with the completion handler
+	 * @return the result
+	 * @throws Exception if the operation failed or did not complete within 30 seconds
+	 *          
+	 * 非同期処理を待つ.
+	 * @param <T> 結果の型
+	 * @param operation completion handler を渡して呼ぶ処理
+	 * @return 結果
+	 * @throws Exception 処理が失敗したか 30 秒以内に終わらなかった
+	 */
+	public static <T> T await(Consumer<Handler<AsyncResult<T>>> operation) throws Exception {
+		CompletableFuture<T> cf = new CompletableFuture<T>();
+		operation.accept(res -> {
+			if (res.succeeded()) {
+				cf.complete(res.result());
+			} else {
+				cf.completeExceptionally((res.cause() != null) ? res.cause() : new IllegalStateException("failed"));
+			}
+		});
+		return cf.get(30, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Run an asynchronous operation on {@link #context} and wait for it.
+	 * @param <T> the type of the result
+	 * @param operation the operation, called on the context with the completion handler
+	 * @return the result
+	 * @throws Exception if the operation failed or did not complete within 30 seconds
+	 *          
+	 * 非同期処理を {@link #context} 上で実行し待つ.
+	 * @param <T> 結果の型
+	 * @param operation コンテキスト上で completion handler を渡して呼ぶ処理
+	 * @return 結果
+	 * @throws Exception 処理が失敗したか 30 秒以内に終わらなかった
+	 */
+	public <T> T onContext(Consumer<Handler<AsyncResult<T>>> operation) throws Exception {
+		return ClusterState.<T>await(h -> context.runOnContext(v -> operation.accept(h)));
+	}
+
+	/**
+	 * Read a JSON file from the classpath.
+	 * @param name the resource name
+	 * @return the JSON object
+	 * @throws Exception on failure
+	 *          
+	 * クラスパスから JSON ファイルを読む.
+	 * @param name リソース名
+	 * @return JSON オブジェクト
+	 * @throws Exception 失敗
+	 */
+	public static JsonObject resource(String name) throws Exception {
+		try (InputStream is = ClassLoader.getSystemClassLoader().getResourceAsStream(name)) {
+			if (is == null) throw new IllegalStateException("no resource : " + name);
+			return new JsonObject(Buffer.buffer(IOUtils.toByteArray(is)));
+		}
+	}
+
+}
@@ -0,0 +1,106 @@
+package jp.co.sony.csl.dcoes.apis.main.benchmark;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.co.sony.csl.dcoes.apis.main.app.gridmaster.main_loop.DealExecution;
+import jp.co.sony.csl.dcoes.apis.main.evaluation.safety.DealCurrentLedger;
+import jp.co.sony.csl.dcoes.apis.main.evaluation.safety.GlobalSafetyEvaluation;
+import jp.co.sony.csl.dcoes.apis.main.evaluation.safety.GridBranchCurrentCapacity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the global safety evaluation run by the GridMaster.
+ * Each one runs both with and without {@link DealCurrentLedger}.
+ * Asynchronous calls are waited for, so the results include the round trips to shared memory where the path makes them.
+ * @author OES Project
+ *          
+ * GridMaster が実行するグローバル安全性評価のベンチマーク.
+ * それぞれ {@link DealCurrentLedger} ありとなしで実行する.
+ * 非同期呼び出しは待つので共有メモリにアクセスするパスではその往復も結果に含まれる.
+ * @author OES Project
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SafetyEvaluationBenchmark {
+
+	/**
+	 * Whether to use the running ledger of deal currents.
+	 *          
+	 * 融通電流の累計台帳を使うか否か.
+	 */
+	@Param({"false", "true"})
+	public boolean dealCurrentLedger;
+
+	private JsonObject policy_;
+	private JsonObject newDeal_;
+
+	/**
+	 * Prepare the POLICY and, with the ledger, reconcile it against the DEAL objects of the cluster.
+	 * Done for every iteration, so that an iteration never starts with a ledger invalidated by the previous one.
+	 * @param cluster the synthetic cluster
+	 *          
+	 * POLICY を準備し, 台帳ありならクラスタの DEAL オブジェクトと突き合わせる.
+	 * 前のイテレーションで無効にされた台帳で始めないようイテレーションごとに行う.
+	 * @param cluster 合成クラスタ
+	 */
+	@Setup(Level.Iteration)
+	public void setUp(ClusterState cluster) {
+		policy_ = cluster.policy.copy();
+		policy_.getJsonObject("safety").getJsonObject("dealCurrentLedger").put("enabled", dealCurrentLedger);
+		if (dealCurrentLedger) {
+			DealCurrentLedger.reconcile(cluster.deals);
+		} else {
+			DealCurrentLedger.reset();
+		}
+		// A new interchange between the last two units, which are idle
+		// 待機中の最後の二ユニット間の新しい融通
+		newDeal_ = SyntheticCluster.newDeal("deal-new", SyntheticCluster.unitId(cluster.numberOfUnits - 2), SyntheticCluster.unitId(cluster.numberOfUnits - 1));
+	}
+
+	/**
+	 * Judge whether a new interchange can be added.
+	 * @param cluster the synthetic cluster
+	 * @return {@code null} if possible, or the reason for failure otherwise
+	 *          
+	 * 新しい融通を追加できるか判定する.
+	 * @param cluster 合成クラスタ
+	 * @return 可なら {@code null}, 不可なら理由
+	 */
+	@Benchmark
+	public String checkNewDeal(ClusterState cluster) {
+		return GridBranchCurrentCapacity.checkNewDeal(cluster.vertx, policy_, newDeal_, cluster.deals);
+	}
+
+	/**
+	 * Check the global safety of the cluster.
+	 * @param cluster the synthetic cluster
+	 * @throws Exception if the check failed
+	 *          
+	 * クラスタのグローバル安全性をチェックする.
+	 * @param cluster 合成クラスタ
+	 * @throws Exception チェックが失敗した
+	 */
+	@Benchmark
+	public void globalSafetyEvaluation(ClusterState cluster) throws Exception {
+		cluster.<Void>onContext(h -> GlobalSafetyEvaluation.check(cluster.vertx, policy_, cluster.unitData, DealExecution.unitDataView, h));
+	}
+
+}
@@ -0,0 +1,284 @@
+package jp.co.sony.csl.dcoes.apis.main.benchmark;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import jp.co.sony.csl.dcoes.apis.main.app.controller.util.DDCon;
+
+/**
+ * Generates the data of a synthetic cluster for the benchmarks.
+ * Units are named {@code E001}, {@code E002}, ... and lined up on a single DC bus ; every {@value #UNITS_PER_SEGMENT} units form a segment and adjacent segments are connected by a branch.
+ * One DEAL is made for every two units of the first half of the cluster, in the following mix.
+ * - the first one : the master deal, started. Its charge side unit is the voltage reference
+ * - one in five : activated but not yet started
+ * - one in five : just created
+ * - the others : started
+ * - one in ten is requested to stop
+ * Values are derived from a fixed seed so that every run sees the same cluster.
+ * @author OES Project
+ *          
+ * ベンチマーク用の合成クラスタのデータを生成する.
+ * ユニットは {@code E001}, {@code E002}, ... と名付け一本の DC バスに並べる ; {@value #UNITS_PER_SEGMENT} ユニットごとに一つのセグメントとし隣り合うセグメントをブランチでつなぐ.
+ * クラスタの前半のユニット二つごとに一つの DEAL を以下の割合で作る.
+ * - 最初の一つ : master deal, 開始済み. 受電側ユニットが電圧リファレンス
+ * - 五つに一つ : 起動済みだが未開始
+ * - 五つに一つ : 作成直後
+ * - それ以外 : 開始済み
+ * - 十に一つは停止要求あり
+ * 毎回同じクラスタになるよう値は固定のシードから作る.
+ * @author OES Project
+ */
+public class SyntheticCluster {
+
+	/**
+	 * Number of units in a segment between branches.
+	 * Value: {@value}.
+	 *          
+	 * ブランチ間のセグメントのユニット数.
+	 * 値は {@value}.
+	 */
+	public static final int UNITS_PER_SEGMENT = 5;
+	/**
+	 * Grid current of every DEAL [A].
+	 * Value: {@value}.
+	 *          
+	 * 全 DEAL の融通電流 [A].
+	 * 値は {@value}.
+	 */
+	public static final float DEAL_GRID_CURRENT_A = 2F;
+	/**
+	 * Date and time put into DEAL objects.
+	 * Value: {@value}.
+	 *          
+	 * DEAL オブジェクトに入れる日時.
+	 * 値は {@value}.
+	 */
+	public static final String DATE_TIME = "2020/01/01-00:00:00";
+
+	private static final long SEED_ = 20200101L;
+
+	private SyntheticCluster() { }
+
+	/**
+	 * Get the ID of a unit.
+	 * @param index the index of the unit from {@code 0}
+	 * @return the unit ID
+	 *          
+	 * ユニットの ID を取得する.
+	 * @param index {@code 0} から始まるユニットのインデクス
+	 * @return ユニット ID
+	 */
+	public static String unitId(int index) {
+		return String.format("E%03d", index + 1);
+	}
+
+	/**
+	 * Make a POLICY object for the cluster from a base POLICY.
+	 * Member units, large capacity units and the grid topology are replaced, and the limits are raised so that the synthetic deals pass the checks.
+	 * The running ledger of deal currents is disabled.
+	 * @param base the base POLICY object. Not modified
+	 * @param numberOfUnits the number of units
+	 * @return a new POLICY object
+	 *          
+	 * 元の POLICY からクラスタの POLICY オブジェクトを作る.
+	 * メンバユニット, 大容量ユニット, グリッドトポロジを置き換え合成 DEAL がチェックを通るよう上限を引き上げる.
+	 * 融通電流の累計台帳は無効にする.
+	 * @param base 元の POLICY オブジェクト. 変更しない
+	 * @param numberOfUnits ユニット数
+	 * @return 新しい POLICY オブジェクト
+	 */
+	public static JsonObject policy(JsonObject base, int numberOfUnits) {
+		JsonObject result = base.copy();
+		result.put("operationMode", "autonomous");
+		JsonArray memberUnitIds = new JsonArray();
+		JsonArray largeCapacityUnitIds = new JsonArray();
+		for (int i = 0; i < numberOfUnits; i++) {
+			memberUnitIds.add(unitId(i));
+			if (i % 10 == 3) largeCapacityUnitIds.add(unitId(i));
+		}
+		result.put("memberUnitIds", memberUnitIds);
+		result.put("largeCapacityUnitIds", largeCapacityUnitIds);
+		JsonObject safety = result.getJsonObject("safety", new JsonObject());
+		safety.put("sumOfDealGridCurrentMaxA", numberOfUnits * DEAL_GRID_CURRENT_A);
+		JsonArray branchIds = new JsonArray();
+		JsonObject branchAssociation = new JsonObject();
+		JsonObject branchCurrentCapacityA = new JsonObject();
+		int numberOfSegments = (numberOfUnits + UNITS_PER_SEGMENT - 1) / UNITS_PER_SEGMENT;
+		for (int s = 1; s < numberOfSegments; s++) {
+			int boundary = s * UNITS_PER_SEGMENT;
+			String aBranchId = unitId(boundary - 1) + '-' + unitId(boundary);
+			JsonArray forwardUnitIds = new JsonArray();
+			JsonArray backwardUnitIds = new JsonArray();
+			for (int i = 0; i < numberOfUnits; i++) {
+				if (i < boundary) {
+					forwardUnitIds.add(unitId(i));
+				} else {
+					backwardUnitIds.add(unitId(i));
+				}
+			}
+			branchIds.add(aBranchId);
+			branchAssociation.put(aBranchId, new JsonObject().put("forwardUnitIds", forwardUnitIds).put("backwardUnitIds", backwardUnitIds));
+			branchCurrentCapacityA.put(aBranchId, numberOfUnits * DEAL_GRID_CURRENT_A);
+		}
+		safety.put("gridTopologyBasedEvaluation", new JsonObject().put("enabled", true).put("branchIds", branchIds).put("branchAssociation", branchAssociation).put("branchCurrentCapacityA", branchCurrentCapacityA));
+		safety.put("dealCurrentLedger", new JsonObject().put("enabled", false).put("reconciliationCycles", Integer.MAX_VALUE));
+		result.put("safety", safety);
+		return result;
+	}
+
+	/**
+	 * Make the DEAL objects of the cluster.
+	 * @param numberOfUnits the number of units
+	 * @return a list of DEAL objects
+	 *          
+	 * クラスタの DEAL オブジェクトを作る.
+	 * @param numberOfUnits ユニット数
+	 * @return DEAL オブジェクトのリスト
+	 */
+	public static List<JsonObject> deals(int numberOfUnits) {
+		int numberOfDeals = Math.max(1, numberOfUnits / 4);
+		List<JsonObject> result = new ArrayList<>(numberOfDeals);
+		for (int k = 0; k < numberOfDeals; k++) {
+			JsonObject aDeal = newDeal("deal-" + k, unitId(2 * k), unitId(2 * k + 1));
+			if (k == 0 || k % 5 != 2) {
+				aDeal.put("activateDateTime", DATE_TIME);
+				if (k == 0 || k % 5 != 1) {
+					aDeal.put("rampUpDateTime", DATE_TIME);
+					aDeal.put("warmUpDateTime", DATE_TIME);
+					aDeal.put("startDateTime", DATE_TIME);
+					aDeal.put("cumulateDateTime", DATE_TIME);
+					aDeal.put("cumulateAmountWh", 0);
+				}
+			}
+			if (k == 0) aDeal.put("isMaster", true);
+			if (k % 10 == 3) aDeal.put("needToStopReasons", new JsonArray().add("benchmark"));
+			result.add(aDeal);
+		}
+		return result;
+	}
+
+	/**
+	 * Make a DEAL object that has just been created.
+	 * @param dealId the DEAL ID
+	 * @param dischargeUnitId the ID of the discharging unit
+	 * @param chargeUnitId the ID of the charging unit
+	 * @return a DEAL object
+	 *          
+	 * 作成直後の DEAL オブジェクトを作る.
+	 * @param dealId DEAL ID
+	 * @param dischargeUnitId 送電ユニットの ID
+	 * @param chargeUnitId 受電ユニットの ID
+	 * @return DEAL オブジェクト
+	 */
+	public static JsonObject newDeal(String dealId, String dischargeUnitId, String chargeUnitId) {
+		JsonObject result = new JsonObject();
+		result.put("dealId", dealId);
+		result.put("createDateTime", DATE_TIME);
+		result.put("type", "charge");
+		result.put("requestUnitId", chargeUnitId);
+		result.put("acceptUnitId", dischargeUnitId);
+		result.put("chargeUnitId", chargeUnitId);
+		result.put("dischargeUnitId", dischargeUnitId);
+		result.put("pointPerWh", 10F);
+		result.put("dealGridCurrentA", DEAL_GRID_CURRENT_A);
+		result.put("dealAmountWh", 100);
+		return result;
+	}
+
+	/**
+	 * Make the unit data of all units, consistent with the DEAL objects.
+	 * Units of started deals run in CV mode with {@link #DEAL_GRID_CURRENT_A}, the charge side of the master deal is the voltage reference, the others wait.
+	 * @param numberOfUnits the number of units
+	 * @param deals the DEAL objects made by {@link #deals(int)}
+	 * @return unit data of all units keyed by unit ID
+	 *          
+	 * DEAL オブジェクトと辻褄の合う全ユニットのユニットデータを作る.
+	 * 開始済み融通のユニットは {@link #DEAL_GRID_CURRENT_A} の CV モード, master deal の受電側は電圧リファレンス, それ以外は待機.
+	 * @param numberOfUnits ユニット数
+	 * @param deals {@link #deals(int)} で作った DEAL オブジェクト
+	 * @return ユニット ID をキーとする全ユニットのユニットデータ
+	 */
+	public static JsonObject unitData(int numberOfUnits, List<JsonObject> deals) {
+		JsonObject modes = new JsonObject();
+		for (JsonObject aDeal : deals) {
+			if (aDeal.containsKey("startDateTime")) {
+				modes.put(aDeal.getString("dischargeUnitId"), DDCon.MODE_CODE_DISCHARGE);
+				modes.put(aDeal.getString("chargeUnitId"), (aDeal.getBoolean("isMaster", false)) ? DDCon.MODE_CODE_VOLTAGE_REFERENCE : DDCon.MODE_CODE_CHARGE);
+			}
+		}
+		Random random = new Random(SEED_);
+		JsonObject result = new JsonObject();
+		for (int i = 0; i < numberOfUnits; i++) {
+			String aUnitId = unitId(i);
+			result.put(aUnitId, unitData_(aUnitId, modes.getString(aUnitId, DDCon.MODE_CODE_WAIT), random));
+		}
+		return result;
+	}
+
+	/**
+	 * Make the "accept" responses of all units other than the requesting one.
+	 * @param numberOfUnits the number of units
+	 * @param requestUnitId the ID of the requesting unit
+	 * @return a list of "accept" responses
+	 *          
+	 * リクエストしたユニット以外の全ユニットのアクセプトを作る.
+	 * @param numberOfUnits ユニット数
+	 * @param requestUnitId リクエストしたユニットの ID
+	 * @return アクセプトのリスト
+	 */
+	public static List<JsonObject> accepts(int numberOfUnits, String requestUnitId) {
+		Random random = new Random(SEED_);
+		List<JsonObject> result = new ArrayList<>(numberOfUnits);
+		for (int i = 0; i < numberOfUnits; i++) {
+			String aUnitId = unitId(i);
+			if (!aUnitId.equals(requestUnitId)) {
+				JsonObject anAccept = new JsonObject();
+				anAccept.put("unitId", aUnitId);
+				anAccept.put("type", "discharge");
+				anAccept.put("dateTime", DATE_TIME);
+				anAccept.put("amountWh", 100 * (1 + random.nextInt(10)));
+				anAccept.put("pointPerWh", 5F + random.nextInt(10));
+				anAccept.put("dealGridCurrentA", DEAL_GRID_CURRENT_A);
+				result.add(anAccept);
+			}
+		}
+		return result;
+	}
+
+	////
+
+	private static JsonObject unitData_(String unitId, String mode, Random random) {
+		float ig;
+		String operationMode;
+		// The grid current is positive while charging
+		// グリッド電流は充電時に正
+		if (DDCon.MODE_CODE_DISCHARGE.equals(mode)) {
+			ig = - DEAL_GRID_CURRENT_A;
+			operationMode = DDCon.OPERATION_MODE_CODE_HETERONOMY_CV;
+		} else if (DDCon.MODE_CODE_CHARGE.equals(mode)) {
+			ig = DEAL_GRID_CURRENT_A;
+			operationMode = DDCon.OPERATION_MODE_CODE_HETERONOMY_CV;
+		} else if (DDCon.MODE_CODE_VOLTAGE_REFERENCE.equals(mode)) {
+			ig = DEAL_GRID_CURRENT_A;
+			operationMode = DDCon.OPERATION_MODE_CODE_GRID_AUTONOMY;
+		} else {
+			ig = 0F;
+			operationMode = DDCon.OPERATION_MODE_CODE_WAITING;
+		}
+		float vb = 48F + random.nextFloat() * 4F;
+		float rsoc = 20F + random.nextFloat() * 70F;
+		JsonObject status = new JsonObject().put("status", mode).put("alarmState", DDCon.ALARM_STATE_CODE_NO_ALARM).put("operationMode", operationMode);
+		JsonObject meter = new JsonObject().put("vg", 350F).put("ig", ig).put("wg", 350F * ig).put("vb", vb).put("ib", 350F * ig / vb).put("wb", 350F * ig).put("tmp", 25F + random.nextFloat() * 10F);
+		JsonObject param = new JsonObject().put("dig", Math.abs(ig));
+		JsonObject vdis = new JsonObject().put("dvg", 350F).put("drg", 0F);
+		JsonObject dcdc = new JsonObject().put("status", status).put("meter", meter).put("param", param).put("vdis", vdis);
+		JsonObject battery = new JsonObject().put("rsoc", rsoc).put("battery_operation_status", 3);
+		JsonObject apis = new JsonObject().put("unitId", unitId).put("operation_mode", "autonomous");
+		return new JsonObject().put("dcdc", dcdc).put("battery", battery).put("apis", apis);
+	}
+
+}
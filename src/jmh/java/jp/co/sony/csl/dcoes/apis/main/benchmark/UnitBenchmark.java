@@ -0,0 +1,114 @@
+package jp.co.sony.csl.dcoes.apis.main.benchmark;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import jp.co.sony.csl.dcoes.apis.main.evaluation.safety.LocalSafetyEvaluation;
+import jp.co.sony.csl.dcoes.apis.main.evaluation.scenario.impl.SimpleScenarioEvaluationImpl;
+import jp.co.sony.csl.dcoes.apis.main.util.ApisConfig;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the hot paths run on every unit.
+ * The unit of this process is {@code E001} ; the size of the cluster changes the number of "accept" responses and DEAL objects it sees.
+ * @author OES Project
+ *          
+ * 全ユニットで動くホットパスのベンチマーク.
+ * このプロセスのユニットは {@code E001} ; クラスタの大きさによりアクセプト数と見える DEAL オブジェクト数が変わる.
+ * @author OES Project
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UnitBenchmark {
+
+	private final SimpleScenarioEvaluationImpl scenarioEvaluation_ = new SimpleScenarioEvaluationImpl();
+	private JsonObject amountScenario_;
+	private JsonObject pointAndAmountScenario_;
+	private JsonObject request_;
+	private List<JsonObject> accepts_;
+	private JsonObject unitData_;
+
+	/**
+	 * Prepare the SCENARIO, the request and the "accept" responses of all other units.
+	 * @param cluster the synthetic cluster
+	 * @throws Exception on failure
+	 *          
+	 * SCENARIO, リクエスト, 他の全ユニットからのアクセプトを準備する.
+	 * @param cluster 合成クラスタ
+	 * @throws Exception 失敗
+	 */
+	@Setup(Level.Trial)
+	public void setUp(ClusterState cluster) throws Exception {
+		amountScenario_ = ClusterState.resource("sample-scenario.json");
+		amountScenario_.put("acceptSelection", new JsonObject().put("strategy", "amount"));
+		pointAndAmountScenario_ = amountScenario_.copy();
+		pointAndAmountScenario_.put("acceptSelection", new JsonObject().put("strategy", "pointAndAmount"));
+		String unitId = ApisConfig.unitId();
+		request_ = new JsonObject().put("unitId", unitId).put("type", "charge").put("dateTime", SyntheticCluster.DATE_TIME).put("amountWh", 1000).put("pointPerWh", 10F).put("dealGridCurrentA", SyntheticCluster.DEAL_GRID_CURRENT_A);
+		accepts_ = SyntheticCluster.accepts(cluster.numberOfUnits, unitId);
+		unitData_ = cluster.unitData.getJsonObject(unitId);
+	}
+
+	/**
+	 * Choose one of the "accept" responses to a request with the {@code amount} strategy.
+	 * @param cluster the synthetic cluster
+	 * @return the chosen "accept" response
+	 * @throws Exception on failure
+	 *          
+	 * リクエストに対するアクセプトから {@code amount} 方針で一つを選ぶ.
+	 * @param cluster 合成クラスタ
+	 * @return 選んだアクセプト
+	 * @throws Exception 失敗
+	 */
+	@Benchmark
+	public JsonObject chooseAccept_amount(ClusterState cluster) throws Exception {
+		return cluster.<JsonObject>onContext(h -> scenarioEvaluation_.chooseAccept(cluster.vertx, amountScenario_, unitData_, request_, accepts_, h));
+	}
+	/**
+	 * Choose one of the "accept" responses to a request with the {@code pointAndAmount} strategy.
+	 * @param cluster the synthetic cluster
+	 * @return the chosen "accept" response
+	 * @throws Exception on failure
+	 *          
+	 * リクエストに対するアクセプトから {@code pointAndAmount} 方針で一つを選ぶ.
+	 * @param cluster 合成クラスタ
+	 * @return 選んだアクセプト
+	 * @throws Exception 失敗
+	 */
+	@Benchmark
+	public JsonObject chooseAccept_pointAndAmount(ClusterState cluster) throws Exception {
+		return cluster.<JsonObject>onContext(h -> scenarioEvaluation_.chooseAccept(cluster.vertx, pointAndAmountScenario_, unitData_, request_, accepts_, h));
+	}
+
+	/**
+	 * Check the local safety of this unit.
+	 * @param cluster the synthetic cluster
+	 * @throws Exception if the check failed
+	 *          
+	 * 自ユニットのローカル安全性をチェックする.
+	 * @param cluster 合成クラスタ
+	 * @throws Exception チェックが失敗した
+	 */
+	@Benchmark
+	public void localSafetyEvaluation(ClusterState cluster) throws Exception {
+		cluster.<Void>onContext(h -> LocalSafetyEvaluation.check(cluster.vertx, cluster.policy, unitData_, h));
+	}
+
+}
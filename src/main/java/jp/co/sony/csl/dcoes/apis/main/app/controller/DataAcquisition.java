@@ -6,19 +6,24 @@ import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.parsetools.RecordParser;
 
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.List;
 
 import jp.co.sony.csl.dcoes.apis.common.Error;
 import jp.co.sony.csl.dcoes.apis.common.ServiceAddress;
@@ -30,12 +35,15 @@ import jp.co.sony.csl.dcoes.apis.common.util.vertx.VertxConfig;
 import jp.co.sony.csl.dcoes.apis.main.app.HwConfigKeeping;
 import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
 import jp.co.sony.csl.dcoes.apis.main.app.StateHandling;
+import jp.co.sony.csl.dcoes.apis.main.app.controller.util.DeviceHttpClient;
 import jp.co.sony.csl.dcoes.apis.main.app.mediator.Interlocking;
 import jp.co.sony.csl.dcoes.apis.main.app.mediator.util.InterlockUtil;
 import jp.co.sony.csl.dcoes.apis.main.evaluation.safety.LocalSafetyEvaluation;
 import jp.co.sony.csl.dcoes.apis.main.util.ApisConfig;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorExceptionUtil;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
+import jp.co.sony.csl.dcoes.apis.main.util.MainServiceAddress;
+import jp.co.sony.csl.dcoes.apis.main.util.UnitDataHistory;
 
 /**
  * Data acquisition service object Verticle.
@@ -81,6 +89,30 @@ public abstract class DataAcquisition extends AbstractVerticle {
 	 * 値は {@value}.
 	 */
 	private static final Integer DEFAULT_RETRY_LIMIT = 3;
+	/**
+	 * Default URI of the measurement stream.
+	 * Value: {@value}.
+	 *          
+	 * 測定値ストリームの URI のデフォルト値.
+	 * 値は {@value}.
+	 */
+	private static final String DEFAULT_STREAMING_URI = "/all/stream";
+	/**
+	 * Default wait before reconnecting the measurement stream [ms].
+	 * Value: {@value}.
+	 *          
+	 * 測定値ストリームを再接続するまでの待ち時間のデフォルト値 [ms].
+	 * 値は {@value}.
+	 */
+	private static final Long DEFAULT_STREAMING_RECONNECT_DELAY_MSEC = 5000L;
+	/**
+	 * Default time without frames after which the measurement stream is considered dead and reconnected [ms].
+	 * Value: {@value}.
+	 *          
+	 * フレームが来なければ測定値ストリームが死んだとみなし再接続するまでの時間のデフォルト値 [ms].
+	 * 値は {@value}.
+	 */
+	private static final Long DEFAULT_STREAMING_IDLE_TIMEOUT_MSEC = 10000L;
 
 	private static final LocalExclusiveLock exclusiveLock_ = new LocalExclusiveLock(DataAcquisition.class.getName());
 	/**
@@ -114,16 +146,34 @@ public abstract class DataAcquisition extends AbstractVerticle {
 	 * ユニットデータを保持しておくキャッシュ.
 	 */
 	public static final JsonObjectWrapper cache = new JsonObjectWrapper();
+	/**
+	 * Time series of the key channels of this unit's data.
+	 * Holds {@code CONFIG.unitDataHistory.capacity} (default: {@link UnitDataHistory#DEFAULT_CAPACITY}) samples.
+	 * Created in {@link #start(Future)}, once CONFIG has been loaded.
+	 *          
+	 * 自ユニットのユニットデータの主要なチャネルの時系列.
+	 * {@code CONFIG.unitDataHistory.capacity} ( デフォルト値 {@link UnitDataHistory#DEFAULT_CAPACITY} ) 個のサンプルを保持する.
+	 * CONFIG を読み込んだ後の {@link #start(Future)} で生成する.
+	 */
+	private UnitDataHistory history_;
 
 	private long dataAcquisitionTimerId_ = 0L;
 	private long lastDataAcquisitionMillis_ = 0L;
 	private boolean stopped_ = false;
+	private HttpClient streamingClient_ = null;
+	private HttpClientRequest streamingRequest_ = null;
+	private int streamingSubscription_ = 0;
+	private long streamingLastFrameMillis_ = 0L;
+	private JsonObject streamingPendingData_ = null;
+	private boolean streamingSafetyCheckRunning_ = false;
+	private final List<HttpClient> httpClients_ = new ArrayList<>();
 
 	/**
 	 * Called at startup.
 	 * Perform various initialization processes.
 	 * Launches the {@link io.vertx.core.eventbus.EventBus} service.
 	 * Start a timer for periodic acquisition of unit data and cache updates.
+	 * Subscribe to the measurement stream if {@code CONFIG.connection.streaming.enabled} is {@code true}.
 	 * @param startFuture {@inheritDoc}
 	 * @throws Exception {@inheritDoc}
 	 *          
@@ -131,10 +181,12 @@ public abstract class DataAcquisition extends AbstractVerticle {
 	 * 各種初期化処理を実行する.
 	 * {@link io.vertx.core.eventbus.EventBus} サービスを起動する.
 	 * 定期的にユニットデータを取得しキャッシュを更新するタイマを起動する.
+	 * {@code CONFIG.connection.streaming.enabled} が {@code true} なら測定値ストリームを購読する.
 	 * @param startFuture {@inheritDoc}
 	 * @throws Exception {@inheritDoc}
 	 */
 	@Override public void start(Future<Void> startFuture) throws Exception {
+		history_ = new UnitDataHistory(VertxConfig.config.getInteger(UnitDataHistory.DEFAULT_CAPACITY, "unitDataHistory", "capacity"));
 		init(resInit -> {
 			if (resInit.succeeded()) {
 				startInternalUrgentUnitDataService_(resInternalUrgentUnitData -> {
@@ -145,9 +197,22 @@ public abstract class DataAcquisition extends AbstractVerticle {
 									if (resResetLocal.succeeded()) {
 										startResetAllService_(resResetAll -> {
 											if (resResetAll.succeeded()) {
-												dataAcquisitionTimerHandler_(0L);
-												if (log.isTraceEnabled()) log.trace("started : " + deploymentID());
-												startFuture.complete();
+												startUnitDataHistoryService_(resUnitDataHistory -> {
+													if (resUnitDataHistory.succeeded()) {
+														DeviceHttpClient.startService(vertx, resDeviceHttpMetrics -> {
+															if (resDeviceHttpMetrics.succeeded()) {
+																startStreaming_();
+																dataAcquisitionTimerHandler_(0L);
+																if (log.isTraceEnabled()) log.trace("started : " + deploymentID());
+																startFuture.complete();
+															} else {
+																startFuture.fail(resDeviceHttpMetrics.cause());
+															}
+														});
+													} else {
+														startFuture.fail(resUnitDataHistory.cause());
+													}
+												});
 											} else {
 												startFuture.fail(resResetAll.cause());
 											}
@@ -173,14 +238,26 @@ public abstract class DataAcquisition extends AbstractVerticle {
 	/**
 	 * Called when stopped.
 	 * Set a flag to stop the timer.
+	 * Close the measurement stream and its client.
+	 * Release the shared HTTP clients.
 	 * @throws Exception {@inheritDoc}
 	 *          
 	 * 停止時に呼び出される.
 	 * タイマを止めるためのフラグを立てる.
+	 * 測定値ストリームとそのクライアントを閉じる.
+	 * 共有 HTTP クライアントを返す.
 	 * @throws Exception {@inheritDoc}
 	 */
 	@Override public void stop() throws Exception {
 		stopped_ = true;
+		if (streamingRequest_ != null) {
+			streamingRequest_.reset();
+		}
+		if (streamingClient_ != null) {
+			streamingClient_.close();
+			streamingClient_ = null;
+		}
+		releaseHttpClients_();
 		if (log.isTraceEnabled()) log.trace("stopped : " + deploymentID());
 	}
 
@@ -194,6 +271,28 @@ public abstract class DataAcquisition extends AbstractVerticle {
 	 * @param completionHandler the completion handler
 	 */
 	protected abstract void init(Handler<AsyncResult<Void>> completionHandler);
+	/**
+	 * Get the shared HTTP client for the host and port and remember it so that it is released when this Verticle stops.
+	 * @param host the host name
+	 * @param port the port number
+	 * @return the HTTP client
+	 *          
+	 * ホストとポートに対する共有 HTTP クライアントを取得しこの Verticle の停止時に返せるよう覚えておく.
+	 * @param host ホスト名
+	 * @param port ポート
+	 * @return HTTP クライアント
+	 */
+	protected HttpClient sharedHttpClient(String host, int port) {
+		HttpClient result = DeviceHttpClient.shared(vertx, host, port);
+		httpClients_.add(result);
+		return result;
+	}
+	private void releaseHttpClients_() {
+		for (HttpClient aClient : httpClients_) {
+			DeviceHttpClient.release(vertx, aClient);
+		}
+		httpClients_.clear();
+	}
 	/**
 	 * Fetch this unit's hardware information.
 	 * Receive the results with the {@link AsyncResult#result()} method of completionHandler.
@@ -228,6 +327,36 @@ public abstract class DataAcquisition extends AbstractVerticle {
 	 * @return マージ済デバイス制御状態
 	 */
 	protected abstract JsonObject mergeDeviceStatus(JsonObject value);
+	/**
+	 * Create the client to subscribe to the measurement stream with.
+	 * Drivers that support streaming override this, typically with {@link DeviceHttpClient#streaming(Vertx, String, int)}.
+	 * The stream occupies its connection, so this must not be a client shared with the periodic acquisition.
+	 * Called once ; the client is closed when this Verticle stops.
+	 * @return the httpclient object. {@code null} if streaming is not supported
+	 *          
+	 * 測定値ストリームを購読するクライアントを生成する.
+	 * ストリーミングに対応するドライバはこれをオーバライドする. 通常は {@link DeviceHttpClient#streaming(Vertx, String, int)} を使う.
+	 * ストリームはコネクションを占有するので定期的な取得と共有するクライアントであってはならない.
+	 * 一度だけ呼ばれる ; クライアントはこの Verticle の停止時にクローズされる.
+	 * @return httpclient オブジェクト. ストリーミングに対応していなければ {@code null}
+	 */
+	protected HttpClient streamingClient() {
+		return null;
+	}
+	/**
+	 * Convert a frame of the measurement stream into unit data.
+	 * The result is deep-merged into the unit data cache, so it only has to contain the elements carried by the frame.
+	 * @param frame a frame of the measurement stream
+	 * @return unit data
+	 *          
+	 * 測定値ストリームのフレームをユニットデータに変換する.
+	 * 結果はユニットデータのキャッシュに深くマージされるのでフレームが運ぶ要素だけを含めばよい.
+	 * @param frame 測定値ストリームのフレーム
+	 * @return ユニットデータ
+	 */
+	protected JsonObject toUnitData(JsonObject frame) {
+		return frame;
+	}
 
 	////
 
@@ -353,6 +482,45 @@ public abstract class DataAcquisition extends AbstractVerticle {
 			doReset_(req);
 		}).completionHandler(completionHandler);
 	}
+	/**
+	 * Launch the {@link io.vertx.core.eventbus.EventBus} service.
+	 * Address: {@link MainServiceAddress.Controller#unitDataHistory()}
+	 * Scope: local
+	 * Function: Query the time series of the key channels of this unit's data.
+	 * Message body: Query conditions [{@link JsonObject}]
+	 *               - {@code "fromMillis"}: start of the period, inclusive [{@link Long}]. Optional
+	 *               - {@code "toMillis"}: end of the period, exclusive [{@link Long}]. Optional
+	 *               - {@code "bucketMsec"}: downsampling bucket duration [{@link Long}]. Optional
+	 * Message header: none
+	 * Response: The result of {@link UnitDataHistory#query(String, Long, Long, Long)} [{@link JsonObject}].
+	 *           Fails if nothing is recorded.
+	 * @param completionHandler the completion handler
+	 *          
+	 * {@link io.vertx.core.eventbus.EventBus} サービス起動.
+	 * アドレス : {@link MainServiceAddress.Controller#unitDataHistory()}
+	 * 範囲 : ローカル
+	 * 処理 : 自ユニットのユニットデータの主要なチャネルの時系列を問い合わせる.
+	 * メッセージボディ : 問い合わせ条件 [{@link JsonObject}]
+	 * 　　　　　　　　   - {@code "fromMillis"} : 期間の開始 ( 含む ) [{@link Long}]. 任意
+	 * 　　　　　　　　   - {@code "toMillis"} : 期間の終了 ( 含まない ) [{@link Long}]. 任意
+	 * 　　　　　　　　   - {@code "bucketMsec"} : ダウンサンプルのバケットの長さ [{@link Long}]. 任意
+	 * メッセージヘッダ : なし
+	 * レスポンス : {@link UnitDataHistory#query(String, Long, Long, Long)} の結果 [{@link JsonObject}].
+	 * 　　　　　   記録がなければ fail.
+	 * @param completionHandler the completion handler
+	 */
+	private void startUnitDataHistoryService_(Handler<AsyncResult<Void>> completionHandler) {
+		vertx.eventBus().<JsonObject>localConsumer(MainServiceAddress.Controller.unitDataHistory(), req -> {
+			JsonObject query = (req.body() != null) ? req.body() : new JsonObject();
+			JsonObject result = history_.query(ApisConfig.unitId(), query.getLong("fromMillis"), query.getLong("toMillis"), query.getLong("bucketMsec"));
+			if (result != null) {
+				req.reply(result);
+			} else {
+				req.fail(-1, "no unit data recorded");
+			}
+		}).completionHandler(completionHandler);
+	}
+
 	/**
 	 * Actual implementation of reset process.
 	 * @param message the message requiring a reply
@@ -430,6 +598,167 @@ public abstract class DataAcquisition extends AbstractVerticle {
 		getData_(completionHandler);
 	}
 
+	/**
+	 * Subscribe to the measurement stream if enabled.
+	 * The stream is an HTTP GET of {@code CONFIG.connection.streaming.uri} (default: {@link #DEFAULT_STREAMING_URI}) whose chunked response carries one JSON frame per line.
+	 * Periodic acquisition keeps running alongside to refresh the rest of the unit data.
+	 * The stream is reset and reconnected if no frame arrives for {@code CONFIG.connection.streaming.idleTimeoutMsec} (default: {@link #DEFAULT_STREAMING_IDLE_TIMEOUT_MSEC}).
+	 *          
+	 * 有効なら測定値ストリームを購読する.
+	 * ストリームは {@code CONFIG.connection.streaming.uri} ( デフォルト値 {@link #DEFAULT_STREAMING_URI} ) への HTTP GET で chunked レスポンスが一行に一つの JSON フレームを運ぶ.
+	 * ユニットデータの残りを更新するため定期的な取得も並行して続ける.
+	 * {@code CONFIG.connection.streaming.idleTimeoutMsec} ( デフォルト値 {@link #DEFAULT_STREAMING_IDLE_TIMEOUT_MSEC} ) の間フレームが来なければストリームをリセットし再接続する.
+	 */
+	private void startStreaming_() {
+		if (!VertxConfig.config.getBoolean(Boolean.FALSE, "connection", "streaming", "enabled")) return;
+		HttpClient client = streamingClient();
+		if (client != null) {
+			streamingClient_ = client;
+			subscribe_(client);
+		} else {
+			ErrorUtil.report(vertx, Error.Category.USER, Error.Extent.LOCAL, Error.Level.WARN, "streaming not supported by " + getClass().getSimpleName());
+		}
+	}
+	private void subscribe_(HttpClient client) {
+		if (stopped_) return;
+		int subscription = ++streamingSubscription_;
+		String uri = VertxConfig.config.getString(DEFAULT_STREAMING_URI, "connection", "streaming", "uri");
+		if (log.isInfoEnabled()) log.info("streaming uri : " + uri);
+		streamingLastFrameMillis_ = System.currentTimeMillis();
+		watchStream_(client, subscription);
+		streamingRequest_ = client.get(uri, resGet -> {
+			if (200 == resGet.statusCode()) {
+				resGet.handler(RecordParser.newDelimited("\n", this::handleFrame_)).endHandler(v -> {
+					resubscribe_(client, subscription, "stream ended");
+				}).exceptionHandler(t -> {
+					resubscribe_(client, subscription, t);
+				});
+			} else {
+				resubscribe_(client, subscription, "http request failed : " + resGet.statusCode() + " : " + resGet.statusMessage());
+			}
+		}).exceptionHandler(t -> {
+			resubscribe_(client, subscription, t);
+		});
+		streamingRequest_.end();
+	}
+	/**
+	 * Reset the measurement stream if no frame has arrived for {@code CONFIG.connection.streaming.idleTimeoutMsec}.
+	 * A half-open connection never ends nor fails by itself, so without this the stream would silently stop.
+	 * @param client the httpclient object
+	 * @param subscription the subscription to watch
+	 *          
+	 * {@code CONFIG.connection.streaming.idleTimeoutMsec} の間フレームが来なければ測定値ストリームをリセットする.
+	 * 半開きのコネクションは自分では終わりも失敗もしないのでこれがないとストリームが黙って止まってしまう.
+	 * @param client httpclient オブジェクト
+	 * @param subscription 見張る購読
+	 */
+	private void watchStream_(HttpClient client, int subscription) {
+		Long idleTimeout = VertxConfig.config.getLong(DEFAULT_STREAMING_IDLE_TIMEOUT_MSEC, "connection", "streaming", "idleTimeoutMsec");
+		long delay = streamingLastFrameMillis_ + idleTimeout - System.currentTimeMillis();
+		vertx.setTimer(Math.max(1L, delay), timerId -> {
+			if (stopped_ || subscription != streamingSubscription_) return;
+			if (streamingLastFrameMillis_ + idleTimeout <= System.currentTimeMillis()) {
+				HttpClientRequest request = streamingRequest_;
+				// Move on to the next subscription first so that the reset does not reconnect twice
+				// リセットで二重に再接続しないよう先に次の購読に進める
+				resubscribe_(client, subscription, "no frame for " + idleTimeout + "ms");
+				if (request != null) request.reset();
+			} else {
+				watchStream_(client, subscription);
+			}
+		});
+	}
+	/**
+	 * Reconnect the measurement stream after {@code CONFIG.connection.streaming.reconnectDelayMsec} (default: {@link #DEFAULT_STREAMING_RECONNECT_DELAY_MSEC}).
+	 * Ignored if already reconnected for this subscription.
+	 * @param client the httpclient object
+	 * @param subscription the subscription that ended
+	 * @param cause the reason
+	 *          
+	 * {@code CONFIG.connection.streaming.reconnectDelayMsec} ( デフォルト値 {@link #DEFAULT_STREAMING_RECONNECT_DELAY_MSEC} ) 後に測定値ストリームを再接続する.
+	 * この購読について既に再接続していたら無視する.
+	 * @param client httpclient オブジェクト
+	 * @param subscription 終わった購読
+	 * @param cause 理由
+	 */
+	private void resubscribe_(HttpClient client, int subscription, Object cause) {
+		if (stopped_ || subscription != streamingSubscription_) return;
+		++streamingSubscription_;
+		ErrorUtil.report(vertx, Error.Category.HARDWARE, Error.Extent.LOCAL, Error.Level.WARN, "measurement stream closed : " + cause);
+		Long delay = VertxConfig.config.getLong(DEFAULT_STREAMING_RECONNECT_DELAY_MSEC, "connection", "streaming", "reconnectDelayMsec");
+		vertx.setTimer(delay, timerId -> {
+			subscribe_(client);
+		});
+	}
+	/**
+	 * Merge a frame of the measurement stream into the unit data cache.
+	 * The cache is updated under the same exclusive lock as the periodic acquisition.
+	 * Frames arriving while waiting for the lock are deep-merged together and applied at once.
+	 * @param line a line of the stream
+	 *          
+	 * 測定値ストリームのフレームをユニットデータのキャッシュにマージする.
+	 * キャッシュは定期的な取得と同じ排他ロックを取って更新する.
+	 * ロックを待つ間に届いたフレームは深くマージしてまとめて適用する.
+	 * @param line ストリームの一行
+	 */
+	private void handleFrame_(Buffer line) {
+		streamingLastFrameMillis_ = System.currentTimeMillis();
+		if (line.length() == 0) return;
+		JsonObject frame;
+		try {
+			frame = line.toJsonObject();
+		} catch (Exception e) {
+			if (log.isWarnEnabled()) log.warn("broken frame : " + line);
+			return;
+		}
+		JsonObject data = toUnitData(frame);
+		if (streamingPendingData_ != null) {
+			streamingPendingData_.mergeIn(data, true);
+			return;
+		}
+		streamingPendingData_ = data;
+		acquireExclusiveLock(vertx, resExclusiveLock -> {
+			JsonObject pending = streamingPendingData_;
+			streamingPendingData_ = null;
+			if (resExclusiveLock.succeeded()) {
+				LocalExclusiveLock.Lock lock = resExclusiveLock.result();
+				try {
+					applyFrame_(pending);
+				} finally {
+					lock.release();
+				}
+			} else {
+				ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, resExclusiveLock.cause());
+			}
+		});
+	}
+	/**
+	 * Deep-merge unit data from the measurement stream into the unit data cache.
+	 * Ignored until the first periodic acquisition has filled the cache.
+	 * The local safety check runs on the new data unless the previous one is still running.
+	 * Call with the exclusive lock held.
+	 * @param data unit data converted from frames
+	 *          
+	 * 測定値ストリームからのユニットデータをユニットデータのキャッシュに深くマージする.
+	 * 最初の定期的な取得がキャッシュを埋めるまでは無視する.
+	 * 前回のローカル安全性チェックが終わっていれば新しいデータでチェックする.
+	 * 排他ロックを取った状態で呼ぶこと.
+	 * @param data フレームから変換したユニットデータ
+	 */
+	private void applyFrame_(JsonObject data) {
+		if (cache.jsonObject() == null) return;
+		JsonObject result = cache.jsonObject().copy().mergeIn(data, true);
+		                             // Update the cache
+		cache.setJsonObject(result); // キャッシュを更新
+		history_.record(ApisConfig.unitId(), System.currentTimeMillis(), result);
+		if (!streamingSafetyCheckRunning_) {
+			streamingSafetyCheckRunning_ = true;
+			LocalSafetyEvaluation.check(vertx, PolicyKeeping.cache().jsonObject(), result, resSafetyEvaluation -> {
+				streamingSafetyCheckRunning_ = false;
+			});
+		}
+	}
+
 	////
 
 	////
@@ -472,6 +801,7 @@ public abstract class DataAcquisition extends AbstractVerticle {
 					}
 					                             // Update the cache
 					cache.setJsonObject(result); // キャッシュを更新
+					history_.record(ApisConfig.unitId(), System.currentTimeMillis(), result);
 					LocalSafetyEvaluation.check(vertx, PolicyKeeping.cache().jsonObject(), result, resSafetyEvaluation -> {
 						completionHandler.handle(Future.succeededFuture(result));
 					});
@@ -742,22 +1072,31 @@ public abstract class DataAcquisition extends AbstractVerticle {
 		private void send_(HttpClient client, String uri, Handler<AsyncResult<JsonObject>> completionHandler) {
 			if (log.isInfoEnabled()) log.info("uri : " + uri);
 			Long requestTimeoutMsec = PolicyKeeping.cache().getLong(DEFAULT_REQUEST_TIMEOUT_MSEC, "controller", "requestTimeoutMsec");
+			long startMsec = System.currentTimeMillis();
+			Handler<AsyncResult<JsonObject>> measuredHandler = r -> {
+				// Record the elapsed time per request
+				// リクエストごとの所要時間を記録する
+				long elapsedMsec = System.currentTimeMillis() - startMsec;
+				DeviceHttpClient.record(uri, elapsedMsec, r.succeeded());
+				if (log.isDebugEnabled()) log.debug("uri : " + uri + " ; " + elapsedMsec + " msec");
+				completionHandler.handle(r);
+			};
 			client.get(uri, resGet -> {
 				if (200 == resGet.statusCode()) {
 					resGet.bodyHandler(body -> {
-						JsonObjectUtil.toJsonObject(body, completionHandler);
+						JsonObjectUtil.toJsonObject(body, measuredHandler);
 					}).exceptionHandler(t -> {
-						completionHandler.handle(Future.failedFuture(t));
+						measuredHandler.handle(Future.failedFuture(t));
 					});
 				} else {
 					resGet.bodyHandler(error -> {
-						completionHandler.handle(Future.failedFuture("http request failed : " + resGet.statusCode() + " : " + resGet.statusMessage() + " : " + error));
+						measuredHandler.handle(Future.failedFuture("http request failed : " + resGet.statusCode() + " : " + resGet.statusMessage() + " : " + error));
 					}).exceptionHandler(t -> {
-						completionHandler.handle(Future.failedFuture("http request failed : " + resGet.statusCode() + " : " + resGet.statusMessage() + " : " + t));
+						measuredHandler.handle(Future.failedFuture("http request failed : " + resGet.statusCode() + " : " + resGet.statusMessage() + " : " + t));
 					});
 				}
 			}).setTimeout(requestTimeoutMsec).exceptionHandler(t -> {
-				completionHandler.handle(Future.failedFuture(t));
+				measuredHandler.handle(Future.failedFuture(t));
 			}).end();
 		}
 	}
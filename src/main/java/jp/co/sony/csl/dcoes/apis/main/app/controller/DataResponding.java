@@ -4,10 +4,16 @@ import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
 import jp.co.sony.csl.dcoes.apis.common.Error;
 import jp.co.sony.csl.dcoes.apis.common.ServiceAddress;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.LocalExclusiveLock;
@@ -17,6 +23,7 @@ import jp.co.sony.csl.dcoes.apis.main.app.mediator.util.InterlockUtil;
 import jp.co.sony.csl.dcoes.apis.main.util.ApisConfig;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorExceptionUtil;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
+import jp.co.sony.csl.dcoes.apis.main.util.JsonMergePatchUtil;
 
 /**
  * Data response service object Verticle.
@@ -34,6 +41,29 @@ import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
 public abstract class DataResponding extends AbstractVerticle {
 	private static final Logger log = LoggerFactory.getLogger(DataResponding.class);
 
+	private String deltaSessionId_ = null;
+	private JsonObject lastSentUnitData_ = null;
+	private long lastSentSeq_ = 0L;
+
+	/**
+	 * Callers waiting for the urgent acquisition of unit data that has not yet started.
+	 * Callers that arrive while an urgent acquisition is waiting for the exclusive lock share its result.
+	 * Once the exclusive lock is acquired, subsequent callers start a new acquisition, so the data is always acquired after each caller arrived.
+	 *          
+	 * まだ始まっていないユニットデータの緊急取得を待っている呼び出し元.
+	 * 緊急取得が排他ロック待ちの間に来た呼び出し元はその結果を共有する.
+	 * 排他ロックを獲得した後に来た呼び出し元は新たに取得を始めるため, データは必ず各呼び出し元が来た後に取得される.
+	 */
+	private List<Handler<AsyncResult<JsonObject>>> pendingDataHandlers_ = null;
+	/**
+	 * Callers waiting for the urgent acquisition of the device control state that has not yet started.
+	 * Same as {@link #pendingDataHandlers_}.
+	 *          
+	 * まだ始まっていないデバイス制御状態の緊急取得を待っている呼び出し元.
+	 * {@link #pendingDataHandlers_} と同様.
+	 */
+	private List<Handler<AsyncResult<JsonObject>>> pendingDeviceStatusHandlers_ = null;
+
 	/**
 	 * Called at startup.
 	 * Launch the {@link io.vertx.core.eventbus.EventBus} service.
@@ -286,6 +316,8 @@ public abstract class DataResponding extends AbstractVerticle {
 	 * 　　   Otherwise, return the cached data that is refreshed periodically.
 	 * 　　   A gridMasterUnitId must be specified in the header, and must match the GridMaster interlock value.
 	 * 　　   The replyAddress header field must specify the address to which data is sent back.
+	 * 　　   If deltaSessionId is specified in the header, send only the difference from the unit data sent last time in the same session.
+	 * 　　   See {@link #sendUnitData_(Message, String, JsonObject)} for details.
 	 * Message body: none
 	 * Message header:
 	 * 　　　　　　　　   - {@code "urgent"}: Urgent flag
@@ -293,6 +325,8 @@ public abstract class DataResponding extends AbstractVerticle {
 	 * 　　　　　　　　     - {@code "false"}: Return cached data that is updated periodically
 	 * 　　　　　　　　   - {@code "gridMasterUnitId"}: GridMaster unit ID
 	 * 　　　　　　　　   - {@code "replyAddress"}: Address to which data is to be sent back
+	 * 　　　　　　　　   - {@code "deltaSessionId"}: Delta collection session ID. Optional
+	 * 　　　　　　　　   - {@code "deltaResyncUnitIds"}: IDs of units that must send full unit data [{@link JsonArray} string]. Optional
 	 * Response: none
 	 * @param completionHandler the completion handler
 	 *          
@@ -305,6 +339,8 @@ public abstract class DataResponding extends AbstractVerticle {
 	 * 　　   そうでなければ定期的にリフレッシュしてあるキャッシュデータを返す.
 	 * 　　   ヘッダに gridMasterUnitId 指定が必要であり GridMaster インタロック値と一致する必要がある.
 	 * 　　   ヘッダにデータを送り返すアドレス replyAddress 指定が必要である.
+	 * 　　   ヘッダに deltaSessionId 指定があれば同じセッションで前回送ったユニットデータとの差分だけを送る.
+	 * 　　   詳細は {@link #sendUnitData_(Message, String, JsonObject)} を参照.
 	 * メッセージボディ : なし
 	 * メッセージヘッダ :
 	 * 　　　　　　　　   - {@code "urgent"} : 緊急フラグ
@@ -312,6 +348,8 @@ public abstract class DataResponding extends AbstractVerticle {
 	 * 　　　　　　　　     - {@code "false"} : 定期的にリフレッシュしてあるキャッシュデータを返す
 	 * 　　　　　　　　   - {@code "gridMasterUnitId"} : GridMaster ユニット ID
 	 * 　　　　　　　　   - {@code "replyAddress"} : データを送り返すアドレス
+	 * 　　　　　　　　   - {@code "deltaSessionId"} : 差分収集セッション ID. 任意
+	 * 　　　　　　　　   - {@code "deltaResyncUnitIds"} : 全ユニットデータを送るべきユニットの ID [{@link JsonArray} 文字列]. 任意
 	 * レスポンス : なし
 	 * @param completionHandler the completion handler
 	 */
@@ -327,7 +365,7 @@ public abstract class DataResponding extends AbstractVerticle {
 //						if (log.isInfoEnabled()) log.info("DataResponding:" + replyAddress + " getting data");
 						getData_(req, resGetData -> {
 							if (resGetData.succeeded()) {
-								vertx.eventBus().send(replyAddress, resGetData.result());
+								sendUnitData_(req, replyAddress, resGetData.result());
 //								if (log.isInfoEnabled()) log.info("DataResponding:" + replyAddress + " replied");
 							} else {
 								log.error(resGetData.cause());
@@ -341,6 +379,65 @@ public abstract class DataResponding extends AbstractVerticle {
 		}).completionHandler(completionHandler);
 	}
 
+	/**
+	 * Send unit data to the GridMaster data collection process.
+	 * If deltaSessionId is not specified in the request header, send the whole unit data as before.
+	 * Otherwise add the following headers and send either the whole unit data or only the difference.
+	 * - {@code "unitId"}: this unit's ID
+	 * - {@code "deltaSeq"}: sequence number of the unit data being sent
+	 * - {@code "deltaBaseSeq"}: sequence number of the unit data on which the difference is based. Only when sending the difference
+	 * The difference is sent only when the session is the same as last time and this unit is not listed in deltaResyncUnitIds.
+	 * The difference is in the format of {@link JsonMergePatchUtil#diff(JsonObject, JsonObject)}.
+	 * @param req message object
+	 * @param replyAddress address to which data is sent back
+	 * @param unitData unit data
+	 *          
+	 * GridMaster のデータ収集処理にユニットデータを送る.
+	 * 要求ヘッダに deltaSessionId 指定がなければ従来通りユニットデータ全体を送る.
+	 * そうでなければ以下のヘッダを付けてユニットデータ全体もしくは差分だけを送る.
+	 * - {@code "unitId"} : 自ユニットの ID
+	 * - {@code "deltaSeq"} : 送るユニットデータの通し番号
+	 * - {@code "deltaBaseSeq"} : 差分の元になるユニットデータの通し番号. 差分を送る場合のみ
+	 * 差分を送るのはセッションが前回と同じで deltaResyncUnitIds に自ユニットが含まれていない場合だけ.
+	 * 差分は {@link JsonMergePatchUtil#diff(JsonObject, JsonObject)} の形式.
+	 * @param req message オブジェクト
+	 * @param replyAddress データを送り返すアドレス
+	 * @param unitData ユニットデータ
+	 */
+	private void sendUnitData_(Message<Void> req, String replyAddress, JsonObject unitData) {
+		String sessionId = req.headers().get("deltaSessionId");
+		if (sessionId == null) {
+			vertx.eventBus().send(replyAddress, unitData);
+			return;
+		}
+		JsonObject body = unitData;
+		DeliveryOptions options = new DeliveryOptions().addHeader("unitId", ApisConfig.unitId());
+		if (sessionId.equals(deltaSessionId_) && lastSentUnitData_ != null && !isResyncRequested_(req)) {
+			body = JsonMergePatchUtil.diff(lastSentUnitData_, unitData);
+			options.addHeader("deltaBaseSeq", String.valueOf(lastSentSeq_));
+		}
+		long seq = lastSentSeq_ + 1L;
+		options.addHeader("deltaSeq", String.valueOf(seq));
+		// Keep a copy because the cached unit data may be modified later
+		// キャッシュされたユニットデータは後で書き換えられることがあるためコピーを保持する
+		deltaSessionId_ = sessionId;
+		lastSentUnitData_ = unitData.copy();
+		lastSentSeq_ = seq;
+		vertx.eventBus().send(replyAddress, body, options);
+	}
+	private boolean isResyncRequested_(Message<Void> req) {
+		String resyncUnitIds = req.headers().get("deltaResyncUnitIds");
+		if (resyncUnitIds != null) {
+			try {
+				return new JsonArray(resyncUnitIds).contains(ApisConfig.unitId());
+			} catch (Exception e) {
+				ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "illegal deltaResyncUnitIds in request header : " + resyncUnitIds, e);
+				return true;
+			}
+		}
+		return false;
+	}
+
 	////
 
 	/**
@@ -398,17 +495,35 @@ public abstract class DataResponding extends AbstractVerticle {
 	private void getDeviceStatus_(Message<Void> message, Handler<AsyncResult<JsonObject>> completionHandler) {
 		String urgent = message.headers().get("urgent");
 		if (urgent != null && Boolean.valueOf(urgent)) {
+			if (pendingDeviceStatusHandlers_ != null) {
+				// An acquisition that has not yet started exists, so share its result
+				// まだ始まっていない取得があるのでその結果を共有する
+				if (log.isDebugEnabled()) log.debug("joining pending urgent device status acquisition ; " + pendingDeviceStatusHandlers_.size() + " waiting");
+				pendingDeviceStatusHandlers_.add(completionHandler);
+				return;
+			}
+			List<Handler<AsyncResult<JsonObject>>> handlers = new ArrayList<>();
+			handlers.add(completionHandler);
+			pendingDeviceStatusHandlers_ = handlers;
+			Handler<AsyncResult<JsonObject>> sharedHandler = r -> {
+				for (Handler<AsyncResult<JsonObject>> aHandler : handlers) {
+					aHandler.handle(r);
+				}
+			};
 			// If urgent, fetch the data and return it
 			// urgent ならデータを取得して返す
 			DataAcquisition.acquireExclusiveLock(vertx, resExclusiveLock -> {
+				// The acquisition starts now ; subsequent callers start a new one
+				// ここから取得が始まる ; 以降の呼び出し元は新たに取得を始める
+				if (pendingDeviceStatusHandlers_ == handlers) pendingDeviceStatusHandlers_ = null;
 				if (resExclusiveLock.succeeded()) {
 					LocalExclusiveLock.Lock lock = resExclusiveLock.result();
 					doGetDeviceStatusWithExclusiveLock_(resDoGetDeviceStatusWithExclusiveLock -> {
 						lock.release();
-						completionHandler.handle(resDoGetDeviceStatusWithExclusiveLock);
+						sharedHandler.handle(resDoGetDeviceStatusWithExclusiveLock);
 					});
 				} else {
-					ErrorUtil.reportAndFail(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, resExclusiveLock.cause(), completionHandler);
+					ErrorUtil.reportAndFail(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, resExclusiveLock.cause(), sharedHandler);
 				}
 			});
 		} else {
@@ -443,17 +558,35 @@ public abstract class DataResponding extends AbstractVerticle {
 	private void getData_(Message<Void> message, Handler<AsyncResult<JsonObject>> completionHandler) {
 		String urgent = message.headers().get("urgent");
 		if (urgent != null && Boolean.valueOf(urgent)) {
+			if (pendingDataHandlers_ != null) {
+				// An acquisition that has not yet started exists, so share its result
+				// まだ始まっていない取得があるのでその結果を共有する
+				if (log.isDebugEnabled()) log.debug("joining pending urgent unit data acquisition ; " + pendingDataHandlers_.size() + " waiting");
+				pendingDataHandlers_.add(completionHandler);
+				return;
+			}
+			List<Handler<AsyncResult<JsonObject>>> handlers = new ArrayList<>();
+			handlers.add(completionHandler);
+			pendingDataHandlers_ = handlers;
+			Handler<AsyncResult<JsonObject>> sharedHandler = r -> {
+				for (Handler<AsyncResult<JsonObject>> aHandler : handlers) {
+					aHandler.handle(r);
+				}
+			};
 			// If urgent, fetch the data and return it
 			// urgent ならデータを取得して返す
 			DataAcquisition.acquireExclusiveLock(vertx, resExclusiveLock -> {
+				// The acquisition starts now ; subsequent callers start a new one
+				// ここから取得が始まる ; 以降の呼び出し元は新たに取得を始める
+				if (pendingDataHandlers_ == handlers) pendingDataHandlers_ = null;
 				if (resExclusiveLock.succeeded()) {
 					LocalExclusiveLock.Lock lock = resExclusiveLock.result();
 					doGetDataWithExclusiveLock_(resDoGetDataWithExclusiveLock -> {
 						lock.release();
-						completionHandler.handle(resDoGetDataWithExclusiveLock);
+						sharedHandler.handle(resDoGetDataWithExclusiveLock);
 					});
 				} else {
-					ErrorUtil.reportAndFail(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, resExclusiveLock.cause(), completionHandler);
+					ErrorUtil.reportAndFail(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, resExclusiveLock.cause(), sharedHandler);
 				}
 			});
 		} else {
@@ -9,12 +9,17 @@ import io.vertx.core.http.HttpClient;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
 import jp.co.sony.csl.dcoes.apis.common.Error;
 import jp.co.sony.csl.dcoes.apis.common.ServiceAddress;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectUtil;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.LocalExclusiveLock;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.ReplyFailureUtil;
 import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
+import jp.co.sony.csl.dcoes.apis.main.app.controller.util.DeviceHttpClient;
 import jp.co.sony.csl.dcoes.apis.main.app.mediator.util.InterlockUtil;
 import jp.co.sony.csl.dcoes.apis.main.util.ApisConfig;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorExceptionUtil;
@@ -58,6 +63,7 @@ public abstract class DeviceControlling extends AbstractVerticle {
 	private static final Integer DEFAULT_RETRY_LIMIT = 3;
 
 	private static boolean ignoreDynamicSafetyCheck_ = false;
+	private final List<HttpClient> httpClients_ = new ArrayList<>();
 	/**
 	 * Find out whether or not dynamic safety checks should be skipped.
 	 * TODO: Shouldn't this be "skip" instead of "ignore"?
@@ -133,10 +139,12 @@ public abstract class DeviceControlling extends AbstractVerticle {
 	/**
 	 * Called when stopped.
 	 * Stop this unit's device.
+	 * Release the shared HTTP clients.
 	 * @throws Exception {@inheritDoc}
 	 *          
 	 * 停止時に呼び出される.
 	 * 自ユニットのデバイスを停止する.
+	 * 共有 HTTP クライアントを返す.
 	 * @throws Exception {@inheritDoc}
 	 */
 	@Override public void stop(Future<Void> stopFuture) throws Exception {
@@ -150,6 +158,7 @@ public abstract class DeviceControlling extends AbstractVerticle {
 					ErrorUtil.report(vertx, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.ERROR, "Communication failed on EventBus", repStopLocal.cause());
 				}
 			}
+			releaseHttpClients_();
 			if (log.isTraceEnabled()) log.trace("stopped : " + deploymentID());
 			stopFuture.complete();
 		});
@@ -165,6 +174,28 @@ public abstract class DeviceControlling extends AbstractVerticle {
 	 * @param completionHandler the completion handler
 	 */
 	protected abstract void init(Handler<AsyncResult<Void>> completionHandler);
+	/**
+	 * Get the shared HTTP client for the host and port and remember it so that it is released when this Verticle stops.
+	 * @param host the host name
+	 * @param port the port number
+	 * @return the HTTP client
+	 *          
+	 * ホストとポートに対する共有 HTTP クライアントを取得しこの Verticle の停止時に返せるよう覚えておく.
+	 * @param host ホスト名
+	 * @param port ポート
+	 * @return HTTP クライアント
+	 */
+	protected HttpClient sharedHttpClient(String host, int port) {
+		HttpClient result = DeviceHttpClient.shared(vertx, host, port);
+		httpClients_.add(result);
+		return result;
+	}
+	private void releaseHttpClients_() {
+		for (HttpClient aClient : httpClients_) {
+			DeviceHttpClient.release(vertx, aClient);
+		}
+		httpClients_.clear();
+	}
 	/**
 	 * Stop this unit's device.
 	 * Receive the device control state after running the {@link AsyncResult#result()} method of completionHandler.
@@ -531,22 +562,31 @@ public abstract class DeviceControlling extends AbstractVerticle {
 		private void send_(HttpClient client, String uri, Handler<AsyncResult<JsonObject>> completionHandler) {
 			if (log.isInfoEnabled()) log.info("uri : " + uri);
 			Long requestTimeoutMsec = PolicyKeeping.cache().getLong(DEFAULT_REQUEST_TIMEOUT_MSEC, "controller", "requestTimeoutMsec");
+			long startMsec = System.currentTimeMillis();
+			Handler<AsyncResult<JsonObject>> measuredHandler = r -> {
+				// Record the elapsed time per request
+				// リクエストごとの所要時間を記録する
+				long elapsedMsec = System.currentTimeMillis() - startMsec;
+				DeviceHttpClient.record(uri, elapsedMsec, r.succeeded());
+				if (log.isDebugEnabled()) log.debug("uri : " + uri + " ; " + elapsedMsec + " msec");
+				completionHandler.handle(r);
+			};
 			client.get(uri, resGet -> {
 				if (200 == resGet.statusCode()) {
 					resGet.bodyHandler(body -> {
-						JsonObjectUtil.toJsonObject(body, completionHandler);
+						JsonObjectUtil.toJsonObject(body, measuredHandler);
 					}).exceptionHandler(t -> {
-						completionHandler.handle(Future.failedFuture(t));
+						measuredHandler.handle(Future.failedFuture(t));
 					});
 				} else {
 					resGet.bodyHandler(error -> {
-						completionHandler.handle(Future.failedFuture("http request failed : " + resGet.statusCode() + " : " + resGet.statusMessage() + " : " + error));
+						measuredHandler.handle(Future.failedFuture("http request failed : " + resGet.statusCode() + " : " + resGet.statusMessage() + " : " + error));
 					}).exceptionHandler(t -> {
-						completionHandler.handle(Future.failedFuture("http request failed : " + resGet.statusCode() + " : " + resGet.statusMessage() + " : " + t));
+						measuredHandler.handle(Future.failedFuture("http request failed : " + resGet.statusCode() + " : " + resGet.statusMessage() + " : " + t));
 					});
 				}
 			}).setTimeout(requestTimeoutMsec).exceptionHandler(t -> {
-				completionHandler.handle(Future.failedFuture(t));
+				measuredHandler.handle(Future.failedFuture(t));
 			}).end();
 		}
 	}
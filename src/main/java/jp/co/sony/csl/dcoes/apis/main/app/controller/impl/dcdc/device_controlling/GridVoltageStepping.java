@@ -4,7 +4,10 @@ import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
 import jp.co.sony.csl.dcoes.apis.common.Error;
+import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectUtil;
 import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
 import jp.co.sony.csl.dcoes.apis.main.app.controller.DataAcquisition;
 import jp.co.sony.csl.dcoes.apis.main.app.controller.impl.dcdc.DcdcDeviceControlling;
@@ -13,19 +16,52 @@ import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
 /**
  * Gradually change the specified grid voltage of the device in steps of the prescribed size.
  * At present, POLICY.gridVoltageStepV is not specified and is instead set internally to a default value of 350F, so stepwise control does not occur.
+ * If {@code POLICY.controller.dcdc.gridVoltageStepping.adaptive} is {@code true}, the step size adapts to the measured response.
+ * A step whose measured grid voltage is within {@code POLICY.gridVoltageAllowanceV} of the setpoint doubles the next step up to {@code POLICY.controller.dcdc.gridVoltageStepping.maxStepV}, otherwise the next step is halved down to {@code POLICY.gridVoltageStepV}.
+ * {@code maxStepV} defaults to {@value #DEFAULT_MAX_STEP_FACTOR} times {@code POLICY.gridVoltageStepV}.
+ * Adaptive stepping is opt-in, and only has an effect when {@code POLICY.gridVoltageStepV} is set smaller than the voltage changes made.
  * Call {@link Checkpoint} when finished.
+ * The number of steps and the time until settled are logged.
  * @author OES Project
  *          
  * デバイスのグリッド電圧指定を規定のステップで段階的に変化させる.
  * ただし現状は POLICY.gridVoltageStepV を指定しておらず内部的にデフォルトを 350F としているためステップ制御は発生しない.
+ * {@code POLICY.controller.dcdc.gridVoltageStepping.adaptive} が {@code true} ならステップ幅を測定した応答に合わせる.
+ * グリッド電圧の測定値が指定値から {@code POLICY.gridVoltageAllowanceV} 以内に収まったステップの次は {@code POLICY.controller.dcdc.gridVoltageStepping.maxStepV} を上限に倍にし, 収まらなければ {@code POLICY.gridVoltageStepV} を下限に半分にする.
+ * {@code maxStepV} のデフォルトは {@code POLICY.gridVoltageStepV} の {@value #DEFAULT_MAX_STEP_FACTOR} 倍.
+ * 適応的なステップは明示的に有効にした場合のみ使われ, {@code POLICY.gridVoltageStepV} を行う電圧変化より小さく設定した場合のみ効果がある.
  * 終了後 {@link Checkpoint} を呼ぶ.
+ * ステップ数と安定するまでの時間をログに出す.
  * @author OES Project
  */
 public class GridVoltageStepping extends AbstractDcdcDeviceControllingCommand {
-//	private static final Logger log = LoggerFactory.getLogger(GridVoltageStepping.class);
+	private static final Logger log = LoggerFactory.getLogger(GridVoltageStepping.class);
+
+	/**
+	 * Default value of whether to adapt the step size.
+	 * Value: {@value}.
+	 *          
+	 * ステップ幅を適応させるか否かのデフォルト値.
+	 * 値は {@value}.
+	 */
+	private static final Boolean DEFAULT_ADAPTIVE = Boolean.FALSE;
+	/**
+	 * Default maximum step size in adaptive mode, as a multiple of {@code POLICY.gridVoltageStepV}.
+	 * Value: {@value}.
+	 *          
+	 * 適応モードにおけるステップ幅の上限の {@code POLICY.gridVoltageStepV} に対する倍率のデフォルト値.
+	 * 値は {@value}.
+	 */
+	static final float DEFAULT_MAX_STEP_FACTOR = 8F;
 
 	private Float gridVoltageV_;
 	private Float gridVoltageStepV_;
+	private boolean adaptive_ = false;
+	private float stepV_;
+	private float maxStepV_;
+	private float gridVoltageAllowanceV_;
+	private int numberOfSteps_ = 0;
+	private long startMillis_;
 
 	/**
 	 * Create an instance.
@@ -73,6 +109,14 @@ public class GridVoltageStepping extends AbstractDcdcDeviceControllingCommand {
 		if (gridVoltageV_ != null) {
 			gridVoltageStepV_ = PolicyKeeping.cache().getFloat(350F, "gridVoltageStepV"); // no need to step up/down
 			if (gridVoltageStepV_ != null) {
+				startMillis_ = System.currentTimeMillis();
+				Float gridVoltageAllowanceV = PolicyKeeping.cache().getFloat("gridVoltageAllowanceV");
+				adaptive_ = PolicyKeeping.cache().getBoolean(DEFAULT_ADAPTIVE, "controller", "dcdc", "gridVoltageStepping", "adaptive") && gridVoltageAllowanceV != null;
+				if (adaptive_) {
+					stepV_ = gridVoltageStepV_;
+					maxStepV_ = maxStepV(gridVoltageStepV_, PolicyKeeping.cache().getFloat("controller", "dcdc", "gridVoltageStepping", "maxStepV"));
+					gridVoltageAllowanceV_ = gridVoltageAllowanceV;
+				}
 				execute__(completionHandler);
 			} else {
 				ErrorUtil.reportAndFail(vertx_, Error.Category.USER, Error.Extent.LOCAL, Error.Level.ERROR, "data deficiency; POLICY.gridVoltageStepV : " + gridVoltageStepV_, completionHandler);
@@ -86,14 +130,19 @@ public class GridVoltageStepping extends AbstractDcdcDeviceControllingCommand {
 		Float oldValue = DataAcquisition.cache.getFloat("dcdc", "vdis", "dvg");
 		if (oldValue != null) {
 			float diff = gridVoltageV_ - oldValue;
-			if (gridVoltageStepV_ < Math.abs(diff)) {
+			float stepV = (adaptive_) ? stepV_ : gridVoltageStepV_;
+			if (stepV < Math.abs(diff)) {
 				// The difference between the present specified value and the target value is larger than the step size, so change it step by step
 				// 現在の指定値と目標値との差がステップ値より大きいので段階的に指定する
-				float newValue = (oldValue < gridVoltageV_) ? oldValue + gridVoltageStepV_ : oldValue - gridVoltageStepV_;
+				float newValue = (oldValue < gridVoltageV_) ? oldValue + stepV : oldValue - stepV;
 				// Calculate and specify the positive (or negative) step size for the present specified value
 				// 現在の指定値プラス ( またはマイナス ) ステップ値を算出し指定する
+				++numberOfSteps_;
 				controller_.setDcdcVoltage(newValue, resSet -> {
 					if (resSet.succeeded()) {
+						if (adaptive_) {
+							adaptStep_(newValue, resSet.result());
+						}
 						// Repeat
 						// 繰り返す
 						execute__(completionHandler);
@@ -104,11 +153,15 @@ public class GridVoltageStepping extends AbstractDcdcDeviceControllingCommand {
 			} else {
 				// The difference between the present specified value and the target value is smaller than the step size, so specify it directly
 				// 現在の指定値と目標値との差がステップ値より小さいので目標値を直接指定する
+				++numberOfSteps_;
 				controller_.setDcdcVoltage(gridVoltageV_, resSet -> {
 					if (resSet.succeeded()) {
 						// Proceed to the process that waits for the measured value to approach the specified value
 						// 測定値が指定値に近くのを待つ処理に移行する
-						new Checkpoint(vertx_, controller_, params_, gridVoltageV_, null).execute(completionHandler);
+						new Checkpoint(vertx_, controller_, params_, gridVoltageV_, null).execute(resCheckpoint -> {
+							if (log.isInfoEnabled()) log.info("grid voltage stepping to " + gridVoltageV_ + " V : " + numberOfSteps_ + " steps, settled " + resCheckpoint.succeeded() + " in " + (System.currentTimeMillis() - startMillis_) + " msec");
+							completionHandler.handle(resCheckpoint);
+						});
 					} else {
 						completionHandler.handle(resSet);
 					}
@@ -119,4 +172,69 @@ public class GridVoltageStepping extends AbstractDcdcDeviceControllingCommand {
 		}
 	}
 
+	/**
+	 * Size the next step from the measured response to a step.
+	 * The setpoint is sent with a droop ratio of 0, so the measured grid voltage is expected to match the setpoint.
+	 * If the response has no measured grid voltage, keep the step size.
+	 * @param setpoint the grid voltage value just set
+	 * @param dcdcResponse the device control state returned by the setting
+	 *          
+	 * ステップに対する測定した応答から次のステップ幅を決める.
+	 * 指定値はドループ率 0 で送るのでグリッド電圧の測定値は指定値に一致するはずである.
+	 * 応答にグリッド電圧の測定値がなければステップ幅を変えない.
+	 * @param setpoint 設定したグリッド電圧値
+	 * @param dcdcResponse 設定が返したデバイス制御状態
+	 */
+	private void adaptStep_(float setpoint, JsonObject dcdcResponse) {
+		Float vg = JsonObjectUtil.getFloat(dcdcResponse, "meter", "vg");
+		stepV_ = nextStepV(stepV_, setpoint, vg, gridVoltageAllowanceV_, gridVoltageStepV_, maxStepV_);
+		if (log.isDebugEnabled()) log.debug("setpoint : " + setpoint + ", vg : " + vg + ", next step (V) : " + stepV_);
+	}
+
+	/**
+	 * Get the maximum step size in adaptive mode.
+	 * @param gridVoltageStepV {@code POLICY.gridVoltageStepV}, the minimum step size
+	 * @param maxStepV {@code POLICY.controller.dcdc.gridVoltageStepping.maxStepV}. May be {@code null}
+	 * @return {@code maxStepV} but not less than {@code gridVoltageStepV}, or {@value #DEFAULT_MAX_STEP_FACTOR} times {@code gridVoltageStepV} if {@code null}
+	 *          
+	 * 適応モードにおけるステップ幅の上限を取得する.
+	 * @param gridVoltageStepV ステップ幅の下限である {@code POLICY.gridVoltageStepV}
+	 * @param maxStepV {@code POLICY.controller.dcdc.gridVoltageStepping.maxStepV}. {@code null} 可
+	 * @return {@code gridVoltageStepV} を下回らない {@code maxStepV}. {@code null} なら {@code gridVoltageStepV} の {@value #DEFAULT_MAX_STEP_FACTOR} 倍
+	 */
+	static float maxStepV(float gridVoltageStepV, Float maxStepV) {
+		return (maxStepV != null) ? Math.max(gridVoltageStepV, maxStepV) : gridVoltageStepV * DEFAULT_MAX_STEP_FACTOR;
+	}
+	/**
+	 * Size the next step from the measured response to a step.
+	 * @param stepV the current step size
+	 * @param setpoint the grid voltage value just set
+	 * @param vg the measured grid voltage. May be {@code null}
+	 * @param allowanceV {@code POLICY.gridVoltageAllowanceV}
+	 * @param minStepV the minimum step size
+	 * @param maxStepV the maximum step size
+	 * @return the next step size. {@code stepV} if {@code vg} is {@code null}
+	 *          
+	 * ステップに対する測定した応答から次のステップ幅を決める.
+	 * @param stepV 現在のステップ幅
+	 * @param setpoint 設定したグリッド電圧値
+	 * @param vg グリッド電圧の測定値. {@code null} 可
+	 * @param allowanceV {@code POLICY.gridVoltageAllowanceV}
+	 * @param minStepV ステップ幅の下限
+	 * @param maxStepV ステップ幅の上限
+	 * @return 次のステップ幅. {@code vg} が {@code null} なら {@code stepV}
+	 */
+	static float nextStepV(float stepV, float setpoint, Float vg, float allowanceV, float minStepV, float maxStepV) {
+		if (vg == null) return stepV;
+		if (Math.abs(vg - setpoint) <= allowanceV) {
+			// The device is following, so take a larger step
+			// 追従しているのでステップを大きくする
+			return Math.min(stepV * 2F, maxStepV);
+		} else {
+			// The device is lagging, so take a smaller step
+			// 遅れているのでステップを小さくする
+			return Math.max(stepV / 2F, minStepV);
+		}
+	}
+
 }
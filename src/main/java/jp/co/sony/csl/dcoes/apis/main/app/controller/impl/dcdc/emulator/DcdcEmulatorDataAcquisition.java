@@ -4,7 +4,6 @@ import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.http.HttpClient;
-import io.vertx.core.http.HttpClientOptions;
 import io.vertx.core.json.JsonObject;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectUtil;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.VertxConfig;
@@ -45,7 +44,7 @@ public class DcdcEmulatorDataAcquisition extends DcdcDataAcquisition {
 		String host = VertxConfig.config.getString("connection", "emulator", "host");
 		Integer port = VertxConfig.config.getInteger("connection", "emulator", "port");
 		if (host != null && port != null) {
-			client_ = vertx.createHttpClient(new HttpClientOptions().setDefaultHost(host).setDefaultPort(port));
+			client_ = sharedHttpClient(host, port);
 			dataUri_ = "/get/unit/" + ApisConfig.unitId();
 			statusUri_ = "/get/dcdc/status/" + ApisConfig.unitId();
 			completionHandler.handle(Future.succeededFuture());
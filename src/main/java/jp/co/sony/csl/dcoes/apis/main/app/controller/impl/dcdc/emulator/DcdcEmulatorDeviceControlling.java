@@ -4,7 +4,6 @@ import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.http.HttpClient;
-import io.vertx.core.http.HttpClientOptions;
 import io.vertx.core.json.JsonObject;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.VertxConfig;
 import jp.co.sony.csl.dcoes.apis.main.app.controller.impl.dcdc.DcdcDeviceControlling;
@@ -39,7 +38,7 @@ public class DcdcEmulatorDeviceControlling extends DcdcDeviceControlling {
 		String host = VertxConfig.config.getString("connection", "emulator", "host");
 		Integer port = VertxConfig.config.getInteger("connection", "emulator", "port");
 		if (host != null && port != null) {
-			client_ = vertx.createHttpClient(new HttpClientOptions().setDefaultHost(host).setDefaultPort(port));
+			client_ = sharedHttpClient(host, port);
 			completionHandler.handle(Future.succeededFuture());
 		} else {
 			completionHandler.handle(Future.failedFuture("no connection.emulator.host and/or connection.emulator.port value in config : " + VertxConfig.config.jsonObject()));
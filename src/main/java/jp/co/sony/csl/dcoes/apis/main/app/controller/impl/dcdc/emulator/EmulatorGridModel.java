@@ -0,0 +1,289 @@
+package jp.co.sony.csl.dcoes.apis.main.app.controller.impl.dcdc.emulator;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import jp.co.sony.csl.dcoes.apis.main.app.controller.util.DDCon;
+
+/**
+ * A simple physical model of many units sharing one DC grid.
+ * Each unit has a battery and a DC/DC converter ; the grid is a single node.
+ * - The grid exists only while at least one unit is a voltage reference. Its voltage is the average {@code dvg} of the voltage references, lowered by their droop
+ * - Units in CV mode ( CHARGE / DISCHARGE ) carry {@code dig} while the grid exists and their battery can follow, {@code 0} otherwise
+ * - Voltage references share the balance of the CV currents
+ * - The battery also serves a constant local power ( PV surplus if positive, consumption if negative ) so that the rsoc of units drifts apart
+ * The grid current {@code ig} is positive while charging.
+ * Not thread-safe ; used on the event loop of {@link InProcessEmulator} only.
+ * @author OES Project
+ *          
+ * 一つの DC グリッドを共有する多数のユニットの簡単な物理モデル.
+ * 各ユニットはバッテリと DC/DC コンバータを持つ ; グリッドは一つのノード.
+ * - グリッドは少なくとも一つのユニットが電圧リファレンスのときだけ存在する. 電圧は電圧リファレンスの {@code dvg} の平均をドループで下げたもの
+ * - CV モード ( CHARGE / DISCHARGE ) のユニットはグリッドがありバッテリが追従できれば {@code dig} を流し, そうでなければ {@code 0}
+ * - 電圧リファレンスは CV 電流の差分を分担する
+ * - ユニットの rsoc がばらけるようバッテリは一定のローカル電力 ( 正なら PV 余剰, 負なら消費 ) も賄う
+ * グリッド電流 {@code ig} は充電時に正.
+ * スレッドセーフではない ; {@link InProcessEmulator} のイベントループでのみ使う.
+ * @author OES Project
+ */
+public class EmulatorGridModel {
+
+	/**
+	 * Efficiency of the DC/DC converters.
+	 * Value: {@value}.
+	 *          
+	 * DC/DC コンバータの効率.
+	 * 値は {@value}.
+	 */
+	public static final float CONVERTER_EFFICIENCY = 0.95F;
+	/**
+	 * Battery voltage at rsoc {@code 0} [V].
+	 * Value: {@value}.
+	 *          
+	 * rsoc {@code 0} でのバッテリ電圧 [V].
+	 * 値は {@value}.
+	 */
+	public static final float BATTERY_VOLTAGE_EMPTY_V = 44F;
+	/**
+	 * Battery voltage at rsoc {@code 100} [V].
+	 * Value: {@value}.
+	 *          
+	 * rsoc {@code 100} でのバッテリ電圧 [V].
+	 * 値は {@value}.
+	 */
+	public static final float BATTERY_VOLTAGE_FULL_V = 54F;
+
+	private final Map<String, Unit_> units_ = new LinkedHashMap<>();
+
+	/**
+	 * Create an instance.
+	 * @param unitIds the IDs of the units
+	 * @param batteryCapacityWh the battery capacity of every unit [Wh]
+	 * @param initialRsocMin the lower bound of the initial rsoc [%]
+	 * @param initialRsocMax the upper bound of the initial rsoc [%]
+	 * @param localPowerW the upper bound of the absolute value of the local power [W]
+	 * @param seed the seed of the random initial values
+	 *          
+	 * インスタンスを生成する.
+	 * @param unitIds ユニットの ID
+	 * @param batteryCapacityWh 全ユニットのバッテリ容量 [Wh]
+	 * @param initialRsocMin rsoc 初期値の下限 [%]
+	 * @param initialRsocMax rsoc 初期値の上限 [%]
+	 * @param localPowerW ローカル電力の絶対値の上限 [W]
+	 * @param seed 初期値の乱数のシード
+	 */
+	public EmulatorGridModel(List<String> unitIds, float batteryCapacityWh, float initialRsocMin, float initialRsocMax, float localPowerW, long seed) {
+		Random random = new Random(seed);
+		for (String aUnitId : unitIds) {
+			float rsoc = initialRsocMin + random.nextFloat() * (initialRsocMax - initialRsocMin);
+			float localPower = (random.nextFloat() * 2F - 1F) * localPowerW;
+			units_.put(aUnitId, new Unit_(batteryCapacityWh, rsoc, localPower));
+		}
+		step(0D);
+	}
+
+	/**
+	 * Get the IDs of the units.
+	 * @return an unmodifiable list of unit IDs
+	 *          
+	 * ユニットの ID を取得する.
+	 * @return ユニット ID の変更不可リスト
+	 */
+	public List<String> unitIds() {
+		return Collections.unmodifiableList(new ArrayList<>(units_.keySet()));
+	}
+	/**
+	 * Find out whether a unit exists.
+	 * @param unitId the unit ID
+	 * @return {@code true} if exists
+	 *          
+	 * ユニットが存在するか否かを取得する.
+	 * @param unitId ユニット ID
+	 * @return 存在すれば {@code true}
+	 */
+	public boolean contains(String unitId) {
+		return units_.containsKey(unitId);
+	}
+
+	/**
+	 * Change the mode of the DC/DC converter of a unit.
+	 * Settings given as {@code null} are left as they are.
+	 * @param unitId the unit ID
+	 * @param mode the mode
+	 * @param dvg the target grid voltage [V]
+	 * @param dig the target grid current [A]
+	 * @param drg the droop ratio
+	 *          
+	 * ユニットの DC/DC コンバータのモードを変更する.
+	 * {@code null} の設定値は変更しない.
+	 * @param unitId ユニット ID
+	 * @param mode モード
+	 * @param dvg グリッド電圧の目標値 [V]
+	 * @param dig グリッド電流の目標値 [A]
+	 * @param drg ドループ率
+	 */
+	public void setMode(String unitId, DDCon.Mode mode, Float dvg, Float dig, Float drg) {
+		Unit_ unit = units_.get(unitId);
+		if (mode != null) unit.mode_ = mode;
+		if (dvg != null) unit.dvg_ = dvg;
+		if (dig != null) unit.dig_ = Math.abs(dig);
+		if (drg != null) unit.drg_ = drg;
+		step(0D);
+	}
+
+	/**
+	 * Advance the model.
+	 * Solves the grid for the current settings, then charges and discharges the batteries for the duration.
+	 * @param seconds the duration [s]. {@code 0} to only solve the grid
+	 *          
+	 * モデルを進める.
+	 * 現在の設定でグリッドを解きその時間だけバッテリを充放電する.
+	 * @param seconds 時間 [s]. {@code 0} ならグリッドを解くだけ
+	 */
+	public void step(double seconds) {
+		// Voltage references and the sum of CV currents
+		// 電圧リファレンスと CV 電流の合計
+		int numberOfVoltageReferences = 0;
+		float sumOfDvg = 0F;
+		float sumOfDrg = 0F;
+		for (Unit_ aUnit : units_.values()) {
+			if (DDCon.Mode.VOLTAGE_REFERENCE == aUnit.mode_) {
+				++numberOfVoltageReferences;
+				sumOfDvg += aUnit.dvg_;
+				sumOfDrg += aUnit.drg_;
+			}
+		}
+		boolean gridExists = (0 < numberOfVoltageReferences);
+		float sumOfCvIg = 0F;
+		for (Unit_ aUnit : units_.values()) {
+			if (DDCon.Mode.CHARGE == aUnit.mode_) {
+				aUnit.ig_ = (gridExists && aUnit.rsoc_ < 100F) ? aUnit.dig_ : 0F;
+				sumOfCvIg += aUnit.ig_;
+			} else if (DDCon.Mode.DISCHARGE == aUnit.mode_) {
+				aUnit.ig_ = (gridExists && 0F < aUnit.rsoc_) ? - aUnit.dig_ : 0F;
+				sumOfCvIg += aUnit.ig_;
+			} else {
+				aUnit.ig_ = 0F;
+			}
+		}
+		float vg = 0F;
+		if (gridExists) {
+			// The voltage references take the balance and the grid voltage droops accordingly
+			// 電圧リファレンスが差分を引き受けそれに応じてグリッド電圧が垂下する
+			float voltageReferenceIg = - sumOfCvIg / numberOfVoltageReferences;
+			vg = sumOfDvg / numberOfVoltageReferences + (sumOfDrg / numberOfVoltageReferences) * voltageReferenceIg;
+			for (Unit_ aUnit : units_.values()) {
+				if (DDCon.Mode.VOLTAGE_REFERENCE == aUnit.mode_) aUnit.ig_ = voltageReferenceIg;
+			}
+		}
+		for (Unit_ aUnit : units_.values()) {
+			aUnit.step_(vg, seconds);
+		}
+	}
+
+	/**
+	 * Get the DC/DC converter data of a unit in the form of the emulator.
+	 * @param unitId the unit ID
+	 * @return the {@code dcdc} part of unit data
+	 *          
+	 * ユニットの DC/DC コンバータのデータを emulator の形式で取得する.
+	 * @param unitId ユニット ID
+	 * @return ユニットデータの {@code dcdc} 部分
+	 */
+	public JsonObject dcdc(String unitId) {
+		Unit_ unit = units_.get(unitId);
+		JsonObject status = new JsonObject();
+		status.put("status", DDCon.codeFromMode(unit.mode_));
+		status.put("operationMode", DDCon.codeFromOperationMode(DDCon.operationModeForMode(unit.mode_)));
+		status.put("alarmState", DDCon.ALARM_STATE_CODE_NO_ALARM);
+		JsonObject meter = new JsonObject();
+		meter.put("vg", unit.vg_);
+		meter.put("ig", unit.ig_);
+		meter.put("wg", unit.vg_ * unit.ig_);
+		meter.put("vb", unit.vb_);
+		meter.put("ib", unit.ib_);
+		meter.put("wb", unit.vb_ * unit.ib_);
+		meter.put("tmp", unit.tmp_);
+		JsonObject param = new JsonObject().put("dig", unit.dig_);
+		JsonObject vdis = new JsonObject().put("dvg", unit.dvg_).put("drg", unit.drg_);
+		return new JsonObject().put("status", status).put("meter", meter).put("param", param).put("vdis", vdis);
+	}
+	/**
+	 * Get the data of a unit in the form of the emulator.
+	 * @param unitId the unit ID
+	 * @param time the simulated time in the APIS standard format
+	 * @return unit data with {@code dcdc}, {@code emu} and {@code time}
+	 *          
+	 * ユニットのデータを emulator の形式で取得する.
+	 * @param unitId ユニット ID
+	 * @param time APIS 標準フォーマットの模擬時刻
+	 * @return {@code dcdc}, {@code emu}, {@code time} を持つユニットデータ
+	 */
+	public JsonObject unit(String unitId, String time) {
+		Unit_ unit = units_.get(unitId);
+		JsonObject emu = new JsonObject();
+		emu.put("rsoc", unit.rsoc_);
+		emu.put("battery_operation_status", 3);
+		emu.put("battery_voltage", unit.vb_);
+		emu.put("battery_current", unit.ib_);
+		emu.put("charge_discharge_power", unit.vb_ * unit.ib_);
+		emu.put("local_power", unit.localPowerW_);
+		return new JsonObject().put("time", time).put("dcdc", dcdc(unitId)).put("emu", emu);
+	}
+
+	////
+
+	/**
+	 * The state of one unit.
+	 * @author OES Project
+	 *          
+	 * 一つのユニットの状態.
+	 * @author OES Project
+	 */
+	private static class Unit_ {
+		private final float capacityWh_;
+		private final float localPowerW_;
+		private DDCon.Mode mode_ = DDCon.Mode.WAIT;
+		private float dvg_ = 0F;
+		private float dig_ = 0F;
+		private float drg_ = 0F;
+		private float rsoc_;
+		private float vg_ = 0F;
+		private float ig_ = 0F;
+		private float vb_;
+		private float ib_ = 0F;
+		private float tmp_ = 25F;
+		private Unit_(float capacityWh, float rsoc, float localPowerW) {
+			capacityWh_ = capacityWh;
+			rsoc_ = rsoc;
+			localPowerW_ = localPowerW;
+			vb_ = batteryVoltage_(rsoc);
+		}
+		private void step_(float vg, double seconds) {
+			vg_ = vg;
+			// Power into the battery : the converter output with its loss, plus the local power
+			// バッテリに入る電力 : 損失込みのコンバータ出力とローカル電力
+			float wg = vg * ig_;
+			float wb = ((0F <= wg) ? wg * CONVERTER_EFFICIENCY : wg / CONVERTER_EFFICIENCY) + localPowerW_;
+			if (0D < seconds && 0F < capacityWh_) {
+				rsoc_ += (float) (wb * seconds / 3600D / capacityWh_ * 100D);
+				rsoc_ = Math.max(0F, Math.min(100F, rsoc_));
+			}
+			vb_ = batteryVoltage_(rsoc_);
+			ib_ = wb / vb_;
+			// The converter warms up with the current it carries
+			// コンバータは流す電流に応じて温まる
+			tmp_ = 25F + Math.abs(ig_) * 2F;
+		}
+		private static float batteryVoltage_(float rsoc) {
+			return BATTERY_VOLTAGE_EMPTY_V + (BATTERY_VOLTAGE_FULL_V - BATTERY_VOLTAGE_EMPTY_V) * rsoc / 100F;
+		}
+	}
+
+}
@@ -0,0 +1,320 @@
+package jp.co.sony.csl.dcoes.apis.main.app.controller.impl.dcdc.emulator;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.co.sony.csl.dcoes.apis.common.util.vertx.VertxConfig;
+import jp.co.sony.csl.dcoes.apis.main.app.controller.util.DDCon;
+
+/**
+ * Verticle that simulates the devices of many units in this process.
+ * Serves the HTTP API of the external emulator on {@code CONFIG.connection.emulator.host} and {@code CONFIG.connection.emulator.port}, backed by {@link EmulatorGridModel}.
+ * Units of {@code dcdc_emulator} system type connect to it as they would to the emulator, whether they run in this process or in others.
+ * Deployed by {@link jp.co.sony.csl.dcoes.apis.main.util.Starter} if {@code CONFIG.inProcessEmulator.enabled} is {@code true}.
+ * Settings are read from {@code CONFIG.inProcessEmulator}.
+ * - unitIds : the IDs of the simulated units [{@link io.vertx.core.json.JsonArray}]. If absent, {@code numberOfUnits} IDs are made with {@code unitIdFormat}
+ * - numberOfUnits : the number of simulated units [{@link Integer}]
+ * - unitIdFormat : the format of unit IDs, given the number from {@code 1} [{@link String}]
+ * - periodMsec : the period of the simulation step [ms] [{@link Long}]
+ * - timeScale : the simulated time per real time [{@link Float}]
+ * - batteryCapacityWh : the battery capacity [Wh] [{@link Float}]
+ * - initialRsoc.min, initialRsoc.max : the range of the initial rsoc [%] [{@link Float}]
+ * - localPowerW : the upper bound of the absolute value of the local power [W] [{@link Float}]
+ * - seed : the seed of the random initial values [{@link Long}]
+ * @author OES Project
+ *          
+ * 多数のユニットのデバイスをこのプロセス内で模擬する Verticle.
+ * {@link EmulatorGridModel} を元に外部 emulator の HTTP API を {@code CONFIG.connection.emulator.host} と {@code CONFIG.connection.emulator.port} で提供する.
+ * {@code dcdc_emulator} システムのユニットはこのプロセス内でも他のプロセスでも emulator と同じようにここに接続する.
+ * {@code CONFIG.inProcessEmulator.enabled} が {@code true} なら {@link jp.co.sony.csl.dcoes.apis.main.util.Starter} から起動される.
+ * 設定は {@code CONFIG.inProcessEmulator} から読む.
+ * - unitIds : 模擬するユニットの ID [{@link io.vertx.core.json.JsonArray}]. なければ {@code unitIdFormat} で {@code numberOfUnits} 個の ID を作る
+ * - numberOfUnits : 模擬するユニット数 [{@link Integer}]
+ * - unitIdFormat : {@code 1} から始まる番号を与えるユニット ID のフォーマット [{@link String}]
+ * - periodMsec : 模擬ステップの周期 [ms] [{@link Long}]
+ * - timeScale : 実時間あたりの模擬時間 [{@link Float}]
+ * - batteryCapacityWh : バッテリ容量 [Wh] [{@link Float}]
+ * - initialRsoc.min, initialRsoc.max : rsoc 初期値の範囲 [%] [{@link Float}]
+ * - localPowerW : ローカル電力の絶対値の上限 [W] [{@link Float}]
+ * - seed : 初期値の乱数のシード [{@link Long}]
+ * @author OES Project
+ */
+public class InProcessEmulator extends AbstractVerticle {
+	private static final Logger log = LoggerFactory.getLogger(InProcessEmulator.class);
+
+	/**
+	 * Default number of simulated units.
+	 * Value: {@value}.
+	 *          
+	 * 模擬するユニット数のデフォルト値.
+	 * 値は {@value}.
+	 */
+	private static final Integer DEFAULT_NUMBER_OF_UNITS = 4;
+	/**
+	 * Default format of unit IDs.
+	 * Value: {@value}.
+	 *          
+	 * ユニット ID のフォーマットのデフォルト値.
+	 * 値は {@value}.
+	 */
+	private static final String DEFAULT_UNIT_ID_FORMAT = "E%03d";
+	/**
+	 * Default period of the simulation step [ms].
+	 * Value: {@value}.
+	 *          
+	 * 模擬ステップの周期のデフォルト値 [ms].
+	 * 値は {@value}.
+	 */
+	private static final Long DEFAULT_PERIOD_MSEC = 1000L;
+	/**
+	 * Default simulated time per real time.
+	 * Value: {@value}.
+	 *          
+	 * 実時間あたりの模擬時間のデフォルト値.
+	 * 値は {@value}.
+	 */
+	private static final Float DEFAULT_TIME_SCALE = 1F;
+	/**
+	 * Default battery capacity [Wh].
+	 * Value: {@value}.
+	 *          
+	 * バッテリ容量のデフォルト値 [Wh].
+	 * 値は {@value}.
+	 */
+	private static final Float DEFAULT_BATTERY_CAPACITY_WH = 4800F;
+	/**
+	 * Default lower bound of the initial rsoc [%].
+	 * Value: {@value}.
+	 *          
+	 * rsoc 初期値の下限のデフォルト値 [%].
+	 * 値は {@value}.
+	 */
+	private static final Float DEFAULT_INITIAL_RSOC_MIN = 30F;
+	/**
+	 * Default upper bound of the initial rsoc [%].
+	 * Value: {@value}.
+	 *          
+	 * rsoc 初期値の上限のデフォルト値 [%].
+	 * 値は {@value}.
+	 */
+	private static final Float DEFAULT_INITIAL_RSOC_MAX = 80F;
+	/**
+	 * Default upper bound of the absolute value of the local power [W].
+	 * Value: {@value}.
+	 *          
+	 * ローカル電力の絶対値の上限のデフォルト値 [W].
+	 * 値は {@value}.
+	 */
+	private static final Float DEFAULT_LOCAL_POWER_W = 200F;
+	/**
+	 * Default seed of the random initial values.
+	 * Value: {@value}.
+	 *          
+	 * 初期値の乱数のシードのデフォルト値.
+	 * 値は {@value}.
+	 */
+	private static final Long DEFAULT_SEED = 1L;
+
+	private static final DateTimeFormatter TIME_FORMATTER_ = DateTimeFormatter.ofPattern("uuuu/MM/dd-HH:mm:ss");
+
+	private EmulatorGridModel model_;
+	private HttpServer server_;
+	private LocalDateTime time_;
+	private long stepTimerId_ = 0L;
+	private boolean stopped_ = false;
+
+	/**
+	 * Find out whether the in-process emulator is enabled.
+	 * @return {@code true} if {@code CONFIG.inProcessEmulator.enabled} is {@code true}
+	 *          
+	 * プロセス内 emulator が有効か否かを取得する.
+	 * @return {@code CONFIG.inProcessEmulator.enabled} が {@code true} なら {@code true}
+	 */
+	public static boolean enabled() {
+		return VertxConfig.config.getBoolean(Boolean.FALSE, "inProcessEmulator", "enabled");
+	}
+
+	/**
+	 * Called at startup.
+	 * Builds the model, starts the HTTP server and the simulation step timer.
+	 * @param startFuture {@inheritDoc}
+	 * @throws Exception {@inheritDoc}
+	 *          
+	 * 起動時に呼び出される.
+	 * モデルを作り HTTP サーバと模擬ステップのタイマを起動する.
+	 * @param startFuture {@inheritDoc}
+	 * @throws Exception {@inheritDoc}
+	 */
+	@Override public void start(Future<Void> startFuture) throws Exception {
+		String host = VertxConfig.config.getString("connection", "emulator", "host");
+		Integer port = VertxConfig.config.getInteger("connection", "emulator", "port");
+		if (host == null || port == null) {
+			startFuture.fail("no connection.emulator.host and/or connection.emulator.port value in config : " + VertxConfig.config.jsonObject());
+			return;
+		}
+		List<String> unitIds = unitIds_();
+		Float batteryCapacityWh = VertxConfig.config.getFloat(DEFAULT_BATTERY_CAPACITY_WH, "inProcessEmulator", "batteryCapacityWh");
+		Float initialRsocMin = VertxConfig.config.getFloat(DEFAULT_INITIAL_RSOC_MIN, "inProcessEmulator", "initialRsoc", "min");
+		Float initialRsocMax = VertxConfig.config.getFloat(DEFAULT_INITIAL_RSOC_MAX, "inProcessEmulator", "initialRsoc", "max");
+		Float localPowerW = VertxConfig.config.getFloat(DEFAULT_LOCAL_POWER_W, "inProcessEmulator", "localPowerW");
+		Long seed = VertxConfig.config.getLong(DEFAULT_SEED, "inProcessEmulator", "seed");
+		model_ = new EmulatorGridModel(unitIds, batteryCapacityWh, initialRsocMin, initialRsocMax, localPowerW, seed);
+		time_ = LocalDateTime.now();
+		server_ = vertx.createHttpServer().requestHandler(this::handleRequest_);
+		server_.listen(port, host, resListen -> {
+			if (resListen.succeeded()) {
+				if (log.isInfoEnabled()) log.info("in-process emulator listening on " + host + ':' + port + " ; " + unitIds.size() + " units");
+				setStepTimer_();
+				if (log.isTraceEnabled()) log.trace("started : " + deploymentID());
+				startFuture.complete();
+			} else {
+				startFuture.fail(resListen.cause());
+			}
+		});
+	}
+
+	/**
+	 * Called when stopped.
+	 * @throws Exception {@inheritDoc}
+	 *          
+	 * 停止時に呼び出される.
+	 * @throws Exception {@inheritDoc}
+	 */
+	@Override public void stop() throws Exception {
+		stopped_ = true;
+		vertx.cancelTimer(stepTimerId_);
+		if (server_ != null) server_.close();
+		if (log.isTraceEnabled()) log.trace("stopped : " + deploymentID());
+	}
+
+	////
+
+	private List<String> unitIds_() {
+		List<String> result = VertxConfig.config.getStringList("inProcessEmulator", "unitIds");
+		if (result == null || result.isEmpty()) {
+			Integer numberOfUnits = VertxConfig.config.getInteger(DEFAULT_NUMBER_OF_UNITS, "inProcessEmulator", "numberOfUnits");
+			String unitIdFormat = VertxConfig.config.getString(DEFAULT_UNIT_ID_FORMAT, "inProcessEmulator", "unitIdFormat");
+			result = new ArrayList<>(numberOfUnits);
+			for (int i = 1; i <= numberOfUnits; i++) {
+				result.add(String.format(unitIdFormat, i));
+			}
+		}
+		return result;
+	}
+
+	private void setStepTimer_() {
+		Long delay = VertxConfig.config.getLong(DEFAULT_PERIOD_MSEC, "inProcessEmulator", "periodMsec");
+		stepTimerId_ = vertx.setTimer(delay, this::stepTimerHandler_);
+	}
+	private void stepTimerHandler_(Long timerId) {
+		if (stopped_) return;
+		if (null == timerId || timerId.longValue() != stepTimerId_) {
+			if (log.isWarnEnabled()) log.warn("illegal timerId : " + timerId + ", stepTimerId_ : " + stepTimerId_);
+			return;
+		}
+		Long periodMsec = VertxConfig.config.getLong(DEFAULT_PERIOD_MSEC, "inProcessEmulator", "periodMsec");
+		Float timeScale = VertxConfig.config.getFloat(DEFAULT_TIME_SCALE, "inProcessEmulator", "timeScale");
+		long simulatedMsec = (long) (periodMsec * timeScale);
+		model_.step(simulatedMsec / 1000D);
+		time_ = time_.plusNanos(simulatedMsec * 1000000L);
+		setStepTimer_();
+	}
+
+	/**
+	 * Serve a request of the emulator HTTP API.
+	 * - {@code /get/unit/<unitId>} : unit data
+	 * - {@code /get/units} : unit data of all units keyed by unit ID
+	 * - {@code /get/dcdc/status/<unitId>} : DC/DC converter data
+	 * - {@code /set/dcdc/<unitId>?mode=&dvg=&dig=&drg=} : change the mode
+	 * - {@code /set/dcdc/voltage/<unitId>?dvg=&drg=} : change the grid voltage
+	 * - {@code /set/dcdc/current/<unitId>?dig=} : change the grid current
+	 * The {@code set} requests reply with the DC/DC converter data after the change.
+	 * @param req the HTTP request
+	 *          
+	 * emulator HTTP API のリクエストを処理する.
+	 * - {@code /get/unit/<unitId>} : ユニットデータ
+	 * - {@code /get/units} : ユニット ID をキーとする全ユニットのユニットデータ
+	 * - {@code /get/dcdc/status/<unitId>} : DC/DC コンバータのデータ
+	 * - {@code /set/dcdc/<unitId>?mode=&dvg=&dig=&drg=} : モードを変更する
+	 * - {@code /set/dcdc/voltage/<unitId>?dvg=&drg=} : グリッド電圧を変更する
+	 * - {@code /set/dcdc/current/<unitId>?dig=} : グリッド電流を変更する
+	 * {@code set} リクエストは変更後の DC/DC コンバータのデータを返す.
+	 * @param req HTTP リクエスト
+	 */
+	private void handleRequest_(HttpServerRequest req) {
+		String path = req.path();
+		String time = TIME_FORMATTER_.format(time_);
+		try {
+			if ("/get/units".equals(path)) {
+				JsonObject result = new JsonObject();
+				for (String aUnitId : model_.unitIds()) {
+					result.put(aUnitId, model_.unit(aUnitId, time));
+				}
+				reply_(req, result);
+			} else if (path.startsWith("/get/unit/")) {
+				String unitId = unitId_(req, "/get/unit/");
+				if (unitId != null) reply_(req, model_.unit(unitId, time));
+			} else if (path.startsWith("/get/dcdc/status/")) {
+				String unitId = unitId_(req, "/get/dcdc/status/");
+				if (unitId != null) reply_(req, model_.dcdc(unitId));
+			} else if (path.startsWith("/set/dcdc/voltage/")) {
+				String unitId = unitId_(req, "/set/dcdc/voltage/");
+				if (unitId != null) {
+					model_.setMode(unitId, null, float_(req, "dvg"), null, float_(req, "drg"));
+					reply_(req, model_.dcdc(unitId));
+				}
+			} else if (path.startsWith("/set/dcdc/current/")) {
+				String unitId = unitId_(req, "/set/dcdc/current/");
+				if (unitId != null) {
+					model_.setMode(unitId, null, null, float_(req, "dig"), null);
+					reply_(req, model_.dcdc(unitId));
+				}
+			} else if (path.startsWith("/set/dcdc/")) {
+				String unitId = unitId_(req, "/set/dcdc/");
+				if (unitId != null) {
+					DDCon.Mode mode = DDCon.modeFromCode(req.getParam("mode"));
+					if (mode == null) {
+						fail_(req, 400, "invalid mode : " + req.getParam("mode"));
+					} else {
+						model_.setMode(unitId, mode, float_(req, "dvg"), float_(req, "dig"), float_(req, "drg"));
+						reply_(req, model_.dcdc(unitId));
+					}
+				}
+			} else {
+				fail_(req, 404, "no such path : " + path);
+			}
+		} catch (NumberFormatException e) {
+			fail_(req, 400, "invalid parameter : " + e.getMessage());
+		}
+	}
+	private String unitId_(HttpServerRequest req, String prefix) {
+		String result = req.path().substring(prefix.length());
+		if (!model_.contains(result)) {
+			fail_(req, 404, "no such unit : " + result);
+			return null;
+		}
+		return result;
+	}
+	private Float float_(HttpServerRequest req, String name) {
+		String value = req.getParam(name);
+		return (value != null && !value.isEmpty() && !"null".equals(value)) ? Float.valueOf(value) : null;
+	}
+	private void reply_(HttpServerRequest req, JsonObject result) {
+		req.response().putHeader("Content-Type", "application/json").end(result.encode());
+	}
+	private void fail_(HttpServerRequest req, int statusCode, String message) {
+		if (log.isWarnEnabled()) log.warn(message);
+		req.response().setStatusCode(statusCode).end(message);
+	}
+
+}
@@ -5,7 +5,6 @@ import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.http.HttpClient;
-import io.vertx.core.http.HttpClientOptions;
 import io.vertx.core.json.JsonObject;
 
 import java.time.LocalDateTime;
@@ -50,13 +49,13 @@ public class DcdcV1DataAcquisition extends DcdcDataAcquisition {
 		String host = VertxConfig.config.getString("connection", "dcdc_controller", "host");
 		Integer port = VertxConfig.config.getInteger("connection", "dcdc_controller", "port");
 		if (host != null && port != null) {
-			controllerClient_ = vertx.createHttpClient(new HttpClientOptions().setDefaultHost(host).setDefaultPort(port));
+			controllerClient_ = sharedHttpClient(host, port);
 			controllerDataUri_ = "/remote/get";
 			controllerStatusUri_ = "/remote/get/status";
 			host = VertxConfig.config.getString("connection", "emu_driver", "host");
 			port = VertxConfig.config.getInteger("connection", "emu_driver", "port");
 			if (host != null && port != null) {
-				emuDriverClient_ = vertx.createHttpClient(new HttpClientOptions().setDefaultHost(host).setDefaultPort(port));
+				emuDriverClient_ = sharedHttpClient(host, port);
 				emuDriverDataUri_ = "/1/log/data";
 				completionHandler.handle(Future.succeededFuture());
 			} else {
@@ -4,7 +4,6 @@ import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.http.HttpClient;
-import io.vertx.core.http.HttpClientOptions;
 import io.vertx.core.json.JsonObject;
 
 import java.time.LocalDateTime;
@@ -15,6 +14,7 @@ import jp.co.sony.csl.dcoes.apis.common.util.DateTimeUtil;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectUtil;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.VertxConfig;
 import jp.co.sony.csl.dcoes.apis.main.app.controller.impl.dcdc.DcdcDataAcquisition;
+import jp.co.sony.csl.dcoes.apis.main.app.controller.util.DeviceHttpClient;
 
 /**
  * Data acquisition service Verticle for the DCDC system's dcdc_batt_comm environment.
@@ -39,6 +39,8 @@ public class DcdcV2DataAcquisition extends DcdcDataAcquisition {
 	public static final List<String> INTERFACE_VERSIONS = Arrays.asList("2");
 
 	private HttpClient client_;
+	private String host_;
+	private Integer port_;
 	private String dataUri_;
 	private String statusUri_;
 	private String interfaceVersion_;
@@ -60,7 +62,9 @@ public class DcdcV2DataAcquisition extends DcdcDataAcquisition {
 		String host = VertxConfig.config.getString("connection", "dcdc_controller", "host");
 		Integer port = VertxConfig.config.getInteger("connection", "dcdc_controller", "port");
 		if (host != null && port != null) {
-			client_ = vertx.createHttpClient(new HttpClientOptions().setDefaultHost(host).setDefaultPort(port));
+			client_ = sharedHttpClient(host, port);
+			host_ = host;
+			port_ = port;
 			dataUri_ = "/all/get";
 			statusUri_ = "/dcdc/get/status";
 			negotiateInterfaceVersion_(completionHandler);
@@ -122,17 +126,37 @@ public class DcdcV2DataAcquisition extends DcdcDataAcquisition {
 	@Override protected void getData(Handler<AsyncResult<JsonObject>> completionHandler) {
 		send(client_, dataUri_, res -> {
 			if (res.succeeded()) {
-				JsonObject dcdc = res.result();
-				JsonObject battery = new JsonObject().put("rsoc", dcdc.remove("rsoc")).put("battery_operation_status", dcdc.remove("battery_operation_status"));
-				String time = DateTimeUtil.toString(LocalDateTime.now());
-				JsonObject result = new JsonObject().put("dcdc", dcdc).put("battery", battery).put("time", time);
-				completionHandler.handle(Future.succeededFuture(result));
+				completionHandler.handle(Future.succeededFuture(toUnitData(res.result())));
 			} else {
 				completionHandler.handle(res);
 			}
 		});
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * Subscribe to the same host and port as the periodic acquisition on a dedicated connection.
+	 *          
+	 * {@inheritDoc}
+	 * 定期的な取得と同じホストとポートを専用のコネクションで購読する.
+	 */
+	@Override protected HttpClient streamingClient() {
+		return DeviceHttpClient.streaming(vertx, host_, port_);
+	}
+	/**
+	 * {@inheritDoc}
+	 * A frame has the same content as the response of {@code /all/get} and is processed in the same way as {@link #getData(Handler)}.
+	 *          
+	 * {@inheritDoc}
+	 * フレームは {@code /all/get} のレスポンスと同じ内容で {@link #getData(Handler)} と同じ処理をする.
+	 */
+	@Override protected JsonObject toUnitData(JsonObject frame) {
+		JsonObject dcdc = frame;
+		JsonObject battery = new JsonObject().put("rsoc", dcdc.remove("rsoc")).put("battery_operation_status", dcdc.remove("battery_operation_status"));
+		String time = DateTimeUtil.toString(LocalDateTime.now());
+		return new JsonObject().put("dcdc", dcdc).put("battery", battery).put("time", time);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -0,0 +1,281 @@
+package jp.co.sony.csl.dcoes.apis.main.app.controller.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import jp.co.sony.csl.dcoes.apis.common.util.vertx.VertxConfig;
+import jp.co.sony.csl.dcoes.apis.main.util.MainServiceAddress;
+
+/**
+ * Shared HTTP clients for the device drivers.
+ * Requests to the same host and port from the same Verticle share one client, and therefore one connection pool.
+ * Each Verticle has its own clients, since a client is closed by Vert.x when the Verticle that created it is undeployed, and would otherwise be closed under the other Verticles using it.
+ * A client is reference counted : it is closed and forgotten when the last user in the Verticle calls {@link #release(Vertx, HttpClient)}.
+ * Pool settings are read from {@code CONFIG.connection.httpClientPool}.
+ * Also keeps per-request metrics for each request path, served at {@link MainServiceAddress.Controller#deviceHttpMetrics()}.
+ * Metrics are recorded without locking, since every request of every Verticle records them.
+ * @author OES Project
+ *          
+ * デバイスドライバ向けの共有 HTTP クライアント.
+ * 同じ Verticle から同じホストとポートへのリクエストは一つのクライアントすなわち一つのコネクションプールを共有する.
+ * クライアントは生成した Verticle がアンデプロイされると Vert.x によりクローズされ, そうでなければそれを使っている他の Verticle の下でクローズされてしまうので, Verticle ごとに別のクライアントを持つ.
+ * クライアントは参照カウントされる : Verticle 内で使っている最後の利用者が {@link #release(Vertx, HttpClient)} を呼ぶとクローズされ忘れられる.
+ * プールの設定は {@code CONFIG.connection.httpClientPool} から読む.
+ * リクエストパスごとのリクエスト計測値も保持し {@link MainServiceAddress.Controller#deviceHttpMetrics()} で提供する.
+ * すべての Verticle のすべてのリクエストが記録するので計測値はロックせずに記録する.
+ * @author OES Project
+ */
+public class DeviceHttpClient {
+	private static final Logger log = LoggerFactory.getLogger(DeviceHttpClient.class);
+
+	/**
+	 * Default value of whether to keep connections alive.
+	 * Value: {@value}.
+	 *          
+	 * コネクションを維持するか否かのデフォルト値.
+	 * 値は {@value}.
+	 */
+	private static final Boolean DEFAULT_KEEP_ALIVE = Boolean.TRUE;
+	/**
+	 * Default value of whether to pipeline requests.
+	 * Value: {@value}.
+	 *          
+	 * リクエストをパイプライン化するか否かのデフォルト値.
+	 * 値は {@value}.
+	 */
+	private static final Boolean DEFAULT_PIPELINING = Boolean.FALSE;
+	/**
+	 * Default maximum number of pipelined requests per connection.
+	 * Value: {@value}.
+	 *          
+	 * 一つのコネクションでパイプライン化するリクエスト数の上限のデフォルト値.
+	 * 値は {@value}.
+	 */
+	private static final Integer DEFAULT_PIPELINING_LIMIT = 10;
+	/**
+	 * Default maximum number of connections per host.
+	 * Value: {@value}.
+	 *          
+	 * ホストあたりのコネクション数の上限のデフォルト値.
+	 * 値は {@value}.
+	 */
+	private static final Integer DEFAULT_MAX_POOL_SIZE = 5;
+	/**
+	 * Default idle timeout of a pooled connection [s].
+	 * Value: {@value}.
+	 *          
+	 * プールされたコネクションのアイドルタイムアウトのデフォルト値 [s].
+	 * 値は {@value}.
+	 */
+	private static final Integer DEFAULT_IDLE_TIMEOUT_SEC = 60;
+
+	private static final Map<Context, Map<String, Shared_>> clients_ = new HashMap<>();
+	private static final Map<String, Metrics_> metrics_ = new ConcurrentHashMap<>();
+
+	private DeviceHttpClient() { }
+
+	/**
+	 * Get the client for the host and port.
+	 * Created on the first call from the calling Verticle and shared within it afterwards.
+	 * Each call must be paired with a call to {@link #release(Vertx, HttpClient)} from the same Verticle.
+	 * @param vertx vertx object
+	 * @param host the host name
+	 * @param port the port number
+	 * @return the HTTP client
+	 *          
+	 * ホストとポートに対するクライアントを取得する.
+	 * 呼び出し元の Verticle からの初回の呼び出しで生成し以後はその中で共有する.
+	 * 呼び出しごとに同じ Verticle から {@link #release(Vertx, HttpClient)} を一回呼ぶこと.
+	 * @param vertx vertx オブジェクト
+	 * @param host ホスト名
+	 * @param port ポート
+	 * @return HTTP クライアント
+	 */
+	public static synchronized HttpClient shared(Vertx vertx, String host, int port) {
+		String key = host + ':' + port;
+		Map<String, Shared_> clients = clients_.computeIfAbsent(vertx.getOrCreateContext(), k -> new HashMap<>());
+		Shared_ result = clients.get(key);
+		if (result == null) {
+			HttpClientOptions options = new HttpClientOptions().setDefaultHost(host).setDefaultPort(port);
+			options.setKeepAlive(VertxConfig.config.getBoolean(DEFAULT_KEEP_ALIVE, "connection", "httpClientPool", "keepAlive"));
+			options.setPipelining(VertxConfig.config.getBoolean(DEFAULT_PIPELINING, "connection", "httpClientPool", "pipelining"));
+			options.setPipeliningLimit(VertxConfig.config.getInteger(DEFAULT_PIPELINING_LIMIT, "connection", "httpClientPool", "pipeliningLimit"));
+			options.setMaxPoolSize(VertxConfig.config.getInteger(DEFAULT_MAX_POOL_SIZE, "connection", "httpClientPool", "maxPoolSize"));
+			options.setIdleTimeout(VertxConfig.config.getInteger(DEFAULT_IDLE_TIMEOUT_SEC, "connection", "httpClientPool", "idleTimeoutSec"));
+			if (log.isInfoEnabled()) log.info("http client for " + key + " : keepAlive " + options.isKeepAlive() + ", pipelining " + options.isPipelining() + ", maxPoolSize " + options.getMaxPoolSize() + ", idleTimeout " + options.getIdleTimeout());
+			result = new Shared_(vertx.createHttpClient(options));
+			clients.put(key, result);
+		}
+		++result.references_;
+		return result.client_;
+	}
+
+	/**
+	 * Create a client dedicated to a long-lived streaming response from the host and port.
+	 * Not shared nor pooled : a stream occupies its connection, and must not hold up the requests of the shared client.
+	 * Neither keep-alive nor pipelining is used, so a reconnection always opens a fresh connection.
+	 * The caller closes the client.
+	 * @param vertx vertx object
+	 * @param host the host name
+	 * @param port the port number
+	 * @return the HTTP client
+	 *          
+	 * ホストとポートからの長く続くストリーミングレスポンス専用のクライアントを生成する.
+	 * 共有もプールもしない : ストリームはコネクションを占有し共有クライアントのリクエストを待たせてはならない.
+	 * キープアライブもパイプライニングも使わないので再接続は常に新しいコネクションを開く.
+	 * クライアントは呼び出し側がクローズする.
+	 * @param vertx vertx オブジェクト
+	 * @param host ホスト名
+	 * @param port ポート
+	 * @return HTTP クライアント
+	 */
+	public static HttpClient streaming(Vertx vertx, String host, int port) {
+		HttpClientOptions options = new HttpClientOptions().setDefaultHost(host).setDefaultPort(port);
+		options.setKeepAlive(false).setPipelining(false).setMaxPoolSize(1);
+		return vertx.createHttpClient(options);
+	}
+
+	/**
+	 * Give back a client obtained by {@link #shared(Vertx, String, int)}.
+	 * The client is closed when it is no longer used by anyone in the calling Verticle.
+	 * @param vertx vertx object
+	 * @param client the HTTP client
+	 *          
+	 * {@link #shared(Vertx, String, int)} で取得したクライアントを返す.
+	 * 呼び出し元の Verticle 内で誰も使わなくなったらクライアントをクローズする.
+	 * @param vertx vertx オブジェクト
+	 * @param client HTTP クライアント
+	 */
+	public static synchronized void release(Vertx vertx, HttpClient client) {
+		Context context = vertx.getOrCreateContext();
+		Map<String, Shared_> clients = clients_.get(context);
+		if (clients == null) return;
+		for (Iterator<Map.Entry<String, Shared_>> it = clients.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, Shared_> anEntry = it.next();
+			if (anEntry.getValue().client_ == client) {
+				if (--anEntry.getValue().references_ <= 0) {
+					if (log.isInfoEnabled()) log.info("http client for " + anEntry.getKey() + " closed");
+					it.remove();
+					client.close();
+				}
+				break;
+			}
+		}
+		if (clients.isEmpty()) clients_.remove(context);
+	}
+
+	/**
+	 * Record the result of a request.
+	 * @param uri the request URI. The query string is ignored
+	 * @param elapsedMsec time from sending the request to receiving the result [ms]
+	 * @param succeeded whether the request succeeded
+	 *          
+	 * リクエストの結果を記録する.
+	 * @param uri リクエストの URI. クエリ文字列は無視する
+	 * @param elapsedMsec リクエストを送信してから結果を受け取るまでの時間 [ms]
+	 * @param succeeded リクエストが成功したか否か
+	 */
+	public static void record(String uri, long elapsedMsec, boolean succeeded) {
+		int q = uri.indexOf('?');
+		String path = (0 <= q) ? uri.substring(0, q) : uri;
+		metrics_.computeIfAbsent(path, k -> new Metrics_()).add_(elapsedMsec, succeeded);
+	}
+
+	/**
+	 * Get the request metrics.
+	 * @return a {@link JsonObject} of request path to {@code count}, {@code failureCount}, {@code averageMsec} and {@code maxMsec}
+	 *          
+	 * リクエストの計測値を取得する.
+	 * @return リクエストパスから {@code count}, {@code failureCount}, {@code averageMsec}, {@code maxMsec} への {@link JsonObject}
+	 */
+	public static JsonObject metrics() {
+		JsonObject result = new JsonObject();
+		for (Map.Entry<String, Metrics_> anEntry : new TreeMap<>(metrics_).entrySet()) {
+			result.put(anEntry.getKey(), anEntry.getValue().toJson_());
+		}
+		return result;
+	}
+
+	/**
+	 * Forget the request metrics.
+	 *          
+	 * リクエストの計測値を忘れる.
+	 */
+	public static void resetMetrics() {
+		metrics_.clear();
+	}
+
+	/**
+	 * Launch the {@link io.vertx.core.eventbus.EventBus} service.
+	 * Address: {@link MainServiceAddress.Controller#deviceHttpMetrics()}
+	 * Scope: local
+	 * Function: Query the request metrics.
+	 * Message body: Options [{@link JsonObject}]. Optional
+	 *               - {@code "reset"}: whether to forget the metrics after replying [{@link Boolean}]. Optional
+	 * Message header: none
+	 * Response: The result of {@link #metrics()} [{@link JsonObject}].
+	 * @param vertx vertx object
+	 * @param completionHandler the completion handler
+	 *          
+	 * {@link io.vertx.core.eventbus.EventBus} サービス起動.
+	 * アドレス : {@link MainServiceAddress.Controller#deviceHttpMetrics()}
+	 * 範囲 : ローカル
+	 * 処理 : リクエストの計測値を問い合わせる.
+	 * メッセージボディ : オプション [{@link JsonObject}]. 任意
+	 * 　　　　　　　　   - {@code "reset"} : 返信後に計測値を忘れるか否か [{@link Boolean}]. 任意
+	 * メッセージヘッダ : なし
+	 * レスポンス : {@link #metrics()} の結果 [{@link JsonObject}].
+	 * @param vertx vertx オブジェクト
+	 * @param completionHandler the completion handler
+	 */
+	public static void startService(Vertx vertx, Handler<AsyncResult<Void>> completionHandler) {
+		vertx.eventBus().<JsonObject>localConsumer(MainServiceAddress.Controller.deviceHttpMetrics(), req -> {
+			JsonObject options = (req.body() != null) ? req.body() : new JsonObject();
+			req.reply(metrics());
+			if (options.getBoolean("reset", Boolean.FALSE)) resetMetrics();
+		}).completionHandler(completionHandler);
+	}
+
+	////
+
+	private static class Shared_ {
+		private final HttpClient client_;
+		private int references_ = 0;
+		private Shared_(HttpClient client) {
+			client_ = client;
+		}
+	}
+
+	private static class Metrics_ {
+		private final LongAdder count_ = new LongAdder();
+		private final LongAdder failureCount_ = new LongAdder();
+		private final LongAdder totalMsec_ = new LongAdder();
+		private final LongAccumulator maxMsec_ = new LongAccumulator(Math::max, 0L);
+		private void add_(long elapsedMsec, boolean succeeded) {
+			count_.increment();
+			if (!succeeded) failureCount_.increment();
+			totalMsec_.add(elapsedMsec);
+			maxMsec_.accumulate(elapsedMsec);
+		}
+		private JsonObject toJson_() {
+			long count = count_.sum();
+			return new JsonObject().put("count", count).put("failureCount", failureCount_.sum()).put("averageMsec", (0 < count) ? totalMsec_.sum() / count : 0L).put("maxMsec", maxMsec_.get());
+		}
+	}
+
+}
@@ -0,0 +1,410 @@
+package jp.co.sony.csl.dcoes.apis.main.app.gridmaster;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import jp.co.sony.csl.dcoes.apis.common.Error;
+import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectUtil;
+import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
+import jp.co.sony.csl.dcoes.apis.main.app.mediator.util.DealUtil;
+import jp.co.sony.csl.dcoes.apis.main.evaluation.scenario.ScenarioEvaluation;
+import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
+import jp.co.sony.csl.dcoes.apis.main.util.MainServiceAddress;
+
+/**
+ * A Verticle that runs batch rounds of interchange negotiation.
+ * Launched from {@link GridMaster}.
+ * Only used when {@link #enabled()}.
+ * 1. Collect the requests sent by units during {@link #windowMsec()}
+ * 2. Publish them all to every unit in one message, and receive one message from every unit holding its "accept" responses to all of them
+ * 3. Match all the requests with all the "accept" responses at once and send each matched "accept" response to the requesting unit, which then creates the interchange as usual
+ * Every request gets exactly one reply from the round, so that the requesting unit closes its negotiation at once : the matched "accept" response, or a "no match" reply otherwise
+ * The number of messages per round grows with the number of units instead of the number of requests times the number of units.
+ * @author OES Project
+ *          
+ * 一括融通交渉ラウンドを実行する Verticle.
+ * {@link GridMaster} から起動される.
+ * {@link #enabled()} の場合のみ使われる.
+ * 1. {@link #windowMsec()} の間にユニットから送られたリクエストを集める
+ * 2. それらを全て一つのメッセージで全ユニットに publish し, 全リクエストに対するアクセプトを持つメッセージを各ユニットから一つずつ受け取る
+ * 3. 全リクエストと全アクセプトを一度にマッチさせマッチしたアクセプトをリクエスト元ユニットに送る. 融通の作成はリクエスト元ユニットが従来通り行う
+ * リクエスト元ユニットが融通交渉を即座に閉じられるよう, 各リクエストはラウンドからちょうど一つの返信を受け取る : マッチしたアクセプト, そうでなければ「マッチなし」の返信
+ * ラウンドあたりのメッセージ数はリクエスト数 × ユニット数ではなくユニット数に比例する.
+ * @author OES Project
+ */
+public class BatchNegotiation extends AbstractVerticle {
+	private static final Logger log = LoggerFactory.getLogger(BatchNegotiation.class);
+
+	/**
+	 * Default duration of the window in which requests are collected [ms].
+	 * Value: {@value}.
+	 *          
+	 * リクエストを集めるウィンドウの長さのデフォルト値 [ms].
+	 * 値は {@value}.
+	 */
+	private static final Long DEFAULT_BATCH_WINDOW_MSEC = 1000L;
+	/**
+	 * Default time to wait for "accept" responses after publishing the requests [ms].
+	 * Value: {@value}.
+	 *          
+	 * リクエスト群を publish してからアクセプトを待つ時間のデフォルト値 [ms].
+	 * 値は {@value}.
+	 */
+	private static final Long DEFAULT_NEGOTIATION_TIMEOUT_MSEC = 2000L;
+
+	private final List<JsonObject> pendingRequests_ = new ArrayList<>();
+	private final Map<String, Round_> rounds_ = new HashMap<>();
+	private final Set<Round_> matchingRounds_ = new HashSet<>();
+	private long windowTimerId_ = 0L;
+	private boolean stopped_ = false;
+
+	/**
+	 * Check whether batch negotiation is enabled.
+	 * Refer to {@code POLICY.mediator.batchNegotiation.enabled}.
+	 * @return {@code true} if enabled
+	 *          
+	 * 一括融通交渉が有効か確認する.
+	 * {@code POLICY.mediator.batchNegotiation.enabled} を参照する.
+	 * @return 有効なら {@code true}
+	 */
+	public static boolean enabled() {
+		return PolicyKeeping.cache().getBoolean(Boolean.FALSE, "mediator", "batchNegotiation", "enabled");
+	}
+	/**
+	 * Get the duration of the window in which requests are collected.
+	 * Refer to {@code POLICY.mediator.batchNegotiation.windowMsec} (default: {@link #DEFAULT_BATCH_WINDOW_MSEC}).
+	 * @return the duration [ms]
+	 *          
+	 * リクエストを集めるウィンドウの長さを取得する.
+	 * {@code POLICY.mediator.batchNegotiation.windowMsec} ( デフォルト値 {@link #DEFAULT_BATCH_WINDOW_MSEC} ) を参照する.
+	 * @return 長さ [ms]
+	 */
+	public static long windowMsec() {
+		return PolicyKeeping.cache().getLong(DEFAULT_BATCH_WINDOW_MSEC, "mediator", "batchNegotiation", "windowMsec");
+	}
+
+	/**
+	 * Called at startup.
+	 * Launches the {@link io.vertx.core.eventbus.EventBus} services.
+	 * @param startFuture {@inheritDoc}
+	 * @throws Exception {@inheritDoc}
+	 *          
+	 * 起動時に呼び出される.
+	 * {@link io.vertx.core.eventbus.EventBus} サービスを起動する.
+	 * @param startFuture {@inheritDoc}
+	 * @throws Exception {@inheritDoc}
+	 */
+	@Override public void start(Future<Void> startFuture) throws Exception {
+		startBatchAcceptsService_(resBatchAccepts -> {
+			if (resBatchAccepts.succeeded()) {
+				startBatchRequestService_(resBatchRequest -> {
+					if (resBatchRequest.succeeded()) {
+						if (log.isTraceEnabled()) log.trace("started : " + deploymentID());
+						startFuture.complete();
+					} else {
+						startFuture.fail(resBatchRequest.cause());
+					}
+				});
+			} else {
+				startFuture.fail(resBatchAccepts.cause());
+			}
+		});
+	}
+
+	/**
+	 * Called when stopped.
+	 * Requests and rounds in progress are not matched ; their requesting units get a "no match" reply so that they close their negotiations at once instead of by timeout.
+	 * @throws Exception {@inheritDoc}
+	 *          
+	 * 停止時に呼び出される.
+	 * 進行中のリクエストとラウンドはマッチさせない ; リクエスト元ユニットがタイムアウトを待たずに融通交渉を閉じられるよう「マッチなし」を返信する.
+	 * @throws Exception {@inheritDoc}
+	 */
+	@Override public void stop() throws Exception {
+		stopped_ = true;
+		if (windowTimerId_ != 0L) vertx.cancelTimer(windowTimerId_);
+		sendNoMatch_(pendingRequests_);
+		for (Round_ aRound : rounds_.values()) {
+			vertx.cancelTimer(aRound.timerId_);
+			sendNoMatch_(aRound.requests_);
+		}
+		for (Round_ aRound : matchingRounds_) {
+			sendNoMatch_(aRound.requests_);
+		}
+		pendingRequests_.clear();
+		rounds_.clear();
+		matchingRounds_.clear();
+		if (log.isTraceEnabled()) log.trace("stopped : " + deploymentID());
+	}
+
+	////
+
+	/**
+	 * A batch round.
+	 *          
+	 * 一括交渉ラウンド.
+	 */
+	private static class Round_ {
+		private final String batchId_;
+		private final List<JsonObject> requests_;
+		private final Map<String, List<JsonObject>> acceptsByNegotiationId_ = new HashMap<>();
+		private final Set<String> respondedUnitIds_ = new HashSet<>();
+		private long timerId_ = 0L;
+		private Round_(String batchId, List<JsonObject> requests) {
+			batchId_ = batchId;
+			requests_ = requests;
+		}
+		private List<JsonObject> accepts_(String negotiationId) {
+			List<JsonObject> result = acceptsByNegotiationId_.get(negotiationId);
+			return (result != null) ? result : new ArrayList<>();
+		}
+		private boolean allResponded_() {
+			List<String> memberUnitIds = PolicyKeeping.memberUnitIds();
+			return (memberUnitIds != null && !memberUnitIds.isEmpty() && respondedUnitIds_.containsAll(memberUnitIds));
+		}
+	}
+
+	/**
+	 * Launch the {@link io.vertx.core.eventbus.EventBus} service.
+	 * Address: {@link MainServiceAddress.GridMaster#batchRequest()}
+	 * Scope: global
+	 * Function: Receive an interchange request from a unit and keep it for the next batch round.
+	 *           The first request starts a window of {@link #windowMsec()} after which the round starts.
+	 * Message body: request information [{@link JsonObject}]
+	 * Message header:
+	 * 　　　　　- {@code "negotiationId"}: the negotiation ID of the requesting unit
+	 * Response: none
+	 * @param completionHandler the completion handler
+	 *          
+	 * {@link io.vertx.core.eventbus.EventBus} サービス起動.
+	 * アドレス : {@link MainServiceAddress.GridMaster#batchRequest()}
+	 * 範囲 : グローバル
+	 * 処理 : ユニットから融通リクエストを受け取り次の一括交渉ラウンドのために保持する.
+	 * 　　   最初のリクエストで {@link #windowMsec()} のウィンドウを開始しその後ラウンドを開始する.
+	 * メッセージボディ : リクエスト情報 [{@link JsonObject}]
+	 * メッセージヘッダ :
+	 * 　　　　　　　　   - {@code "negotiationId"} : リクエスト元ユニットの融通交渉 ID
+	 * レスポンス : なし
+	 * @param completionHandler the completion handler
+	 */
+	private void startBatchRequestService_(Handler<AsyncResult<Void>> completionHandler) {
+		vertx.eventBus().<JsonObject>consumer(MainServiceAddress.GridMaster.batchRequest(), req -> {
+			if (stopped_) return;
+			String negotiationId = req.headers().get("negotiationId");
+			JsonObject request = req.body();
+			if (negotiationId != null && request != null) {
+				String requestUnitId = request.getString("unitId");
+				if (PolicyKeeping.isMember(requestUnitId)) {
+					pendingRequests_.add(request.copy().put("negotiationId", negotiationId));
+					if (windowTimerId_ == 0L) {
+						windowTimerId_ = vertx.setTimer(windowMsec(), this::windowTimerHandler_);
+					}
+				} else {
+					ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "request received from illegal unit : " + requestUnitId + " ; request : " + request);
+				}
+			} else {
+				ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "no negotiationId in request header : " + req.headers() + " ; request : " + request);
+			}
+		}).completionHandler(completionHandler);
+	}
+
+	/**
+	 * Launch the {@link io.vertx.core.eventbus.EventBus} service.
+	 * Address: {@link MainServiceAddress.GridMaster#batchAccepts()}
+	 * Scope: global
+	 * Function: Receive the "accept" responses of a unit to all the requests of a batch round.
+	 *           Matches the round once every member has responded, without waiting for the timeout.
+	 * Message body: "accept" responses [{@link JsonObject}]
+	 * 　　　　　　   - {@code "unitId"}: ID of the responding unit [{@link String}]
+	 * 　　　　　　   - {@code "accepts"}: "accept" responses each holding the {@code "negotiationId"} of its request [{@link JsonArray}]
+	 * Message header:
+	 * 　　　　　- {@code "batchId"}: the round ID
+	 * Response: none
+	 * @param completionHandler the completion handler
+	 *          
+	 * {@link io.vertx.core.eventbus.EventBus} サービス起動.
+	 * アドレス : {@link MainServiceAddress.GridMaster#batchAccepts()}
+	 * 範囲 : グローバル
+	 * 処理 : 一括交渉ラウンドの全リクエストに対するユニットのアクセプトを受け取る.
+	 * 　　   全メンバがレスポンスしたらタイムアウトを待たずにラウンドをマッチさせる.
+	 * メッセージボディ : アクセプト群 [{@link JsonObject}]
+	 * 　　　　　　　　   - {@code "unitId"} : レスポンスしたユニットの ID [{@link String}]
+	 * 　　　　　　　　   - {@code "accepts"} : それぞれリクエストの {@code "negotiationId"} を持つアクセプト群 [{@link JsonArray}]
+	 * メッセージヘッダ :
+	 * 　　　　　　　　   - {@code "batchId"} : ラウンド ID
+	 * レスポンス : なし
+	 * @param completionHandler the completion handler
+	 */
+	private void startBatchAcceptsService_(Handler<AsyncResult<Void>> completionHandler) {
+		vertx.eventBus().<JsonObject>consumer(MainServiceAddress.GridMaster.batchAccepts(), rep -> {
+			if (stopped_) return;
+			String batchId = rep.headers().get("batchId");
+			JsonObject body = rep.body();
+			Round_ round = (batchId != null) ? rounds_.get(batchId) : null;
+			if (round != null && body != null) {
+				String unitId = body.getString("unitId");
+				if (PolicyKeeping.isMember(unitId)) {
+					round.respondedUnitIds_.add(unitId);
+					JsonArray accepts = body.getJsonArray("accepts");
+					if (accepts != null) {
+						for (Object obj : accepts) {
+							if (obj instanceof JsonObject) {
+								JsonObject anAccept = (JsonObject) obj;
+								String negotiationId = anAccept.getString("negotiationId");
+								if (negotiationId != null && unitId.equals(anAccept.getString("unitId"))) {
+									round.acceptsByNegotiationId_.computeIfAbsent(negotiationId, k -> new ArrayList<>()).add(anAccept);
+								}
+							}
+						}
+					}
+					if (round.allResponded_()) {
+						// Match without waiting for the timeout
+						// タイムアウトを待たずにマッチさせる
+						vertx.cancelTimer(round.timerId_);
+						match_(round);
+					}
+				} else {
+					ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "accepts received from illegal unit : " + unitId + " ; accepts : " + body);
+				}
+			} else {
+				if (log.isDebugEnabled()) log.debug("accepts received for closed round : " + batchId + " ; accepts : " + body);
+			}
+		}).completionHandler(completionHandler);
+	}
+
+	private void windowTimerHandler_(Long timerId) {
+		if (stopped_) return;
+		if (null == timerId || timerId.longValue() != windowTimerId_) {
+			ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "illegal timerId : " + timerId + ", windowTimerId_ : " + windowTimerId_);
+			return;
+		}
+		windowTimerId_ = 0L;
+		Round_ round = new Round_(UUID.randomUUID().toString(), new ArrayList<>(pendingRequests_));
+		pendingRequests_.clear();
+		rounds_.put(round.batchId_, round);
+		if (log.isDebugEnabled()) log.debug("batch round " + round.batchId_ + " ; requests : " + round.requests_.size());
+		// Publish all the requests in one message
+		// 全てのリクエストを一つのメッセージで publish する
+		DeliveryOptions options = new DeliveryOptions().addHeader("replyAddress", MainServiceAddress.GridMaster.batchAccepts()).addHeader("batchId", round.batchId_);
+		vertx.eventBus().publish(MainServiceAddress.Mediator.batchRequests(), new JsonArray(round.requests_), options);
+		Long negotiationTimeoutMsec = PolicyKeeping.cache().getLong(DEFAULT_NEGOTIATION_TIMEOUT_MSEC, "mediator", "negotiationTimeoutMsec");
+		round.timerId_ = vertx.setTimer(negotiationTimeoutMsec, t -> {
+			if (stopped_) return;
+			if (rounds_.get(round.batchId_) == round && round.timerId_ == t) {
+				match_(round);
+			}
+		});
+	}
+
+	/**
+	 * Match the requests of a round with the "accept" responses all at once.
+	 * Matching is done by {@link ScenarioEvaluation#chooseAccepts(io.vertx.core.Vertx, JsonObject, List, Map, Map, List, Handler)} with the free interchange interlocks known from {@link DataCollection#cache} and the existing interchanges.
+	 * Each matched "accept" response is sent to the requesting unit, and a "no match" reply to the requesting units of the others.
+	 * If matching fails every requesting unit gets a "no match" reply.
+	 * @param round the round
+	 *          
+	 * ラウンドのリクエスト群とアクセプト群を一度にマッチさせる.
+	 * {@link DataCollection#cache} からわかる空き融通インタロック数と既存の融通を渡し {@link ScenarioEvaluation#chooseAccepts(io.vertx.core.Vertx, JsonObject, List, Map, Map, List, Handler)} でマッチさせる.
+	 * マッチしたアクセプトをそれぞれリクエスト元ユニットに送り, それ以外のリクエスト元ユニットには「マッチなし」を返信する.
+	 * マッチに失敗したら全リクエスト元ユニットに「マッチなし」を返信する.
+	 * @param round ラウンド
+	 */
+	private void match_(Round_ round) {
+		rounds_.remove(round.batchId_);
+		if (round.requests_.isEmpty()) return;
+		matchingRounds_.add(round);
+		DealUtil.all(vertx, resAll -> {
+			if (stopped_) return;
+			if (resAll.succeeded()) {
+				Map<String, Integer> freeInterlocks = new HashMap<>();
+				for (JsonObject aRequest : round.requests_) {
+					putFreeInterlocks_(freeInterlocks, aRequest.getString("unitId"));
+				}
+				for (List<JsonObject> accepts : round.acceptsByNegotiationId_.values()) {
+					for (JsonObject anAccept : accepts) {
+						putFreeInterlocks_(freeInterlocks, anAccept.getString("unitId"));
+					}
+				}
+				ScenarioEvaluation.chooseAccepts(vertx, PolicyKeeping.cache().jsonObject(), round.requests_, round.acceptsByNegotiationId_, freeInterlocks, resAll.result(), resChoose -> {
+					if (stopped_) return;
+					matchingRounds_.remove(round);
+					if (resChoose.succeeded()) {
+						for (JsonObject aRequest : round.requests_) {
+							String negotiationId = aRequest.getString("negotiationId");
+							JsonObject accept = resChoose.result().get(negotiationId);
+							if (accept != null) {
+								String requestUnitId = aRequest.getString("unitId");
+								// Send the matched "accept" response to the requesting unit
+								// マッチしたアクセプトをリクエスト元ユニットに送る
+								DeliveryOptions options = new DeliveryOptions().addHeader("negotiationId", negotiationId).addHeader("batch", "true");
+								vertx.eventBus().send(MainServiceAddress.Mediator.negotiationReply(requestUnitId), accept, options);
+								if (log.isDebugEnabled()) log.debug("matched : " + requestUnitId + " - " + accept.getString("unitId") + " ; negotiationId : " + negotiationId);
+							} else {
+								sendNoMatch_(aRequest);
+							}
+						}
+						if (log.isDebugEnabled()) log.debug("batch round " + round.batchId_ + " matched ; " + resChoose.result().size() + " of " + round.requests_.size());
+					} else {
+						ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "failed to choose accepts ; batch round : " + round.batchId_, resChoose.cause());
+						sendNoMatch_(round.requests_);
+					}
+				});
+			} else {
+				// Do not match without knowing the existing interchanges
+				// 既存の融通がわからないままマッチさせない
+				matchingRounds_.remove(round);
+				ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "failed to get deals ; batch round : " + round.batchId_, resAll.cause());
+				sendNoMatch_(round.requests_);
+			}
+		});
+	}
+
+	private void sendNoMatch_(List<JsonObject> requests) {
+		for (JsonObject aRequest : requests) {
+			sendNoMatch_(aRequest);
+		}
+	}
+	/**
+	 * Send a "no match" reply to the requesting unit.
+	 * It is a decline with the {@code "batch"} header and without {@code "unitId"}, so that {@link jp.co.sony.csl.dcoes.apis.main.app.mediator.NegotiationEngine} closes the negotiation at once.
+	 * @param request the request
+	 *          
+	 * リクエスト元ユニットに「マッチなし」を返信する.
+	 * {@code "batch"} ヘッダを持ち {@code "unitId"} を持たない断りなので, {@link jp.co.sony.csl.dcoes.apis.main.app.mediator.NegotiationEngine} は融通交渉を即座に閉じる.
+	 * @param request リクエスト
+	 */
+	private void sendNoMatch_(JsonObject request) {
+		String negotiationId = request.getString("negotiationId");
+		String requestUnitId = request.getString("unitId");
+		DeliveryOptions options = new DeliveryOptions().addHeader("negotiationId", negotiationId).addHeader("batch", "true").addHeader("declined", "true");
+		vertx.eventBus().send(MainServiceAddress.Mediator.negotiationReply(requestUnitId), new JsonObject(), options);
+		if (log.isDebugEnabled()) log.debug("no match : " + requestUnitId + " ; negotiationId : " + negotiationId);
+	}
+
+	private void putFreeInterlocks_(Map<String, Integer> freeInterlocks, String unitId) {
+		if (unitId == null || freeInterlocks.containsKey(unitId)) return;
+		JsonObject unitData = DataCollection.cache.getJsonObject(unitId);
+		Integer dealInterlockCapacity = (unitData != null) ? JsonObjectUtil.getInteger(unitData, "apis", "deal_interlock_capacity") : null;
+		// Do not restrict units whose capacity is not known yet
+		// 容量がまだわからないユニットは制限しない
+		if (dealInterlockCapacity == null) return;
+		JsonArray dealIds = JsonObjectUtil.getJsonArray(unitData, "apis", "deal_id_list");
+		freeInterlocks.put(unitId, dealInterlockCapacity - ((dealIds != null) ? dealIds.size() : 0));
+	}
+
+}
@@ -5,21 +5,33 @@ import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
 import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import jp.co.sony.csl.dcoes.apis.common.Error;
 import jp.co.sony.csl.dcoes.apis.common.ServiceAddress;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectUtil;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectWrapper;
+import jp.co.sony.csl.dcoes.apis.common.util.vertx.VertxConfig;
 import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
 import jp.co.sony.csl.dcoes.apis.main.app.controller.util.DDCon;
 import jp.co.sony.csl.dcoes.apis.main.util.ApisConfig;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
+import jp.co.sony.csl.dcoes.apis.main.util.JsonMergePatchUtil;
+import jp.co.sony.csl.dcoes.apis.main.util.MainServiceAddress;
+import jp.co.sony.csl.dcoes.apis.main.util.UnitDataHistory;
 
 /**
  * A Verticle that collects the unit data of all units.
@@ -53,6 +65,14 @@ public class DataCollection extends AbstractVerticle {
 	 * 値は {@value}.
 	 */
 	private static final Long DEFAULT_DATA_COLLECTION_TIMEOUT_MSEC = 2000L;
+	/**
+	 * Default period during which urgent data collection requests are served from the cache [ms].
+	 * Value: {@value}.
+	 *          
+	 * 緊急のデータ収集要求にキャッシュで応答する期間のデフォルト値 [ms].
+	 * 値は {@value}.
+	 */
+	private static final Long DEFAULT_DATA_COLLECTION_FRESHNESS_MSEC = 0L;
 
 	/**
 	 * A cache that retains unit data for all units.
@@ -62,11 +82,58 @@ public class DataCollection extends AbstractVerticle {
 	 * {@link jp.co.sony.csl.dcoes.apis.main.app.gridmaster.main_loop.DealExecution#unitDataCache} とは独立.
 	 */
 	public static final JsonObjectWrapper cache = new JsonObjectWrapper();
+	/**
+	 * Time series of the key channels of the unit data of all units.
+	 * Holds {@code CONFIG.unitDataHistory.capacity} (default: {@link UnitDataHistory#DEFAULT_CAPACITY}) samples per unit.
+	 * A unit is forgotten once it leaves {@code POLICY.memberUnitIds}, or after missing from {@code CONFIG.unitDataHistory.maxIdleSamples} (default: the capacity) collections.
+	 * Created in {@link #start(Future)}, once CONFIG has been loaded.
+	 *          
+	 * 全ユニットのユニットデータの主要なチャネルの時系列.
+	 * ユニットごとに {@code CONFIG.unitDataHistory.capacity} ( デフォルト値 {@link UnitDataHistory#DEFAULT_CAPACITY} ) 個のサンプルを保持する.
+	 * ユニットは {@code POLICY.memberUnitIds} から外れるか {@code CONFIG.unitDataHistory.maxIdleSamples} ( デフォルト値は capacity ) 回の収集に含まれなければ忘れる.
+	 * CONFIG を読み込んだ後の {@link #start(Future)} で生成する.
+	 */
+	private UnitDataHistory history_;
 
 	private long dataCollectionTimerId_ = 0L;
 	private long lastDataCollectionMillis_ = 0L;
 	private boolean stopped_ = false;
 	private Future<Void> stopFuture_ = Future.succeededFuture();
+	/**
+	 * Callers waiting for the data collection whose request has not yet been sent.
+	 * {@code null} if no such data collection exists.
+	 * Callers that arrive before the request is sent share its result instead of starting another one, so the data is always collected after each caller arrived.
+	 *          
+	 * まだ要求を送っていないデータ収集を待っている呼び出し元.
+	 * そのようなデータ収集がなければ {@code null}.
+	 * 要求を送る前に来た呼び出し元は新たに収集を始めずその結果を共有するため, データは必ず各呼び出し元が来た後に収集される.
+	 */
+	private List<Handler<AsyncResult<JsonObject>>> pendingHandlers_ = null;
+	/**
+	 * Callers waiting for the follow-up data collection.
+	 * {@code null} if no follow-up data collection is queued.
+	 * Callers that arrive after the request of the data collection in progress has been sent share one follow-up data collection started when it finishes.
+	 *          
+	 * 後続のデータ収集を待っている呼び出し元.
+	 * 後続のデータ収集が予約されていなければ {@code null}.
+	 * 実行中のデータ収集の要求を送った後に来た呼び出し元はそれが終わった時に始める一つの後続のデータ収集を共有する.
+	 */
+	private List<Handler<AsyncResult<JsonObject>>> followUpHandlers_ = null;
+	private boolean collecting_ = false;
+
+	/**
+	 * Delta collection session ID.
+	 * Units send differences only against unit data sent in the same session.
+	 * A new one is generated every time this Verticle is deployed, so a new GridMaster always starts with the whole unit data.
+	 *          
+	 * 差分収集セッション ID.
+	 * ユニットは同じセッションで送ったユニットデータに対してのみ差分を送る.
+	 * この Verticle を起動するたびに生成されるため新しい GridMaster は必ずユニットデータ全体から始まる.
+	 */
+	private final String deltaSessionId_ = UUID.randomUUID().toString();
+	private final Map<String, JsonObject> deltaBaselines_ = new HashMap<>();
+	private final Map<String, Long> deltaBaselineSeqs_ = new HashMap<>();
+	private final Set<String> deltaResyncUnitIds_ = new HashSet<>();
 
 	/**
 	 * Called at startup.
@@ -82,11 +149,19 @@ public class DataCollection extends AbstractVerticle {
 	 * @throws Exception {@inheritDoc}
 	 */
 	@Override public void start(Future<Void> startFuture) throws Exception {
+		Integer capacity = VertxConfig.config.getInteger(UnitDataHistory.DEFAULT_CAPACITY, "unitDataHistory", "capacity");
+		history_ = new UnitDataHistory(capacity, VertxConfig.config.getInteger(capacity, "unitDataHistory", "maxIdleSamples"));
 		startInternalUnitDatasService_(resInternalUnitDatas -> {
 			if (resInternalUnitDatas.succeeded()) {
-				dataCollectionTimerHandler_(0L);
-				if (log.isTraceEnabled()) log.trace("started : " + deploymentID());
-				startFuture.complete();
+				startUnitDataHistoryService_(resUnitDataHistory -> {
+					if (resUnitDataHistory.succeeded()) {
+						dataCollectionTimerHandler_(0L);
+						if (log.isTraceEnabled()) log.trace("started : " + deploymentID());
+						startFuture.complete();
+					} else {
+						startFuture.fail(resUnitDataHistory.cause());
+					}
+				});
 			} else {
 				startFuture.fail(resInternalUnitDatas.cause());
 			}
@@ -156,6 +231,8 @@ public class DataCollection extends AbstractVerticle {
 	 * Function: Acquire the unit data of all units.
 	 *           Return the results collected by querying all the units instead of using the cached values that are periodically refreshed by GridMaster.
 	 *           If a timestamp was sent in the message body and the most recent data collection took place after this time, skip the data collection and return the cached value instead.
+	 *           Also return the cached value if the most recent data collection took place within {@code POLICY.gridMaster.dataCollectionFreshnessMsec} (default: {@link #DEFAULT_DATA_COLLECTION_FRESHNESS_MSEC}).
+	 *           If data collection is in progress and its request has not yet been sent, share its result instead of starting another one ; otherwise wait for one follow-up data collection.
 	 *           Since "urgent" was not specified in the header at the time of collection, collect the cached data that has been periodically refreshed for each unit.
 	 * Message body: A timestamp indicating the time after which the collection of fresh data is not required [{@link Number}]
 	 * Message header: none
@@ -169,6 +246,8 @@ public class DataCollection extends AbstractVerticle {
 	 * 処理 : 全ユニットのユニットデータを取得する.
 	 * 　　   GridMaster が定期的にリフレッシュしているキャッシュ値ではなく全ユニットに問合せ収集した結果を返す.
 	 * 　　   メッセージボディでタイムスタンプが送られその値より直近のデータ収集が新しい場合はデータ収集を実行せずキャッシュを返す.
+	 * 　　   直近のデータ収集が {@code POLICY.gridMaster.dataCollectionFreshnessMsec} ( デフォルト値 {@link #DEFAULT_DATA_COLLECTION_FRESHNESS_MSEC} ) 以内の場合もキャッシュを返す.
+	 * 　　   データ収集中でまだその要求を送っていなければ新たに収集を始めずその結果を共有する ; そうでなければ一つの後続のデータ収集を待つ.
 	 * 　　   収集時ヘッダに urgent 指定をしないため各ユニットで定期的にリフレッシュしてあるキャッシュデータが集まる.
 	 * メッセージボディ : これより新しければ収集不要タイムスタンプ [{@link Number}]
 	 * メッセージヘッダ : なし
@@ -186,6 +265,11 @@ public class DataCollection extends AbstractVerticle {
 				// その時刻よりキャッシュ時刻の方が新しければ新たにデータ収集することなくキャッシュを返す
 				if (log.isDebugEnabled()) log.debug("no need to refresh ; noNeedToRefreshIfNewerThan : " + noNeedToRefreshIfNewerThan + " , lastDataCollectionMillis_ : " + lastDataCollectionMillis_);
 				req.reply(cache.jsonObject());
+			} else if (!cache.isEmpty() && isFresh_()) {
+				// The cache is fresh enough
+				// キャッシュが十分新しい
+				if (log.isDebugEnabled()) log.debug("cache is fresh enough ; lastDataCollectionMillis_ : " + lastDataCollectionMillis_);
+				req.reply(cache.jsonObject());
 			} else {
 				// Actually collect the data and return the results
 				// 実際にデータ収集してその結果を返す
@@ -200,6 +284,48 @@ public class DataCollection extends AbstractVerticle {
 		}).completionHandler(completionHandler);
 	}
 
+	/**
+	 * Launch the {@link io.vertx.core.eventbus.EventBus} service.
+	 * Address: {@link MainServiceAddress.GridMaster#unitDataHistory()}
+	 * Scope: local
+	 * Function: Query the time series of the key channels of the unit data of a unit.
+	 * Message body: Query conditions [{@link JsonObject}]
+	 *               - {@code "unitId"}: the unit ID [{@link String}]. Required
+	 *               - {@code "fromMillis"}: start of the period, inclusive [{@link Long}]. Optional
+	 *               - {@code "toMillis"}: end of the period, exclusive [{@link Long}]. Optional
+	 *               - {@code "bucketMsec"}: downsampling bucket duration [{@link Long}]. Optional
+	 * Message header: none
+	 * Response: The result of {@link UnitDataHistory#query(String, Long, Long, Long)} [{@link JsonObject}].
+	 *           Fails if nothing is recorded for the unit.
+	 * @param completionHandler the completion handler
+	 *          
+	 * {@link io.vertx.core.eventbus.EventBus} サービス起動.
+	 * アドレス : {@link MainServiceAddress.GridMaster#unitDataHistory()}
+	 * 範囲 : ローカル
+	 * 処理 : ユニットのユニットデータの主要なチャネルの時系列を問い合わせる.
+	 * メッセージボディ : 問い合わせ条件 [{@link JsonObject}]
+	 * 　　　　　　　　   - {@code "unitId"} : ユニット ID [{@link String}]. 必須
+	 * 　　　　　　　　   - {@code "fromMillis"} : 期間の開始 ( 含む ) [{@link Long}]. 任意
+	 * 　　　　　　　　   - {@code "toMillis"} : 期間の終了 ( 含まない ) [{@link Long}]. 任意
+	 * 　　　　　　　　   - {@code "bucketMsec"} : ダウンサンプルのバケットの長さ [{@link Long}]. 任意
+	 * メッセージヘッダ : なし
+	 * レスポンス : {@link UnitDataHistory#query(String, Long, Long, Long)} の結果 [{@link JsonObject}].
+	 * 　　　　　   ユニットの記録がなければ fail.
+	 * @param completionHandler the completion handler
+	 */
+	private void startUnitDataHistoryService_(Handler<AsyncResult<Void>> completionHandler) {
+		vertx.eventBus().<JsonObject>localConsumer(MainServiceAddress.GridMaster.unitDataHistory(), req -> {
+			JsonObject query = (req.body() != null) ? req.body() : new JsonObject();
+			String unitId = query.getString("unitId");
+			JsonObject result = (unitId != null) ? history_.query(unitId, query.getLong("fromMillis"), query.getLong("toMillis"), query.getLong("bucketMsec")) : null;
+			if (result != null) {
+				req.reply(result);
+			} else {
+				req.fail(-1, "no unit data recorded for unit : " + unitId);
+			}
+		}).completionHandler(completionHandler);
+	}
+
 	/**
 	 * Set a data collection timer.
 	 * The timeout duration is {@code POLICY.gridMaster.dataCollectionPeriodMsec} (default: {@link #DEFAULT_DATA_COLLECTION_PERIOD_MSEC}).
@@ -254,12 +380,55 @@ public class DataCollection extends AbstractVerticle {
 			setDataCollectionTimer_();
 		});
 	}
+	private boolean isFresh_() {
+		Long freshnessMsec = PolicyKeeping.cache().getLong(DEFAULT_DATA_COLLECTION_FRESHNESS_MSEC, "gridMaster", "dataCollectionFreshnessMsec");
+		return (0L < freshnessMsec && System.currentTimeMillis() - lastDataCollectionMillis_ < freshnessMsec);
+	}
+	/**
+	 * Collect unit data from all units and update the cache.
+	 * If data collection is already in progress and its request has not yet been sent, wait for it and share its result.
+	 * If the request has already been sent, wait for one follow-up data collection started when it finishes.
+	 * Receive the results with the {@link AsyncResult#result()} method of completionHandler.
+	 * @param completionHandler the completion handler
+	 *          
+	 * 全ユニットからユニットデータを収集しキャッシュを更新する.
+	 * すでにデータ収集中でまだその要求を送っていなければその完了を待ち結果を共有する.
+	 * すでに要求を送っていればそれが終わった時に始める一つの後続のデータ収集を待つ.
+	 * completionHandler の {@link AsyncResult#result()} で結果を受け取る.
+	 * @param completionHandler the completion handler
+	 */
 	private void getDatas_(Handler<AsyncResult<JsonObject>> completionHandler) {
+		if (pendingHandlers_ != null) {
+			if (log.isDebugEnabled()) log.debug("joining data collection not yet requested ; " + pendingHandlers_.size() + " waiting");
+			pendingHandlers_.add(completionHandler);
+			return;
+		}
+		if (collecting_) {
+			// The request has already been sent, so the result may be older than this caller
+			// すでに要求を送っているので結果はこの呼び出し元より古いかもしれない
+			if (followUpHandlers_ == null) followUpHandlers_ = new ArrayList<>();
+			if (log.isDebugEnabled()) log.debug("waiting for follow-up data collection ; " + followUpHandlers_.size() + " waiting");
+			followUpHandlers_.add(completionHandler);
+			return;
+		}
+		List<Handler<AsyncResult<JsonObject>>> handlers = new ArrayList<>();
+		handlers.add(completionHandler);
+		collect_(handlers);
+	}
+	private void collect_(List<Handler<AsyncResult<JsonObject>>> handlers) {
+		pendingHandlers_ = handlers;
+		collecting_ = true;
 		// Temporarily remember the time at which data collection started
 		// データ収集を始めた時刻を仮に覚えておく
 		                                      // TODO: This method could do with some improvement
 		long ts = System.currentTimeMillis(); // TODO : このやり方ちょっといまいちだなぁ
-		new DataCollection_().execute_(res -> {
+		new DataCollection_().execute_(v -> {
+			// The request is sent now ; subsequent callers wait for a follow-up
+			// ここで要求を送る ; 以降の呼び出し元は後続を待つ
+			if (pendingHandlers_ == handlers) pendingHandlers_ = null;
+		}, res -> {
+			if (pendingHandlers_ == handlers) pendingHandlers_ = null;
+			collecting_ = false;
 			if (res.succeeded()) {
 				// When data collection is finished, formally remember the "starting time" that was temporarily stored earlier
 				// データ収集が終わったら仮に覚えてある "始めた時刻" を正式に覚える
@@ -267,9 +436,20 @@ public class DataCollection extends AbstractVerticle {
 				// Keep in cache
 				// キャッシュしておく
 				cache.setJsonObject(res.result());
+				history_.recordAll(System.currentTimeMillis(), res.result());
+				// Reflect a POLICY reload that removed members
+				// メンバを除いた POLICY の再読み込みを反映する
+				history_.retain(PolicyKeeping.memberUnitIds());
 				if (log.isInfoEnabled()) log.info(res.result().size() + " unit data collected");
 			}
-			completionHandler.handle(res);
+			for (Handler<AsyncResult<JsonObject>> aHandler : handlers) {
+				aHandler.handle(res);
+			}
+			List<Handler<AsyncResult<JsonObject>>> followUpHandlers = followUpHandlers_;
+			if (followUpHandlers != null && !collecting_) {
+				followUpHandlers_ = null;
+				collect_(followUpHandlers);
+			}
 		});
 	}
 
@@ -291,7 +471,7 @@ public class DataCollection extends AbstractVerticle {
 		 */
 		private DataCollection_() {
 		}
-		private void execute_(Handler<AsyncResult<JsonObject>> completionHandler) {
+		private void execute_(Handler<Void> requestHandler, Handler<AsyncResult<JsonObject>> completionHandler) {
 			// Generate a disposable reply address
 			// 使い捨ての返信用アドレスを生成する
 			String replyAddress = UUID.randomUUID().toString();
@@ -310,7 +490,10 @@ public class DataCollection extends AbstractVerticle {
 			dataConsumer.handler(rep -> {
 				// When a message is received
 				// メッセージを受け取ったら
-				JsonObject aData = rep.body();
+				// Rebuild the unit data if only the difference was sent
+				// 差分だけが送られてきた場合はユニットデータを復元する
+				JsonObject aData = rebuildUnitData_(rep);
+				if (aData == null) return;
 				// Check the unit ID to see whether or not it is a member defined in POLICY
 				// ユニット ID を確認して POLICY で定義されているメンバかどうか確認する
 				String unitId = JsonObjectUtil.getString(aData, "oesunit", "id");
@@ -360,9 +543,11 @@ public class DataCollection extends AbstractVerticle {
 					// Prepare a disposable address for the reply
 					// 返信用の使い捨てアドレスを仕込んで
 					DeliveryOptions options = new DeliveryOptions().addHeader("replyAddress", replyAddress).addHeader("gridMasterUnitId", ApisConfig.unitId());
+					addDeltaHeaders_(options);
 //					if (log.isInfoEnabled()) log.info("DataCollection:" + replyAddress + " requested");
 					// Publish a unit data collection request
 					// ユニットデータ収集要求を publish する
+					requestHandler.handle(null);
 					vertx.eventBus().publish(ServiceAddress.Controller.unitDatas(), null, options);
 					Long dataCollectionTimeoutMsec = PolicyKeeping.cache().getLong(DEFAULT_DATA_COLLECTION_TIMEOUT_MSEC, "gridMaster", "dataCollectionTimeoutMsec");
 					// Set a timeout
@@ -414,6 +599,106 @@ public class DataCollection extends AbstractVerticle {
 
 	////
 
+	/**
+	 * Find out whether delta collection is enabled.
+	 * The value is {@code POLICY.gridMaster.dataCollectionDelta.enabled} (default: {@code false}).
+	 * @return true if enabled
+	 *          
+	 * 差分収集が有効か否かを取得する.
+	 * 値は {@code POLICY.gridMaster.dataCollectionDelta.enabled} ( デフォルト値 {@code false} ).
+	 * @return 有効なら true
+	 */
+	private boolean isDeltaEnabled_() {
+		return PolicyKeeping.cache().getBoolean(Boolean.FALSE, "gridMaster", "dataCollectionDelta", "enabled");
+	}
+
+	/**
+	 * Add headers for delta collection to the data collection request.
+	 * If delta collection is disabled, discard the retained baselines and add nothing.
+	 * @param options delivery options of the data collection request
+	 *          
+	 * データ収集要求に差分収集用のヘッダを追加する.
+	 * 差分収集が無効なら保持しているベースラインを破棄し何も追加しない.
+	 * @param options データ収集要求の DeliveryOptions
+	 */
+	private void addDeltaHeaders_(DeliveryOptions options) {
+		if (isDeltaEnabled_()) {
+			options.addHeader("deltaSessionId", deltaSessionId_);
+			if (!deltaResyncUnitIds_.isEmpty()) {
+				options.addHeader("deltaResyncUnitIds", new JsonArray(new ArrayList<>(deltaResyncUnitIds_)).encode());
+			}
+		} else if (!deltaBaselines_.isEmpty()) {
+			deltaBaselines_.clear();
+			deltaBaselineSeqs_.clear();
+			deltaResyncUnitIds_.clear();
+		}
+	}
+
+	/**
+	 * Rebuild the unit data from a message received by the data collection process.
+	 * - If there is no deltaSeq header, the body is the whole unit data as before
+	 * - If there is no deltaBaseSeq header, the body is the whole unit data. Retain it as the baseline of the unit
+	 * - Otherwise the body is the difference from the baseline specified by deltaBaseSeq. Apply it to the retained baseline
+	 * If the baseline does not match, use the retained baseline if it is newer, otherwise give up this time and request the whole unit data next time.
+	 * @param rep the received message
+	 * @return unit data. {@code null} if it cannot be rebuilt
+	 *          
+	 * データ収集処理で受信したメッセージからユニットデータを復元する.
+	 * - deltaSeq ヘッダがなければボディは従来通りユニットデータ全体
+	 * - deltaBaseSeq ヘッダがなければボディはユニットデータ全体. ユニットのベースラインとして保持する
+	 * - そうでなければボディは deltaBaseSeq で指定されるベースラインからの差分. 保持しているベースラインに適用する
+	 * ベースラインが一致しない場合は保持しているベースラインの方が新しければそれを使い, そうでなければ今回は諦め次回ユニットデータ全体を要求する.
+	 * @param rep 受信したメッセージ
+	 * @return ユニットデータ. 復元できなければ {@code null}
+	 */
+	private JsonObject rebuildUnitData_(Message<JsonObject> rep) {
+		String seqString = rep.headers().get("deltaSeq");
+		String unitId = rep.headers().get("unitId");
+		if (seqString == null || unitId == null) {
+			return rep.body();
+		}
+		long seq;
+		Long baseSeq = null;
+		try {
+			seq = Long.parseLong(seqString);
+			String baseSeqString = rep.headers().get("deltaBaseSeq");
+			if (baseSeqString != null) baseSeq = Long.valueOf(baseSeqString);
+		} catch (NumberFormatException e) {
+			ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "illegal delta headers received from unit : " + unitId + " ; headers : " + rep.headers(), e);
+			deltaResyncUnitIds_.add(unitId);
+			return null;
+		}
+		JsonObject baseline = deltaBaselines_.get(unitId);
+		Long baselineSeq = deltaBaselineSeqs_.get(unitId);
+		if (baseSeq == null) {
+			// The whole unit data
+			// ユニットデータ全体
+			baseline = rep.body();
+		} else if (baseline != null && baseSeq.equals(baselineSeq)) {
+			// The difference from the retained baseline
+			// 保持しているベースラインからの差分
+			baseline = JsonMergePatchUtil.apply(baseline, rep.body());
+		} else if (baseline != null && baselineSeq != null && seq <= baselineSeq) {
+			// An older difference arrived after a newer one ; the retained baseline is already up to date
+			// 新しいものより後に古い差分が届いた ; 保持しているベースラインがすでに新しい
+			return baseline.copy();
+		} else {
+			if (log.isInfoEnabled()) log.info("delta baseline mismatch ; unitId : " + unitId + " , deltaBaseSeq : " + baseSeq + " , retained : " + baselineSeq);
+			deltaBaselines_.remove(unitId);
+			deltaBaselineSeqs_.remove(unitId);
+			deltaResyncUnitIds_.add(unitId);
+			return null;
+		}
+		deltaBaselines_.put(unitId, baseline);
+		deltaBaselineSeqs_.put(unitId, seq);
+		deltaResyncUnitIds_.remove(unitId);
+		// Hand over a copy so that the baseline is not affected by users of the result
+		// 結果の利用者の影響をベースラインが受けないようコピーを渡す
+		return baseline.copy();
+	}
+
+	////
+
 	/**
 	 * Get the ID of the unit responsible for the voltage reference.
 	 * The decision is based on data that is periodically collected and updated.
@@ -36,6 +36,14 @@ public class ErrorCollection extends AbstractVerticle {
 	 * 値は {@value}.
 	 */
 	private static final Long DEFAULT_ERROR_SUSTAINING_MSEC = 30000L;
+	/**
+	 * Default minimum interval between main loop executions triggered by errors [ms].
+	 * Value: {@value}.
+	 *          
+	 * エラーによりトリガするメインループ実行の最小間隔のデフォルト値 [ms].
+	 * 値は {@value}.
+	 */
+	private static final Long DEFAULT_ERROR_TRIGGERING_MIN_INTERVAL_MSEC = 5000L;
 
 	/**
 	 * A cache that retains global errors.
@@ -46,6 +54,7 @@ public class ErrorCollection extends AbstractVerticle {
 
 	private static boolean hasErrors_ = false;
 	private static long errorHandledMillis_ = 0;
+	private long errorTriggeredMillis_ = 0L;
 
 	/**
 	 * Called at startup.
@@ -166,6 +175,30 @@ public class ErrorCollection extends AbstractVerticle {
 			// WARN 以外を対象とする → ERROR FATAL UNKNOWN が対象
 			errorReceived_();
 			cache.add(error, Error.category(error).name(), Error.level(error).name());
+			triggerByError_(error);
+		}
+	}
+	/**
+	 * Handle the error without waiting for the next main loop cycle.
+	 * Errors reported by the main loop itself would otherwise rerun it for as long as the fault lasts,
+	 * so the main loop is triggered by errors at most once per {@code POLICY.gridMaster.mainLoopTriggering.errorMinIntervalMsec} (default: {@link #DEFAULT_ERROR_TRIGGERING_MIN_INTERVAL_MSEC}).
+	 * Errors received in between are kept in the cache and handled by the next execution.
+	 * @param error the error
+	 *          
+	 * 次のメインループ周期を待たずにエラー対応させる.
+	 * そのままではメインループ自身が報告するエラーにより障害が続く間メインループが再実行され続けるため,
+	 * エラーによるトリガは {@code POLICY.gridMaster.mainLoopTriggering.errorMinIntervalMsec} ( デフォルト値 {@link #DEFAULT_ERROR_TRIGGERING_MIN_INTERVAL_MSEC} ) に一度までとする.
+	 * その間に受信したエラーはキャッシュに保持され次の実行で処理される.
+	 * @param error エラー
+	 */
+	private void triggerByError_(JsonObject error) {
+		long now = System.currentTimeMillis();
+		long minIntervalMsec = PolicyKeeping.cache().getLong(DEFAULT_ERROR_TRIGGERING_MIN_INTERVAL_MSEC, "gridMaster", "mainLoopTriggering", "errorMinIntervalMsec");
+		if (errorTriggeredMillis_ == 0L || errorTriggeredMillis_ + minIntervalMsec <= now) {
+			errorTriggeredMillis_ = now;
+			MainLoop.trigger(vertx, "error received : " + Error.logMessage(error));
+		} else {
+			if (log.isDebugEnabled()) log.debug("main loop not triggered ; last error triggering : " + (now - errorTriggeredMillis_) + " ms ago");
 		}
 	}
 
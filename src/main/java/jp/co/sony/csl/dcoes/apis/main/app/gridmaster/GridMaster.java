@@ -10,6 +10,7 @@ import jp.co.sony.csl.dcoes.apis.common.Error;
 import jp.co.sony.csl.dcoes.apis.common.ServiceAddress;
 import jp.co.sony.csl.dcoes.apis.main.app.gridmaster.main_loop.DealExecution;
 import jp.co.sony.csl.dcoes.apis.main.app.gridmaster.main_loop.GlobalDataCalculation;
+import jp.co.sony.csl.dcoes.apis.main.evaluation.safety.DealCurrentLedger;
 import jp.co.sony.csl.dcoes.apis.main.evaluation.safety.GlobalSafetyEvaluation;
 import jp.co.sony.csl.dcoes.apis.main.util.ApisConfig;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
@@ -23,6 +24,7 @@ import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
  * - {@link DataCollection}: A Verticle that collects the unit data of all units
  * - {@link DataResponding}: A Verticle that provides unit data for all units
  * - {@link MainLoop}: A Verticle that periodically executes primary tasks such as interchange processing and error handling
+ * - {@link BatchNegotiation}: A Verticle that runs batch rounds of interchange negotiation
  * @author OES Project
  *          
  * GridMaster サービスの親玉 Verticle.
@@ -33,6 +35,7 @@ import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
  * - {@link DataCollection} : 全ユニットのユニットデータを収集する Verticle
  * - {@link DataResponding} : 全ユニットのユニットデータを提供する Verticle
  * - {@link MainLoop} : 融通処理やエラー対応などの主業務を定期的に実行する Verticle
+ * - {@link BatchNegotiation} : 一括融通交渉ラウンドを実行する Verticle
  * @author OES Project
  */
 public class GridMaster extends AbstractVerticle {
@@ -47,6 +50,7 @@ public class GridMaster extends AbstractVerticle {
 	 * - {@link DataCollection}: A Verticle that collects the unit data of all units
 	 * - {@link DataResponding}: A Verticle that provides unit data for all units
 	 * - {@link MainLoop}: A Verticle that periodically executes primary tasks such as interchange processing and error handling
+	 * - {@link BatchNegotiation}: A Verticle that runs batch rounds of interchange negotiation
 	 * @param startFuture {@inheritDoc}
 	 * @throws Exception {@inheritDoc}
 	 *          
@@ -58,6 +62,7 @@ public class GridMaster extends AbstractVerticle {
 	 * - {@link DataCollection} : 全ユニットのユニットデータを収集する Verticle
 	 * - {@link DataResponding} : 全ユニットのユニットデータを提供する Verticle
 	 * - {@link MainLoop} : 融通処理やエラー対応などの主業務を定期的に実行する Verticle
+	 * - {@link BatchNegotiation} : 一括融通交渉ラウンドを実行する Verticle
 	 * @param startFuture {@inheritDoc}
 	 * @throws Exception {@inheritDoc}
 	 */
@@ -74,8 +79,14 @@ public class GridMaster extends AbstractVerticle {
 												if (resDataResponding.succeeded()) {
 													vertx.deployVerticle(new MainLoop(), resMainLoop -> {
 														if (resMainLoop.succeeded()) {
-															if (log.isTraceEnabled()) log.trace("started : " + deploymentID());
-															startFuture.complete();
+															vertx.deployVerticle(new BatchNegotiation(), resBatchNegotiation -> {
+																if (resBatchNegotiation.succeeded()) {
+																	if (log.isTraceEnabled()) log.trace("started : " + deploymentID());
+																	startFuture.complete();
+																} else {
+																	startFuture.fail(resBatchNegotiation.cause());
+																}
+															});
 														} else {
 															startFuture.fail(resMainLoop.cause());
 														}
@@ -113,10 +124,12 @@ public class GridMaster extends AbstractVerticle {
 	 */
 	@Override public void stop() throws Exception {
 		DealExecution.unitDataCache.reset();
+		DealExecution.unitDataView.reset(null);
 		DataCollection.cache.reset();
 		ErrorCollection.cache.reset();
 		GlobalDataCalculation.cache.reset();
 		GlobalSafetyEvaluation.errors.reset();
+		DealCurrentLedger.reset();
 		if (log.isTraceEnabled()) log.trace("stopped : " + deploymentID());
 	}
 
@@ -5,6 +5,7 @@ import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import jp.co.sony.csl.dcoes.apis.common.Error;
@@ -15,8 +16,10 @@ import jp.co.sony.csl.dcoes.apis.main.app.StateHandling;
 import jp.co.sony.csl.dcoes.apis.main.app.gridmaster.main_loop.DealExecution;
 import jp.co.sony.csl.dcoes.apis.main.app.gridmaster.main_loop.ErrorHandling;
 import jp.co.sony.csl.dcoes.apis.main.app.gridmaster.main_loop.GlobalDataCalculation;
+import jp.co.sony.csl.dcoes.apis.main.app.gridmaster.main_loop.MainLoopStatistics;
 import jp.co.sony.csl.dcoes.apis.main.evaluation.safety.GlobalSafetyEvaluation;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
+import jp.co.sony.csl.dcoes.apis.main.util.MainServiceAddress;
 
 /**
  * A Verticle that periodically executes primary tasks such as interchange processing and error handling.
@@ -24,9 +27,11 @@ import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
  * Periodically perform the following processes.
  * 1. {@link ErrorHandling#execute(Vertx, Handler)}
  * 2. {@link DealExecution#execute(Vertx, Handler)}
- * 3. {@link GlobalSafetyEvaluation#check(Vertx, io.vertx.core.json.JsonObject, io.vertx.core.json.JsonObject, Handler)}
+ * 3. {@link GlobalSafetyEvaluation#check(Vertx, io.vertx.core.json.JsonObject, io.vertx.core.json.JsonObject, jp.co.sony.csl.dcoes.apis.main.util.UnitDataView, Handler)}
  * 4. {@link GlobalDataCalculation#execute(Vertx, Handler)}
  * 5. {@link ErrorHandling#execute(Vertx, Handler)}
+ * If triggering is enabled, the main loop is also executed immediately (debounced) when deals are created, deals need to stop or errors are received.
+ * The duration of each step is recorded in {@link MainLoopStatistics}.
  * @author OES Project
  *          
  * 融通処理やエラー対応などの主業務を定期的に実行する Verticle.
@@ -34,9 +39,11 @@ import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
  * 以下の処理を定期的に実行する.
  * 1. {@link ErrorHandling#execute(Vertx, Handler)}
  * 2. {@link DealExecution#execute(Vertx, Handler)}
- * 3. {@link GlobalSafetyEvaluation#check(Vertx, io.vertx.core.json.JsonObject, io.vertx.core.json.JsonObject, Handler)}
+ * 3. {@link GlobalSafetyEvaluation#check(Vertx, io.vertx.core.json.JsonObject, io.vertx.core.json.JsonObject, jp.co.sony.csl.dcoes.apis.main.util.UnitDataView, Handler)}
  * 4. {@link GlobalDataCalculation#execute(Vertx, Handler)}
  * 5. {@link ErrorHandling#execute(Vertx, Handler)}
+ * トリガが有効であれば融通の作成, 融通の停止要求, エラーの受信時にも ( まとめて ) 即座に実行する.
+ * 各処理の所要時間を {@link MainLoopStatistics} に記録する.
  * @author OES Project
  */
 public class MainLoop extends AbstractVerticle {
@@ -50,6 +57,32 @@ public class MainLoop extends AbstractVerticle {
 	 * 値は {@value}.
 	 */
 	public static final Long DEFAULT_MAIN_LOOP_PERIOD_MSEC = 5000L;
+	/**
+	 * Default waiting time from a trigger to the execution of the main loop [ms].
+	 * Triggers that arrive within this time are combined into a single execution.
+	 * Value: {@value}.
+	 *          
+	 * トリガからメインループ実行までの待ち時間のデフォルト値 [ms].
+	 * この時間内に来たトリガはまとめて一度の実行にする.
+	 * 値は {@value}.
+	 */
+	private static final Long DEFAULT_MAIN_LOOP_TRIGGERING_DEBOUNCE_MSEC = 100L;
+	/**
+	 * Default period of the log output of the main loop statistics [ms].
+	 * Value: {@value}.
+	 *          
+	 * メインループ統計のログ出力周期のデフォルト値 [ms].
+	 * 値は {@value}.
+	 */
+	private static final Long DEFAULT_MAIN_LOOP_STATISTICS_LOG_PERIOD_MSEC = 60000L;
+	/**
+	 * Default minimum interval between main loop overrun warnings [ms].
+	 * Value: {@value}.
+	 *          
+	 * メインループのオーバラン警告の最小間隔のデフォルト値 [ms].
+	 * 値は {@value}.
+	 */
+	private static final Long DEFAULT_MAIN_LOOP_OVERRUN_WARNING_INTERVAL_MSEC = 60000L;
 
 	private static final LocalExclusiveLock exclusiveLock_ = new LocalExclusiveLock(MainLoop.class.getName());
 	/**
@@ -91,24 +124,58 @@ public class MainLoop extends AbstractVerticle {
 		exclusiveLock_.reset(vertx);
 	}
 
+	/**
+	 * Request an immediate execution of the main loop.
+	 * Nothing happens if this unit is not the GridMaster or triggering is disabled.
+	 * @param vertx a vertx object
+	 * @param reason the reason for the request. Used only for logging
+	 *          
+	 * メインループの即時実行を要求する.
+	 * GridMaster でない場合やトリガが無効な場合は何も起きない.
+	 * @param vertx vertx オブジェクト
+	 * @param reason 要求の理由. ログ出力にのみ使う
+	 */
+	public static void trigger(Vertx vertx, String reason) {
+		vertx.eventBus().send(MainServiceAddress.GridMaster.mainLoopTriggering(), reason);
+	}
+
 	private long mainLoopTimerId_ = 0L;
+	private long triggerTimerId_ = 0L;
+	private long statisticsLogTimerId_ = 0L;
+	private boolean triggeredWhileRunning_ = false;
 	private boolean stopped_ = false;
 
 	/**
 	 * Called at startup.
-	 * Start a timer that executes processing periodically.
+	 * Launches the {@link io.vertx.core.eventbus.EventBus} services.
+	 * Start a timer that executes processing periodically and a timer that logs the statistics.
 	 * @param startFuture {@inheritDoc}
 	 * @throws Exception {@inheritDoc}
 	 *          
 	 * 起動時に呼び出される.
-	 * 定期的に処理を実行するタイマを起動する.
+	 * {@link io.vertx.core.eventbus.EventBus} サービスを起動する.
+	 * 定期的に処理を実行するタイマと統計をログ出力するタイマを起動する.
 	 * @param startFuture {@inheritDoc}
 	 * @throws Exception {@inheritDoc}
 	 */
 	@Override public void start(Future<Void> startFuture) throws Exception {
-		mainLoopTimerHandler_(0L);
-		if (log.isTraceEnabled()) log.trace("started : " + deploymentID());
-		startFuture.complete();
+		startMainLoopTriggeringService_(resMainLoopTriggering -> {
+			if (resMainLoopTriggering.succeeded()) {
+				startMainLoopStatisticsService_(resMainLoopStatistics -> {
+					if (resMainLoopStatistics.succeeded()) {
+						MainLoopStatistics.reset();
+						mainLoopTimerHandler_(0L);
+						setStatisticsLogTimer_();
+						if (log.isTraceEnabled()) log.trace("started : " + deploymentID());
+						startFuture.complete();
+					} else {
+						startFuture.fail(resMainLoopStatistics.cause());
+					}
+				});
+			} else {
+				startFuture.fail(resMainLoopTriggering.cause());
+			}
+		});
 	}
 
 	/**
@@ -127,16 +194,106 @@ public class MainLoop extends AbstractVerticle {
 
 	////
 
+	/**
+	 * Launch the {@link io.vertx.core.eventbus.EventBus} service.
+	 * Address: {@link MainServiceAddress.GridMaster#mainLoopTriggering()}
+	 * Scope: global
+	 * Function: Execute the main loop immediately without waiting for the periodic timer.
+	 * 　　   Only when {@code POLICY.gridMaster.mainLoopTriggering.enabled} is {@code true}.
+	 * 　　   Triggers that arrive within {@code POLICY.gridMaster.mainLoopTriggering.debounceMsec} (default: {@link #DEFAULT_MAIN_LOOP_TRIGGERING_DEBOUNCE_MSEC}) are combined into a single execution.
+	 * 　　   If the main loop is running, execute it again after it finishes.
+	 * Message body: the reason for the request [{@link String}]
+	 * Message header: none
+	 * Response: none
+	 * @param completionHandler the completion handler
+	 *          
+	 * {@link io.vertx.core.eventbus.EventBus} サービス起動.
+	 * アドレス : {@link MainServiceAddress.GridMaster#mainLoopTriggering()}
+	 * 範囲 : グローバル
+	 * 処理 : 定期タイマを待たずに即座にメインループを実行する.
+	 * 　　   {@code POLICY.gridMaster.mainLoopTriggering.enabled} が {@code true} の場合のみ.
+	 * 　　   {@code POLICY.gridMaster.mainLoopTriggering.debounceMsec} ( デフォルト値 {@link #DEFAULT_MAIN_LOOP_TRIGGERING_DEBOUNCE_MSEC} ) 以内に来たトリガはまとめて一度の実行にする.
+	 * 　　   メインループ実行中であれば終了後にもう一度実行する.
+	 * メッセージボディ : 要求の理由 [{@link String}]
+	 * メッセージヘッダ : なし
+	 * レスポンス : なし
+	 * @param completionHandler the completion handler
+	 */
+	private void startMainLoopTriggeringService_(Handler<AsyncResult<Void>> completionHandler) {
+		vertx.eventBus().<String>consumer(MainServiceAddress.GridMaster.mainLoopTriggering(), req -> {
+			if (stopped_) return;
+			if (!PolicyKeeping.cache().getBoolean(Boolean.FALSE, "gridMaster", "mainLoopTriggering", "enabled")) return;
+			if (log.isDebugEnabled()) log.debug("main loop triggered ; reason : " + req.body());
+			if (triggerTimerId_ == 0L) {
+				Long debounceMsec = PolicyKeeping.cache().getLong(DEFAULT_MAIN_LOOP_TRIGGERING_DEBOUNCE_MSEC, "gridMaster", "mainLoopTriggering", "debounceMsec");
+				triggerTimerId_ = vertx.setTimer(Math.max(1L, debounceMsec), this::triggerTimerHandler_);
+			}
+		}).completionHandler(completionHandler);
+	}
+	/**
+	 * Launch the {@link io.vertx.core.eventbus.EventBus} service.
+	 * Address: {@link MainServiceAddress.GridMaster#mainLoopStatistics()}
+	 * Scope: local
+	 * Function: Query the timing statistics of the main loop.
+	 * Message body: none
+	 * Message header: none
+	 * Response: The result of {@link MainLoopStatistics#toJsonObject()} [{@link JsonObject}].
+	 * @param completionHandler the completion handler
+	 *          
+	 * {@link io.vertx.core.eventbus.EventBus} サービス起動.
+	 * アドレス : {@link MainServiceAddress.GridMaster#mainLoopStatistics()}
+	 * 範囲 : ローカル
+	 * 処理 : メインループの時間統計を問い合わせる.
+	 * メッセージボディ : なし
+	 * メッセージヘッダ : なし
+	 * レスポンス : {@link MainLoopStatistics#toJsonObject()} の結果 [{@link JsonObject}].
+	 * @param completionHandler the completion handler
+	 */
+	private void startMainLoopStatisticsService_(Handler<AsyncResult<Void>> completionHandler) {
+		vertx.eventBus().<Void>localConsumer(MainServiceAddress.GridMaster.mainLoopStatistics(), req -> {
+			req.reply(MainLoopStatistics.toJsonObject());
+		}).completionHandler(completionHandler);
+	}
+
+	/**
+	 * Main loop trigger timer processing.
+	 * If the periodic timer is waiting, cancel it and execute the main loop immediately.
+	 * Otherwise the main loop is running, so remember to execute it again after it finishes.
+	 * @param timerId timer ID
+	 *          
+	 * メインループトリガタイマ処理.
+	 * 定期タイマが待機中であればキャンセルして即座にメインループを実行する.
+	 * そうでなければメインループ実行中なので終了後にもう一度実行するよう覚えておく.
+	 * @param timerId タイマ ID
+	 */
+	private void triggerTimerHandler_(Long timerId) {
+		triggerTimerId_ = 0L;
+		if (stopped_) return;
+		if (vertx.cancelTimer(mainLoopTimerId_)) {
+			setMainLoopTimer_(1L);
+		} else {
+			triggeredWhileRunning_ = true;
+		}
+	}
+
 	/**
 	 * Sets the GridMaster main loop execution timer
 	 * The timeout duration is {@code POLICY.gridMaster.mainLoopPeriodMsec} (default: {@link #DEFAULT_MAIN_LOOP_PERIOD_MSEC}).
+	 * If triggered while the main loop was running, the timeout duration is {@code POLICY.gridMaster.mainLoopTriggering.debounceMsec} (default: {@link #DEFAULT_MAIN_LOOP_TRIGGERING_DEBOUNCE_MSEC}).
 	 *          
 	 * GridMaster メインループ実行タイマ設定.
 	 * 待ち時間は {@code POLICY.gridMaster.mainLoopPeriodMsec} ( デフォルト値 {@link #DEFAULT_MAIN_LOOP_PERIOD_MSEC} ).
+	 * メインループ実行中にトリガされていた場合の待ち時間は {@code POLICY.gridMaster.mainLoopTriggering.debounceMsec} ( デフォルト値 {@link #DEFAULT_MAIN_LOOP_TRIGGERING_DEBOUNCE_MSEC} ).
 	 */
 	private void setMainLoopTimer_() {
-		Long delay = PolicyKeeping.cache().getLong(DEFAULT_MAIN_LOOP_PERIOD_MSEC, "gridMaster", "mainLoopPeriodMsec");
-		setMainLoopTimer_(delay);
+		Long delay;
+		if (triggeredWhileRunning_) {
+			triggeredWhileRunning_ = false;
+			delay = PolicyKeeping.cache().getLong(DEFAULT_MAIN_LOOP_TRIGGERING_DEBOUNCE_MSEC, "gridMaster", "mainLoopTriggering", "debounceMsec");
+		} else {
+			delay = PolicyKeeping.cache().getLong(DEFAULT_MAIN_LOOP_PERIOD_MSEC, "gridMaster", "mainLoopPeriodMsec");
+		}
+		setMainLoopTimer_(Math.max(1L, delay));
 	}
 	/**
 	 * Sets the GridMaster main loop execution timer
@@ -182,17 +339,47 @@ public class MainLoop extends AbstractVerticle {
 			});
 		}
 	}
+	/**
+	 * Run the steps of the main loop in order, recording the duration of each step and of the whole loop in {@link MainLoopStatistics}.
+	 * A loop longer than {@code POLICY.gridMaster.mainLoopPeriodMsec} (default: {@link #DEFAULT_MAIN_LOOP_PERIOD_MSEC}) is counted as an overrun and logged.
+	 * @param completionHandler the completion handler
+	 *          
+	 * メインループの処理を順に実行し各処理とループ全体の所要時間を {@link MainLoopStatistics} に記録する.
+	 * {@code POLICY.gridMaster.mainLoopPeriodMsec} ( デフォルト値 {@link #DEFAULT_MAIN_LOOP_PERIOD_MSEC} ) より長くかかったループはオーバランとして数えログ出力する.
+	 * @param completionHandler the completion handler
+	 */
 	private void doMainLoopWithExclusiveLock_(Handler<AsyncResult<Void>> completionHandler) {
 		if (stopped_) {
 			completionHandler.handle(Future.succeededFuture());
 		} else {
+			long loopStartNanos = System.nanoTime();
 			ErrorHandling.execute(vertx, resErrorHandling_before -> {
+				long dealExecutionStartNanos = System.nanoTime();
+				MainLoopStatistics.record(MainLoopStatistics.Phase.ERROR_HANDLING_BEFORE, dealExecutionStartNanos - loopStartNanos);
 				DealExecution.execute(vertx, resDealExecution -> {
-					GlobalSafetyEvaluation.check(vertx, PolicyKeeping.cache().jsonObject(), DealExecution.unitDataCache.jsonObject(), resSafetyEvaluation -> {
+					long safetyEvaluationStartNanos = System.nanoTime();
+					MainLoopStatistics.record(MainLoopStatistics.Phase.DEAL_EXECUTION, safetyEvaluationStartNanos - dealExecutionStartNanos);
+					GlobalSafetyEvaluation.check(vertx, PolicyKeeping.cache().jsonObject(), DealExecution.unitDataCache.jsonObject(), DealExecution.unitDataView, resSafetyEvaluation -> {
+						long globalDataCalculationStartNanos = System.nanoTime();
+						MainLoopStatistics.record(MainLoopStatistics.Phase.GLOBAL_SAFETY_EVALUATION, globalDataCalculationStartNanos - safetyEvaluationStartNanos);
 						GlobalDataCalculation.execute(vertx, resGlobalDataCalculation -> {
+							long errorHandlingAfterStartNanos = System.nanoTime();
+							MainLoopStatistics.record(MainLoopStatistics.Phase.GLOBAL_DATA_CALCULATION, errorHandlingAfterStartNanos - globalDataCalculationStartNanos);
 							// Finally perform error handling again
 							// 最後にエラー処理をもう一度実行
 							ErrorHandling.execute(vertx, resErrorHandling_after -> {
+								long loopEndNanos = System.nanoTime();
+								MainLoopStatistics.record(MainLoopStatistics.Phase.ERROR_HANDLING_AFTER, loopEndNanos - errorHandlingAfterStartNanos);
+								Long periodMsec = PolicyKeeping.cache().getLong(DEFAULT_MAIN_LOOP_PERIOD_MSEC, "gridMaster", "mainLoopPeriodMsec");
+								if (MainLoopStatistics.recordLoop(loopEndNanos - loopStartNanos, periodMsec)) {
+									// Warn at most once per interval so that a slow cluster does not flood the log
+									// 遅いクラスタでログがあふれないよう警告は間隔あたり一回までにする
+									Long warningIntervalMsec = PolicyKeeping.cache().getLong(DEFAULT_MAIN_LOOP_OVERRUN_WARNING_INTERVAL_MSEC, "gridMaster", "mainLoopStatistics", "overrunWarningIntervalMsec");
+									long overruns = MainLoopStatistics.overrunsToWarn(System.currentTimeMillis(), warningIntervalMsec);
+									if (0L < overruns) {
+										if (log.isWarnEnabled()) log.warn("main loop overrun ; " + ((loopEndNanos - loopStartNanos) / 1000000L) + " [ms] > mainLoopPeriodMsec : " + periodMsec + " [ms] ; overruns since last warning : " + overruns + " ; " + MainLoopStatistics.toLogString());
+									}
+								}
 								// Relocate the GridMaster appropriately since the state might change due to interchange processing and the like
 								// 融通処理などで状況が変わっているだろうから GridMaster を適切に配置し直す
 								vertx.eventBus().send(ServiceAddress.Mediator.gridMasterEnsuring(), null);
@@ -205,4 +392,39 @@ public class MainLoop extends AbstractVerticle {
 		}
 	}
 
+	/**
+	 * Set the timer that logs the main loop statistics.
+	 * The timeout duration is {@code POLICY.gridMaster.mainLoopStatistics.logPeriodMsec} (default: {@link #DEFAULT_MAIN_LOOP_STATISTICS_LOG_PERIOD_MSEC}).
+	 * Nothing is logged while it is {@code 0} or less ; the setting is checked again after {@link #DEFAULT_MAIN_LOOP_STATISTICS_LOG_PERIOD_MSEC}.
+	 * Every timeout ends the reporting interval of {@link MainLoopStatistics}, whether logged or not.
+	 *          
+	 * メインループ統計のログ出力タイマ設定.
+	 * 待ち時間は {@code POLICY.gridMaster.mainLoopStatistics.logPeriodMsec} ( デフォルト値 {@link #DEFAULT_MAIN_LOOP_STATISTICS_LOG_PERIOD_MSEC} ).
+	 * {@code 0} 以下の間はログ出力しない ; {@link #DEFAULT_MAIN_LOOP_STATISTICS_LOG_PERIOD_MSEC} 後に設定を再確認する.
+	 * ログ出力の有無によらずタイムアウトごとに {@link MainLoopStatistics} の報告区間を終える.
+	 */
+	private void setStatisticsLogTimer_() {
+		Long delay = PolicyKeeping.cache().getLong(DEFAULT_MAIN_LOOP_STATISTICS_LOG_PERIOD_MSEC, "gridMaster", "mainLoopStatistics", "logPeriodMsec");
+		statisticsLogTimerId_ = vertx.setTimer((0L < delay) ? delay : DEFAULT_MAIN_LOOP_STATISTICS_LOG_PERIOD_MSEC, this::statisticsLogTimerHandler_);
+	}
+	/**
+	 * Main loop statistics log timer processing.
+	 * @param timerId timer ID
+	 *          
+	 * メインループ統計のログ出力タイマ処理.
+	 * @param timerId タイマ ID
+	 */
+	private void statisticsLogTimerHandler_(Long timerId) {
+		if (stopped_) return;
+		if (null == timerId || timerId.longValue() != statisticsLogTimerId_) {
+			ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "illegal timerId : " + timerId + ", statisticsLogTimerId_ : " + statisticsLogTimerId_);
+			return;
+		}
+		String statistics = MainLoopStatistics.rotate();
+		if (0L < PolicyKeeping.cache().getLong(DEFAULT_MAIN_LOOP_STATISTICS_LOG_PERIOD_MSEC, "gridMaster", "mainLoopStatistics", "logPeriodMsec")) {
+			if (log.isInfoEnabled()) log.info("main loop statistics ; " + statistics);
+		}
+		setStatisticsLogTimer_();
+	}
+
 }
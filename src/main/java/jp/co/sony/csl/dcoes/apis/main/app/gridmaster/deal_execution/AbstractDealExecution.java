@@ -21,7 +21,9 @@ import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectUtil;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.ReplyFailureUtil;
 import jp.co.sony.csl.dcoes.apis.main.app.controller.util.DDCon;
 import jp.co.sony.csl.dcoes.apis.main.app.gridmaster.main_loop.DealExecution;
+import jp.co.sony.csl.dcoes.apis.main.app.mediator.util.DealIndex;
 import jp.co.sony.csl.dcoes.apis.main.app.mediator.util.DealUtil;
+import jp.co.sony.csl.dcoes.apis.main.evaluation.safety.DealCurrentLedger;
 import jp.co.sony.csl.dcoes.apis.main.util.ApisConfig;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorExceptionUtil;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
@@ -45,6 +47,7 @@ public abstract class AbstractDealExecution {
 	protected JsonObject policy_;
 	protected JsonObject deal_;
 	protected List<JsonObject> otherDeals_;
+	private DealIndex otherDealIndex_;
 
 	protected String dealId_;
 	protected String dischargeUnitId_;
@@ -90,6 +93,7 @@ public abstract class AbstractDealExecution {
 		policy_ = other.policy_;
 		deal_ = other.deal_;
 		otherDeals_ = other.otherDeals_;
+		otherDealIndex_ = other.otherDealIndex_;
 
 		dealId_ = other.dealId_;
 		dischargeUnitId_ = other.dischargeUnitId_;
@@ -144,6 +148,19 @@ public abstract class AbstractDealExecution {
 //		return ("dischargeUnit".equals(referenceSide_)) ? NumberUtil.negativeValue(JsonObjectUtil.getFloat(dischargeUnitData_, "dcdc", "meter", "ig")) : JsonObjectUtil.getFloat(chargeUnitData_, "dcdc", "meter", "ig");
 //	}
 
+	/**
+	 * Reflect a state transition of this interchange written to shared memory in {@link DealCurrentLedger}.
+	 * Only the GridMaster makes the transitions, so the ledger is fed here rather than on every write.
+	 * @param deal the DEAL object after the transition. {@code null} if disposed
+	 *          
+	 * 共有メモリに書き込んだこの融通の状態遷移を {@link DealCurrentLedger} に反映する.
+	 * 状態遷移は GridMaster だけが行うので書き込みのたびではなくここで台帳に反映する.
+	 * @param deal 遷移後の DEAL オブジェクト. 削除なら {@code null}
+	 */
+	protected void dealTransited_(JsonObject deal) {
+		DealCurrentLedger.update(dealId_, deal);
+	}
+
 	/**
 	 * Fetch the Master Deal.
 	 * If it does not exist, return {@code null}
@@ -163,21 +180,20 @@ public abstract class AbstractDealExecution {
 
 	/**
 	 * Fetch a list of DEAL objects in which the unit specified by {@code unitId} participates, except for the DEAL object to be processed.
+	 * Answered from a {@link DealIndex} built on the first call, because the participating units of an interchange do not change.
 	 * @param unitId the unit ID
 	 * @return a list of DEAL objects in which the unit specified by {@code unitId} participates, except for the DEAL object to be processed
 	 *          
 	 * {@code unitId} で指定したユニットが参加している DEAL のうち処理対象の DEAL を除くリストを取得する.
+	 * 融通の参加ユニットは変わらないので初回呼び出し時に作った {@link DealIndex} から答える.
 	 * @param unitId ユニット ID
 	 * @return {@code unitId} で指定したユニットが参加している DEAL のうち処理対象の DEAL を除くリスト
 	 */
 	protected List<JsonObject> otherDeals_(String unitId) {
-		List<JsonObject> result = new ArrayList<>();
-		for (JsonObject aDeal : otherDeals_) {
-			if (Deal.isInvolved(aDeal, unitId)) {
-				result.add(aDeal);
-			}
+		if (otherDealIndex_ == null) {
+			otherDealIndex_ = new DealIndex(otherDeals_);
 		}
-		return result;
+		return new ArrayList<>(otherDealIndex_.withUnitId(unitId));
 	}
 	/**
 	 * Fetch the total value of the interchange currents of DEAL objects in which the unit specified by {@code unitId} participates, except for the DEAL object to be processed.
@@ -318,6 +334,7 @@ public abstract class AbstractDealExecution {
 		// Main cache for interchange processing
 		// 融通処理のメインキャッシュ
 		DealExecution.unitDataCache.mergeIn(dcdc, unitId, "dcdc");
+		DealExecution.unitDataView.update(unitId, DealExecution.unitDataCache.getJsonObject(unitId));
 		if (unitId.equals(dischargeUnitId_)) {
 			// Discharge unit cache
 			// 送電側キャッシュ
@@ -391,6 +408,8 @@ public abstract class AbstractDealExecution {
 							// 融通処理のメインキャッシュを取得したユニットデータで更新する
 							DealExecution.unitDataCache.mergeIn(dischargeUnitData_, dischargeUnitId_);
 							DealExecution.unitDataCache.mergeIn(chargeUnitData_, chargeUnitId_);
+							DealExecution.unitDataView.update(dischargeUnitId_, DealExecution.unitDataCache.getJsonObject(dischargeUnitId_));
+							DealExecution.unitDataView.update(chargeUnitId_, DealExecution.unitDataCache.getJsonObject(chargeUnitId_));
 							masterSide_ = masterSide_();
 							if (log.isInfoEnabled()) log.info("master side : " + masterSide_);
 							referenceSide_ = Policy.dealReferenceSide(policy_);
@@ -117,7 +117,10 @@ public abstract class AbstractStoppableDealExecution extends AbstractDealExecuti
 	 * @param completionHandler the completion handler
 	 */
 	protected void stopDeal_(Handler<AsyncResult<Void>> completionHandler) {
-		DealUtil.stop(vertx_, deal_, referenceDateTimeString_(), resStop -> ErrorExceptionUtil.reportIfNeedAndHandle(vertx_, resStop, completionHandler));
+		DealUtil.stop(vertx_, deal_, referenceDateTimeString_(), resStop -> {
+			if (resStop.succeeded()) dealTransited_(deal_);
+			ErrorExceptionUtil.reportIfNeedAndHandle(vertx_, resStop, completionHandler);
+		});
 	}
 
 }
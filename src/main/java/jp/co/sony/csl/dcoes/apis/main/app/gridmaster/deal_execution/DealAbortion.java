@@ -108,7 +108,10 @@ public class DealAbortion extends AbstractStoppableDealExecution {
 	}
 
 	private void abortDeal_(Handler<AsyncResult<Void>> completionHandler) {
-		DealUtil.abort(vertx_, deal_, referenceDateTimeString_(), reason_, resAbort -> ErrorExceptionUtil.reportIfNeedAndHandle(vertx_, resAbort, completionHandler));
+		DealUtil.abort(vertx_, deal_, referenceDateTimeString_(), reason_, resAbort -> {
+			if (resAbort.succeeded()) dealTransited_(deal_);
+			ErrorExceptionUtil.reportIfNeedAndHandle(vertx_, resAbort, completionHandler);
+		});
 	}
 
 }
@@ -711,6 +711,7 @@ public class DealActivation extends AbstractDealExecution {
 	private void activateDeal_(Handler<AsyncResult<Void>> completionHandler) {
 		DealUtil.activate(vertx_, deal_, referenceDateTimeString_(), resActivateDeal -> {
 			if (resActivateDeal.succeeded()) {
+				dealTransited_(deal_);
 				// If the first interchange or a voltage reference is moved
 				// 最初の融通か電圧リファレンスを移動した場合
 				// Make this DEAL object the master deal
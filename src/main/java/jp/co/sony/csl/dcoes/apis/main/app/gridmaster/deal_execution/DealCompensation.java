@@ -81,7 +81,10 @@ public class DealCompensation extends AbstractDealExecution {
 										if (resSave.succeeded()) {
 											// Put the DEAL object in the "start" state
 											// DEAL オブジェクトを start 状態にする
-											DealUtil.start(vertx_, deal_, referenceDateTimeString_(), resStart -> ErrorExceptionUtil.reportIfNeedAndHandle(vertx_, resStart, completionHandler));
+											DealUtil.start(vertx_, deal_, referenceDateTimeString_(), resStart -> {
+												if (resStart.succeeded()) dealTransited_(deal_);
+												ErrorExceptionUtil.reportIfNeedAndHandle(vertx_, resStart, completionHandler);
+											});
 										} else {
 											completionHandler.handle(resSave);
 										}
@@ -168,7 +171,10 @@ public class DealCompensation extends AbstractDealExecution {
 	 */
 	private void warmUpDeal_(Handler<AsyncResult<Void>> completionHandler) {
 		if (!Deal.isWarmedUp(deal_)) {
-			DealUtil.warmUp(vertx_, deal_, referenceDateTimeString_(), res -> ErrorExceptionUtil.reportIfNeedAndHandle(vertx_, res, completionHandler));
+			DealUtil.warmUp(vertx_, deal_, referenceDateTimeString_(), res -> {
+				if (res.succeeded()) dealTransited_(deal_);
+				ErrorExceptionUtil.reportIfNeedAndHandle(vertx_, res, completionHandler);
+			});
 		} else {
 			completionHandler.handle(Future.succeededFuture());
 		}
@@ -192,9 +198,9 @@ public class DealCompensation extends AbstractDealExecution {
 			if (ar.succeeded()) {
 				// Obtain grid current measurements for units at both ends
 				// 両端ユニットのグリッド電流測定値を取得する
-				Float dischargeUnitIg = JsonObjectUtil.getFloat(dischargeUnitData_, "dcdc", "meter", "ig");
-				Float chargeUnitIg = JsonObjectUtil.getFloat(chargeUnitData_, "dcdc", "meter", "ig");
-				if (dischargeUnitIg != null && chargeUnitIg != null) {
+				float dischargeUnitIg = DealExecution.unitDataView.ig(dischargeUnitId_);
+				float chargeUnitIg = DealExecution.unitDataView.ig(chargeUnitId_);
+				if (!Float.isNaN(dischargeUnitIg) && !Float.isNaN(chargeUnitIg)) {
 					if (log.isInfoEnabled()) log.info("discharge unit ig : " + dischargeUnitIg + ", charge unit ig : " + chargeUnitIg);
 					// Add together the interchange currents of the other interchanges presently participating at each end unit
 					// 両端ユニットそれぞれ現在参加中の他の融通の融通電流を合計し
@@ -14,6 +14,7 @@ import jp.co.sony.csl.dcoes.apis.common.Deal;
 import jp.co.sony.csl.dcoes.apis.common.Error;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectUtil;
 import jp.co.sony.csl.dcoes.apis.main.app.controller.util.DDCon;
+import jp.co.sony.csl.dcoes.apis.main.app.gridmaster.main_loop.DealExecution;
 import jp.co.sony.csl.dcoes.apis.main.app.mediator.util.DealUtil;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorExceptionUtil;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
@@ -96,9 +97,9 @@ public class DealCumulation extends AbstractStoppableDealExecution {
 							Float dischargeUnitLowerLimitRsoc = JsonObjectUtil.getFloat(policy_, "gridMaster", "deal", "forceStopCondition", "dischargeUnitLowerLimitRsoc");
 							Float chargeUnitUpperLimitRsoc = JsonObjectUtil.getFloat(policy_, "gridMaster", "deal", "forceStopCondition", "chargeUnitUpperLimitRsoc");
 							if (dischargeUnitLowerLimitRsoc != null && chargeUnitUpperLimitRsoc != null) {
-								Float dischargeUnitRsoc = JsonObjectUtil.getFloat(dischargeUnitData_, "battery", "rsoc");
-								Float chargeUnitRsoc = JsonObjectUtil.getFloat(chargeUnitData_, "battery", "rsoc");
-								if (dischargeUnitRsoc != null && chargeUnitRsoc != null) {
+								float dischargeUnitRsoc = DealExecution.unitDataView.rsoc(dischargeUnitId_);
+								float chargeUnitRsoc = DealExecution.unitDataView.rsoc(chargeUnitId_);
+								if (!Float.isNaN(dischargeUnitRsoc) && !Float.isNaN(chargeUnitRsoc)) {
 									String abortReason = null;
 									if (dischargeUnitRsoc < dischargeUnitLowerLimitRsoc) {
 										abortReason = dischargeUnitId_ + " : dischargeUnitLowerLimitRsoc";
@@ -460,7 +460,10 @@ public class DealDeactivation extends AbstractDealExecution {
 	 */
 	private void deactivateDeal_(Handler<AsyncResult<Void>> completionHandler) {
 		if (!Deal.isDeactivated(deal_)) {
-			DealUtil.deactivate(vertx_, deal_, referenceDateTimeString_(), resDeactivate -> ErrorExceptionUtil.reportIfNeedAndHandle(vertx_, resDeactivate, completionHandler));
+			DealUtil.deactivate(vertx_, deal_, referenceDateTimeString_(), resDeactivate -> {
+				if (resDeactivate.succeeded()) dealTransited_(deal_);
+				ErrorExceptionUtil.reportIfNeedAndHandle(vertx_, resDeactivate, completionHandler);
+			});
 		} else {
 			// Since deactivation is already in progress, pass through this inconsistency
 			// 止める方向なので不整合はスルーする
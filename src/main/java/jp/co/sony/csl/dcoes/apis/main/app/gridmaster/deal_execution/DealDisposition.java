@@ -59,6 +59,7 @@ public class DealDisposition extends AbstractDealExecution {
 	private void disposeDeal_(Handler<AsyncResult<Void>> completionHandler) {
 		vertx_.eventBus().<JsonObject>send(ServiceAddress.Mediator.dealDisposition(), dealId_, repDealDisposition -> {
 			if (repDealDisposition.succeeded()) {
+				dealTransited_(null);
 				completionHandler.handle(Future.succeededFuture());
 			} else {
 				if (ReplyFailureUtil.isRecipientFailure(repDealDisposition)) {
@@ -67,7 +67,10 @@ public class DealDispositionWithAbortReason extends DealDisposition {
 	}
 
 	private void abortDeal_(Handler<AsyncResult<Void>> completionHandler) {
-		DealUtil.abort(vertx_, deal_, referenceDateTimeString_(), abortReason_, resAbort -> ErrorExceptionUtil.reportIfNeedAndHandle(vertx_, resAbort, completionHandler));
+		DealUtil.abort(vertx_, deal_, referenceDateTimeString_(), abortReason_, resAbort -> {
+			if (resAbort.succeeded()) dealTransited_(deal_);
+			ErrorExceptionUtil.reportIfNeedAndHandle(vertx_, resAbort, completionHandler);
+		});
 	}
 
 }
@@ -119,7 +119,10 @@ public class DealMasterAuthorization extends AbstractDealExecution {
 		// DEAL オブジェクトをリセットする
 		// Something like "Path 1" (NOTE: this comment is unclear)
 		// "パス 1" みたいなもの
-		DealUtil.reset(vertx_, deal_, referenceDateTimeString_(), reason, resReset -> ErrorExceptionUtil.reportIfNeedAndHandle(vertx_, resReset, completionHandler));
+		DealUtil.reset(vertx_, deal_, referenceDateTimeString_(), reason, resReset -> {
+			if (resReset.succeeded()) dealTransited_(deal_);
+			ErrorExceptionUtil.reportIfNeedAndHandle(vertx_, resReset, completionHandler);
+		});
 	}
 
 }
@@ -123,7 +123,10 @@ public class DealRampingUp extends AbstractDealExecution {
 	}
 
 	private void rampUpDeal_(Handler<AsyncResult<Void>> completionHandler) {
-		DealUtil.rampUp(vertx_, deal_, referenceDateTimeString_(), resRampUp -> ErrorExceptionUtil.reportIfNeedAndHandle(vertx_, resRampUp, completionHandler));
+		DealUtil.rampUp(vertx_, deal_, referenceDateTimeString_(), resRampUp -> {
+			if (resRampUp.succeeded()) dealTransited_(deal_);
+			ErrorExceptionUtil.reportIfNeedAndHandle(vertx_, resRampUp, completionHandler);
+		});
 	}
 
 }
@@ -1,6 +1,7 @@
 package jp.co.sony.csl.dcoes.apis.main.app.gridmaster.main_loop;
 
 import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
@@ -10,7 +11,9 @@ import io.vertx.core.logging.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import jp.co.sony.csl.dcoes.apis.common.Deal;
 import jp.co.sony.csl.dcoes.apis.common.Error;
@@ -36,6 +39,7 @@ import jp.co.sony.csl.dcoes.apis.main.app.mediator.util.DealUtil;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorExceptionUtil;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
 import jp.co.sony.csl.dcoes.apis.main.util.Policy;
+import jp.co.sony.csl.dcoes.apis.main.util.UnitDataView;
 
 /**
  * Perform interchange control.
@@ -47,6 +51,7 @@ import jp.co.sony.csl.dcoes.apis.main.util.Policy;
  * 4. Check the global interchange mode
  * 5. Sort the interchange information into a suitable order
  * 6. Extract and control the interchange information in sequence
+ *    If {@code POLICY.gridMaster.parallelDealExecution.enabled} is {@code true}, independent interchanges are controlled concurrently in batches
  * 7. Optimize the grid voltage
  * Specific interchange processing is performed in the following classes according to the interchange status.
  * - {@link DealActivation}: Launch the first voltage reference
@@ -69,6 +74,7 @@ import jp.co.sony.csl.dcoes.apis.main.util.Policy;
  * 4. グローバル融通モードを確認する
  * 5. 融通情報を適切な順序に並べ替える
  * 6. 順番に融通情報を取り出し制御する
+ *    {@code POLICY.gridMaster.parallelDealExecution.enabled} が {@code true} なら互いに独立した融通はバッチにまとめて並行に制御する
  * 7. グリッド電圧を最適化する
  * 具体的な融通処理は融通の状態の応じて以下のクラスで実行する.
  * - {@link DealActivation} : 最初の電圧リファレンスを起動する
@@ -95,6 +101,16 @@ public class DealExecution {
 	 * {@link jp.co.sony.csl.dcoes.apis.main.app.gridmaster.DataCollection#cache} とは独立.
 	 */
 	public static final JsonObjectWrapper unitDataCache = new JsonObjectWrapper();
+	/**
+	 * A typed view of the numeric values in {@link #unitDataCache}.
+	 * Rebuilt once per data collection and refreshed per unit whenever a unit is merged into {@link #unitDataCache}.
+	 * Safety evaluations and interchange processing read grid currents and the like from here instead of walking JSON paths.
+	 *          
+	 * {@link #unitDataCache} の数値の型付きビュー.
+	 * データ収集ごとに一度だけ構築しなおし {@link #unitDataCache} にユニットがマージされるたびにそのユニットだけ更新する.
+	 * 安全性チェックや融通処理は JSON パスを辿る代わりにここからグリッド電流などを読む.
+	 */
+	public static final UnitDataView unitDataView = new UnitDataView();
 
 	private static long lastDealExecutionMillis_ = 0L;
 
@@ -240,6 +256,7 @@ public class DealExecution {
 				// Keep in cache
 				// キャッシュしておく
 				unitDataCache.setJsonObject(rep.result().body());
+				unitDataView.reset(unitDataCache.jsonObject());
 				completionHandler.handle(Future.succeededFuture());
 			} else {
 				if (ReplyFailureUtil.isRecipientFailure(rep)) {
@@ -278,16 +295,18 @@ public class DealExecution {
 	}
 	/**
 	 * Sort multiple interchanges into a suitable order for processing.
+	 * Package-private for the benchmarks.
 	 * @param vertx a vertx object
 	 * @param policy a POLICY object
 	 * @param deals a list of DEAL objects
 	 *          
 	 * 複数の融通を適切な順序で処理されるよう並び替える.
+	 * ベンチマークのためパッケージプライベート.
 	 * @param vertx vertx オブジェクト
 	 * @param policy POLICY オブジェクト
 	 * @param deals DEAL オブジェクトのリスト
 	 */
-	private static void sortDeals_(Vertx vertx, JsonObject policy, List<JsonObject> deals) {
+	static void sortDeals_(Vertx vertx, JsonObject policy, List<JsonObject> deals) {
 		if (1 < deals.size()) {
 			List<JsonObject> sorted = new ArrayList<>(deals);
 			List<String> largeCapacityUnitIds = Policy.largeCapacityUnitIds(policy);
@@ -502,87 +521,137 @@ public class DealExecution {
 					completionHandler.handle(Future.succeededFuture());
 				}
 			} else {
-				// Extract one DEAL object
-				// DEAL オブジェクトを一つ取り出し
-				JsonObject aDeal = dealsForLoop_.remove(0);
-				List<JsonObject> otherDeals = new ArrayList<JsonObject>(deals_);
-				otherDeals.remove(aDeal);
-				// Allocate processing according to the state of this DEAL object
-				// DEAL オブジェクトの状態に応じた処理を割り当て
-				final AbstractDealExecution exec;
-				if (Deal.isDeactivated(aDeal)) {
-					// Perform deletion processing if finished
-					// 終了済みなら削除処理
-					exec = new DealDisposition(vertx_, policy_, aDeal, otherDeals);
-				} else if (Deal.isStopped(aDeal)) {
-					// If stopped, end processing
-					// 停止済みなら終了処理
-					exec = new DealDeactivation(vertx_, policy_, aDeal, otherDeals);
-				} else if (Deal.isNeedToStop(aDeal)) {
-					// Perform abnormal termination processing if there is a stop request
-					// 停止要求を持っていれば異常終了処理
-					exec = new DealAbortion(vertx_, policy_, aDeal, otherDeals, Deal.needToStopReasons(aDeal).encode());
-				} else if (Deal.isStarted(aDeal)) {
-					// Perform summing process if started
-					// 開始済みなら積算処理
-					exec = new DealCumulation(vertx_, policy_, aDeal, otherDeals);
-				} else if (Deal.isActivated(aDeal)) {
-					// If started
-					// 起動済みなら
-					if (Deal.isMaster(aDeal)) {
-						// If this is a master
-						// マスタなら
-						if (Deal.isRampedUp(aDeal)) {
-							// If the voltage has been ramped up, perform the voltage reference privilege acquisition process
-							// 電圧ランプアップ済みなら電圧リファレンス権限取得処理
-							exec = new DealMasterAuthorization(vertx_, policy_, aDeal, otherDeals);
-						} else {
-							// If the voltage is still ramping up, perform the voltage ramp-up stand-by process
-							// 電圧ランプアップ中なら電圧ランプアップ待ち処理
-							exec = new DealRampingUp(vertx_, policy_, aDeal, otherDeals);
-						}
-					} else {
-						// If this is not a master, perform current compensation processing
-						// マスタじゃなければ電流コンペンセイション処理
-						exec = new DealCompensation(vertx_, policy_, aDeal, otherDeals);
-					}
+				// Extract the DEAL objects to be processed next
+				// 次に処理する DEAL オブジェクトを取り出し
+				List<JsonObject> batch = nextBatch_();
+				if (1 == batch.size()) {
+					doExecute_(batch.get(0), res -> {
+						// Proceed to the next DEAL object
+						// 次の DEAL オブジェクトに進む
+						doLoop_(completionHandler);
+					});
 				} else {
-					// Since this is brand new, perform start-up processing
-					// まっさらなので起動処理
-					exec = new DealActivation(vertx_, policy_, aDeal, otherDeals);
-				}
-				// Execute processing
-				// 処理を実行する
-				exec.execute(resExec -> {
-					if (resExec.succeeded()) {
-						// If there is no problem, proceed to the next DEAL object
-						// 問題なければ次の DEAL オブジェクトに進む
+					if (log.isDebugEnabled()) log.debug("parallel deal execution ; deals : " + batch.size());
+					@SuppressWarnings("rawtypes") List<Future> futures = new ArrayList<>();
+					for (JsonObject aDeal : batch) {
+						Future<Void> aFuture = Future.future();
+						doExecute_(aDeal, aFuture);
+						futures.add(aFuture);
+					}
+					CompositeFuture.all(futures).setHandler(ar -> {
+						// Proceed to the next DEAL objects after all of the batch have finished
+						// バッチ全部が終わったら次の DEAL オブジェクトに進む
 						doLoop_(completionHandler);
+					});
+				}
+			}
+		}
+		/**
+		 * Extract the DEAL objects to be processed next from {@link #dealsForLoop_}.
+		 * @return a list of DEAL objects to be processed next
+		 * @see DealExecution#nextBatch(List, JsonObject, String)
+		 *          
+		 * {@link #dealsForLoop_} から次に処理する DEAL オブジェクトを取り出す.
+		 * @return 次に処理する DEAL オブジェクトのリスト
+		 * @see DealExecution#nextBatch(List, JsonObject, String)
+		 */
+		private List<JsonObject> nextBatch_() {
+			// The voltage reference unit is looked up only when needed
+			// 電圧リファレンスユニットは必要な時だけ調べる
+			String voltageReferenceUnitId = (Policy.parallelDealExecutionEnabled(policy_)) ? voltageReferenceUnitId() : null;
+			return nextBatch(dealsForLoop_, policy_, voltageReferenceUnitId);
+		}
+		/**
+		 * Control a DEAL object.
+		 * If a problem occurs, perform abnormal termination of the DEAL object.
+		 * The completion handler always succeeds so that processing proceeds to the next DEAL object.
+		 * @param aDeal the DEAL object to be processed
+		 * @param completionHandler the completion handler
+		 *          
+		 * DEAL オブジェクトを制御する.
+		 * 問題が起きたらその DEAL オブジェクトを異常終了処理する.
+		 * 次の DEAL オブジェクトに進めるよう completion handler は常に成功する.
+		 * @param aDeal 処理対象 DEAL オブジェクト
+		 * @param completionHandler the completion handler
+		 */
+		private void doExecute_(JsonObject aDeal, Handler<AsyncResult<Void>> completionHandler) {
+			List<JsonObject> otherDeals = new ArrayList<JsonObject>(deals_);
+			otherDeals.remove(aDeal);
+			// Allocate processing according to the state of this DEAL object
+			// DEAL オブジェクトの状態に応じた処理を割り当て
+			final AbstractDealExecution exec;
+			if (Deal.isDeactivated(aDeal)) {
+				// Perform deletion processing if finished
+				// 終了済みなら削除処理
+				exec = new DealDisposition(vertx_, policy_, aDeal, otherDeals);
+			} else if (Deal.isStopped(aDeal)) {
+				// If stopped, end processing
+				// 停止済みなら終了処理
+				exec = new DealDeactivation(vertx_, policy_, aDeal, otherDeals);
+			} else if (Deal.isNeedToStop(aDeal)) {
+				// Perform abnormal termination processing if there is a stop request
+				// 停止要求を持っていれば異常終了処理
+				exec = new DealAbortion(vertx_, policy_, aDeal, otherDeals, Deal.needToStopReasons(aDeal).encode());
+			} else if (Deal.isStarted(aDeal)) {
+				// Perform summing process if started
+				// 開始済みなら積算処理
+				exec = new DealCumulation(vertx_, policy_, aDeal, otherDeals);
+			} else if (Deal.isActivated(aDeal)) {
+				// If started
+				// 起動済みなら
+				if (Deal.isMaster(aDeal)) {
+					// If this is a master
+					// マスタなら
+					if (Deal.isRampedUp(aDeal)) {
+						// If the voltage has been ramped up, perform the voltage reference privilege acquisition process
+						// 電圧ランプアップ済みなら電圧リファレンス権限取得処理
+						exec = new DealMasterAuthorization(vertx_, policy_, aDeal, otherDeals);
 					} else {
-						// If a problem has occurred, perform abnormal termination of the DEAL object
-						// 問題が起きたらその DEAL オブジェクトを異常終了処理する
-						new DealAbortion(exec, resExec.cause().getMessage()).execute(resAbort -> {
-							if (resAbort.succeeded()) {
-								// OK if abnormal termination is successful
-								// 異常終了が成功したら OK
-							} else {
-								// If the abnormal termination fails
-								// 異常終了が失敗したら
-								String msg = "deal abortion failed";
-								// Perform error processing by sending a local error to the units at both ends
-								// 両端ユニットに対しローカルエラーを送りつけエラー処理させる
-								// → Forcibly stop at the worst timeout
-								// → 最悪タイムアウトで強制的に止まる
-								ErrorUtil.report(vertx_, Deal.chargeUnitId(aDeal), Error.Category.HARDWARE, Error.Extent.LOCAL, Error.Level.ERROR, msg);
-								ErrorUtil.report(vertx_, Deal.dischargeUnitId(aDeal), Error.Category.HARDWARE, Error.Extent.LOCAL, Error.Level.ERROR, msg);
-							}
-							// Proceed to the next DEAL object
-							// 次の DEAL オブジェクトに進む
-							doLoop_(completionHandler);
-						});
+						// If the voltage is still ramping up, perform the voltage ramp-up stand-by process
+						// 電圧ランプアップ中なら電圧ランプアップ待ち処理
+						exec = new DealRampingUp(vertx_, policy_, aDeal, otherDeals);
 					}
-				});
+				} else {
+					// If this is not a master, perform current compensation processing
+					// マスタじゃなければ電流コンペンセイション処理
+					exec = new DealCompensation(vertx_, policy_, aDeal, otherDeals);
+				}
+			} else {
+				// Since this is brand new, perform start-up processing
+				// まっさらなので起動処理
+				exec = new DealActivation(vertx_, policy_, aDeal, otherDeals);
 			}
+			// Execute processing
+			// 処理を実行する
+			exec.execute(resExec -> {
+				if (resExec.succeeded()) {
+					// If there is no problem, proceed to the next DEAL object
+					// 問題なければ次の DEAL オブジェクトに進む
+					completionHandler.handle(Future.succeededFuture());
+				} else {
+					// If a problem has occurred, perform abnormal termination of the DEAL object
+					// 問題が起きたらその DEAL オブジェクトを異常終了処理する
+					new DealAbortion(exec, resExec.cause().getMessage()).execute(resAbort -> {
+						if (resAbort.succeeded()) {
+							// OK if abnormal termination is successful
+							// 異常終了が成功したら OK
+						} else {
+							// If the abnormal termination fails
+							// 異常終了が失敗したら
+							String msg = "deal abortion failed";
+							// Perform error processing by sending a local error to the units at both ends
+							// 両端ユニットに対しローカルエラーを送りつけエラー処理させる
+							// → Forcibly stop at the worst timeout
+							// → 最悪タイムアウトで強制的に止まる
+							ErrorUtil.report(vertx_, Deal.chargeUnitId(aDeal), Error.Category.HARDWARE, Error.Extent.LOCAL, Error.Level.ERROR, msg);
+							ErrorUtil.report(vertx_, Deal.dischargeUnitId(aDeal), Error.Category.HARDWARE, Error.Extent.LOCAL, Error.Level.ERROR, msg);
+						}
+						// Proceed to the next DEAL object
+						// 次の DEAL オブジェクトに進む
+						completionHandler.handle(Future.succeededFuture());
+					});
+				}
+			});
 		}
 		/**
 		 * Get a list of working interchange IDs.
@@ -633,4 +702,75 @@ public class DealExecution {
 		}
 	}
 
+	/**
+	 * Remove the DEAL objects to be processed next from the head of {@code deals}.
+	 * Usually this is just the first one.
+	 * If {@code POLICY.gridMaster.parallelDealExecution.enabled} is {@code true}, the following consecutive DEAL objects that can be processed at the same time are also extracted, up to {@code POLICY.gridMaster.parallelDealExecution.maxBatchSize}.
+	 * The order given by {@link #sortDeals_(Vertx, JsonObject, List)} is kept because only consecutive DEAL objects are extracted.
+	 * @param deals a list of DEAL objects waiting to be processed. The extracted ones are removed
+	 * @param policy a POLICY object
+	 * @param voltageReferenceUnitId the ID of the voltage reference unit. {@code null} if unknown
+	 * @return a list of DEAL objects to be processed next
+	 *          
+	 * {@code deals} の先頭から次に処理する DEAL オブジェクトを取り除いて返す.
+	 * 通常は先頭の一つだけ.
+	 * {@code POLICY.gridMaster.parallelDealExecution.enabled} が {@code true} なら後続の同時に処理できる DEAL オブジェクトを {@code POLICY.gridMaster.parallelDealExecution.maxBatchSize} 件まで連続して取り出す.
+	 * 連続したものだけを取り出すので {@link #sortDeals_(Vertx, JsonObject, List)} による順序は保たれる.
+	 * @param deals 処理待ちの DEAL オブジェクトのリスト. 取り出したものは取り除かれる
+	 * @param policy POLICY オブジェクト
+	 * @param voltageReferenceUnitId 電圧リファレンスユニットの ID. 不明なら {@code null}
+	 * @return 次に処理する DEAL オブジェクトのリスト
+	 */
+	static List<JsonObject> nextBatch(List<JsonObject> deals, JsonObject policy, String voltageReferenceUnitId) {
+		List<JsonObject> result = new ArrayList<>();
+		result.add(deals.remove(0));
+		if (Policy.parallelDealExecutionEnabled(policy)) {
+			int maxBatchSize = Policy.parallelDealExecutionMaxBatchSize(policy);
+			if (isParallelizable(result.get(0), voltageReferenceUnitId)) {
+				Set<String> unitIds = new HashSet<>();
+				unitIds.add(Deal.dischargeUnitId(result.get(0)));
+				unitIds.add(Deal.chargeUnitId(result.get(0)));
+				while (result.size() < maxBatchSize && !deals.isEmpty()) {
+					JsonObject aDeal = deals.get(0);
+					String aDischargeUnitId = Deal.dischargeUnitId(aDeal);
+					String aChargeUnitId = Deal.chargeUnitId(aDeal);
+					if (!isParallelizable(aDeal, voltageReferenceUnitId) || unitIds.contains(aDischargeUnitId) || unitIds.contains(aChargeUnitId)) {
+						// Stop at the first one that can not be processed at the same time to keep the order
+						// 順序を保つため同時に処理できないものが来たらそこで止める
+						break;
+					}
+					unitIds.add(aDischargeUnitId);
+					unitIds.add(aChargeUnitId);
+					result.add(deals.remove(0));
+				}
+			}
+		}
+		return result;
+	}
+	/**
+	 * Find out if a DEAL object can be processed at the same time as others.
+	 * The following DEAL objects are processed one by one.
+	 * - The master deal
+	 * - Interchanges involving the voltage reference unit. Also when the voltage reference unit is unknown
+	 * - Interchanges being launched or compensated. These adjust the current while watching the current of the voltage reference unit
+	 * @param deal a DEAL object
+	 * @param voltageReferenceUnitId the ID of the voltage reference unit. {@code null} if unknown
+	 * @return {@code true} if it can be processed at the same time as others
+	 *          
+	 * DEAL オブジェクトを他と同時に処理してよいか判定する.
+	 * 以下の DEAL オブジェクトは一つずつ処理する.
+	 * - master deal
+	 * - 電圧リファレンスユニットが参加している融通. 電圧リファレンスユニットが不明な場合も
+	 * - 起動中およびコンペンセイション中の融通. 電圧リファレンスユニットの電流を見ながら電流を調整するため
+	 * @param deal DEAL オブジェクト
+	 * @param voltageReferenceUnitId 電圧リファレンスユニットの ID. 不明なら {@code null}
+	 * @return 他と同時に処理してよければ {@code true}
+	 */
+	static boolean isParallelizable(JsonObject deal, String voltageReferenceUnitId) {
+		if (voltageReferenceUnitId == null || Deal.isMaster(deal) || Deal.isInvolved(deal, voltageReferenceUnitId)) {
+			return false;
+		}
+		return Deal.isDeactivated(deal) || Deal.isStopped(deal) || Deal.isNeedToStop(deal) || Deal.isStarted(deal);
+	}
+
 }
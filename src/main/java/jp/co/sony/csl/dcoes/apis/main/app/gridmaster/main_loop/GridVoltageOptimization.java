@@ -119,6 +119,7 @@ public class GridVoltageOptimization {
 							// Reflect the returned device control status in the cache
 							// 返ってきたデバイス制御状態をキャッシュ反映しておく
 							DealExecution.unitDataCache.mergeIn(rep.result().body(), voltageReferenceUnitId, "dcdc");
+							DealExecution.unitDataView.update(voltageReferenceUnitId, DealExecution.unitDataCache.getJsonObject(voltageReferenceUnitId));
 							completionHandler.handle(Future.succeededFuture());
 						} else {
 							if (ReplyFailureUtil.isRecipientFailure(rep)) {
@@ -0,0 +1,279 @@
+package jp.co.sony.csl.dcoes.apis.main.app.gridmaster.main_loop;
+
+import io.vertx.core.json.JsonObject;
+
+import jp.co.sony.csl.dcoes.apis.main.util.LatencyHistogram;
+
+/**
+ * Timing statistics of the GridMaster main loop.
+ * Recorded by {@link jp.co.sony.csl.dcoes.apis.main.app.gridmaster.MainLoop}.
+ * Keeps one {@link LatencyHistogram} per {@link Phase} and counts the loops that took longer than {@code POLICY.gridMaster.mainLoopPeriodMsec}.
+ * Statistics cover one reporting interval : {@link #rotate()} ends the interval, summarizes it and starts a new one, so that the percentiles follow the current behaviour rather than the whole life of the process.
+ * Only the numbers of loops and overruns are kept across intervals, until {@link #reset()} is called as the GridMaster starts.
+ * @author OES Project
+ *          
+ * GridMaster メインループの時間統計.
+ * {@link jp.co.sony.csl.dcoes.apis.main.app.gridmaster.MainLoop} が記録する.
+ * {@link Phase} ごとに {@link LatencyHistogram} を一つ持ち {@code POLICY.gridMaster.mainLoopPeriodMsec} より長くかかったループを数える.
+ * 統計は一つの報告区間分 : {@link #rotate()} で区間を終えて要約し新しい区間を始めるので, パーセンタイルはプロセス全体ではなく現在の挙動を表す.
+ * 区間をまたいで保持するのはループ回数とオーバラン回数だけで, GridMaster の起動時に {@link #reset()} を呼ぶまで累計する.
+ * @author OES Project
+ */
+public class MainLoopStatistics {
+
+	/**
+	 * Phases of the main loop.
+	 *          
+	 * メインループのフェーズ.
+	 * @author OES Project
+	 */
+	public enum Phase {
+		/**
+		 * {@link ErrorHandling} at the beginning of the loop.
+		 *          
+		 * ループ先頭の {@link ErrorHandling}.
+		 */
+		ERROR_HANDLING_BEFORE("errorHandlingBefore"),
+		/**
+		 * {@link DealExecution}.
+		 *          
+		 * {@link DealExecution}.
+		 */
+		DEAL_EXECUTION("dealExecution"),
+		/**
+		 * {@link jp.co.sony.csl.dcoes.apis.main.evaluation.safety.GlobalSafetyEvaluation}.
+		 *          
+		 * {@link jp.co.sony.csl.dcoes.apis.main.evaluation.safety.GlobalSafetyEvaluation}.
+		 */
+		GLOBAL_SAFETY_EVALUATION("globalSafetyEvaluation"),
+		/**
+		 * {@link GlobalDataCalculation}.
+		 *          
+		 * {@link GlobalDataCalculation}.
+		 */
+		GLOBAL_DATA_CALCULATION("globalDataCalculation"),
+		/**
+		 * {@link ErrorHandling} at the end of the loop.
+		 *          
+		 * ループ末尾の {@link ErrorHandling}.
+		 */
+		ERROR_HANDLING_AFTER("errorHandlingAfter"),
+		/**
+		 * The whole loop.
+		 *          
+		 * ループ全体.
+		 */
+		TOTAL("total");
+
+		private final String key_;
+		private Phase(String key) {
+			key_ = key;
+		}
+		/**
+		 * Get the key of the phase in the statistics.
+		 * @return the key
+		 *          
+		 * 統計でのフェーズのキーを取得する.
+		 * @return キー
+		 */
+		public String key() {
+			return key_;
+		}
+	}
+
+	private static final Phase[] PHASES_ = Phase.values();
+	private static final LatencyHistogram[] histograms_ = new LatencyHistogram[PHASES_.length];
+	static {
+		for (int i = 0; i < PHASES_.length; i++) {
+			histograms_[i] = new LatencyHistogram();
+		}
+	}
+	private static long overrunCount_ = 0L;
+	private static long lastOverrunMsec_ = 0L;
+	private static long totalLoopCount_ = 0L;
+	private static long totalOverrunCount_ = 0L;
+	private static long overrunsSinceWarning_ = 0L;
+	private static long lastWarningMsec_ = 0L;
+	private static boolean warned_ = false;
+	private static JsonObject lastInterval_ = null;
+
+	private MainLoopStatistics() { }
+
+	/**
+	 * Record the duration of a phase.
+	 * Does not allocate.
+	 * @param phase the phase
+	 * @param nanos the duration [ns]
+	 *          
+	 * フェーズの所要時間を記録する.
+	 * アロケーションしない.
+	 * @param phase フェーズ
+	 * @param nanos 所要時間 [ns]
+	 */
+	public static void record(Phase phase, long nanos) {
+		synchronized (histograms_) {
+			histograms_[phase.ordinal()].recordNanos(nanos);
+		}
+	}
+	/**
+	 * Record the duration of a whole loop and count it as an overrun if it exceeds the period.
+	 * @param nanos the duration [ns]
+	 * @param periodMsec the period of the main loop [ms]
+	 * @return {@code true} if the loop overran
+	 *          
+	 * ループ全体の所要時間を記録し周期を超えていればオーバランとして数える.
+	 * @param nanos 所要時間 [ns]
+	 * @param periodMsec メインループの周期 [ms]
+	 * @return ループがオーバランしたら {@code true}
+	 */
+	public static boolean recordLoop(long nanos, long periodMsec) {
+		long msec = nanos / 1000000L;
+		synchronized (histograms_) {
+			histograms_[Phase.TOTAL.ordinal()].recordNanos(nanos);
+			++totalLoopCount_;
+			if (periodMsec < msec) {
+				++overrunCount_;
+				++totalOverrunCount_;
+				++overrunsSinceWarning_;
+				lastOverrunMsec_ = msec;
+				return true;
+			}
+		}
+		return false;
+	}
+	/**
+	 * Find out whether an overrun should be warned of.
+	 * Warnings are limited to one per {@code minIntervalMsec} ; the overruns in between are counted instead.
+	 * @param nowMsec the current time [ms]
+	 * @param minIntervalMsec the minimum interval between warnings [ms]
+	 * @return the number of overruns since the last warning if a warning is due, {@code 0} otherwise
+	 *          
+	 * オーバランを警告すべきか否かを取得する.
+	 * 警告は {@code minIntervalMsec} に一回までとし, その間のオーバランは数えるだけにする.
+	 * @param nowMsec 現在時刻 [ms]
+	 * @param minIntervalMsec 警告の最小間隔 [ms]
+	 * @return 警告すべきなら前回の警告以降のオーバラン回数, そうでなければ {@code 0}
+	 */
+	public static long overrunsToWarn(long nowMsec, long minIntervalMsec) {
+		synchronized (histograms_) {
+			if (overrunsSinceWarning_ == 0L || (warned_ && nowMsec - lastWarningMsec_ < minIntervalMsec)) return 0L;
+			long result = overrunsSinceWarning_;
+			overrunsSinceWarning_ = 0L;
+			lastWarningMsec_ = nowMsec;
+			warned_ = true;
+			return result;
+		}
+	}
+
+	/**
+	 * End the current reporting interval and start a new one.
+	 * The summary of the ended interval is kept as {@code "lastInterval"} of {@link #toJsonObject()}.
+	 * @return the summary of the ended interval in one line for logging, as {@link #toLogString()}
+	 *          
+	 * 現在の報告区間を終え新しい区間を始める.
+	 * 終えた区間の要約は {@link #toJsonObject()} の {@code "lastInterval"} として保持する.
+	 * @return 終えた区間のログ出力用の一行の要約. {@link #toLogString()} と同じ形式
+	 */
+	public static String rotate() {
+		synchronized (histograms_) {
+			String result = toLogString();
+			lastInterval_ = intervalJsonObject_();
+			for (LatencyHistogram aHistogram : histograms_) {
+				aHistogram.reset();
+			}
+			overrunCount_ = 0L;
+			lastOverrunMsec_ = 0L;
+			return result;
+		}
+	}
+	/**
+	 * Discard all statistics.
+	 *          
+	 * 全ての統計を破棄する.
+	 */
+	public static void reset() {
+		synchronized (histograms_) {
+			for (LatencyHistogram aHistogram : histograms_) {
+				aHistogram.reset();
+			}
+			overrunCount_ = 0L;
+			lastOverrunMsec_ = 0L;
+			totalLoopCount_ = 0L;
+			totalOverrunCount_ = 0L;
+			overrunsSinceWarning_ = 0L;
+			lastWarningMsec_ = 0L;
+			warned_ = false;
+			lastInterval_ = null;
+		}
+	}
+
+	/**
+	 * Summarize the statistics.
+	 * - {@code "loops"} : the number of loops in the current interval [{@link Long}]
+	 * - {@code "overruns"} : the number of loops longer than the period in the current interval [{@link Long}]
+	 * - {@code "lastOverrunMsec"} : the duration of the last overrunning loop in the current interval [{@link Long}]
+	 * - {@code "phases"} : {@link LatencyHistogram#toJsonObject()} of the current interval keyed by {@link Phase#key()} [{@link JsonObject}]
+	 * - {@code "totalLoops"} : the number of loops since the last reset [{@link Long}]
+	 * - {@code "totalOverruns"} : the number of overruns since the last reset [{@link Long}]
+	 * - {@code "lastInterval"} : the same summary of the last ended interval. Absent if none [{@link JsonObject}]
+	 * @return the summary
+	 *          
+	 * 統計を要約する.
+	 * - {@code "loops"} : 現在の区間のループ回数 [{@link Long}]
+	 * - {@code "overruns"} : 現在の区間で周期より長くかかったループ回数 [{@link Long}]
+	 * - {@code "lastOverrunMsec"} : 現在の区間で最後にオーバランしたループの所要時間 [{@link Long}]
+	 * - {@code "phases"} : {@link Phase#key()} をキーとする現在の区間の {@link LatencyHistogram#toJsonObject()} [{@link JsonObject}]
+	 * - {@code "totalLoops"} : 最後のリセット以降のループ回数 [{@link Long}]
+	 * - {@code "totalOverruns"} : 最後のリセット以降のオーバラン回数 [{@link Long}]
+	 * - {@code "lastInterval"} : 最後に終えた区間の同じ要約. なければ含まない [{@link JsonObject}]
+	 * @return 要約
+	 */
+	public static JsonObject toJsonObject() {
+		synchronized (histograms_) {
+			JsonObject result = intervalJsonObject_();
+			result.put("totalLoops", totalLoopCount_);
+			result.put("totalOverruns", totalOverrunCount_);
+			if (lastInterval_ != null) result.put("lastInterval", lastInterval_.copy());
+			return result;
+		}
+	}
+
+	/**
+	 * Summarize the statistics of the current interval in one line for logging.
+	 * Gives the p50, p99 and maximum of each phase in milliseconds.
+	 * @return the summary
+	 *          
+	 * ログ出力用に現在の区間の統計を一行に要約する.
+	 * 各フェーズの p50, p99, 最大値をミリ秒で示す.
+	 * @return 要約
+	 */
+	public static String toLogString() {
+		synchronized (histograms_) {
+			LatencyHistogram total = histograms_[Phase.TOTAL.ordinal()];
+			StringBuilder sb = new StringBuilder("loops : ").append(total.totalCount());
+			sb.append(", overruns : ").append(overrunCount_);
+			sb.append(" ; p50/p99/max [ms]");
+			for (Phase aPhase : PHASES_) {
+				LatencyHistogram histogram = histograms_[aPhase.ordinal()];
+				sb.append(" ; ").append(aPhase.key()).append(" : ").append(histogram.percentileMicros(50D) / 1000D).append('/').append(histogram.percentileMicros(99D) / 1000D).append('/').append(histogram.percentileMicros(100D) / 1000D);
+			}
+			return sb.toString();
+		}
+	}
+
+	////
+
+	private static JsonObject intervalJsonObject_() {
+		JsonObject phases = new JsonObject();
+		for (Phase aPhase : PHASES_) {
+			phases.put(aPhase.key(), histograms_[aPhase.ordinal()].toJsonObject());
+		}
+		JsonObject result = new JsonObject();
+		result.put("loops", histograms_[Phase.TOTAL.ordinal()].totalCount());
+		result.put("overruns", overrunCount_);
+		result.put("lastOverrunMsec", lastOverrunMsec_);
+		result.put("phases", phases);
+		return result;
+	}
+
+}
@@ -0,0 +1,154 @@
+package jp.co.sony.csl.dcoes.apis.main.app.mediator;
+
+import io.vertx.core.json.JsonObject;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jp.co.sony.csl.dcoes.apis.common.Deal;
+import jp.co.sony.csl.dcoes.apis.common.util.DateTimeUtil;
+import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectUtil;
+
+/**
+ * A compact in-memory index of recorded interchanges for {@link DealLogQuery}.
+ * Holds only the fields used by queries, per log directory.
+ * {@link DealLogging} updates it each time it has written an interchange, so a log directory has to be read from the file system only once, the first time a query covers it.
+ * What is read then never overrides what {@link DealLogging} has updated in the meantime, since the latter is always newer.
+ * Files removed by other processes stay in the index until restart.
+ * Thread-safe, since {@link DealLogging} and {@link DealLogQuery} run on different event loops.
+ * @author OES Project
+ *          
+ * {@link DealLogQuery} のための記録された融通のコンパクトなメモリ上の索引.
+ * ログディレクトリごとに問い合わせに使う項目だけを保持する.
+ * {@link DealLogging} が融通を書き込むたびに更新するので, ログディレクトリをファイルシステムから読むのは問い合わせが最初にそれを対象にした時の一度だけで済む.
+ * その時に読んだものはその間に {@link DealLogging} が更新したものを上書きしない. 後者が常に新しいため.
+ * 他のプロセスが削除したファイルは再起動まで索引に残る.
+ * {@link DealLogging} と {@link DealLogQuery} は異なるイベントループで動くのでスレッドセーフ.
+ * @author OES Project
+ */
+class DealLogIndex {
+
+	private final Map<String, Map<String, Summary>> summaries_ = new ConcurrentHashMap<>();
+	private final Set<String> loadedDirs_ = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Reflect an interchange written by {@link DealLogging}.
+	 * @param dir the log directory path
+	 * @param deal the written DEAL object
+	 *          
+	 * {@link DealLogging} が書き込んだ融通を反映する.
+	 * @param dir ログディレクトリのパス
+	 * @param deal 書き込んだ DEAL オブジェクト
+	 */
+	void update(String dir, JsonObject deal) {
+		Summary summary = Summary.of(deal);
+		if (summary != null) {
+			summaries_.computeIfAbsent(dir, k -> new ConcurrentHashMap<>()).put(summary.dealId, summary);
+		}
+	}
+	/**
+	 * Find out if a log directory has already been read from the file system.
+	 * @param dir the log directory path
+	 * @return {@code true} if already read
+	 *          
+	 * ログディレクトリをすでにファイルシステムから読んだか否か.
+	 * @param dir ログディレクトリのパス
+	 * @return すでに読んでいれば {@code true}
+	 */
+	boolean isLoaded(String dir) {
+		return loadedDirs_.contains(dir);
+	}
+	/**
+	 * Reflect the interchanges read from a log directory and mark it as read.
+	 * An interchange already updated by {@link DealLogging} is kept as it is.
+	 * @param dir the log directory path
+	 * @param deals the DEAL objects read. {@code null} if the directory does not exist
+	 *          
+	 * ログディレクトリから読んだ融通を反映し読んだことにする.
+	 * {@link DealLogging} が更新ずみの融通はそのままにする.
+	 * @param dir ログディレクトリのパス
+	 * @param deals 読んだ DEAL オブジェクト群. ディレクトリが存在しなければ {@code null}
+	 */
+	void load(String dir, Collection<JsonObject> deals) {
+		if (deals != null) {
+			Map<String, Summary> summaries = summaries_.computeIfAbsent(dir, k -> new ConcurrentHashMap<>());
+			for (JsonObject aDeal : deals) {
+				Summary aSummary = Summary.of(aDeal);
+				if (aSummary != null) {
+					summaries.putIfAbsent(aSummary.dealId, aSummary);
+				}
+			}
+		}
+		loadedDirs_.add(dir);
+	}
+	/**
+	 * Get the summaries of the interchanges in a log directory.
+	 * @param dir the log directory path
+	 * @return an unordered list of summaries
+	 *          
+	 * ログディレクトリの融通の要約を取得する.
+	 * @param dir ログディレクトリのパス
+	 * @return 順不同の要約のリスト
+	 */
+	List<Summary> summaries(String dir) {
+		Map<String, Summary> summaries = summaries_.get(dir);
+		return (summaries != null) ? new ArrayList<>(summaries.values()) : Collections.emptyList();
+	}
+
+	/**
+	 * The fields of an interchange used by queries.
+	 * Immutable.
+	 * @author OES Project
+	 *          
+	 * 問い合わせに使う融通の項目.
+	 * 不変.
+	 * @author OES Project
+	 */
+	static class Summary {
+		final String dealId;
+		final LocalDateTime createDateTime;
+		final String type;
+		final String chargeUnitId;
+		final String dischargeUnitId;
+		final Integer dealAmountWh;
+		final Float cumulateAmountWh;
+		private Summary(String dealId, LocalDateTime createDateTime, String type, String chargeUnitId, String dischargeUnitId, Integer dealAmountWh, Float cumulateAmountWh) {
+			this.dealId = dealId;
+			this.createDateTime = createDateTime;
+			this.type = type;
+			this.chargeUnitId = chargeUnitId;
+			this.dischargeUnitId = dischargeUnitId;
+			this.dealAmountWh = dealAmountWh;
+			this.cumulateAmountWh = cumulateAmountWh;
+		}
+		/**
+		 * Take the fields used by queries from a DEAL object.
+		 * @param deal a DEAL object
+		 * @return the summary. {@code null} if the DEAL object lacks its ID or creation date and time, or is broken
+		 *          
+		 * DEAL オブジェクトから問い合わせに使う項目を取り出す.
+		 * @param deal DEAL オブジェクト
+		 * @return 要約. DEAL オブジェクトに ID か作成日時がないか壊れていれば {@code null}
+		 */
+		static Summary of(JsonObject deal) {
+			try {
+				String dealId = Deal.dealId(deal);
+				LocalDateTime createDateTime = JsonObjectUtil.getLocalDateTime(deal, "createDateTime");
+				if (dealId == null || createDateTime == null) return null;
+				return new Summary(dealId, createDateTime, deal.getString("type"), Deal.chargeUnitId(deal), Deal.dischargeUnitId(deal), deal.getInteger("dealAmountWh"), deal.getFloat("cumulateAmountWh"));
+			} catch (RuntimeException e) {
+				return null;
+			}
+		}
+		JsonObject toJson() {
+			return new JsonObject().put("dealId", dealId).put("createDateTime", DateTimeUtil.toString(createDateTime)).put("type", type).put("chargeUnitId", chargeUnitId).put("dischargeUnitId", dischargeUnitId).put("dealAmountWh", dealAmountWh).put("cumulateAmountWh", cumulateAmountWh);
+		}
+	}
+
+}
@@ -0,0 +1,376 @@
+package jp.co.sony.csl.dcoes.apis.main.app.mediator;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import jp.co.sony.csl.dcoes.apis.common.Error;
+import jp.co.sony.csl.dcoes.apis.common.util.DateTimeUtil;
+import jp.co.sony.csl.dcoes.apis.common.util.vertx.VertxConfig;
+import jp.co.sony.csl.dcoes.apis.main.app.mediator.util.DealLogStore;
+import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
+import jp.co.sony.csl.dcoes.apis.main.util.MainServiceAddress;
+
+/**
+ * A Verticle that answers queries over the interchange information recorded by {@link DealLogging}.
+ * Launched from the {@link Mediator} Verticle.
+ * Queries are answered from {@link DealLogIndex}, which holds only the fields used by queries and is updated by {@link DealLogging} each time it has written an interchange.
+ * A log directory under {@code CONFIG.dealLogDirFormat} is read from the file system only the first time a query covers it, to take in what was recorded before startup.
+ * Both one-file-per-interchange logs and {@link DealLogStore} segments are read.
+ * @author OES Project
+ *          
+ * {@link DealLogging} が記録した融通情報に対する問い合わせに答える Verticle.
+ * {@link Mediator} Verticle から起動される.
+ * 問い合わせには {@link DealLogIndex} から答える. これは問い合わせに使う項目だけを保持し {@link DealLogging} が融通を書き込むたびに更新される.
+ * {@code CONFIG.dealLogDirFormat} 以下のログディレクトリをファイルシステムから読むのは起動前に記録されたものを取り込むため問い合わせが最初にそれを対象にした時だけである.
+ * 融通ごとに一つのファイルの形式と {@link DealLogStore} のセグメントの両方を読む.
+ * @author OES Project
+ */
+public class DealLogQuery extends AbstractVerticle {
+	private static final Logger log = LoggerFactory.getLogger(DealLogQuery.class);
+
+	/**
+	 * Default maximum number of days a query can cover.
+	 * Value: {@value}.
+	 *          
+	 * 一回の問い合わせで対象にできる日数のデフォルト値.
+	 * 値は {@value}.
+	 */
+	private static final Integer DEFAULT_MAX_DAYS = 366;
+
+	private static final DateTimeFormatter DAY_FORMATTER_ = DateTimeFormatter.ofPattern("uuuu/MM/dd");
+
+	/**
+	 * Called at startup.
+	 * Launches the {@link io.vertx.core.eventbus.EventBus} service.
+	 * @param startFuture {@inheritDoc}
+	 * @throws Exception {@inheritDoc}
+	 *          
+	 * 起動時に呼び出される.
+	 * {@link io.vertx.core.eventbus.EventBus} サービスを起動する.
+	 * @param startFuture {@inheritDoc}
+	 * @throws Exception {@inheritDoc}
+	 */
+	@Override public void start(Future<Void> startFuture) throws Exception {
+		startDealLogQueryService_(resDealLogQuery -> {
+			if (resDealLogQuery.succeeded()) {
+				if (log.isTraceEnabled()) log.trace("started : " + deploymentID());
+				startFuture.complete();
+			} else {
+				startFuture.fail(resDealLogQuery.cause());
+			}
+		});
+	}
+
+	/**
+	 * Called when stopped.
+	 * @throws Exception {@inheritDoc}
+	 *          
+	 * 停止時に呼び出される.
+	 * @throws Exception {@inheritDoc}
+	 */
+	@Override public void stop() throws Exception {
+		if (log.isTraceEnabled()) log.trace("stopped : " + deploymentID());
+	}
+
+	////
+
+	/**
+	 * Launch the {@link io.vertx.core.eventbus.EventBus} service.
+	 * Address: {@link MainServiceAddress.Mediator#dealLogQuery()}
+	 * Scope: local
+	 * Function: Query the recorded interchange information.
+	 *           Interchanges are selected by {@code createDateTime}.
+	 * Message body: Query conditions [{@link JsonObject}]
+	 *               - {@code "from"}: start of the period, inclusive. APIS standard format (uuuu/MM/dd-HH:mm:ss) [{@link String}]. Required
+	 *               - {@code "to"}: end of the period, exclusive. APIS standard format [{@link String}]. Required
+	 *               - {@code "unitId"}: only interchanges in which this unit participates [{@link String}]
+	 *               - {@code "type"}: only interchanges of this type, {@code "charge"} or {@code "discharge"} [{@link String}]
+	 *               - {@code "minAmountWh"} / {@code "maxAmountWh"}: range of {@code dealAmountWh} [{@link Integer}]
+	 *               - {@code "aggregate"}: {@code "count"} (default), {@code "energyPerUnitPerDay"} or {@code "deals"} [{@link String}]
+	 * Message header: none
+	 * Response: The result of the aggregate [{@link JsonObject}].
+	 *           {@code "count"}: {@code {"count":N, "perDay":{"uuuu/MM/dd":N, ...}}}
+	 *           {@code "energyPerUnitPerDay"}: {@code {"uuuu/MM/dd":{unitId:{"chargeWh":W, "dischargeWh":W}, ...}, ...}} from {@code cumulateAmountWh}
+	 *           {@code "deals"}: {@code {"deals":[summary, ...]}}
+	 *           Fails if the conditions are invalid.
+	 *           Fails if an error occurs.
+	 * @param completionHandler the completion handler
+	 *          
+	 * {@link io.vertx.core.eventbus.EventBus} サービス起動.
+	 * アドレス : {@link MainServiceAddress.Mediator#dealLogQuery()}
+	 * 範囲 : ローカル
+	 * 処理 : 記録された融通情報を問い合わせる.
+	 * 　　   融通は {@code createDateTime} で選ぶ.
+	 * メッセージボディ : 問い合わせ条件 [{@link JsonObject}]
+	 * 　　　　　　　　   - {@code "from"} : 期間の開始 ( 含む ). APIS 標準フォーマット ( uuuu/MM/dd-HH:mm:ss ) [{@link String}]. 必須
+	 * 　　　　　　　　   - {@code "to"} : 期間の終了 ( 含まない ). APIS 標準フォーマット [{@link String}]. 必須
+	 * 　　　　　　　　   - {@code "unitId"} : このユニットが参加する融通のみ [{@link String}]
+	 * 　　　　　　　　   - {@code "type"} : この種類の融通のみ. {@code "charge"} または {@code "discharge"} [{@link String}]
+	 * 　　　　　　　　   - {@code "minAmountWh"} / {@code "maxAmountWh"} : {@code dealAmountWh} の範囲 [{@link Integer}]
+	 * 　　　　　　　　   - {@code "aggregate"} : {@code "count"} ( デフォルト ), {@code "energyPerUnitPerDay"} または {@code "deals"} [{@link String}]
+	 * メッセージヘッダ : なし
+	 * レスポンス : 集計結果 [{@link JsonObject}].
+	 * 　　　　　   {@code "count"} : {@code {"count":N, "perDay":{"uuuu/MM/dd":N, ...}}}
+	 * 　　　　　   {@code "energyPerUnitPerDay"} : {@code cumulateAmountWh} による {@code {"uuuu/MM/dd":{unitId:{"chargeWh":W, "dischargeWh":W}, ...}, ...}}
+	 * 　　　　　   {@code "deals"} : {@code {"deals":[要約, ...]}}
+	 * 　　　　　   条件が不正なら fail.
+	 * 　　　　　   エラーが起きたら fail.
+	 * @param completionHandler the completion handler
+	 */
+	private void startDealLogQueryService_(Handler<AsyncResult<Void>> completionHandler) {
+		vertx.eventBus().<JsonObject>localConsumer(MainServiceAddress.Mediator.dealLogQuery(), req -> {
+			JsonObject query = req.body();
+			Conditions_ conditions = Conditions_.of_(query);
+			if (conditions == null) {
+				ErrorUtil.reportAndFail(vertx, Error.Category.USER, Error.Extent.LOCAL, Error.Level.WARN, "invalid query : " + query, req);
+				return;
+			}
+			if (!"count".equals(conditions.aggregate_) && !"energyPerUnitPerDay".equals(conditions.aggregate_) && !"deals".equals(conditions.aggregate_)) {
+				ErrorUtil.reportAndFail(vertx, Error.Category.USER, Error.Extent.LOCAL, Error.Level.WARN, "unknown aggregate : " + conditions.aggregate_, req);
+				return;
+			}
+			Integer maxDays = VertxConfig.config.getInteger(DEFAULT_MAX_DAYS, "dealLogQuery", "maxDays");
+			List<String> dirs = logDirs_(conditions.from_.toLocalDate(), conditions.to_.toLocalDate(), maxDays);
+			if (dirs == null) {
+				ErrorUtil.reportAndFail(vertx, Error.Category.USER, Error.Extent.LOCAL, Error.Level.WARN, "query period exceeds " + maxDays + " days : " + query, req);
+				return;
+			}
+			refreshDirs_(dirs, resRefresh -> {
+				if (resRefresh.succeeded()) {
+					req.reply(aggregate_(dirs, conditions));
+				} else {
+					req.fail(-1, resRefresh.cause().getMessage());
+				}
+			});
+		}).completionHandler(completionHandler);
+	}
+
+	/**
+	 * Get the log directories covering the dates from {@code from} to {@code to}.
+	 * @param from the first date
+	 * @param to the last date
+	 * @param maxDays the maximum number of days
+	 * @return a list of directory paths without duplicates. {@code null} if the period exceeds {@code maxDays}
+	 *          
+	 * {@code from} から {@code to} までの日付を含むログディレクトリを取得する.
+	 * @param from 最初の日付
+	 * @param to 最後の日付
+	 * @param maxDays 最大日数
+	 * @return 重複のないディレクトリパスのリスト. 期間が {@code maxDays} を超えたら {@code null}
+	 */
+	private List<String> logDirs_(LocalDate from, LocalDate to, int maxDays) {
+		Set<String> result = new LinkedHashSet<>();
+		int days = 0;
+		for (LocalDate aDate = from; !aDate.isAfter(to); aDate = aDate.plusDays(1)) {
+			if (maxDays < ++days) return null;
+			// Two dates may share a directory depending on the format
+			// フォーマットによっては二つの日付が同じディレクトリになりうる
+			result.add(DealLogging.logDirFormatter().format(aDate.atStartOfDay()));
+		}
+		return new ArrayList<>(result);
+	}
+
+	private void refreshDirs_(List<String> dirs, Handler<AsyncResult<Void>> completionHandler) {
+		List<String> dirsForLoop = new ArrayList<>(dirs);
+		refreshDirsLoop_(dirsForLoop, completionHandler);
+	}
+	private void refreshDirsLoop_(List<String> dirs, Handler<AsyncResult<Void>> completionHandler) {
+		if (dirs.isEmpty()) {
+			completionHandler.handle(Future.succeededFuture());
+		} else {
+			String aDir = dirs.remove(0);
+			refreshDir_(aDir, resRefreshDir -> {
+				if (resRefreshDir.succeeded()) {
+					refreshDirsLoop_(dirs, completionHandler);
+				} else {
+					completionHandler.handle(resRefreshDir);
+				}
+			});
+		}
+	}
+	/**
+	 * Read a directory into {@link DealLogIndex} unless it has already been read.
+	 * A directory that does not exist yet is regarded as read, since what is written into it later is reflected by {@link DealLogging}.
+	 * @param dir the directory path
+	 * @param completionHandler the completion handler
+	 *          
+	 * まだ読んでいなければディレクトリを {@link DealLogIndex} に読み込む.
+	 * まだ存在しないディレクトリは読んだことにする. その後書き込まれるものは {@link DealLogging} が反映するため.
+	 * @param dir ディレクトリのパス
+	 * @param completionHandler the completion handler
+	 */
+	private void refreshDir_(String dir, Handler<AsyncResult<Void>> completionHandler) {
+		if (DealLogging.index.isLoaded(dir)) {
+			completionHandler.handle(Future.succeededFuture());
+			return;
+		}
+		vertx.fileSystem().exists(dir, resExists -> {
+			if (resExists.succeeded()) {
+				if (!resExists.result()) {
+					DealLogging.index.load(dir, null);
+					completionHandler.handle(Future.succeededFuture());
+					return;
+				}
+				vertx.fileSystem().readDir(dir, resReadDir -> {
+					if (resReadDir.succeeded()) {
+						loadFilesLoop_(dir, new ArrayList<>(resReadDir.result()), new ArrayList<>(), completionHandler);
+					} else {
+						ErrorUtil.reportAndFail(vertx, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.ERROR, "Operation failed on File System", resReadDir.cause(), completionHandler);
+					}
+				});
+			} else {
+				ErrorUtil.reportAndFail(vertx, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.ERROR, "Operation failed on File System", resExists.cause(), completionHandler);
+			}
+		});
+	}
+	private void loadFilesLoop_(String dir, List<String> paths, List<JsonObject> deals, Handler<AsyncResult<Void>> completionHandler) {
+		if (paths.isEmpty()) {
+			// The DEAL objects read are dropped once their summaries are taken
+			// 読んだ DEAL オブジェクトは要約を取った後捨てる
+			DealLogging.index.load(dir, deals);
+			completionHandler.handle(Future.succeededFuture());
+		} else {
+			String aPath = paths.remove(0);
+			vertx.fileSystem().readFile(aPath, resReadFile -> {
+				if (resReadFile.succeeded()) {
+					try {
+						if (isSegment_(aPath)) {
+							deals.addAll(DealLogStore.rebuild(resReadFile.result().toString()).values());
+						} else {
+							deals.add(new JsonObject(resReadFile.result().toString()));
+						}
+					} catch (Exception e) {
+						if (log.isWarnEnabled()) log.warn("broken deal log " + aPath + " : " + e);
+					}
+				} else {
+					// Not a regular file, or removed in the meantime
+					// 通常ファイルでないかその間に削除された
+					if (log.isWarnEnabled()) log.warn("failed to read " + aPath + " : " + resReadFile.cause());
+				}
+				loadFilesLoop_(dir, paths, deals, completionHandler);
+			});
+		}
+	}
+	private static boolean isSegment_(String path) {
+		return path.endsWith(File.separatorChar + DealLogStore.SEGMENT_FILENAME);
+	}
+
+	private JsonObject aggregate_(List<String> dirs, Conditions_ conditions) {
+		LocalDateTime from = conditions.from_;
+		LocalDateTime to = conditions.to_;
+		String unitId = conditions.unitId_;
+		String type = conditions.type_;
+		Integer minAmountWh = conditions.minAmountWh_;
+		Integer maxAmountWh = conditions.maxAmountWh_;
+		String aggregate = conditions.aggregate_;
+		int count = 0;
+		Map<String, Integer> countPerDay = new TreeMap<>();
+		Map<String, Map<String, float[]>> energyPerDay = new TreeMap<>();
+		JsonArray deals = new JsonArray();
+		for (String aDir : dirs) {
+			for (DealLogIndex.Summary aSummary : DealLogging.index.summaries(aDir)) {
+				if (aSummary.createDateTime.isBefore(from) || !aSummary.createDateTime.isBefore(to)) continue;
+				if (unitId != null && !unitId.equals(aSummary.chargeUnitId) && !unitId.equals(aSummary.dischargeUnitId)) continue;
+				if (type != null && !type.equals(aSummary.type)) continue;
+				if (minAmountWh != null && (aSummary.dealAmountWh == null || aSummary.dealAmountWh < minAmountWh)) continue;
+				if (maxAmountWh != null && (aSummary.dealAmountWh == null || maxAmountWh < aSummary.dealAmountWh)) continue;
+				String day = DAY_FORMATTER_.format(aSummary.createDateTime);
+				if ("energyPerUnitPerDay".equals(aggregate)) {
+					Map<String, float[]> perUnit = energyPerDay.computeIfAbsent(day, k -> new TreeMap<>());
+					float wh = (aSummary.cumulateAmountWh != null) ? aSummary.cumulateAmountWh : 0F;
+					if (aSummary.chargeUnitId != null) perUnit.computeIfAbsent(aSummary.chargeUnitId, k -> new float[2])[0] += wh;
+					if (aSummary.dischargeUnitId != null) perUnit.computeIfAbsent(aSummary.dischargeUnitId, k -> new float[2])[1] += wh;
+				} else if ("deals".equals(aggregate)) {
+					deals.add(aSummary.toJson());
+				} else {
+					++count;
+					countPerDay.merge(day, 1, Integer::sum);
+				}
+			}
+		}
+		JsonObject result = new JsonObject();
+		if ("energyPerUnitPerDay".equals(aggregate)) {
+			for (Map.Entry<String, Map<String, float[]>> aDay : energyPerDay.entrySet()) {
+				JsonObject perUnit = new JsonObject();
+				for (Map.Entry<String, float[]> aUnit : aDay.getValue().entrySet()) {
+					perUnit.put(aUnit.getKey(), new JsonObject().put("chargeWh", aUnit.getValue()[0]).put("dischargeWh", aUnit.getValue()[1]));
+				}
+				result.put(aDay.getKey(), perUnit);
+			}
+		} else if ("deals".equals(aggregate)) {
+			result.put("deals", deals);
+		} else {
+			result.put("count", count);
+			JsonObject perDay = new JsonObject();
+			for (Map.Entry<String, Integer> aDay : countPerDay.entrySet()) {
+				perDay.put(aDay.getKey(), aDay.getValue());
+			}
+			result.put("perDay", perDay);
+		}
+		return result;
+	}
+
+	////
+
+	/**
+	 * Query conditions taken from a message body.
+	 * @author OES Project
+	 *          
+	 * メッセージボディから取り出した問い合わせ条件.
+	 * @author OES Project
+	 */
+	private static class Conditions_ {
+		private LocalDateTime from_;
+		private LocalDateTime to_;
+		private String unitId_;
+		private String type_;
+		private Integer minAmountWh_;
+		private Integer maxAmountWh_;
+		private String aggregate_;
+		/**
+		 * Take query conditions from a message body.
+		 * @param query the message body
+		 * @return the conditions. {@code null} if missing or of a wrong type
+		 *          
+		 * メッセージボディから問い合わせ条件を取り出す.
+		 * @param query メッセージボディ
+		 * @return 条件. 欠けているか型が違えば {@code null}
+		 */
+		private static Conditions_ of_(JsonObject query) {
+			if (query == null) return null;
+			Conditions_ result = new Conditions_();
+			try {
+				result.from_ = DateTimeUtil.toLocalDateTime(query.getString("from"));
+				result.to_ = DateTimeUtil.toLocalDateTime(query.getString("to"));
+				result.unitId_ = query.getString("unitId");
+				result.type_ = query.getString("type");
+				result.minAmountWh_ = query.getInteger("minAmountWh");
+				result.maxAmountWh_ = query.getInteger("maxAmountWh");
+				result.aggregate_ = query.getString("aggregate", "count");
+			} catch (ClassCastException e) {
+				if (log.isDebugEnabled()) log.debug("invalid query : " + query + " ; " + e);
+				return null;
+			}
+			if (result.from_ == null || result.to_ == null || !result.from_.isBefore(result.to_)) return null;
+			return result;
+		}
+	}
+
+}
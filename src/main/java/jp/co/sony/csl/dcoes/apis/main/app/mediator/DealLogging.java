@@ -23,6 +23,7 @@ import jp.co.sony.csl.dcoes.apis.common.util.vertx.FileSystemUtil;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectUtil;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.VertxConfig;
 import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
+import jp.co.sony.csl.dcoes.apis.main.app.mediator.util.DealLogStore;
 import jp.co.sony.csl.dcoes.apis.main.app.mediator.util.DealUtil;
 import jp.co.sony.csl.dcoes.apis.main.util.ApisConfig;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorExceptionUtil;
@@ -33,12 +34,14 @@ import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
  * Launched from the {@link Mediator} Verticle.
  * Periodically write the information of interchanges in which this unit participates to the file system.
  * This data is written even if externally requested.
+ * If {@code CONFIG.dealLogStore.type} is {@code "segmented"}, records are appended to {@link DealLogStore} instead of rewriting one file per interchange.
  * @author OES Project
  *          
  * 融通情報をファイルシステムに記録する Verticle.
  * {@link Mediator} Verticle から起動される.
  * 自ユニットが参加する融通情報を定期的にファイルシステムに書き込む.
  * 外部からの要求があったときにも書き込む.
+ * {@code CONFIG.dealLogStore.type} が {@code "segmented"} なら融通ごとに一つのファイルを書き直す代わりに {@link DealLogStore} に追記する.
  * @author OES Project
  */
 public class DealLogging extends AbstractVerticle {
@@ -61,8 +64,27 @@ public class DealLogging extends AbstractVerticle {
 	 */
 	private static final JsonObjectUtil.DefaultString DEFAULT_DEAL_LOG_DIR_FORMAT = new JsonObjectUtil.DefaultString("'" + StringUtil.TMPDIR + "/apis/dealLog/'uuuu'/'MM'/'dd");
 
+	/**
+	 * Default value for the type of interchange information storage.
+	 * Value: {@value}.
+	 *          
+	 * 融通情報保存方式のデフォルト値.
+	 * 値は {@value}.
+	 */
+	private static final String DEFAULT_DEAL_LOG_STORE_TYPE = "file";
+
+	/**
+	 * The index of recorded interchanges shared with {@link DealLogQuery}.
+	 * Updated each time an interchange has been written.
+	 *          
+	 * {@link DealLogQuery} と共有する記録された融通の索引.
+	 * 融通を書き込むたびに更新する.
+	 */
+	static final DealLogIndex index = new DealLogIndex();
+
 	private long dealLoggingTimerId_ = 0L;
 	private boolean stopped_ = false;
+	private DealLogStore store_ = null;
 
 	/**
 	 * Called at startup.
@@ -78,6 +100,14 @@ public class DealLogging extends AbstractVerticle {
 	 * @throws Exception {@inheritDoc}
 	 */
 	@Override public void start(Future<Void> startFuture) throws Exception {
+		String storeType = VertxConfig.config.getString(DEFAULT_DEAL_LOG_STORE_TYPE, "dealLogStore", "type");
+		if ("segmented".equals(storeType)) {
+			store_ = new DealLogStore(vertx, LOG_DIR_FORMATTER_, VertxConfig.config.getBoolean(Boolean.TRUE, "dealLogStore", "fsync"), deal -> {
+				index.update(LOG_DIR_FORMATTER_.format(JsonObjectUtil.getLocalDateTime(deal, "createDateTime")), deal);
+			});
+		} else if (!DEFAULT_DEAL_LOG_STORE_TYPE.equals(storeType)) {
+			ErrorExceptionUtil.log(Error.Category.USER, Error.Extent.LOCAL, Error.Level.WARN, "dealLogStore.type '" + storeType + "' not supported, use '" + DEFAULT_DEAL_LOG_STORE_TYPE + "'");
+		}
 		startDealLoggingService_(resDealLogging -> {
 			if (resDealLogging.succeeded()) {
 				dealLoggingTimerHandler_(0L);
@@ -100,6 +130,9 @@ public class DealLogging extends AbstractVerticle {
 	 */
 	@Override public void stop() throws Exception {
 		stopped_ = true;
+		if (store_ != null) {
+			store_.close();
+		}
 		if (log.isTraceEnabled()) log.trace("stopped : " + deploymentID());
 	}
 
@@ -212,6 +245,11 @@ public class DealLogging extends AbstractVerticle {
 					}
 					deals = filtered;
 				}
+				if (store_ != null) {
+					// Forget the interchanges that no longer exist
+					// もう存在しない融通を忘れる
+					store_.retain(deals);
+				}
 				if (!deals.isEmpty()) {
 					new DealLogging_(deals, completionHandler).doLoop_();
 				} else {
@@ -228,6 +266,18 @@ public class DealLogging extends AbstractVerticle {
 		s = StringUtil.fixFilePath(s);
 		LOG_DIR_FORMATTER_ = DateTimeFormatter.ofPattern(s);
 	}
+	/**
+	 * Get the formatter of the interchange information save path.
+	 * Shared with {@link DealLogQuery}.
+	 * @return the formatter built from {@code CONFIG.dealLogDirFormat}
+	 *          
+	 * 融通情報保存パスのフォーマッタを取得する.
+	 * {@link DealLogQuery} と共有する.
+	 * @return {@code CONFIG.dealLogDirFormat} から作ったフォーマッタ
+	 */
+	static DateTimeFormatter logDirFormatter() {
+		return LOG_DIR_FORMATTER_;
+	}
 	/**
 	 * A class that stores interchange information in the file system.
 	 * @author OES Project
@@ -254,7 +304,11 @@ public class DealLogging extends AbstractVerticle {
 			dealsForLoop_ = new ArrayList<>(deals_);
 		}
 		private void doLoop_() {
-			if (dealsForLoop_.isEmpty()) {
+			if (store_ != null) {
+				// Append all at once instead of writing one file per interchange
+				// 融通ごとにファイルを書く代わりにまとめて追記する
+				store_.append(deals_, completionHandler_);
+			} else if (dealsForLoop_.isEmpty()) {
 				completionHandler_.handle(Future.succeededFuture());
 			} else {
 				JsonObject aDeal = dealsForLoop_.remove(0);
@@ -273,6 +327,7 @@ public class DealLogging extends AbstractVerticle {
 				if (resEnsureFile.succeeded()) {
 					vertx.fileSystem().writeFile(path, Buffer.buffer(deal.encode()), resWriteFile -> {
 						if (resWriteFile.succeeded()) {
+							index.update(logDir, deal);
 							completionHandler.handle(Future.succeededFuture());
 						} else {
 							ErrorUtil.reportAndFail(vertx, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.FATAL, "Operation failed on File System", resWriteFile.cause(), completionHandler);
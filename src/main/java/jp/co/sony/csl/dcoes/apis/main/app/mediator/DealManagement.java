@@ -21,6 +21,7 @@ import jp.co.sony.csl.dcoes.apis.common.ServiceAddress;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.ReplyFailureUtil;
 import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
 import jp.co.sony.csl.dcoes.apis.main.app.controller.DataAcquisition;
+import jp.co.sony.csl.dcoes.apis.main.app.gridmaster.MainLoop;
 import jp.co.sony.csl.dcoes.apis.main.app.mediator.util.DealNeedToStopUtil;
 import jp.co.sony.csl.dcoes.apis.main.app.mediator.util.DealUtil;
 import jp.co.sony.csl.dcoes.apis.main.util.ApisConfig;
@@ -310,6 +311,9 @@ public class DealManagement extends AbstractVerticle {
 							deal.put("createDateTime", DataAcquisition.cache.getString("time"));
 							DealUtil.add(vertx, deal, resAdd -> {
 								if (resAdd.succeeded()) {
+									// Let the GridMaster start the new deal without waiting for the next main loop cycle
+									// 次のメインループ周期を待たずに GridMaster に新しい融通を始めさせる
+									MainLoop.trigger(vertx, "deal created : " + Deal.dealId(deal));
 									completionHandler.handle(Future.succeededFuture(deal));
 								} else {
 									ErrorExceptionUtil.reportIfNeed(vertx, resAdd.cause());
@@ -523,7 +527,14 @@ public class DealManagement extends AbstractVerticle {
 			if (resGet.succeeded()) {
 				JsonObject deal = resGet.result();
 				if (deal != null) {
-					DealNeedToStopUtil.add(vertx, dealId, reasons, resNeedToStop -> ErrorExceptionUtil.reportIfNeedAndHandle(vertx, resNeedToStop, completionHandler));
+					DealNeedToStopUtil.add(vertx, dealId, reasons, resNeedToStop -> {
+						if (resNeedToStop.succeeded()) {
+							// Let the GridMaster stop the deal without waiting for the next main loop cycle
+							// 次のメインループ周期を待たずに GridMaster に融通を止めさせる
+							MainLoop.trigger(vertx, "deal need to stop : " + dealId);
+						}
+						ErrorExceptionUtil.reportIfNeedAndHandle(vertx, resNeedToStop, completionHandler);
+					});
 				} else {
 					completionHandler.handle(Future.succeededFuture());
 				}
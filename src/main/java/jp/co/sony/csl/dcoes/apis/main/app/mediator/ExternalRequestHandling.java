@@ -1,9 +1,16 @@
 package jp.co.sony.csl.dcoes.apis.main.app.mediator;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
@@ -14,6 +21,7 @@ import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
 import jp.co.sony.csl.dcoes.apis.main.app.StateHandling;
 import jp.co.sony.csl.dcoes.apis.main.util.ApisConfig;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
+import jp.co.sony.csl.dcoes.apis.main.util.MainServiceAddress;
 
 /**
  * A Verticle that handles requests from other units.
@@ -43,8 +51,14 @@ public class ExternalRequestHandling extends AbstractVerticle {
 	@Override public void start(Future<Void> startFuture) throws Exception {
 		startExternalRequestHandlingService_(resExternalRequestHandling -> {
 			if (resExternalRequestHandling.succeeded()) {
-				if (log.isTraceEnabled()) log.trace("started : " + deploymentID());
-				startFuture.complete();
+				startBatchRequestsHandlingService_(resBatchRequestsHandling -> {
+					if (resBatchRequestsHandling.succeeded()) {
+						if (log.isTraceEnabled()) log.trace("started : " + deploymentID());
+						startFuture.complete();
+					} else {
+						startFuture.fail(resBatchRequestsHandling.cause());
+					}
+				});
 			} else {
 				log.error(resExternalRequestHandling.cause());
 				startFuture.fail(resExternalRequestHandling.cause());
@@ -70,11 +84,12 @@ public class ExternalRequestHandling extends AbstractVerticle {
 	 * Address: {@link ServiceAddress.Mediator#externalRequest()}
 	 * Scope: global
 	 * Function: Receive a request from another unit and send an "accept" response to the specified address.
-	 *           If it is not accepted, send nothing.
+	 *           If it is not accepted, or this unit is not in operation, send nothing, or a decline if {@code POLICY.mediator.negotiationEarlyClose.enabled} is {@code true} so that the requesting unit can close the negotiation early.
 	 *           The "accept" response is relayed to the User service.
 	 * Message body: request information [{@link JsonObject}]
 	 * Message header:
 	 * 　　　　　- {@code "replyAddress"}: the address to which the "accept" response should be returned
+	 * 　　　　　- {@code "negotiationId"}: the negotiation ID, echoed back in the header of the "accept" response
 	 * Response: none
 	 * @param completionHandler the completion handler
 	 *          
@@ -82,18 +97,25 @@ public class ExternalRequestHandling extends AbstractVerticle {
 	 * アドレス : {@link ServiceAddress.Mediator#externalRequest()}
 	 * 範囲 : グローバル
 	 * 処理 : 他ユニットからリクエストを受け取り指定されたアドレスに対しアクセプトを送る.
-	 * 　　   アクセプトしない場合は送らない.
+	 * 　　   アクセプトしない場合や自ユニットが稼働中でない場合は送らない. ただし {@code POLICY.mediator.negotiationEarlyClose.enabled} が {@code true} ならリクエスト元が融通交渉を早く閉じられるよう断りを送る.
 	 * 　　   アクセプト作成は User サービスへ中継する.
 	 * メッセージボディ : リクエスト情報 [{@link JsonObject}]
 	 * メッセージヘッダ :
 	 * 　　　　　　　　   - {@code "replyAddress"} : アクセプトを送り返すアドレス
+	 * 　　　　　　　　   - {@code "negotiationId"} : 融通交渉 ID. アクセプトのヘッダでそのまま返す
 	 * レスポンス : なし
 	 * @param completionHandler the completion handler
 	 */
 	private void startExternalRequestHandlingService_(Handler<AsyncResult<Void>> completionHandler) {
 		vertx.eventBus().<JsonObject>consumer(ServiceAddress.Mediator.externalRequest(), req -> {
-			if (!StateHandling.isInOperation()) return;
 			String replyAddress = req.headers().get("replyAddress");
+			String negotiationId = req.headers().get("negotiationId");
+			if (!StateHandling.isInOperation()) {
+				// Let the requesting unit close early all the same
+				// それでもリクエスト元が早く閉じられるようにする
+				if (replyAddress != null) sendDecline_(replyAddress, negotiationId);
+				return;
+			}
 			if (replyAddress != null) {
 				JsonObject request = req.body();
 				if (log.isDebugEnabled()) log.debug("request received : " + request);
@@ -102,33 +124,17 @@ public class ExternalRequestHandling extends AbstractVerticle {
 					if (requestUnitId != null) {
 						if (!ApisConfig.unitId().equals(requestUnitId)) {
 							if (PolicyKeeping.isMember(requestUnitId)) {
-								vertx.eventBus().<JsonObject>send(ServiceAddress.User.mediatorRequest(), request, rep -> {
-									if (rep.succeeded()) {
-										JsonObject accept = rep.result().body();
-										if (accept != null) {
-											Integer dealAmountMinWh = PolicyKeeping.cache().getInteger(0, "mediator", "deal", "amountMinWh");
-											Integer amountWh = accept.getInteger("amountWh", 0);
-											if (dealAmountMinWh < amountWh) {
-												// Send back an "accept" response if the interchange power of the "accept" response from this unit (amountWh) is larger than the minimum value (POLICY.mediator.deal.amountMinWh)
-												// 自ユニットからのアクセプトの融通電力量 ( amountWh ) が最低値 ( POLICY.mediator.deal.amountMinWh ) より大きければアクセプトを返す
-												accept.put("dealGridCurrentA", PolicyKeeping.cache().getFloat(0F, "mediator", "deal", "gridCurrentA"));
-												accept.put("unitId", ApisConfig.unitId());
-												// Send an "accept" response to the reply address
-												// 返信用アドレスにアクセプトを送信する
-												vertx.eventBus().send(replyAddress, accept);
-												if (log.isDebugEnabled()) log.debug("accept sent back to " + requestUnitId + " : " + accept);
-											} else {
-												if (log.isDebugEnabled()) log.debug("accept amount : " + amountWh + " ; less than dealAmountMinWh : " + dealAmountMinWh);
-											}
-										}
+								doCreateAccept_(request, resAccept -> {
+									JsonObject accept = resAccept.result();
+									if (accept != null) {
+										// Send an "accept" response to the reply address with the negotiation ID
+										// 返信用アドレスに融通交渉 ID とともにアクセプトを送信する
+										DeliveryOptions options = new DeliveryOptions();
+										if (negotiationId != null) options.addHeader("negotiationId", negotiationId);
+										vertx.eventBus().send(replyAddress, accept, options);
+										if (log.isDebugEnabled()) log.debug("accept sent back to " + requestUnitId + " : " + accept);
 									} else {
-										if (ReplyFailureUtil.isRecipientFailure(rep)) {
-											// nop
-										} else if (ReplyFailureUtil.isTimeout(rep)) {
-											ErrorUtil.report(vertx, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.WARN, "Communication failed on EventBus", rep.cause());
-										} else {
-											ErrorUtil.report(vertx, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.ERROR, "Communication failed on EventBus", rep.cause());
-										}
+										sendDecline_(replyAddress, negotiationId);
 									}
 								});
 							} else {
@@ -149,4 +155,163 @@ public class ExternalRequestHandling extends AbstractVerticle {
 		}).completionHandler(completionHandler);
 	}
 
+	/**
+	 * Launch the {@link io.vertx.core.eventbus.EventBus} service.
+	 * Address: {@link MainServiceAddress.Mediator#batchRequests()}
+	 * Scope: global
+	 * Function: Receive the requests of a batch round from GridMaster and send the "accept" responses to all of them to the specified address in one message.
+	 *           Each request is relayed to the User service as in {@link ServiceAddress.Mediator#externalRequest()}, one after another.
+	 *           The User service offers the whole surplus or shortage of this unit to every request, so the amount that may already be interchanged by the earlier "accept" responses of the round is deducted from each "accept" response (see {@link #doCreateAccepts_(List, int, JsonArray, Map, Handler)}).
+	 *           Requests from this unit and from units that are not members are skipped.
+	 *           The message is sent even if nothing is accepted so that GridMaster knows this unit has responded.
+	 * Message body: requests each holding its {@code "negotiationId"} [{@link JsonArray}]
+	 * Message header:
+	 * 　　　　　- {@code "replyAddress"}: the address to which the "accept" responses should be returned
+	 * 　　　　　- {@code "batchId"}: the round ID, echoed back in the header
+	 * Response: none
+	 * @param completionHandler the completion handler
+	 *          
+	 * {@link io.vertx.core.eventbus.EventBus} サービス起動.
+	 * アドレス : {@link MainServiceAddress.Mediator#batchRequests()}
+	 * 範囲 : グローバル
+	 * 処理 : GridMaster から一括交渉ラウンドのリクエスト群を受け取り, 全てに対するアクセプトを一つのメッセージで指定されたアドレスに送る.
+	 * 　　   各リクエストは {@link ServiceAddress.Mediator#externalRequest()} と同様に一つずつ順に User サービスへ中継する.
+	 * 　　   User サービスは全リクエストに自ユニットの余剰または不足の全体を申し出るので, ラウンド内の先のアクセプトで既に融通されうる量を各アクセプトから差し引く ( {@link #doCreateAccepts_(List, int, JsonArray, Map, Handler)} 参照 ).
+	 * 　　   自ユニットおよびメンバ以外のユニットからのリクエストは飛ばす.
+	 * 　　   GridMaster が自ユニットのレスポンスを知れるよう何もアクセプトしなくてもメッセージを送る.
+	 * メッセージボディ : それぞれ {@code "negotiationId"} を持つリクエスト群 [{@link JsonArray}]
+	 * メッセージヘッダ :
+	 * 　　　　　　　　   - {@code "replyAddress"} : アクセプト群を送り返すアドレス
+	 * 　　　　　　　　   - {@code "batchId"} : ラウンド ID. ヘッダでそのまま返す
+	 * レスポンス : なし
+	 * @param completionHandler the completion handler
+	 */
+	private void startBatchRequestsHandlingService_(Handler<AsyncResult<Void>> completionHandler) {
+		vertx.eventBus().<JsonArray>consumer(MainServiceAddress.Mediator.batchRequests(), req -> {
+			String replyAddress = req.headers().get("replyAddress");
+			String batchId = req.headers().get("batchId");
+			if (replyAddress != null && batchId != null) {
+				List<JsonObject> requests = new ArrayList<>();
+				if (StateHandling.isInOperation() && req.body() != null) {
+					for (Object obj : req.body()) {
+						if (obj instanceof JsonObject) {
+							JsonObject aRequest = (JsonObject) obj;
+							String requestUnitId = aRequest.getString("unitId");
+							if (aRequest.getString("negotiationId") != null && !ApisConfig.unitId().equals(requestUnitId) && PolicyKeeping.isMember(requestUnitId)) {
+								requests.add(aRequest);
+							}
+						}
+					}
+				}
+				if (log.isDebugEnabled()) log.debug("batch requests received : " + requests.size() + " ; batchId : " + batchId);
+				JsonArray accepts = new JsonArray();
+				doCreateAccepts_(requests, 0, accepts, new HashMap<>(), resAccepts -> {
+					// Send all the "accept" responses in one message
+					// 全てのアクセプトを一つのメッセージで送信する
+					JsonObject body = new JsonObject().put("unitId", ApisConfig.unitId()).put("accepts", accepts);
+					vertx.eventBus().send(replyAddress, body, new DeliveryOptions().addHeader("batchId", batchId));
+					if (log.isDebugEnabled()) log.debug("batch accepts sent back : " + accepts.size() + " ; batchId : " + batchId);
+				});
+			} else {
+				ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "no replyAddress and/or batchId in batch request header : " + req.headers());
+			}
+		}).completionHandler(completionHandler);
+	}
+
+	/**
+	 * Create the "accept" responses to the requests of a batch round one after another.
+	 * All of them may be matched in the round, so the amount of each "accept" response is reduced by what the earlier ones of the same type may interchange,
+	 * i.e. the smaller of the request amount and the "accept" response amount.
+	 * An "accept" response whose remaining amount is not larger than {@code POLICY.mediator.deal.amountMinWh} is dropped.
+	 * This is conservative : the amount offered to an earlier request is deducted even if GridMaster does not match it.
+	 * @param requests requests of the round
+	 * @param index index of the request to handle
+	 * @param accepts the "accept" responses created so far
+	 * @param offeredWhByType the amount that may be interchanged by the "accept" responses created so far, by type
+	 * @param completionHandler the completion handler. Always succeeds
+	 *          
+	 * 一括交渉ラウンドのリクエスト群に対するアクセプトを一つずつ順に作成する.
+	 * ラウンドで全てマッチしうるので, 各アクセプトの量から同じ種類の先のアクセプトが融通しうる量, すなわちリクエスト量とアクセプト量の小さい方を差し引く.
+	 * 残りの量が {@code POLICY.mediator.deal.amountMinWh} より大きくないアクセプトは捨てる.
+	 * 保守的である : GridMaster が先のリクエストとマッチさせなくてもそれに申し出た量を差し引く.
+	 * @param requests ラウンドのリクエスト群
+	 * @param index 処理するリクエストのインデクス
+	 * @param accepts これまでに作成したアクセプト群
+	 * @param offeredWhByType これまでに作成したアクセプト群が融通しうる種類ごとの電力量
+	 * @param completionHandler the completion handler. 常に成功する
+	 */
+	private void doCreateAccepts_(List<JsonObject> requests, int index, JsonArray accepts, Map<String, Integer> offeredWhByType, Handler<AsyncResult<Void>> completionHandler) {
+		if (requests.size() <= index) {
+			completionHandler.handle(Future.succeededFuture());
+			return;
+		}
+		JsonObject request = requests.get(index);
+		doCreateAccept_(request, resAccept -> {
+			JsonObject accept = resAccept.result();
+			if (accept != null) {
+				String type = accept.getString("type");
+				int amountWh = accept.getInteger("amountWh", 0) - offeredWhByType.getOrDefault(type, 0);
+				Integer dealAmountMinWh = PolicyKeeping.cache().getInteger(0, "mediator", "deal", "amountMinWh");
+				if (dealAmountMinWh < amountWh) {
+					accepts.add(accept.put("amountWh", amountWh).put("negotiationId", request.getString("negotiationId")));
+					offeredWhByType.put(type, offeredWhByType.getOrDefault(type, 0) + Math.min(amountWh, request.getInteger("amountWh", amountWh)));
+				} else {
+					if (log.isDebugEnabled()) log.debug("accept amount after deducting earlier accepts of the round : " + amountWh + " ; less than dealAmountMinWh : " + dealAmountMinWh);
+				}
+			}
+			doCreateAccepts_(requests, index + 1, accepts, offeredWhByType, completionHandler);
+		});
+	}
+
+	/**
+	 * Create an "accept" response to a request from another unit.
+	 * The "accept" response is relayed to the User service.
+	 * @param request request information
+	 * @param completionHandler the completion handler. Always succeeds ; the result is {@code null} if not accepted
+	 *          
+	 * 他ユニットからのリクエストに対するアクセプトを作成する.
+	 * アクセプト作成は User サービスへ中継する.
+	 * @param request リクエスト情報
+	 * @param completionHandler the completion handler. 常に成功する ; アクセプトしない場合の結果は {@code null}
+	 */
+	private void doCreateAccept_(JsonObject request, Handler<AsyncResult<JsonObject>> completionHandler) {
+		vertx.eventBus().<JsonObject>send(ServiceAddress.User.mediatorRequest(), request, rep -> {
+			if (rep.succeeded()) {
+				JsonObject accept = rep.result().body();
+				if (accept != null) {
+					Integer dealAmountMinWh = PolicyKeeping.cache().getInteger(0, "mediator", "deal", "amountMinWh");
+					Integer amountWh = accept.getInteger("amountWh", 0);
+					if (dealAmountMinWh < amountWh) {
+						// Send back an "accept" response if the interchange power of the "accept" response from this unit (amountWh) is larger than the minimum value (POLICY.mediator.deal.amountMinWh)
+						// 自ユニットからのアクセプトの融通電力量 ( amountWh ) が最低値 ( POLICY.mediator.deal.amountMinWh ) より大きければアクセプトを返す
+						accept.put("dealGridCurrentA", PolicyKeeping.cache().getFloat(0F, "mediator", "deal", "gridCurrentA"));
+						accept.put("unitId", ApisConfig.unitId());
+						completionHandler.handle(Future.succeededFuture(accept));
+						return;
+					} else {
+						if (log.isDebugEnabled()) log.debug("accept amount : " + amountWh + " ; less than dealAmountMinWh : " + dealAmountMinWh);
+					}
+				}
+			} else {
+				if (ReplyFailureUtil.isRecipientFailure(rep)) {
+					// nop
+				} else if (ReplyFailureUtil.isTimeout(rep)) {
+					ErrorUtil.report(vertx, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.WARN, "Communication failed on EventBus", rep.cause());
+				} else {
+					ErrorUtil.report(vertx, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.ERROR, "Communication failed on EventBus", rep.cause());
+				}
+			}
+			completionHandler.handle(Future.succeededFuture());
+		});
+	}
+
+	private void sendDecline_(String replyAddress, String negotiationId) {
+		// Only negotiations that can close early need to know about declines
+		// 断りを知る必要があるのは早く閉じられる融通交渉のみ
+		if (negotiationId != null && PolicyKeeping.cache().getBoolean(Boolean.FALSE, "mediator", "negotiationEarlyClose", "enabled")) {
+			DeliveryOptions options = new DeliveryOptions().addHeader("negotiationId", negotiationId).addHeader("declined", "true");
+			vertx.eventBus().send(replyAddress, new JsonObject().put("unitId", ApisConfig.unitId()), options);
+		}
+	}
+
 }
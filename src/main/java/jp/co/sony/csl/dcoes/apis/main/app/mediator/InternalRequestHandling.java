@@ -9,19 +9,21 @@ import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import jp.co.sony.csl.dcoes.apis.common.Error;
 import jp.co.sony.csl.dcoes.apis.common.ServiceAddress;
+import jp.co.sony.csl.dcoes.apis.common.util.vertx.ReplyFailureUtil;
 import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
 import jp.co.sony.csl.dcoes.apis.main.util.ApisConfig;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
+import jp.co.sony.csl.dcoes.apis.main.util.MainServiceAddress;
 
 /**
  * A Verticle that handles requests from its own unit.
  * Launched from the {@link Mediator} Verticle.
- * Launches the {@link Negotiation} Verticle, which it uses to handle processing.
+ * Hands the request to {@link NegotiationEngine}, which it uses to handle processing.
  * @author OES Project
  *          
  * 自ユニットからのリクエストを処理する Verticle.
  * {@link Mediator} Verticle から起動される.
- * {@link Negotiation} Verticle を起動し処理を任せる.
+ * {@link NegotiationEngine} にリクエストを渡し処理を任せる.
  * @author OES Project
  */
 public class InternalRequestHandling extends AbstractVerticle {
@@ -67,20 +69,20 @@ public class InternalRequestHandling extends AbstractVerticle {
 	 * Address: {@link ServiceAddress.Mediator#internalRequest()}
 	 * Scope: local
 	 * Function: Receive requests from this unit and perform interchange negotiation.
-	 *           Interchange negotiation is performed by launching and entrusting processing to {@link Negotiation}.
+	 *           Interchange negotiation is performed by entrusting processing to {@link NegotiationEngine}.
 	 * Message body: request information [{@link JsonObject}]
 	 * Message header: none
-	 * Response: deploymentID [{@link String}]
+	 * Response: negotiation ID [{@link String}]
 	 * @param completionHandler the completion handler
 	 *          
 	 * {@link io.vertx.core.eventbus.EventBus} サービス起動.
 	 * アドレス : {@link ServiceAddress.Mediator#internalRequest()}
 	 * 範囲 : ローカル
 	 * 処理 : 自ユニットからリクエストを受け取り融通交渉を実行する.
-	 * 　　   融通交渉は {@link Negotiation} を起動し処理を任せる.
+	 * 　　   融通交渉は {@link NegotiationEngine} に処理を任せる.
 	 * メッセージボディ : リクエスト情報 [{@link JsonObject}]
 	 * メッセージヘッダ : なし
-	 * レスポンス : deploymentID [{@link String}]
+	 * レスポンス : 融通交渉 ID [{@link String}]
 	 * @param completionHandler the completion handler
 	 */
 	private void startInternalRequestHandlingService_(Handler<AsyncResult<Void>> completionHandler) {
@@ -95,13 +97,17 @@ public class InternalRequestHandling extends AbstractVerticle {
 					// 自ユニットからのリクエストの融通電力量 ( amountWh ) が最低値 ( POLICY.mediator.deal.amountMinWh ) より大きければリクエストを出す
 					request.put("dealGridCurrentA", PolicyKeeping.cache().getFloat(0F, "mediator", "deal", "gridCurrentA"));
 					request.put("unitId", ApisConfig.unitId());
-					// Create and deploy a Negotiation
-					// Negotiation を作ってお任せする
-					vertx.deployVerticle(new Negotiation(request), resDeployNegotiation -> {
-						if (resDeployNegotiation.succeeded()) {
-							req.reply(resDeployNegotiation.result());
+					// Start a Negotiation on the NegotiationEngine
+					// NegotiationEngine で Negotiation を開始してお任せする
+					vertx.eventBus().<String>send(MainServiceAddress.Mediator.negotiation(), request, repNegotiation -> {
+						if (repNegotiation.succeeded()) {
+							req.reply(repNegotiation.result().body());
 						} else {
-							ErrorUtil.reportAndFail(vertx, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.FATAL, resDeployNegotiation.cause(), req);
+							if (ReplyFailureUtil.isRecipientFailure(repNegotiation)) {
+								req.fail(-1, repNegotiation.cause().getMessage());
+							} else {
+								ErrorUtil.reportAndFail(vertx, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.FATAL, "Communication failed on EventBus", repNegotiation.cause(), req);
+							}
 						}
 					});
 				} else {
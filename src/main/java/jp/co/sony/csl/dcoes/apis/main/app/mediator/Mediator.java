@@ -13,7 +13,9 @@ import io.vertx.core.logging.LoggerFactory;
  * - {@link GridMasterManagement}: A Verticle that manages a GridMaster
  * - {@link DealManagement}: A Verticle that manages interchange information
  * - {@link DealLogging}: A Verticle that records interchange information in the file system
+ * - {@link DealLogQuery}: A Verticle that answers queries over the recorded interchange information
  * - {@link ExternalRequestHandling}: A Verticle that handles requests from other units
+ * - {@link NegotiationEngine}: A Verticle that runs the interchange negotiations of its own unit
  * - {@link InternalRequestHandling}: A Verticle that handles requests from its own unit
  * @author OES Project
  *          
@@ -24,7 +26,9 @@ import io.vertx.core.logging.LoggerFactory;
  * - {@link GridMasterManagement} : GridMaster を管理する Verticle
  * - {@link DealManagement} : 融通情報を管理する Verticle
  * - {@link DealLogging} : 融通情報をファイルシステムに記録する Verticle
+ * - {@link DealLogQuery} : 記録された融通情報に対する問い合わせに答える Verticle
  * - {@link ExternalRequestHandling} : 他ユニットからのリクエストを処理する Verticle
+ * - {@link NegotiationEngine} : 自ユニットの融通交渉を実行する Verticle
  * - {@link InternalRequestHandling} : 自ユニットからのリクエストを処理する Verticle
  * @author OES Project
  */
@@ -38,7 +42,9 @@ public class Mediator extends AbstractVerticle {
 	 * - {@link GridMasterManagement}: A Verticle that manages a GridMaster
 	 * - {@link DealManagement}: A Verticle that manages interchange information
 	 * - {@link DealLogging}: A Verticle that records interchange information in the file system
+	 * - {@link DealLogQuery}: A Verticle that answers queries over the recorded interchange information
 	 * - {@link ExternalRequestHandling}: A Verticle that handles requests from other units
+	 * - {@link NegotiationEngine}: A Verticle that runs the interchange negotiations of its own unit
 	 * - {@link InternalRequestHandling}: A Verticle that handles requests from its own unit
 	 * @param startFuture {@inheritDoc}
 	 * @throws Exception {@inheritDoc}
@@ -49,7 +55,9 @@ public class Mediator extends AbstractVerticle {
 	 * - {@link GridMasterManagement} : GridMaster を管理する Verticle
 	 * - {@link DealManagement} : 融通情報を管理する Verticle
 	 * - {@link DealLogging} : 融通情報をファイルシステムに記録する Verticle
+	 * - {@link DealLogQuery} : 記録された融通情報に対する問い合わせに答える Verticle
 	 * - {@link ExternalRequestHandling} : 他ユニットからのリクエストを処理する Verticle
+	 * - {@link NegotiationEngine} : 自ユニットの融通交渉を実行する Verticle
 	 * - {@link InternalRequestHandling} : 自ユニットからのリクエストを処理する Verticle
 	 * @param startFuture {@inheritDoc}
 	 * @throws Exception {@inheritDoc}
@@ -63,18 +71,30 @@ public class Mediator extends AbstractVerticle {
 							if (resDealManagement.succeeded()) {
 								vertx.deployVerticle(new DealLogging(), resDealLogging -> {
 									if (resDealLogging.succeeded()) {
-										vertx.deployVerticle(new ExternalRequestHandling(), resExternalRequestHandling -> {
-											if (resExternalRequestHandling.succeeded()) {
-												vertx.deployVerticle(new InternalRequestHandling(), resInternalRequestHandling -> {
-													if (resInternalRequestHandling.succeeded()) {
-														if (log.isTraceEnabled()) log.trace("started : " + deploymentID());
-														startFuture.complete();
+										vertx.deployVerticle(new DealLogQuery(), resDealLogQuery -> {
+											if (resDealLogQuery.succeeded()) {
+												vertx.deployVerticle(new ExternalRequestHandling(), resExternalRequestHandling -> {
+													if (resExternalRequestHandling.succeeded()) {
+														vertx.deployVerticle(new NegotiationEngine(), resNegotiationEngine -> {
+															if (resNegotiationEngine.succeeded()) {
+																vertx.deployVerticle(new InternalRequestHandling(), resInternalRequestHandling -> {
+																	if (resInternalRequestHandling.succeeded()) {
+																		if (log.isTraceEnabled()) log.trace("started : " + deploymentID());
+																		startFuture.complete();
+																	} else {
+																		startFuture.fail(resInternalRequestHandling.cause());
+																	}
+																});
+															} else {
+																startFuture.fail(resNegotiationEngine.cause());
+															}
+														});
 													} else {
-														startFuture.fail(resInternalRequestHandling.cause());
+														startFuture.fail(resExternalRequestHandling.cause());
 													}
 												});
 											} else {
-												startFuture.fail(resExternalRequestHandling.cause());
+												startFuture.fail(resDealLogQuery.cause());
 											}
 										});
 									} else {
@@ -1,14 +1,14 @@
 package jp.co.sony.csl.dcoes.apis.main.app.mediator;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
-import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
-import io.vertx.core.eventbus.DeliveryOptions;
-import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
@@ -21,171 +21,216 @@ import jp.co.sony.csl.dcoes.apis.main.util.ApisConfig;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
 
 /**
- * A Verticle that performs interchange negotiation.
- * 1. Broadcast a request issued by this unit to all other units and wait for them to return "accept" responses
+ * One interchange negotiation.
+ * Run by {@link NegotiationEngine}, which multiplexes all the negotiations of this unit.
+ * 1. Broadcast a request issued by this unit to all other units and collect their "accept" responses
  * 2. Pass these responses to the User service to receive appropriate "accept" responses
  * 3. Combine the original request with the selected response to create interchange information, and request that it is registered
+ * May be closed before the timeout when {@code POLICY.mediator.negotiationEarlyClose} allows it (see {@link #isSatisfied()}).
+ * Not thread-safe ; used on the event loop of {@link NegotiationEngine} only.
  * @author OES Project
  *          
- * 融通交渉を実行する Verticle.
- * 1. 自ユニットから発せられたリクエストを全ユニットにブロードキャストしアクセプトが返ってくるのを待つ
+ * 一つの融通交渉.
+ * 自ユニットの全ての融通交渉を多重化する {@link NegotiationEngine} が実行する.
+ * 1. 自ユニットから発せられたリクエストを全ユニットにブロードキャストしアクセプトを集める
  * 2. 返ってきたアクセプト群を User サービスに渡して適切なアクセプトを受け取る
  * 3. 元のリクエストと選ばれたアクセプトを合わせて融通情報を作成し登録を依頼する
+ * {@code POLICY.mediator.negotiationEarlyClose} が許せばタイムアウト前に閉じることがある ( {@link #isSatisfied()} 参照 ).
+ * スレッドセーフではない ; {@link NegotiationEngine} のイベントループでのみ使う.
  * @author OES Project
  */
-public class Negotiation extends AbstractVerticle {
+public class Negotiation {
 	private static final Logger log = LoggerFactory.getLogger(Negotiation.class);
 
-	/**
-	 * Default time to wait for responses after issuing a request [ms].
-	 * Value: {@value}.
-	 *          
-	 * リクエストを発してからレスポンスを待つ時間のデフォルト値 [ms].
-	 * 値は {@value}.
-	 */
-	private static final Long DEFAULT_NEGOTIATION_TIMEOUT_MSEC = 2000L;
-
-	private JsonObject request_;
+	private final Vertx vertx_;
+	private final String negotiationId_;
+	private final JsonObject request_;
+	private final List<JsonObject> accepts_ = new ArrayList<>();
+	private final Set<String> expectedUnitIds_ = new HashSet<>();
+	private final Set<String> respondedUnitIds_ = new HashSet<>();
+	private final Float goodEnoughAmountRatio_;
+	private boolean goodEnoughAcceptReceived_ = false;
+	private long timerId_ = 0L;
 
 	/**
 	 * Create an instance.
+	 * @param vertx a vertx object
+	 * @param negotiationId the negotiation ID
 	 * @param request an interchange request
 	 *          
 	 * インスタンスを生成する.
+	 * @param vertx vertx オブジェクト
+	 * @param negotiationId 融通交渉 ID
 	 * @param request 融通リクエスト
 	 */
-	public Negotiation(JsonObject request) {
+	public Negotiation(Vertx vertx, String negotiationId, JsonObject request) {
+		vertx_ = vertx;
+		negotiationId_ = negotiationId;
 		request_ = request;
+		if (PolicyKeeping.cache().getBoolean(Boolean.FALSE, "mediator", "negotiationEarlyClose", "enabled")) {
+			// Expect a response from every member but this unit
+			// 自ユニット以外の全メンバからのレスポンスを期待する
+			List<String> memberUnitIds = PolicyKeeping.memberUnitIds();
+			if (memberUnitIds != null) expectedUnitIds_.addAll(memberUnitIds);
+			expectedUnitIds_.remove(ApisConfig.unitId());
+			goodEnoughAmountRatio_ = PolicyKeeping.cache().getFloat("mediator", "negotiationEarlyClose", "goodEnoughAmountRatio");
+		} else {
+			goodEnoughAmountRatio_ = null;
+		}
 	}
 
 	/**
-	 * Called at startup.
-	 * Launches the {@link io.vertx.core.eventbus.EventBus} service.
-	 * Publishes interchange requests and the addresses of launched services.
-	 * After waiting for a fixed period of time, processes the returned responses and undeploys itself.
-	 * @param startFuture {@inheritDoc}
-	 * @throws Exception {@inheritDoc}
+	 * Get the negotiation ID.
+	 * @return the negotiation ID
+	 *          
+	 * 融通交渉 ID を取得する.
+	 * @return 融通交渉 ID
+	 */
+	public String negotiationId() {
+		return negotiationId_;
+	}
+	/**
+	 * Get the interchange request.
+	 * @return the interchange request
 	 *          
-	 * 起動時に呼び出される.
-	 * {@link io.vertx.core.eventbus.EventBus} サービスを起動する.
-	 * 起動したサービスのアドレスと融通リクエストを publish する.
-	 * 一定時間待った後返ってきたレスポンス群を処理し自身を undeploy する.
-	 * @param startFuture {@inheritDoc}
-	 * @throws Exception {@inheritDoc}
+	 * 融通リクエストを取得する.
+	 * @return 融通リクエスト
 	 */
-	@Override public void start(Future<Void> startFuture) throws Exception {
-		startAcceptService_(resAccept -> {
-			if (resAccept.succeeded()) {
-				if (log.isTraceEnabled()) log.trace("started : " + deploymentID());
-				startFuture.complete();
-			} else {
-				startFuture.fail(resAccept.cause());
-			}
-		});
+	public JsonObject request() {
+		return request_;
+	}
+	/**
+	 * Get the ID of the timer that closes this negotiation.
+	 * @return the timer ID
+	 *          
+	 * この融通交渉を閉じるタイマの ID を取得する.
+	 * @return タイマ ID
+	 */
+	public long timerId() {
+		return timerId_;
+	}
+	/**
+	 * Set the ID of the timer that closes this negotiation.
+	 * @param timerId the timer ID
+	 *          
+	 * この融通交渉を閉じるタイマの ID を設定する.
+	 * @param timerId タイマ ID
+	 */
+	public void setTimerId(long timerId) {
+		timerId_ = timerId;
 	}
 
 	/**
-	 * Called when stopped.
-	 * @throws Exception {@inheritDoc}
+	 * Add an "accept" response.
+	 * Responses from units that are not members defined in POLICY are reported and dropped.
+	 * @param accept an "accept" response
+	 * @return {@code true} if added
+	 *          
+	 * アクセプトを追加する.
+	 * POLICY で定義されているメンバ以外のユニットからのアクセプトは報告して捨てる.
+	 * @param accept アクセプト
+	 * @return 追加したら {@code true}
+	 */
+	public boolean addAccept(JsonObject accept) {
+		// Check the unit ID to see whether or not it is a member defined in POLICY
+		// ユニット ID を確認して POLICY で定義されているメンバかどうか確認する
+		String unitId = accept.getString("unitId");
+		if (!PolicyKeeping.isMember(unitId)) {
+			ErrorUtil.report(vertx_, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "accept received from illegal unit : " + unitId + " ; accept : " + accept);
+			return false;
+		}
+		accepts_.add(accept);
+		respondedUnitIds_.add(unitId);
+		if (!goodEnoughAcceptReceived_ && isGoodEnough_(accept)) {
+			if (log.isDebugEnabled()) log.debug("good enough accept received : " + accept);
+			goodEnoughAcceptReceived_ = true;
+		}
+		return true;
+	}
+	/**
+	 * Record that a unit declined the request.
+	 * Only used to know when every member has responded.
+	 * @param unitId ID of the unit that declined
 	 *          
-	 * 停止時に呼び出される.
-	 * @throws Exception {@inheritDoc}
+	 * ユニットがリクエストを断ったことを記録する.
+	 * 全メンバがレスポンスしたことを知るためだけに使う.
+	 * @param unitId 断ったユニットの ID
 	 */
-	@Override public void stop() throws Exception {
-		if (log.isTraceEnabled()) log.trace("stopped : " + deploymentID());
+	public void addDecline(String unitId) {
+		if (unitId != null) respondedUnitIds_.add(unitId);
 	}
 
-	////
+	/**
+	 * Check whether a unit has already responded to this negotiation.
+	 * @param unitId ID of the unit
+	 * @return {@code true} if it has sent an "accept" response or declined
+	 *          
+	 * ユニットが既にこの融通交渉にレスポンスしたか確認する.
+	 * @param unitId ユニットの ID
+	 * @return アクセプトを送ったか断っていれば {@code true}
+	 */
+	public boolean hasResponded(String unitId) {
+		return respondedUnitIds_.contains(unitId);
+	}
 
-	private String negotiationId_() {
-		return deploymentID();
+	/**
+	 * Check whether this negotiation can be closed before the timeout.
+	 * Only when {@code POLICY.mediator.negotiationEarlyClose.enabled} is {@code true}, it is satisfied if
+	 * - every member defined in POLICY but this unit has responded, or
+	 * - an "accept" response covering {@code POLICY.mediator.negotiationEarlyClose.goodEnoughAmountRatio} of the requested amount at an acceptable price has arrived.
+	 * @return {@code true} if satisfied
+	 *          
+	 * この融通交渉をタイムアウト前に閉じてよいか確認する.
+	 * {@code POLICY.mediator.negotiationEarlyClose.enabled} が {@code true} の場合のみ, 以下のいずれかなら満たされる.
+	 * - 自ユニット以外の POLICY で定義された全メンバがレスポンスした
+	 * - リクエストの電力量の {@code POLICY.mediator.negotiationEarlyClose.goodEnoughAmountRatio} 以上を受け入れられるポイントでカバーするアクセプトが届いた
+	 * @return 満たされていれば {@code true}
+	 */
+	public boolean isSatisfied() {
+		if (goodEnoughAcceptReceived_) return true;
+		return !expectedUnitIds_.isEmpty() && respondedUnitIds_.containsAll(expectedUnitIds_);
 	}
 
-	private void startAcceptService_(Handler<AsyncResult<Void>> completionHandler) {
-		// Use this unit's deploymentID as a disposable reply address
-		// 使い捨ての返信用アドレスとして自身の deploymentID を使う
-		String replyAddress = deploymentID();
-		List<JsonObject> accepts = new ArrayList<>();
-		// Open up an EventBus connection with a disposable address
-		// 使い捨てのアドレスで EventBus の口を開く
-		MessageConsumer<JsonObject> acceptConsumer = vertx.eventBus().<JsonObject>consumer(replyAddress);
-		// Register a receiver process
-		// 受信処理を登録する
-		acceptConsumer.handler(rep -> {
-			// When a message is received
-			// メッセージを受け取ったら
-			JsonObject anAccept = rep.body();
-			// Check the unit ID to see whether or not it is a member defined in POLICY
-			// ユニット ID を確認して POLICY で定義されているメンバかどうか確認する
-			String unitId = anAccept.getString("unitId");
-			boolean isMember = PolicyKeeping.isMember(unitId);
-			if (!isMember) {
-				ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "accept received from illegal unit : " + unitId + " ; accept : " + anAccept);
-			} else {
-				accepts.add(anAccept);
-				// TODO: Why not quit immediately after collecting as many members as specified in gridmaster.DataCollection?
-				// TODO : gridmaster.DataCollection のようにメンバの数だけ集まったら即座に終了するのはどうでしょう
-			}
-		}).exceptionHandler(t -> {
-			acceptConsumer.unregister(resUnregister -> {
-				if (resUnregister.succeeded()) {
-					// nop
-				} else {
-					ErrorUtil.report(vertx, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.ERROR, resUnregister.cause());
-				}
-				ErrorUtil.report(vertx, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.ERROR, t);
-				vertx.undeploy(deploymentID());
-			});
-		}).completionHandler(res -> {
-			// When finished opening the connection (eventBus address has finished propagating)
-			// 口を開け終わった ( EventBus アドレスの伝搬が終わった ) ら
-			if (res.succeeded()) {
-				if (log.isDebugEnabled()) log.debug("request : " + request_);
-				// Prepare a disposable address for the reply
-				// 返信用の使い捨てアドレスを仕込んで
-				DeliveryOptions options = new DeliveryOptions().addHeader("replyAddress", replyAddress);
-				// Publish an interchange request
-				// 融通リクエストを publish する
-				vertx.eventBus().publish(ServiceAddress.Mediator.externalRequest(), request_, options);
-				Long negotiationTimeoutMsec = PolicyKeeping.cache().getLong(DEFAULT_NEGOTIATION_TIMEOUT_MSEC, "mediator", "negotiationTimeoutMsec");
-				// Set a timeout
-				// タイムアウトを仕込む
-				// The timeout duration is {@code POLICY.mediator.negotiationTimeoutMsec} (default: {@link #DEFAULT_NEGOTIATION_TIMEOUT_MSEC}).
-				// 待ち時間は {@code POLICY.mediator.negotiationTimeoutMsec} ( デフォルト値 {@link #DEFAULT_NEGOTIATION_TIMEOUT_MSEC} ).
-				vertx.setTimer(negotiationTimeoutMsec, t -> {
-					// If a timeout occurs
-					// タイムアウトしたら
-					// Close the connection
-					// 開いた口を閉じる
-					acceptConsumer.unregister(resUnregister -> {
-						if (resUnregister.succeeded()) {
-							// Handle the "accept" responses
-							// アクセプト群を処理し
-							doTreatAccepts_(accepts, resTreat -> {
-								// Call undeploy() for this verticle when finished
-								// 終わったら自身を undeploy () する
-								vertx.undeploy(deploymentID());
-							});
-						} else {
-							ErrorUtil.report(vertx, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.ERROR, resUnregister.cause());
-							vertx.undeploy(deploymentID());
-						}
-					});
-				});
-				// This completes the start() method for this Verticle
-				// ここまででこの Verticle の start() が完了する
-				completionHandler.handle(Future.succeededFuture());
-			} else {
-				ErrorUtil.reportAndFail(vertx, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.ERROR, res.cause(), completionHandler);
-			}
-		});
+	private boolean isGoodEnough_(JsonObject accept) {
+		if (goodEnoughAmountRatio_ == null) return false;
+		// Only an "accept" response from the pair unit counts if one is specified
+		// pairUnitId が指定されていればそのユニットからのアクセプトのみ数える
+		String requestPairUnitId = request_.getString("pairUnitId");
+		if (requestPairUnitId != null && !requestPairUnitId.equals(accept.getString("unitId"))) return false;
+		Integer requestAmountWh = request_.getInteger("amountWh");
+		Integer acceptAmountWh = accept.getInteger("amountWh");
+		if (requestAmountWh == null || acceptAmountWh == null) return false;
+		// The amount that can be interchanged at most is limited by the maximum value of the interchange power in POLICY
+		// 融通できる電力量は POLICY の融通電力最大値で制限される
+		Integer dealAmountMaxWh = PolicyKeeping.cache().getInteger("mediator", "deal", "amountMaxWh");
+		int wantedAmountWh = (dealAmountMaxWh != null && dealAmountMaxWh < requestAmountWh) ? dealAmountMaxWh : requestAmountWh;
+		if (acceptAmountWh < goodEnoughAmountRatio_ * wantedAmountWh) return false;
+		// The price must not be worse than the one of the request : buy cheaper or sell dearer
+		// ポイントはリクエストより悪くないこと : 安く買う, 高く売る
+		Float requestPointPerWh = request_.getFloat("pointPerWh");
+		Float acceptPointPerWh = accept.getFloat("pointPerWh");
+		if (requestPointPerWh != null && acceptPointPerWh != null) {
+			String type = request_.getString("type");
+			if ("charge".equals(type)) return acceptPointPerWh <= requestPointPerWh;
+			if ("discharge".equals(type)) return requestPointPerWh <= acceptPointPerWh;
+		}
+		return true;
 	}
 
-	private void doTreatAccepts_(List<JsonObject> accepts, Handler<AsyncResult<Void>> completionHandler) {
-		if (log.isDebugEnabled()) log.debug("accepts received : " + accepts);
-		if (accepts != null && ! accepts.isEmpty()) {
-			JsonObject values = new JsonObject().put("request", request_).put("accepts", new JsonArray(accepts));
-			vertx.eventBus().<JsonObject>send(ServiceAddress.User.mediatorAccepts(), values, repAccept -> {
+	/**
+	 * Handle the collected "accept" responses.
+	 * Asks the User service to choose one and requests the registration of the resulting interchange.
+	 * @param completionHandler the completion handler
+	 *          
+	 * 集めたアクセプト群を処理する.
+	 * User サービスに一つを選ばせ結果の融通の登録を依頼する.
+	 * @param completionHandler the completion handler
+	 */
+	public void treatAccepts(Handler<AsyncResult<Void>> completionHandler) {
+		if (log.isDebugEnabled()) log.debug("accepts received : " + accepts_);
+		if (!accepts_.isEmpty()) {
+			JsonObject values = new JsonObject().put("request", request_).put("accepts", new JsonArray(accepts_));
+			vertx_.eventBus().<JsonObject>send(ServiceAddress.User.mediatorAccepts(), values, repAccept -> {
 				if (repAccept.succeeded()) {
 					JsonObject accept = repAccept.result().body();
 					if (accept != null) {
@@ -214,7 +259,7 @@ public class Negotiation extends AbstractVerticle {
 									String acceptUnitId = accept.getString("unitId");
 									JsonObject deal = new JsonObject();
 									deal.put("unitId", ApisConfig.unitId());
-									deal.put("negotiationId", negotiationId_());
+									deal.put("negotiationId", negotiationId_);
 									deal.put("requestUnitId", ApisConfig.unitId());
 									deal.put("acceptUnitId", acceptUnitId);
 									deal.put("requestDateTime", request_.getString("dateTime"));
@@ -238,7 +283,7 @@ public class Negotiation extends AbstractVerticle {
 										deal.put("chargeUnitEfficientGridVoltageV", accept.getFloat("efficientGridVoltageV"));
 										deal.put("dischargeUnitEfficientGridVoltageV", request_.getFloat("efficientGridVoltageV"));
 									} else {
-										ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "unknown type : " + type);
+										ErrorUtil.report(vertx_, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "unknown type : " + type);
 									}
 									// Set the interchange grid current to the value specified in the request or the value specified in the "accept" response, whichever is smaller
 									// リクエストの融通グリッド電流指定とアクセプトの融通グリッド電流指定の小さい方を融通グリッド電流値とする
@@ -251,15 +296,15 @@ public class Negotiation extends AbstractVerticle {
 									if (accept.getString("pairUnitId") != null) deal.put("acceptPairUnitId", accept.getString("pairUnitId"));
 									// Request registration of an interchange
 									// 融通の登録を依頼する
-									vertx.eventBus().send(ServiceAddress.Mediator.dealCreation(), deal);
+									vertx_.eventBus().send(ServiceAddress.Mediator.dealCreation(), deal);
 								} else {
-									ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "illegal values; requestDealGridCurrentA : " + requestDealGridCurrentA + ", acceptDealGridCurrentA : " + acceptDealGridCurrentA);
+									ErrorUtil.report(vertx_, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "illegal values; requestDealGridCurrentA : " + requestDealGridCurrentA + ", acceptDealGridCurrentA : " + acceptDealGridCurrentA);
 								}
 							} else {
 								if (log.isDebugEnabled()) log.debug("negotiated amount : " + acceptAmountWh + " ; less than dealAmountMinWh : " + dealAmountMinWh);
 							}
 						} else {
-							ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "data deficiency; requestAmountWh : " + requestAmountWh + ", acceptAmountWh : " + acceptAmountWh + ", dealAmountMinWh : " + dealAmountMinWh + ", dealAmountMaxWh : " + dealAmountMaxWh + ", dealAmountUnitWh : " + dealAmountUnitWh);
+							ErrorUtil.report(vertx_, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "data deficiency; requestAmountWh : " + requestAmountWh + ", acceptAmountWh : " + acceptAmountWh + ", dealAmountMinWh : " + dealAmountMinWh + ", dealAmountMaxWh : " + dealAmountMaxWh + ", dealAmountUnitWh : " + dealAmountUnitWh);
 						}
 					} else {
 						if (log.isInfoEnabled()) log.info("no accept chosen");
@@ -269,9 +314,9 @@ public class Negotiation extends AbstractVerticle {
 					if (ReplyFailureUtil.isRecipientFailure(repAccept)) {
 						completionHandler.handle(Future.failedFuture(repAccept.cause()));
 					} else if (ReplyFailureUtil.isTimeout(repAccept)) {
-						ErrorUtil.reportAndFail(vertx, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.WARN, "Communication failed on EventBus", repAccept.cause(), completionHandler);
+						ErrorUtil.reportAndFail(vertx_, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.WARN, "Communication failed on EventBus", repAccept.cause(), completionHandler);
 					} else {
-						ErrorUtil.reportAndFail(vertx, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.ERROR, "Communication failed on EventBus", repAccept.cause(), completionHandler);
+						ErrorUtil.reportAndFail(vertx_, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.ERROR, "Communication failed on EventBus", repAccept.cause(), completionHandler);
 					}
 				}
 			});
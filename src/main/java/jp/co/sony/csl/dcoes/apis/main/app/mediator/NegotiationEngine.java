@@ -0,0 +1,306 @@
+package jp.co.sony.csl.dcoes.apis.main.app.mediator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import jp.co.sony.csl.dcoes.apis.common.Error;
+import jp.co.sony.csl.dcoes.apis.common.ServiceAddress;
+import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
+import jp.co.sony.csl.dcoes.apis.main.app.gridmaster.BatchNegotiation;
+import jp.co.sony.csl.dcoes.apis.main.util.ApisConfig;
+import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
+import jp.co.sony.csl.dcoes.apis.main.util.MainServiceAddress;
+
+/**
+ * A Verticle that runs all the interchange negotiations of this unit.
+ * Launched from the {@link Mediator} Verticle.
+ * Negotiations share one long-lived reply address and are told apart by the {@code "negotiationId"} header echoed back with each "accept" response, so no Verticle is deployed and no consumer is registered across the cluster per negotiation.
+ * @author OES Project
+ *          
+ * 自ユニットの全ての融通交渉を実行する Verticle.
+ * {@link Mediator} Verticle から起動される.
+ * 融通交渉は一つの常設の返信用アドレスを共有し各アクセプトとともに返される {@code "negotiationId"} ヘッダで区別するので, 融通交渉ごとに Verticle を起動したりクラスタ全体にコンシューマを登録したりしない.
+ * @author OES Project
+ */
+public class NegotiationEngine extends AbstractVerticle {
+	private static final Logger log = LoggerFactory.getLogger(NegotiationEngine.class);
+
+	/**
+	 * Default time to wait for responses after issuing a request [ms].
+	 * Value: {@value}.
+	 *          
+	 * リクエストを発してからレスポンスを待つ時間のデフォルト値 [ms].
+	 * 値は {@value}.
+	 */
+	private static final Long DEFAULT_NEGOTIATION_TIMEOUT_MSEC = 2000L;
+
+	/**
+	 * Open negotiations in the order they were started.
+	 *          
+	 * 開始した順の進行中の融通交渉.
+	 */
+	private final Map<String, Negotiation> negotiations_ = new LinkedHashMap<>();
+	private boolean stopped_ = false;
+
+	/**
+	 * Called at startup.
+	 * Launches the {@link io.vertx.core.eventbus.EventBus} services.
+	 * @param startFuture {@inheritDoc}
+	 * @throws Exception {@inheritDoc}
+	 *          
+	 * 起動時に呼び出される.
+	 * {@link io.vertx.core.eventbus.EventBus} サービスを起動する.
+	 * @param startFuture {@inheritDoc}
+	 * @throws Exception {@inheritDoc}
+	 */
+	@Override public void start(Future<Void> startFuture) throws Exception {
+		startNegotiationReplyService_(resNegotiationReply -> {
+			if (resNegotiationReply.succeeded()) {
+				startNegotiationService_(resNegotiation -> {
+					if (resNegotiation.succeeded()) {
+						if (log.isTraceEnabled()) log.trace("started : " + deploymentID());
+						startFuture.complete();
+					} else {
+						startFuture.fail(resNegotiation.cause());
+					}
+				});
+			} else {
+				startFuture.fail(resNegotiationReply.cause());
+			}
+		});
+	}
+
+	/**
+	 * Called when stopped.
+	 * Negotiations in progress are closed without waiting for their timeouts, so that the "accept" responses collected so far are still handled.
+	 * @param stopFuture {@inheritDoc}
+	 * @throws Exception {@inheritDoc}
+	 *          
+	 * 停止時に呼び出される.
+	 * それまでに集まったアクセプト群が処理されるよう進行中の融通交渉はタイムアウトを待たずに閉じる.
+	 * @param stopFuture {@inheritDoc}
+	 * @throws Exception {@inheritDoc}
+	 */
+	@Override public void stop(Future<Void> stopFuture) throws Exception {
+		stopped_ = true;
+		List<Negotiation> negotiations = new ArrayList<>(negotiations_.values());
+		negotiations_.clear();
+		for (Negotiation aNegotiation : negotiations) {
+			vertx.cancelTimer(aNegotiation.timerId());
+		}
+		if (!negotiations.isEmpty() && log.isInfoEnabled()) log.info("closing " + negotiations.size() + " negotiation(s) in progress");
+		closeAll_(negotiations.iterator(), r -> {
+			if (log.isTraceEnabled()) log.trace("stopped : " + deploymentID());
+			stopFuture.complete();
+		});
+	}
+
+	////
+
+	/**
+	 * Launch the {@link io.vertx.core.eventbus.EventBus} service.
+	 * Address: {@link MainServiceAddress.Mediator#negotiation()}
+	 * Scope: local
+	 * Function: Start an interchange negotiation.
+	 *           Publishes the request with the reply address and the negotiation ID in the headers.
+	 *           If {@link BatchNegotiation#enabled()}, sends the request to GridMaster instead to be negotiated in the next batch round, and waits {@link BatchNegotiation#windowMsec()} longer.
+	 *           After {@code POLICY.mediator.negotiationTimeoutMsec} (default: {@link #DEFAULT_NEGOTIATION_TIMEOUT_MSEC}), or earlier once the negotiation is satisfied, processes the collected "accept" responses.
+	 * Message body: request information [{@link JsonObject}]
+	 * Message header: none
+	 * Response: negotiation ID [{@link String}]
+	 * @param completionHandler the completion handler
+	 *          
+	 * {@link io.vertx.core.eventbus.EventBus} サービス起動.
+	 * アドレス : {@link MainServiceAddress.Mediator#negotiation()}
+	 * 範囲 : ローカル
+	 * 処理 : 融通交渉を開始する.
+	 * 　　   返信用アドレスと融通交渉 ID をヘッダに入れてリクエストを publish する.
+	 * 　　   {@link BatchNegotiation#enabled()} なら代わりに次の一括交渉ラウンドで交渉するよう GridMaster にリクエストを送り {@link BatchNegotiation#windowMsec()} だけ長く待つ.
+	 * 　　   {@code POLICY.mediator.negotiationTimeoutMsec} ( デフォルト値 {@link #DEFAULT_NEGOTIATION_TIMEOUT_MSEC} ) 後, または融通交渉が満たされた時点で, 集まったアクセプト群を処理する.
+	 * メッセージボディ : リクエスト情報 [{@link JsonObject}]
+	 * メッセージヘッダ : なし
+	 * レスポンス : 融通交渉 ID [{@link String}]
+	 * @param completionHandler the completion handler
+	 */
+	private void startNegotiationService_(Handler<AsyncResult<Void>> completionHandler) {
+		vertx.eventBus().<JsonObject>localConsumer(MainServiceAddress.Mediator.negotiation(), req -> {
+			JsonObject request = req.body();
+			if (request != null) {
+				String negotiationId = UUID.randomUUID().toString();
+				Negotiation negotiation = new Negotiation(vertx, negotiationId, request);
+				negotiations_.put(negotiationId, negotiation);
+				if (log.isDebugEnabled()) log.debug("request : " + request + " ; negotiationId : " + negotiationId);
+				// Prepare the shared reply address and the negotiation ID
+				// 共有の返信用アドレスと融通交渉 ID を仕込んで
+				DeliveryOptions options = new DeliveryOptions().addHeader("replyAddress", MainServiceAddress.Mediator.negotiationReply(ApisConfig.unitId())).addHeader("negotiationId", negotiationId);
+				long negotiationTimeoutMsec = PolicyKeeping.cache().getLong(DEFAULT_NEGOTIATION_TIMEOUT_MSEC, "mediator", "negotiationTimeoutMsec");
+				if (BatchNegotiation.enabled()) {
+					// Hand the interchange request to GridMaster for the next batch round
+					// 次の一括交渉ラウンドのために融通リクエストを GridMaster に渡す
+					vertx.eventBus().send(MainServiceAddress.GridMaster.batchRequest(), request, options);
+					// The round waits for the window and then for the "accept" responses ; allow as long again for the result to arrive
+					// ラウンドはウィンドウの後アクセプトを待つ ; 結果が届くまで同じだけ余裕を見る
+					negotiationTimeoutMsec = BatchNegotiation.windowMsec() + negotiationTimeoutMsec * 2;
+				} else {
+					// Publish an interchange request
+					// 融通リクエストを publish する
+					vertx.eventBus().publish(ServiceAddress.Mediator.externalRequest(), request, options);
+				}
+				// Set a timeout
+				// タイムアウトを仕込む
+				negotiation.setTimerId(vertx.setTimer(negotiationTimeoutMsec, timerId -> {
+					timeout_(negotiationId, timerId);
+				}));
+				req.reply(negotiationId);
+			} else {
+				ErrorUtil.reportAndFail(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.ERROR, "request is null", req);
+			}
+		}).completionHandler(completionHandler);
+	}
+
+	/**
+	 * Launch the {@link io.vertx.core.eventbus.EventBus} service.
+	 * Address: {@link MainServiceAddress.Mediator#negotiationReply(String)}
+	 * Scope: global
+	 * Function: Receive an "accept" response from another unit and add it to the negotiation it belongs to.
+	 *           Closes the negotiation without waiting for the timeout once it is satisfied (see {@link Negotiation#isSatisfied()}).
+	 *           Responses to negotiations that are already closed are ignored.
+	 *           Units of an older version do not echo the negotiation ID : their responses are matched by {@link #findLegacyNegotiation_(JsonObject)}, and reported and dropped if that fails.
+	 * Message body: "accept" response [{@link JsonObject}]
+	 * Message header:
+	 * 　　　　　- {@code "negotiationId"}: the negotiation ID. Absent from units of an older version
+	 * 　　　　　- {@code "declined"}: present if the unit declined the request. The body then only holds {@code "unitId"}
+	 * 　　　　　- {@code "batch"}: present if the reply comes from a batch round of GridMaster. The negotiation is closed at once. With {@code "declined"} and an empty body it means that the round matched nothing
+	 * Response: none
+	 * @param completionHandler the completion handler
+	 *          
+	 * {@link io.vertx.core.eventbus.EventBus} サービス起動.
+	 * アドレス : {@link MainServiceAddress.Mediator#negotiationReply(String)}
+	 * 範囲 : グローバル
+	 * 処理 : 他ユニットからアクセプトを受け取り所属する融通交渉に追加する.
+	 * 　　   融通交渉が満たされたらタイムアウトを待たずに閉じる ( {@link Negotiation#isSatisfied()} 参照 ).
+	 * 　　   既に閉じた融通交渉へのアクセプトは無視する.
+	 * 　　   古いバージョンのユニットは融通交渉 ID を返さない : そのレスポンスは {@link #findLegacyNegotiation_(JsonObject)} で対応付け, できなければ報告して捨てる.
+	 * メッセージボディ : アクセプト [{@link JsonObject}]
+	 * メッセージヘッダ :
+	 * 　　　　　　　　   - {@code "negotiationId"} : 融通交渉 ID. 古いバージョンのユニットからは存在しない
+	 * 　　　　　　　　   - {@code "declined"} : ユニットがリクエストを断った場合に存在する. そのときボディは {@code "unitId"} のみを持つ
+	 * 　　　　　　　　   - {@code "batch"} : GridMaster の一括交渉ラウンドからの返信の場合に存在する. 融通交渉を即座に閉じる. {@code "declined"} と空のボディを伴う場合はラウンドで何もマッチしなかったことを表す
+	 * レスポンス : なし
+	 * @param completionHandler the completion handler
+	 */
+	private void startNegotiationReplyService_(Handler<AsyncResult<Void>> completionHandler) {
+		vertx.eventBus().<JsonObject>consumer(MainServiceAddress.Mediator.negotiationReply(ApisConfig.unitId()), rep -> {
+			if (stopped_) return;
+			String negotiationId = rep.headers().get("negotiationId");
+			JsonObject accept = rep.body();
+			if (accept != null) {
+				Negotiation negotiation;
+				if (negotiationId != null) {
+					negotiation = negotiations_.get(negotiationId);
+				} else {
+					negotiation = findLegacyNegotiation_(accept);
+					if (negotiation != null) {
+						negotiationId = negotiation.negotiationId();
+						if (log.isDebugEnabled()) log.debug("accept without negotiationId matched to : " + negotiationId + " ; accept : " + accept);
+					}
+				}
+				if (negotiation != null) {
+					if (rep.headers().contains("declined")) {
+						negotiation.addDecline(accept.getString("unitId"));
+					} else {
+						negotiation.addAccept(accept);
+					}
+					if (rep.headers().contains("batch") || negotiation.isSatisfied()) {
+						// Close early without waiting for the timeout
+						// タイムアウトを待たずに早く閉じる
+						vertx.cancelTimer(negotiation.timerId());
+						if (log.isDebugEnabled()) log.debug("closing early : " + negotiationId);
+						close_(negotiation);
+					}
+				} else if (negotiationId == null) {
+					ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "accept without negotiationId dropped ; no single negotiation fits ; accept : " + accept);
+				} else {
+					if (log.isDebugEnabled()) log.debug("accept received for closed negotiation : " + negotiationId + " ; accept : " + accept);
+				}
+			} else {
+				ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "accept is null ; header : " + rep.headers());
+			}
+		}).completionHandler(completionHandler);
+	}
+	/**
+	 * Find the negotiation a response without the {@code "negotiationId"} header belongs to.
+	 * Kept for one release so that responses from units not yet upgraded are not lost during a rolling upgrade.
+	 * All negotiations here are requests of this unit, so a negotiation fits if the responding unit has not answered it yet,
+	 * the type is the opposite of the request and the {@code "pairUnitId"} of the request, if any, is the responding unit.
+	 * The negotiation is chosen only if exactly one fits ; with more than one the response cannot be told apart and is not attributed to any.
+	 * @param accept an "accept" response, or the body of a decline holding only {@code "unitId"}
+	 * @return the negotiation. {@code null} if none or more than one fits
+	 *          
+	 * {@code "negotiationId"} ヘッダのないレスポンスが所属する融通交渉を探す.
+	 * ローリングアップグレード中にまだアップグレードしていないユニットからのレスポンスを失わないよう一リリースの間だけ残す.
+	 * ここの融通交渉は全て自ユニットのリクエストなので, レスポンスしたユニットがまだ答えておらず種類がリクエストの逆で, リクエストに {@code "pairUnitId"} があればそれがレスポンスしたユニットである融通交渉が合う.
+	 * 合う融通交渉がちょうど一つの場合のみ選ぶ ; 複数あればレスポンスを区別できないのでどれにも対応付けない.
+	 * @param accept アクセプト, または {@code "unitId"} のみを持つ断りのボディ
+	 * @return 融通交渉. 合うものがないか複数あれば {@code null}
+	 */
+	private Negotiation findLegacyNegotiation_(JsonObject accept) {
+		String unitId = accept.getString("unitId");
+		if (unitId == null) return null;
+		String acceptType = accept.getString("type");
+		Negotiation result = null;
+		for (Negotiation aNegotiation : negotiations_.values()) {
+			if (aNegotiation.hasResponded(unitId)) continue;
+			JsonObject request = aNegotiation.request();
+			String requestPairUnitId = request.getString("pairUnitId");
+			if (requestPairUnitId != null && !requestPairUnitId.equals(unitId)) continue;
+			if (acceptType != null && acceptType.equals(request.getString("type"))) continue;
+			if (result != null) return null;
+			result = aNegotiation;
+		}
+		return result;
+	}
+
+	private void timeout_(String negotiationId, Long timerId) {
+		if (stopped_) return;
+		Negotiation negotiation = negotiations_.get(negotiationId);
+		if (negotiation != null && negotiation.timerId() == timerId) {
+			close_(negotiation);
+		} else {
+			ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, "illegal timerId : " + timerId + ", negotiationId : " + negotiationId);
+		}
+	}
+
+	private void close_(Negotiation negotiation) {
+		close_(negotiation, r -> { });
+	}
+	private void close_(Negotiation negotiation, Handler<AsyncResult<Void>> completionHandler) {
+		negotiations_.remove(negotiation.negotiationId());
+		// Handle the "accept" responses
+		// アクセプト群を処理する
+		negotiation.treatAccepts(resTreat -> {
+			if (log.isTraceEnabled()) log.trace("closed : " + negotiation.negotiationId());
+			completionHandler.handle(resTreat);
+		});
+	}
+	private void closeAll_(Iterator<Negotiation> negotiations, Handler<AsyncResult<Void>> completionHandler) {
+		if (negotiations.hasNext()) {
+			close_(negotiations.next(), r -> closeAll_(negotiations, completionHandler));
+		} else {
+			completionHandler.handle(Future.succeededFuture());
+		}
+	}
+
+}
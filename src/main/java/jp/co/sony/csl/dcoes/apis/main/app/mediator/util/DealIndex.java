@@ -0,0 +1,126 @@
+package jp.co.sony.csl.dcoes.apis.main.app.mediator.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.vertx.core.json.JsonObject;
+import jp.co.sony.csl.dcoes.apis.common.Deal;
+
+/**
+ * An index over a list of DEAL objects.
+ * Answers queries by interchange ID and by unit ID without scanning the whole list, and keeps views of the master deal and the active interchanges.
+ * The index is built at construction and is not updated afterwards.
+ * Unit IDs and interchange IDs never change, so queries by them stay correct even if the DEAL objects are modified later.
+ * The master deal and active interchange views reflect the state at construction.
+ * @author OES Project
+ *          
+ * DEAL オブジェクトのリストに対する索引.
+ * 融通 ID およびユニット ID による問い合わせにリスト全体を走査せず答え master deal と動いている融通のビューを保持する.
+ * 索引は生成時に作り以後は更新しない.
+ * ユニット ID と融通 ID は変わらないので DEAL オブジェクトが後から変更されてもそれらによる問い合わせは正しい.
+ * master deal と動いている融通のビューは生成時の状態を反映する.
+ * @author OES Project
+ */
+public class DealIndex {
+
+	private final List<JsonObject> deals_;
+	private final Map<String, JsonObject> dealsByDealId_ = new HashMap<>();
+	private final Map<String, List<JsonObject>> dealsByUnitId_ = new HashMap<>();
+	private final List<JsonObject> activeDeals_ = new ArrayList<>();
+	private JsonObject masterDeal_ = null;
+
+	/**
+	 * Create an instance.
+	 * @param deals a list of DEAL objects
+	 *          
+	 * インスタンスを生成する.
+	 * @param deals DEAL オブジェクトのリスト
+	 */
+	public DealIndex(List<JsonObject> deals) {
+		deals_ = Collections.unmodifiableList(new ArrayList<>(deals));
+		for (JsonObject aDeal : deals_) {
+			String dealId = Deal.dealId(aDeal);
+			if (dealId != null) {
+				dealsByDealId_.put(dealId, aDeal);
+			}
+			addByUnitId_(Deal.dischargeUnitId(aDeal), aDeal);
+			String chargeUnitId = Deal.chargeUnitId(aDeal);
+			if (chargeUnitId != null && !chargeUnitId.equals(Deal.dischargeUnitId(aDeal))) {
+				addByUnitId_(chargeUnitId, aDeal);
+			}
+			if (masterDeal_ == null && Deal.isMaster(aDeal)) {
+				masterDeal_ = aDeal;
+			}
+			if (Deal.bothSideUnitsMustBeActive(aDeal)) {
+				activeDeals_.add(aDeal);
+			}
+		}
+	}
+	private void addByUnitId_(String unitId, JsonObject deal) {
+		if (unitId != null) {
+			dealsByUnitId_.computeIfAbsent(unitId, k -> new ArrayList<>()).add(deal);
+		}
+	}
+
+	/**
+	 * Get all DEAL objects.
+	 * @return an unmodifiable list of all DEAL objects
+	 *          
+	 * 全 DEAL オブジェクトを取得する.
+	 * @return 全 DEAL オブジェクトの変更不可リスト
+	 */
+	public List<JsonObject> all() {
+		return deals_;
+	}
+	/**
+	 * Get the DEAL object with the ID specified by {@code dealId}.
+	 * @param dealId an interchange ID
+	 * @return the DEAL object. {@code null} if not found
+	 *          
+	 * {@code dealId} で指定した ID を持つ DEAL オブジェクトを取得する.
+	 * @param dealId 融通 ID
+	 * @return DEAL オブジェクト. なければ {@code null}
+	 */
+	public JsonObject get(String dealId) {
+		return dealsByDealId_.get(dealId);
+	}
+	/**
+	 * Get the DEAL objects in which the unit specified by {@code unitId} participates.
+	 * @param unitId the unit ID
+	 * @return an unmodifiable list of DEAL objects. Empty if none
+	 *          
+	 * {@code unitId} で指定したユニットが参加している DEAL オブジェクトを取得する.
+	 * @param unitId ユニット ID
+	 * @return DEAL オブジェクトの変更不可リスト. なければ空
+	 */
+	public List<JsonObject> withUnitId(String unitId) {
+		List<JsonObject> result = dealsByUnitId_.get(unitId);
+		return (result != null) ? Collections.unmodifiableList(result) : Collections.emptyList();
+	}
+	/**
+	 * Get the Master Deal.
+	 * @return the DEAL object corresponding to the Master Deal. {@code null} if not found
+	 *          
+	 * Master Deal を取得する.
+	 * @return Master Deal である DEAL オブジェクト. なければ {@code null}
+	 */
+	public JsonObject master() {
+		return masterDeal_;
+	}
+	/**
+	 * Get the DEAL objects of working interchanges.
+	 * Working means {@link Deal#bothSideUnitsMustBeActive(JsonObject)}.
+	 * @return an unmodifiable list of DEAL objects. Empty if none
+	 *          
+	 * 動いている融通の DEAL オブジェクトを取得する.
+	 * 動いているとは {@link Deal#bothSideUnitsMustBeActive(JsonObject)} であること.
+	 * @return DEAL オブジェクトの変更不可リスト. なければ空
+	 */
+	public List<JsonObject> active() {
+		return Collections.unmodifiableList(activeDeals_);
+	}
+
+}
@@ -0,0 +1,446 @@
+package jp.co.sony.csl.dcoes.apis.main.app.mediator.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jp.co.sony.csl.dcoes.apis.common.Deal;
+import jp.co.sony.csl.dcoes.apis.common.Error;
+import jp.co.sony.csl.dcoes.apis.common.util.vertx.FileSystemUtil;
+import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectUtil;
+import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
+import jp.co.sony.csl.dcoes.apis.main.util.JsonMergePatchUtil;
+
+/**
+ * An append-only store of interchange information in the file system.
+ * Instead of rewriting one file per interchange, one record per changed interchange is appended to a segment file per date directory.
+ * The date directory is derived from the creation date and time of the interchange in the same way as the per-interchange files.
+ * Each record is one line of JSON in one of the following forms.
+ * - {@code {"dealId":<ID>,"deal":<DEAL object>}} : the whole DEAL object
+ * - {@code {"dealId":<ID>,"patch":<difference>}} : the difference from the previous record of the same interchange, in the format of {@link JsonMergePatchUtil}
+ * The first record of each interchange after startup is always the whole DEAL object, so a segment file can be read without the state of this instance.
+ * All records of one call are written at once and each segment file is fsynced once per call.
+ * An interchange is regarded as written only after its segment file has been written, and fsynced if enabled.
+ * Calls are processed one at a time in order.
+ * @author OES Project
+ *          
+ * 融通情報をファイルシステムに追記型で保存するストア.
+ * 融通ごとに一つのファイルを書き直す代わりに日付ディレクトリごとのセグメントファイルに変化した融通ごとに一件のレコードを追記する.
+ * 日付ディレクトリは融通ごとのファイルと同様に融通の作成日時から決める.
+ * 各レコードは以下のいずれかの形式の一行の JSON である.
+ * - {@code {"dealId":<ID>,"deal":<DEAL オブジェクト>}} : DEAL オブジェクト全体
+ * - {@code {"dealId":<ID>,"patch":<差分>}} : 同じ融通の前のレコードとの {@link JsonMergePatchUtil} 形式の差分
+ * 起動後の各融通の最初のレコードは必ず DEAL オブジェクト全体なのでこのインスタンスの状態なしにセグメントファイルを読むことができる.
+ * 一回の呼び出しのレコードはまとめて書き込み各セグメントファイルは呼び出しごとに一度だけ fsync する.
+ * 融通はそのセグメントファイルへの書き込みと, 有効なら fsync が成功した後にのみ書き込みずみとみなす.
+ * 呼び出しは一つずつ順番に処理する.
+ * @author OES Project
+ */
+public class DealLogStore {
+	private static final Logger log = LoggerFactory.getLogger(DealLogStore.class);
+
+	/**
+	 * The file name of a segment file in a date directory.
+	 * Value: {@value}.
+	 *          
+	 * 日付ディレクトリ内のセグメントファイルのファイル名.
+	 * 値は {@value}.
+	 */
+	public static final String SEGMENT_FILENAME = "deals.log";
+
+	private final Vertx vertx_;
+	private final DateTimeFormatter logDirFormatter_;
+	private final boolean fsync_;
+	private final Handler<JsonObject> writtenHandler_;
+	private final Map<String, Segment_> files_ = new HashMap<>();
+	private final Set<String> brokenPaths_ = new HashSet<>();
+	private final Map<String, JsonObject> lastWrittenDeals_ = new HashMap<>();
+	private final LinkedList<Runnable> queue_ = new LinkedList<>();
+	private boolean running_ = false;
+	private boolean closed_ = false;
+
+	/**
+	 * Create an instance.
+	 * @param vertx a vertx object
+	 * @param logDirFormatter the formatter that derives the date directory from the creation date and time of an interchange
+	 * @param fsync whether or not to fsync segment files after writing
+	 *          
+	 * インスタンスを生成する.
+	 * @param vertx vertx オブジェクト
+	 * @param logDirFormatter 融通の作成日時から日付ディレクトリを決めるフォーマッタ
+	 * @param fsync 書き込み後にセグメントファイルを fsync するか否か
+	 */
+	public DealLogStore(Vertx vertx, DateTimeFormatter logDirFormatter, boolean fsync) {
+		this(vertx, logDirFormatter, fsync, null);
+	}
+	/**
+	 * Create an instance.
+	 * @param vertx a vertx object
+	 * @param logDirFormatter the formatter that derives the date directory from the creation date and time of an interchange
+	 * @param fsync whether or not to fsync segment files after writing
+	 * @param writtenHandler the handler called with a copy of each DEAL object once it is regarded as written. May be {@code null}
+	 *          
+	 * インスタンスを生成する.
+	 * @param vertx vertx オブジェクト
+	 * @param logDirFormatter 融通の作成日時から日付ディレクトリを決めるフォーマッタ
+	 * @param fsync 書き込み後にセグメントファイルを fsync するか否か
+	 * @param writtenHandler 各 DEAL オブジェクトが書き込みずみとみなされた時にそのコピーで呼び出されるハンドラ. {@code null} 可
+	 */
+	public DealLogStore(Vertx vertx, DateTimeFormatter logDirFormatter, boolean fsync, Handler<JsonObject> writtenHandler) {
+		vertx_ = vertx;
+		logDirFormatter_ = logDirFormatter;
+		fsync_ = fsync;
+		writtenHandler_ = writtenHandler;
+	}
+
+	/**
+	 * Get the path of the segment file in which the DEAL object is recorded.
+	 * @param logDirFormatter the formatter that derives the date directory from the creation date and time of an interchange
+	 * @param deal a DEAL object
+	 * @return the path of the segment file
+	 *          
+	 * DEAL オブジェクトを記録するセグメントファイルのパスを取得する.
+	 * @param logDirFormatter 融通の作成日時から日付ディレクトリを決めるフォーマッタ
+	 * @param deal DEAL オブジェクト
+	 * @return セグメントファイルのパス
+	 */
+	public static String segmentPath(DateTimeFormatter logDirFormatter, JsonObject deal) {
+		LocalDateTime createDateTime = JsonObjectUtil.getLocalDateTime(deal, "createDateTime");
+		return logDirFormatter.format(createDateTime) + File.separatorChar + SEGMENT_FILENAME;
+	}
+
+	/**
+	 * Append records of the DEAL objects that have changed since they were last appended.
+	 * @param deals a list of DEAL objects
+	 * @param completionHandler the completion handler
+	 *          
+	 * 前回追記した時から変化した DEAL オブジェクトのレコードを追記する.
+	 * @param deals DEAL オブジェクトのリスト
+	 * @param completionHandler the completion handler
+	 */
+	public void append(List<JsonObject> deals, Handler<AsyncResult<Void>> completionHandler) {
+		enqueue_(() -> doAppend_(deals, res -> {
+			completionHandler.handle(res);
+			dequeue_();
+		}));
+	}
+	/**
+	 * Forget the interchanges other than those specified by {@code deals}, and close the segment files they do not use.
+	 * Called periodically with all interchanges that still exist so that the state kept for finished interchanges does not grow without limit.
+	 * Interchanges are recorded in the segment file of their creation date, so a segment file stays open only while it has existing interchanges.
+	 * If a forgotten interchange is appended again, its record is the whole DEAL object.
+	 * @param deals a list of DEAL objects to keep
+	 *          
+	 * {@code deals} で指定した以外の融通を忘れそれらが使わないセグメントファイルを閉じる.
+	 * 終わった融通のために保持する状態が際限なく増えないようまだ存在する全ての融通を指定して定期的に呼ぶ.
+	 * 融通は作成日のセグメントファイルに記録されるのでセグメントファイルは存在する融通がある間だけ開いたままになる.
+	 * 忘れた融通が再び追記される場合のレコードは DEAL オブジェクト全体になる.
+	 * @param deals 保持する DEAL オブジェクトのリスト
+	 */
+	public void retain(List<JsonObject> deals) {
+		enqueue_(() -> {
+			Set<String> dealIds = new HashSet<>();
+			Set<String> usedPaths = new HashSet<>();
+			for (JsonObject aDeal : deals) {
+				dealIds.add(Deal.dealId(aDeal));
+				usedPaths.add(segmentPath(logDirFormatter_, aDeal));
+			}
+			lastWrittenDeals_.keySet().retainAll(dealIds);
+			Set<String> unusedPaths = new HashSet<>(files_.keySet());
+			unusedPaths.removeAll(usedPaths);
+			for (String aPath : unusedPaths) {
+				if (log.isDebugEnabled()) log.debug("close deal log segment : " + aPath);
+				files_.remove(aPath).file_.close();
+			}
+			dequeue_();
+		});
+	}
+	/**
+	 * Close all segment files.
+	 *          
+	 * 全てのセグメントファイルを閉じる.
+	 */
+	public void close() {
+		closed_ = true;
+		for (Segment_ aSegment : files_.values()) {
+			aSegment.file_.close();
+		}
+		files_.clear();
+	}
+
+	/**
+	 * Read a segment file and rebuild the latest state of each interchange.
+	 * A broken line, such as the last line after a crash while writing, is skipped.
+	 * Results are received with the {@link AsyncResult#result()} method of completionHandler.
+	 * @param vertx a vertx object
+	 * @param segmentPath the path of the segment file
+	 * @param completionHandler the completion handler
+	 *          
+	 * セグメントファイルを読み各融通の最新の状態を再構築する.
+	 * 書き込み中のクラッシュ後の最終行など壊れた行は読み飛ばす.
+	 * completionHandler の {@link AsyncResult#result()} で受け取る.
+	 * @param vertx vertx オブジェクト
+	 * @param segmentPath セグメントファイルのパス
+	 * @param completionHandler the completion handler
+	 */
+	public static void read(Vertx vertx, String segmentPath, Handler<AsyncResult<Map<String, JsonObject>>> completionHandler) {
+		vertx.fileSystem().readFile(segmentPath, resReadFile -> {
+			if (resReadFile.succeeded()) {
+				completionHandler.handle(Future.succeededFuture(rebuild(resReadFile.result().toString())));
+			} else {
+				ErrorUtil.reportAndFail(vertx, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.WARN, "Operation failed on File System", resReadFile.cause(), completionHandler);
+			}
+		});
+	}
+	/**
+	 * Rebuild the latest state of each interchange from the contents of a segment file.
+	 * @param contents the contents of a segment file
+	 * @return a map of interchange ID to the latest DEAL object, in the order of first appearance
+	 *          
+	 * セグメントファイルの内容から各融通の最新の状態を再構築する.
+	 * @param contents セグメントファイルの内容
+	 * @return 融通 ID から最新の DEAL オブジェクトへのマップ. 最初に現れた順
+	 */
+	public static Map<String, JsonObject> rebuild(String contents) {
+		Map<String, JsonObject> result = new LinkedHashMap<>();
+		apply(result, contents);
+		return result;
+	}
+	/**
+	 * Apply the records of a part of a segment file to the states of interchanges rebuilt from the preceding part.
+	 * Used to follow a segment file as it grows without reading it again from the beginning.
+	 * @param deals a map of interchange ID to the latest DEAL object. Modified
+	 * @param contents complete lines of a segment file following those already applied to {@code deals}
+	 * @return the IDs of the interchanges changed by the records
+	 *          
+	 * セグメントファイルの一部のレコードをそれより前の部分から再構築した融通の状態に適用する.
+	 * 大きくなっていくセグメントファイルを先頭から読み直さずに追いかけるために使う.
+	 * @param deals 融通 ID から最新の DEAL オブジェクトへのマップ. 変更される
+	 * @param contents {@code deals} に適用ずみの行に続くセグメントファイルの完全な行群
+	 * @return レコードにより変更された融通の ID 群
+	 */
+	public static Set<String> apply(Map<String, JsonObject> deals, String contents) {
+		Set<String> result = new LinkedHashSet<>();
+		for (String aLine : contents.split("\n")) {
+			if (aLine.isEmpty()) continue;
+			JsonObject aRecord;
+			try {
+				aRecord = new JsonObject(aLine);
+			} catch (DecodeException e) {
+				if (log.isWarnEnabled()) log.warn("broken deal log record skipped : " + aLine);
+				continue;
+			}
+			String dealId = aRecord.getString("dealId");
+			JsonObject deal = aRecord.getJsonObject("deal");
+			JsonObject patch = aRecord.getJsonObject("patch");
+			if (dealId == null) {
+				if (log.isWarnEnabled()) log.warn("deal log record without dealId skipped : " + aLine);
+			} else if (deal != null) {
+				deals.put(dealId, deal);
+				result.add(dealId);
+			} else if (patch != null) {
+				JsonObject base = deals.get(dealId);
+				if (base != null) {
+					JsonMergePatchUtil.apply(base, patch);
+					result.add(dealId);
+				} else {
+					if (log.isWarnEnabled()) log.warn("deal log patch without base skipped : " + aLine);
+				}
+			}
+		}
+		return result;
+	}
+
+	////
+
+	private void enqueue_(Runnable task) {
+		queue_.add(task);
+		if (!running_) {
+			dequeue_();
+		}
+	}
+	private void dequeue_() {
+		Runnable task = queue_.poll();
+		running_ = (task != null);
+		if (task != null) {
+			task.run();
+		}
+	}
+
+	private void doAppend_(List<JsonObject> deals, Handler<AsyncResult<Void>> completionHandler) {
+		if (closed_) {
+			completionHandler.handle(Future.failedFuture("deal log store closed"));
+			return;
+		}
+		// Build the records of changed interchanges for each segment file
+		// 変化した融通のレコードをセグメントファイルごとに作る
+		Map<String, Buffer> buffers = new LinkedHashMap<>();
+		Map<String, Map<String, JsonObject>> written = new HashMap<>();
+		for (JsonObject aDeal : deals) {
+			String dealId = Deal.dealId(aDeal);
+			JsonObject aRecord = record_(dealId, aDeal);
+			if (aRecord != null) {
+				String path = segmentPath(logDirFormatter_, aDeal);
+				buffers.computeIfAbsent(path, k -> Buffer.buffer()).appendString(aRecord.encode()).appendString("\n");
+				written.computeIfAbsent(path, k -> new HashMap<>()).put(dealId, aDeal.copy());
+			}
+		}
+		if (buffers.isEmpty()) {
+			completionHandler.handle(Future.succeededFuture());
+			return;
+		}
+		if (log.isDebugEnabled()) log.debug("append deal logs ; segments : " + buffers.keySet());
+		new Appending_(new ArrayList<>(buffers.entrySet()), written, completionHandler).doLoop_();
+	}
+	private JsonObject record_(String dealId, JsonObject deal) {
+		JsonObject last = lastWrittenDeals_.get(dealId);
+		if (last == null) {
+			return new JsonObject().put("dealId", dealId).put("deal", deal);
+		}
+		JsonObject patch = JsonMergePatchUtil.diff(last, deal);
+		if (patch.isEmpty()) {
+			return null;
+		}
+		return new JsonObject().put("dealId", dealId).put("patch", patch);
+	}
+	/**
+	 * An open segment file and the position at which the next record is written.
+	 * @author OES Project
+	 *          
+	 * 開いているセグメントファイルと次のレコードを書き込む位置.
+	 * @author OES Project
+	 */
+	private static class Segment_ {
+		private final AsyncFile file_;
+		private long position_;
+		private Segment_(AsyncFile file, long position) {
+			file_ = file;
+			position_ = position;
+		}
+	}
+	/**
+	 * A class that writes buffers to segment files one by one.
+	 * Each write is chained on the completion of the previous one, and the interchanges of a segment file are marked as written only after its write, and flush if enabled, have succeeded.
+	 * Interchanges not marked are written again by the next call. A patch applied twice gives the same result, so this is harmless.
+	 * If a write fails, the segment file is closed, since how much of it was written is unknown.
+	 * It is reopened at its end by the next call, after a line break that terminates a possibly partial record.
+	 * @author OES Project
+	 *          
+	 * セグメントファイルに一つずつバッファを書き込むクラス.
+	 * 各書き込みは前の書き込みの完了に繋げ, セグメントファイルの融通はその書き込みと有効なら flush が成功した後にのみ書き込みずみとする.
+	 * 書き込みずみにならなかった融通は次の呼び出しで再び書き込まれる. パッチは二度適用しても結果が同じなので問題ない.
+	 * 書き込みに失敗したらどこまで書き込まれたか分からないのでセグメントファイルを閉じる.
+	 * 次の呼び出しで途中まで書かれたかもしれないレコードを終わらせる改行の後からファイルの末尾に開き直す.
+	 * @author OES Project
+	 */
+	private class Appending_ {
+		private List<Map.Entry<String, Buffer>> entries_;
+		private Map<String, Map<String, JsonObject>> written_;
+		private Handler<AsyncResult<Void>> completionHandler_;
+		private Appending_(List<Map.Entry<String, Buffer>> entries, Map<String, Map<String, JsonObject>> written, Handler<AsyncResult<Void>> completionHandler) {
+			entries_ = entries;
+			written_ = written;
+			completionHandler_ = completionHandler;
+		}
+		private void doLoop_() {
+			if (entries_.isEmpty()) {
+				completionHandler_.handle(Future.succeededFuture());
+			} else {
+				Map.Entry<String, Buffer> anEntry = entries_.remove(0);
+				String path = anEntry.getKey();
+				file_(path, resFile -> {
+					if (resFile.succeeded()) {
+						Segment_ segment = resFile.result();
+						Buffer buffer = (brokenPaths_.remove(path)) ? Buffer.buffer("\n").appendBuffer(anEntry.getValue()) : anEntry.getValue();
+						segment.file_.write(buffer, segment.position_, resWrite -> {
+							if (resWrite.succeeded()) {
+								segment.position_ += buffer.length();
+								if (fsync_) {
+									segment.file_.flush(resFlush -> {
+										if (resFlush.succeeded()) {
+											written_(path);
+										} else {
+											ErrorUtil.reportAndFail(vertx_, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.FATAL, "Operation failed on File System", resFlush.cause(), completionHandler_);
+										}
+									});
+								} else {
+									written_(path);
+								}
+							} else {
+								if (files_.remove(path) == segment) segment.file_.close();
+								brokenPaths_.add(path);
+								ErrorUtil.reportAndFail(vertx_, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.FATAL, "Operation failed on File System", resWrite.cause(), completionHandler_);
+							}
+						});
+					} else {
+						completionHandler_.handle(Future.failedFuture(resFile.cause()));
+					}
+				});
+			}
+		}
+		private void written_(String path) {
+			Map<String, JsonObject> deals = written_.get(path);
+			lastWrittenDeals_.putAll(deals);
+			if (writtenHandler_ != null) {
+				for (JsonObject aDeal : deals.values()) {
+					writtenHandler_.handle(aDeal);
+				}
+			}
+			doLoop_();
+		}
+		private void file_(String path, Handler<AsyncResult<Segment_>> completionHandler) {
+			Segment_ segment = files_.get(path);
+			if (segment != null) {
+				completionHandler.handle(Future.succeededFuture(segment));
+				return;
+			}
+			String logDir = new File(path).getParent();
+			FileSystemUtil.ensureDirectory(vertx_, logDir, resEnsureDir -> {
+				if (resEnsureDir.succeeded()) {
+					vertx_.fileSystem().open(path, new OpenOptions().setCreate(true).setWrite(true), resOpen -> {
+						if (resOpen.succeeded()) {
+							AsyncFile file = resOpen.result();
+							vertx_.fileSystem().props(path, resProps -> {
+								if (resProps.succeeded()) {
+									if (log.isDebugEnabled()) log.debug("open deal log segment : " + path + " ; size : " + resProps.result().size());
+									Segment_ opened = new Segment_(file, resProps.result().size());
+									files_.put(path, opened);
+									completionHandler.handle(Future.succeededFuture(opened));
+								} else {
+									file.close();
+									ErrorUtil.reportAndFail(vertx_, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.FATAL, "Operation failed on File System", resProps.cause(), completionHandler);
+								}
+							});
+						} else {
+							ErrorUtil.reportAndFail(vertx_, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.FATAL, "Operation failed on File System", resOpen.cause(), completionHandler);
+						}
+					});
+				} else {
+					ErrorUtil.reportAndFail(vertx_, Error.Category.FRAMEWORK, Error.Extent.LOCAL, Error.Level.FATAL, "Operation failed on File System", resEnsureDir.cause(), completionHandler);
+				}
+			});
+		}
+	}
+
+}
@@ -3,28 +3,52 @@ package jp.co.sony.csl.dcoes.apis.main.app.mediator.util;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.eventbus.MessageConsumer;
 import jp.co.sony.csl.dcoes.apis.common.Deal;
 import jp.co.sony.csl.dcoes.apis.common.Error;
 import jp.co.sony.csl.dcoes.apis.common.util.DateTimeUtil;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.EncryptedClusterWideMapUtil;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectUtil;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.LocalExclusiveLock;
+import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorExceptionUtil;
 
 /**
  * A tool for managing interchange information in shared memory.
+ * Reads are served locally from a near-cache of all DEAL objects.
+ * Every write increments a cluster-wide version counter and publishes the ID of the written DEAL object with the new version.
+ * On this notification every unit re-reads only that DEAL object and patches it into its near-cache, unless the near-cache already holds a newer version of it.
+ * Only the ID and the version are published so that the contents of DEAL objects stay in encrypted shared memory.
+ * Notifications are best-effort, so a near-cache older than {@code POLICY.mediator.dealCacheMaxAgeMsec} is reloaded regardless.
+ * Updates and removals are serialised by the exclusive lock of this unit.
+ * They first try a compare-and-swap in a single round trip using the near-cache value as the expected value, and retry once from a fresh read if that misses.
+ * Every update increments the revision of the DEAL object, and an update based on a revision that is no longer current fails instead of undoing the other write.
  * @author OES Project
  *          
  * 融通情報を共有メモリ上に管理するツール.
+ * 読み出しは全 DEAL オブジェクトのローカルなニアキャッシュから返す.
+ * 書き込みのたびにクラスタ全体のバージョンカウンタをインクリメントし書き込んだ DEAL オブジェクトの ID を新しいバージョンとともに publish する.
+ * 各ユニットはこの通知を受けるとその DEAL オブジェクトだけを読み直しニアキャッシュに反映する. ただしニアキャッシュがすでにより新しいバージョンを持っていれば反映しない.
+ * DEAL オブジェクトの中身が暗号化された共有メモリの外に出ないよう publish するのは ID とバージョンだけ.
+ * 通知は取りこぼしうるので {@code POLICY.mediator.dealCacheMaxAgeMsec} より古いニアキャッシュは無条件に読み直す.
+ * 更新と削除はこのユニットの排他ロックで直列化する.
+ * まずニアキャッシュの値を期待値とした一往復の compare-and-swap を試み, 外れたら一度だけ読み直してやり直す.
+ * 更新のたびに DEAL オブジェクトのリビジョンをインクリメントし, 現在のものではないリビジョンに基づいた更新は他の書き込みを取り消さずに失敗する.
  * @author OES Project
  */
 public class DealUtil {
@@ -57,6 +81,116 @@ public class DealUtil {
 	}
 
 	private static final String MAP_NAME = DealUtil.class.getName();
+	private static final String VERSION_COUNTER_NAME = MAP_NAME + ".version";
+	/**
+	 * Key of the revision of a DEAL object.
+	 * Incremented by every update so that an update based on a stale DEAL object can be detected.
+	 *          
+	 * DEAL オブジェクトのリビジョンのキー.
+	 * 古い DEAL オブジェクトに基づいた更新を検出できるよう更新のたびにインクリメントする.
+	 */
+	private static final String REVISION_KEY = "revision";
+	/**
+	 * Event bus address on which writes are notified.
+	 * The body is a {@link JsonObject} of {@code dealId} and {@code version}.
+	 *          
+	 * 書き込みを通知するイベントバスのアドレス.
+	 * 本体は {@code dealId} と {@code version} からなる {@link JsonObject}.
+	 */
+	static final String UPDATED_ADDRESS = MAP_NAME + ".updated";
+	/**
+	 * Default maximum age of the near-cache [ms].
+	 * Value: {@value}.
+	 *          
+	 * ニアキャッシュの最大寿命のデフォルト値 [ms].
+	 * 値は {@value}.
+	 */
+	private static final Long DEFAULT_DEAL_CACHE_MAX_AGE_MSEC = 10000L;
+
+	/**
+	 * A snapshot of all DEAL objects in shared memory with the version of each of them.
+	 * A DEAL object read by a full reload has the version fetched just before the reload, which is kept as the base version.
+	 * A DEAL object patched afterwards has the version of the write that caused the patch.
+	 * The versions of removed DEAL objects are kept as well so that a late notification cannot bring them back.
+	 * The DEAL objects are kept in a {@link DealIndex} so that queries by unit ID and the master deal are answered without scanning.
+	 * Immutable so that it can be shared between event loops.
+	 * @author OES Project
+	 *          
+	 * 共有メモリ上の全 DEAL オブジェクトとそれぞれのバージョンのスナップショット.
+	 * 全体の読み直しで読んだ DEAL オブジェクトは読み直しの直前に取得したバージョンを持ち, これをベースバージョンとして保持する.
+	 * その後に反映した DEAL オブジェクトは反映のきっかけとなった書き込みのバージョンを持つ.
+	 * 遅れて届いた通知で復活しないよう削除した DEAL オブジェクトのバージョンも保持する.
+	 * ユニット ID による問い合わせや master deal を走査せずに答えられるよう DEAL オブジェクトは {@link DealIndex} に保持する.
+	 * イベントループ間で共有できるよう不変.
+	 * @author OES Project
+	 */
+	private static class Snapshot_ {
+		private final long baseVersion_;
+		private final Map<String, Long> versions_;
+		private final long loadedMillis_;
+		private final DealIndex index_;
+		private Snapshot_(long baseVersion, Map<String, Long> versions, long loadedMillis, List<JsonObject> deals) {
+			baseVersion_ = baseVersion;
+			versions_ = versions;
+			loadedMillis_ = loadedMillis;
+			index_ = new DealIndex(deals);
+		}
+		/**
+		 * Get the version of the DEAL object with the ID specified by {@code dealId}.
+		 * @param dealId an interchange ID
+		 * @return the version
+		 *          
+		 * {@code dealId} で指定した ID を持つ DEAL オブジェクトのバージョンを取得する.
+		 * @param dealId 融通 ID
+		 * @return バージョン
+		 */
+		private long version_(String dealId) {
+			Long result = versions_.get(dealId);
+			return (result != null) ? result : baseVersion_;
+		}
+		/**
+		 * Create a new snapshot in which the DEAL object with the ID specified by {@code dealId} is replaced.
+		 * The time of loading is kept, since the other DEAL objects are as old as before.
+		 * @param version the version of the new DEAL object
+		 * @param dealId an interchange ID
+		 * @param deal the new DEAL object. {@code null} if removed
+		 * @return the new snapshot
+		 *          
+		 * {@code dealId} で指定した ID を持つ DEAL オブジェクトを差し替えた新しいスナップショットを作る.
+		 * 他の DEAL オブジェクトは以前と同じだけ古いので読み込んだ時刻は引き継ぐ.
+		 * @param version 新しい DEAL オブジェクトのバージョン
+		 * @param dealId 融通 ID
+		 * @param deal 新しい DEAL オブジェクト. 削除なら {@code null}
+		 * @return 新しいスナップショット
+		 */
+		private Snapshot_ with_(long version, String dealId, JsonObject deal) {
+			List<JsonObject> deals = new ArrayList<>(index_.all().size() + 1);
+			for (JsonObject aDeal : index_.all()) {
+				if (!dealId.equals(Deal.dealId(aDeal))) deals.add(aDeal);
+			}
+			if (deal != null) deals.add(deal);
+			Map<String, Long> versions = new HashMap<>(versions_);
+			versions.put(dealId, version);
+			return new Snapshot_(baseVersion_, versions, loadedMillis_, deals);
+		}
+	}
+	private static final AtomicReference<Snapshot_> cache_ = new AtomicReference<>();
+	/**
+	 * The number of notifications received, used to find out whether one arrived during a full reload.
+	 *          
+	 * 受け取った通知の数. 全体の読み直し中に通知が届いたか否かを知るために使う.
+	 */
+	private static final AtomicLong notifications_ = new AtomicLong();
+	/**
+	 * The Vertx on which notifications are listened to.
+	 * The near-cache belongs to the cluster of this Vertx.
+	 *          
+	 * 通知を受けている Vertx.
+	 * ニアキャッシュはこの Vertx のクラスタのもの.
+	 */
+	private static volatile Vertx listeningVertx_ = null;
+	private static volatile boolean listening_ = false;
+	private static List<Handler<AsyncResult<Void>>> listenWaiters_ = new ArrayList<>();
 
 	private DealUtil() { }
 
@@ -83,7 +217,7 @@ public class DealUtil {
 							JsonObject existingValue = resPutIfAbsent.result();
 							if (existingValue == null) {
 								if (log.isInfoEnabled()) log.info("deal created : " + dealId);
-								completionHandler.handle(Future.succeededFuture());
+								incrementVersion_(vertx, dealId, deal.copy(), completionHandler);
 							} else {
 								String msg = "DealUtil.add(); deal already exists with same id : " + dealId;
 								ErrorExceptionUtil.logAndFail(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, msg, completionHandler);
@@ -103,24 +237,285 @@ public class DealUtil {
 
 	/**
 	 * Get all DEAL objects stored in shared memory.
+	 * Served from the near-cache if the version has not changed.
+	 * The DEAL objects are copies and may be modified by the caller.
 	 * Results are received with the {@link AsyncResult#result()} method of completionHandler.
 	 * @param vertx a vertx object
 	 * @param completionHandler the completion handler
 	 *          
 	 * 共有メモリに格納されている DEAL オブジェクトを全て取得する.
+	 * バージョンが変わっていなければニアキャッシュから返す.
+	 * DEAL オブジェクトはコピーなので呼び出し側で変更してもよい.
 	 * completionHandler の {@link AsyncResult#result()} で受け取る.
 	 * @param vertx vertx オブジェクト
 	 * @param completionHandler the completion handler
 	 */
 	public static void all(Vertx vertx, Handler<AsyncResult<List<JsonObject>>> completionHandler) {
+		snapshot_(vertx, resSnapshot -> {
+			if (resSnapshot.succeeded()) {
+				completionHandler.handle(Future.succeededFuture(copy_(resSnapshot.result().all())));
+			} else {
+				completionHandler.handle(Future.failedFuture(resSnapshot.cause()));
+			}
+		});
+	}
+	/**
+	 * Copy a list of DEAL objects in the near-cache so that the caller may modify them.
+	 * @param deals a list of DEAL objects
+	 * @return a list of copied DEAL objects
+	 *          
+	 * 呼び出し側で変更してよいようニアキャッシュの DEAL オブジェクトのリストをコピーする.
+	 * @param deals DEAL オブジェクトのリスト
+	 * @return コピーした DEAL オブジェクトのリスト
+	 */
+	private static List<JsonObject> copy_(List<JsonObject> deals) {
+		List<JsonObject> result = new ArrayList<>(deals.size());
+		for (JsonObject aDeal : deals) {
+			result.add(aDeal.copy());
+		}
+		return result;
+	}
+	/**
+	 * Get the index of all DEAL objects in the near-cache.
+	 * Served locally without any round trip unless the near-cache is missing or older than {@code POLICY.mediator.dealCacheMaxAgeMsec} (default: {@link #DEFAULT_DEAL_CACHE_MAX_AGE_MSEC}), in which case all DEAL objects are reloaded from shared memory.
+	 * The DEAL objects are shared with the near-cache and must not be modified.
+	 * @param vertx a vertx object
+	 * @param completionHandler the completion handler
+	 *          
+	 * ニアキャッシュの全 DEAL オブジェクトの索引を取得する.
+	 * ニアキャッシュがないか {@code POLICY.mediator.dealCacheMaxAgeMsec} ( デフォルト値 {@link #DEFAULT_DEAL_CACHE_MAX_AGE_MSEC} ) より古い場合は共有メモリから全 DEAL オブジェクトを読み直し, それ以外は往復なしにローカルで返す.
+	 * DEAL オブジェクトはニアキャッシュと共有しているので変更してはいけない.
+	 * @param vertx vertx オブジェクト
+	 * @param completionHandler the completion handler
+	 */
+	private static void snapshot_(Vertx vertx, Handler<AsyncResult<DealIndex>> completionHandler) {
+		Snapshot_ snapshot = (listeningVertx_ == vertx) ? cache_.get() : null;
+		long maxAgeMsec = PolicyKeeping.cache().getLong(DEFAULT_DEAL_CACHE_MAX_AGE_MSEC, "mediator", "dealCacheMaxAgeMsec");
+		if (snapshot != null && System.currentTimeMillis() < snapshot.loadedMillis_ + maxAgeMsec) {
+			completionHandler.handle(Future.succeededFuture(snapshot.index_));
+		} else {
+			load_(vertx, completionHandler);
+		}
+	}
+	/**
+	 * Read all DEAL objects from shared memory.
+	 * The version counter is fetched first, so that every write up to that version is contained in what is read.
+	 * Waits until notifications are listened to.
+	 * The result is kept in the near-cache only if notifications are being listened to and none arrived during the reload, since a notification that arrived during the reload may not have been applied to it.
+	 * @param vertx a vertx object
+	 * @param completionHandler the completion handler
+	 *          
+	 * 共有メモリから全 DEAL オブジェクトを読み出す.
+	 * 先にバージョンカウンタを取得するのでそのバージョンまでの書き込みは全て読み出した結果に含まれる.
+	 * 通知を受け始めるまで待つ.
+	 * 読み直し中に届いた通知は結果に反映されていない可能性があるので, 通知を受けていてかつ読み直し中に通知が届かなかった場合のみ結果をニアキャッシュに保持する.
+	 * @param vertx vertx オブジェクト
+	 * @param completionHandler the completion handler
+	 */
+	private static void load_(Vertx vertx, Handler<AsyncResult<DealIndex>> completionHandler) {
+		listen_(vertx, resListen -> {
+			boolean listening = resListen.succeeded();
+			long notifications = notifications_.get();
+			vertx.sharedData().getCounter(VERSION_COUNTER_NAME, resCounter -> {
+				if (resCounter.succeeded()) {
+					resCounter.result().get(resGet -> {
+						if (resGet.succeeded()) {
+							doLoad_(vertx, resGet.result(), listening, notifications, completionHandler);
+						} else {
+							if (log.isWarnEnabled()) log.warn("failed to get version : " + resGet.cause());
+							doLoad_(vertx, null, listening, notifications, completionHandler);
+						}
+					});
+				} else {
+					if (log.isWarnEnabled()) log.warn("failed to get version counter : " + resCounter.cause());
+					doLoad_(vertx, null, listening, notifications, completionHandler);
+				}
+			});
+		});
+	}
+	private static void doLoad_(Vertx vertx, Long version, boolean listening, long notifications, Handler<AsyncResult<DealIndex>> completionHandler) {
 		EncryptedClusterWideMapUtil.<String, JsonObject>getEncryptedClusterWideMap(vertx, MAP_NAME, resMap -> {
 			if (resMap.succeeded()) {
-				resMap.result().values(completionHandler);
+				resMap.result().values(resValues -> {
+					if (resValues.succeeded()) {
+						Snapshot_ snapshot = new Snapshot_((version != null) ? version : -1L, Collections.emptyMap(), System.currentTimeMillis(), new ArrayList<>(resValues.result()));
+						if (version != null && listening && notifications == notifications_.get()) {
+							if (log.isDebugEnabled()) log.debug("deal cache reloaded ; version : " + version);
+							cache_.set(snapshot);
+						}
+						completionHandler.handle(Future.succeededFuture(snapshot.index_));
+					} else {
+						ErrorExceptionUtil.logAndFail(Error.Category.FRAMEWORK, Error.Extent.GLOBAL, Error.Level.ERROR, "Communication failed on SharedData", resValues.cause(), completionHandler);
+					}
+				});
 			} else {
 				ErrorExceptionUtil.logAndFail(Error.Category.FRAMEWORK, Error.Extent.GLOBAL, Error.Level.ERROR, "Communication failed on SharedData", resMap.cause(), completionHandler);
 			}
 		});
 	}
+	/**
+	 * Start listening to notifications of writes on {@code vertx} unless already listening.
+	 * The near-cache is discarded when the Vertx changes, since it belongs to the cluster of the previous one.
+	 * The completion handler is called on the context of the caller once registration has completed.
+	 * If registration fails, it fails and registration is retried on the next reload.
+	 * @param vertx a vertx object
+	 * @param completionHandler the completion handler
+	 *          
+	 * まだであれば {@code vertx} で書き込みの通知を受け始める.
+	 * ニアキャッシュは以前の Vertx のクラスタのものなので Vertx が変わったら破棄する.
+	 * 登録が完了したら呼び出し元のコンテキストで completion handler を呼ぶ.
+	 * 登録に失敗したら completion handler は失敗し次の読み直しで登録をやり直す.
+	 * @param vertx vertx オブジェクト
+	 * @param completionHandler the completion handler
+	 */
+	private static void listen_(Vertx vertx, Handler<AsyncResult<Void>> completionHandler) {
+		Context context = vertx.getOrCreateContext();
+		boolean listening;
+		synchronized (DealUtil.class) {
+			if (listeningVertx_ != vertx) {
+				List<Handler<AsyncResult<Void>>> waiters = new ArrayList<>();
+				listeningVertx_ = vertx;
+				listening_ = false;
+				listenWaiters_ = waiters;
+				cache_.set(null);
+				MessageConsumer<JsonObject> consumer = vertx.eventBus().<JsonObject>consumer(UPDATED_ADDRESS, req -> {
+					notified_(vertx, req.body());
+				});
+				consumer.completionHandler(res -> {
+					if (res.failed() && log.isWarnEnabled()) log.warn("failed to listen to deal updates : " + res.cause());
+					List<Handler<AsyncResult<Void>>> toRun;
+					synchronized (DealUtil.class) {
+						if (listeningVertx_ == vertx) {
+							if (res.succeeded()) {
+								listening_ = true;
+							} else {
+								listeningVertx_ = null;
+							}
+						}
+						toRun = new ArrayList<>(waiters);
+						waiters.clear();
+					}
+					toRun.forEach(aWaiter -> aWaiter.handle(res));
+				});
+			}
+			listening = listening_;
+			if (!listening) {
+				listenWaiters_.add(res -> context.runOnContext(v -> completionHandler.handle(res)));
+			}
+		}
+		if (listening) completionHandler.handle(Future.succeededFuture());
+	}
+	/**
+	 * Apply a notification of a write to the near-cache.
+	 * The written DEAL object alone is re-read from shared memory, unless the near-cache already holds a newer version of it.
+	 * A notification without a version means the writer failed to increment the version counter, so the near-cache is discarded.
+	 * @param vertx a vertx object
+	 * @param notification the notification
+	 *          
+	 * 書き込みの通知をニアキャッシュに反映する.
+	 * ニアキャッシュがすでにより新しいバージョンを持っていなければ書き込まれた DEAL オブジェクトだけを共有メモリから読み直す.
+	 * バージョンのない通知は書き込み側がバージョンカウンタのインクリメントに失敗したことを意味するのでニアキャッシュを破棄する.
+	 * @param vertx vertx オブジェクト
+	 * @param notification 通知
+	 */
+	private static void notified_(Vertx vertx, JsonObject notification) {
+		notifications_.incrementAndGet();
+		String dealId = (notification != null) ? notification.getString("dealId") : null;
+		Long version = (notification != null) ? notification.getLong("version") : null;
+		if (dealId == null || version == null) {
+			cache_.set(null);
+			return;
+		}
+		Snapshot_ snapshot = cache_.get();
+		if (snapshot == null || version < snapshot.version_(dealId)) return;
+		EncryptedClusterWideMapUtil.<String, JsonObject>getEncryptedClusterWideMap(vertx, MAP_NAME, resMap -> {
+			if (resMap.succeeded()) {
+				resMap.result().get(dealId, resGet -> {
+					if (resGet.succeeded()) {
+						patch_(version, dealId, resGet.result());
+					} else {
+						if (log.isWarnEnabled()) log.warn("failed to get deal : " + dealId + " ; " + resGet.cause());
+						cache_.set(null);
+					}
+				});
+			} else {
+				if (log.isWarnEnabled()) log.warn("failed to get deal map : " + resMap.cause());
+				cache_.set(null);
+			}
+		});
+	}
+	/**
+	 * Patch a DEAL object into the near-cache unless it already holds a newer version of it.
+	 * A DEAL object read at a version is at least as new as that version, so an equal version is patched.
+	 * @param version the version of the DEAL object
+	 * @param dealId an interchange ID
+	 * @param deal the DEAL object. {@code null} if removed
+	 *          
+	 * ニアキャッシュがすでにより新しいバージョンを持っていなければ DEAL オブジェクトをニアキャッシュに反映する.
+	 * あるバージョンで読んだ DEAL オブジェクトは少なくともそのバージョン以降のものなのでバージョンが等しければ反映する.
+	 * @param version DEAL オブジェクトのバージョン
+	 * @param dealId 融通 ID
+	 * @param deal DEAL オブジェクト. 削除なら {@code null}
+	 */
+	private static void patch_(long version, String dealId, JsonObject deal) {
+		cache_.updateAndGet(snapshot -> (snapshot != null && snapshot.version_(dealId) <= version) ? snapshot.with_(version, dealId, deal) : snapshot);
+	}
+	/**
+	 * Increment the version counter after a write to shared memory and notify the write to all units.
+	 * The near-cache of this unit is patched at once with the written DEAL object at its current version, so that it is never served without the write, and again at the new version.
+	 * Failing to increment is notified without a version, which makes every unit discard its near-cache.
+	 * It is logged and treated as success, since the write itself has succeeded.
+	 * @param vertx a vertx object
+	 * @param dealId the ID of the written interchange
+	 * @param deal the written DEAL object. {@code null} if removed
+	 * @param completionHandler the completion handler
+	 *          
+	 * 共有メモリへの書き込み後にバージョンカウンタをインクリメントし全ユニットに書き込みを通知する.
+	 * 書き込み前の値を返すことがないようこのユニットのニアキャッシュには書き込んだ DEAL オブジェクトを現在のバージョンで直ちに反映し, 新しいバージョンで再度反映する.
+	 * インクリメントの失敗はバージョンなしで通知し全ユニットのニアキャッシュを破棄させる.
+	 * 書き込み自体は成功しているのでログを出して成功扱いにする.
+	 * @param vertx vertx オブジェクト
+	 * @param dealId 書き込んだ融通の ID
+	 * @param deal 書き込んだ DEAL オブジェクト. 削除なら {@code null}
+	 * @param completionHandler the completion handler
+	 */
+	private static void incrementVersion_(Vertx vertx, String dealId, JsonObject deal, Handler<AsyncResult<Void>> completionHandler) {
+		cache_.updateAndGet(snapshot -> (snapshot != null) ? snapshot.with_(snapshot.version_(dealId), dealId, deal) : null);
+		vertx.sharedData().getCounter(VERSION_COUNTER_NAME, resCounter -> {
+			if (resCounter.succeeded()) {
+				resCounter.result().incrementAndGet(resIncrement -> {
+					if (resIncrement.succeeded()) {
+						long version = resIncrement.result();
+						patch_(version, dealId, deal);
+						vertx.eventBus().publish(UPDATED_ADDRESS, new JsonObject().put("dealId", dealId).put("version", version));
+					} else {
+						ErrorExceptionUtil.log(Error.Category.FRAMEWORK, Error.Extent.GLOBAL, Error.Level.WARN, "Communication failed on SharedData", resIncrement.cause());
+						vertx.eventBus().publish(UPDATED_ADDRESS, new JsonObject().put("dealId", dealId));
+					}
+					completionHandler.handle(Future.succeededFuture());
+				});
+			} else {
+				ErrorExceptionUtil.log(Error.Category.FRAMEWORK, Error.Extent.GLOBAL, Error.Level.WARN, "Communication failed on SharedData", resCounter.cause());
+				vertx.eventBus().publish(UPDATED_ADDRESS, new JsonObject().put("dealId", dealId));
+				completionHandler.handle(Future.succeededFuture());
+			}
+		});
+	}
+	/**
+	 * Get the DEAL object with the ID specified by {@code dealId} as last seen by the near-cache.
+	 * Used as the expected value of an optimistic compare-and-swap, so it may be stale.
+	 * @param dealId an interchange ID
+	 * @return the DEAL object. {@code null} if not in the near-cache
+	 *          
+	 * ニアキャッシュが最後に見た {@code dealId} で指定した ID を持つ DEAL オブジェクトを取得する.
+	 * 楽観的な compare-and-swap の期待値として使うので古い可能性がある.
+	 * @param dealId 融通 ID
+	 * @return DEAL オブジェクト. ニアキャッシュになければ {@code null}
+	 */
+	private static JsonObject cachedDeal_(String dealId) {
+		Snapshot_ snapshot = cache_.get();
+		return (snapshot != null) ? snapshot.index_.get(dealId) : null;
+	}
 
 	/**
 	 * Get the Master Deal from shared memory.
@@ -134,17 +529,35 @@ public class DealUtil {
 	 * @param completionHandler the completion handler
 	 */
 	public static void master(Vertx vertx, Handler<AsyncResult<JsonObject>> completionHandler) {
-		all(vertx, resAll -> {
-			if (resAll.succeeded()) {
-				for (JsonObject aDeal : resAll.result()) {
-					if (Deal.isMaster(aDeal)) {
-						completionHandler.handle(Future.succeededFuture(aDeal));
-						return;
-					}
-				}
-				completionHandler.handle(Future.succeededFuture());
+		snapshot_(vertx, resSnapshot -> {
+			if (resSnapshot.succeeded()) {
+				JsonObject result = resSnapshot.result().master();
+				completionHandler.handle(Future.succeededFuture((result != null) ? result.copy() : null));
+			} else {
+				completionHandler.handle(Future.failedFuture(resSnapshot.cause()));
+			}
+		});
+	}
+
+	/**
+	 * Get the DEAL objects of working interchanges from shared memory.
+	 * Working means {@link Deal#bothSideUnitsMustBeActive(JsonObject)}.
+	 * Results are received with the {@link AsyncResult#result()} method of completionHandler.
+	 * @param vertx a vertx object
+	 * @param completionHandler the completion handler
+	 *          
+	 * 動いている融通の DEAL オブジェクトを共有メモリから取得する.
+	 * 動いているとは {@link Deal#bothSideUnitsMustBeActive(JsonObject)} であること.
+	 * completionHandler の {@link AsyncResult#result()} で受け取る.
+	 * @param vertx vertx オブジェクト
+	 * @param completionHandler the completion handler
+	 */
+	public static void active(Vertx vertx, Handler<AsyncResult<List<JsonObject>>> completionHandler) {
+		snapshot_(vertx, resSnapshot -> {
+			if (resSnapshot.succeeded()) {
+				completionHandler.handle(Future.succeededFuture(copy_(resSnapshot.result().active())));
 			} else {
-				completionHandler.handle(Future.failedFuture(resAll.cause()));
+				completionHandler.handle(Future.failedFuture(resSnapshot.cause()));
 			}
 		});
 	}
@@ -164,17 +577,11 @@ public class DealUtil {
 	 */
 	public static void withUnitId(Vertx vertx, String unitId, Handler<AsyncResult<List<JsonObject>>> completionHandler) {
 		if (unitId != null) {
-			all(vertx, resAll -> {
-				if (resAll.succeeded()) {
-					List<JsonObject> result = new ArrayList<JsonObject>();
-					for (JsonObject aDeal : resAll.result()) {
-						if (Deal.isInvolved(aDeal, unitId)) {
-							result.add(aDeal);
-						}
-					}
-					completionHandler.handle(Future.succeededFuture(result));
+			snapshot_(vertx, resSnapshot -> {
+				if (resSnapshot.succeeded()) {
+					completionHandler.handle(Future.succeededFuture(copy_(resSnapshot.result().withUnitId(unitId))));
 				} else {
-					completionHandler.handle(Future.failedFuture(resAll.cause()));
+					completionHandler.handle(Future.failedFuture(resSnapshot.cause()));
 				}
 			});
 		} else {
@@ -223,28 +630,22 @@ public class DealUtil {
 	 */
 	public static void get(Vertx vertx, String dealId, boolean ignoreNotExists, Handler<AsyncResult<JsonObject>> completionHandler) {
 		if (dealId != null) {
-			EncryptedClusterWideMapUtil.<String, JsonObject>getEncryptedClusterWideMap(vertx, MAP_NAME, resMap -> {
-				if (resMap.succeeded()) {
-					resMap.result().get(dealId, resGet -> {
-						if (resGet.succeeded()) {
-							JsonObject result = resGet.result();
-							if (result != null) {
-								completionHandler.handle(Future.succeededFuture(result));
-							} else {
-								String msg = "DealUtil.get(); no deal found with dealId : " + dealId;
-								if (ignoreNotExists) {
-									ErrorExceptionUtil.log(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.WARN, msg);
-									completionHandler.handle(Future.succeededFuture());
-								} else {
-									ErrorExceptionUtil.logAndFail(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, msg, completionHandler);
-								}
-							}
-						} else {
-							ErrorExceptionUtil.logAndFail(Error.Category.FRAMEWORK, Error.Extent.GLOBAL, Error.Level.ERROR, "Communication failed on SharedData", resGet.cause(), completionHandler);
-						}
-					});
+			snapshot_(vertx, resSnapshot -> {
+				if (resSnapshot.succeeded()) {
+					JsonObject result = resSnapshot.result().get(dealId);
+					if (result != null) {
+						completionHandler.handle(Future.succeededFuture(result.copy()));
+						return;
+					}
+					String msg = "DealUtil.get(); no deal found with dealId : " + dealId;
+					if (ignoreNotExists) {
+						ErrorExceptionUtil.log(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.WARN, msg);
+						completionHandler.handle(Future.succeededFuture());
+					} else {
+						ErrorExceptionUtil.logAndFail(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, msg, completionHandler);
+					}
 				} else {
-					ErrorExceptionUtil.logAndFail(Error.Category.FRAMEWORK, Error.Extent.GLOBAL, Error.Level.ERROR, "Communication failed on SharedData", resMap.cause(), completionHandler);
+					completionHandler.handle(Future.failedFuture(resSnapshot.cause()));
 				}
 			});
 		} else {
@@ -271,6 +672,8 @@ public class DealUtil {
 	/**
 	 * Update shared memory with the contents of the DEAL object specified by {@code deal}.
 	 * If it doesn't exist, handle according to the state of {@code ignoreNotExists}.
+	 * Raise a global error if {@code deal} is based on a revision that is no longer current.
+	 * On success the revision of {@code deal} is advanced so that it can be updated again.
 	 * @param vertx a vertx object
 	 * @param deal a DEAL object
 	 * @param ignoreNotExists the action to take if the specified DEAL does not exist
@@ -280,6 +683,8 @@ public class DealUtil {
 	 *          
 	 * {@code deal} で指定する DEAL オブジェクトの内容で共有メモリを更新する.
 	 * 存在しない場合は {@code ignoreNotExists} に応じて対応する.
+	 * {@code deal} が現在のものではないリビジョンに基づいていたらグローバルエラーになる.
+	 * 成功したら再び更新できるよう {@code deal} のリビジョンを進める.
 	 * @param vertx vertx オブジェクト
 	 * @param deal DEAL オブジェクト
 	 * @param ignoreNotExists 指定した DEAL が存在しない場合の挙動
@@ -288,54 +693,73 @@ public class DealUtil {
 	 * @param completionHandler the completion handler
 	 */
 	public static void update(Vertx vertx, JsonObject deal, boolean ignoreNotExists, Handler<AsyncResult<Void>> completionHandler) {
-		acquireExclusiveLock(vertx, resExclusiveLock -> {
-			if (resExclusiveLock.succeeded()) {
-				LocalExclusiveLock.Lock lock = resExclusiveLock.result();
-				doUpdateWithExclusiveLock_(vertx, deal, ignoreNotExists, resDoUpdateWithExclusiveLock -> {
-					lock.release();
-					completionHandler.handle(resDoUpdateWithExclusiveLock);
-				});
-			} else {
-				ErrorExceptionUtil.logAndFail(Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, resExclusiveLock.cause(), completionHandler);
-			}
-		});
-	}
-	private static void doUpdateWithExclusiveLock_(Vertx vertx, JsonObject deal, boolean ignoreNotExists, Handler<AsyncResult<Void>> completionHandler) {
 		String dealId = Deal.dealId(deal);
 		if (dealId != null) {
+			acquireExclusiveLock(vertx, resExclusiveLock -> {
+				if (resExclusiveLock.succeeded()) {
+					LocalExclusiveLock.Lock lock = resExclusiveLock.result();
+					doUpdate_(vertx, dealId, deal, ignoreNotExists, resDoUpdate -> {
+						lock.release();
+						completionHandler.handle(resDoUpdate);
+					});
+				} else {
+					ErrorExceptionUtil.logAndFail(Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, resExclusiveLock.cause(), completionHandler);
+				}
+			});
+		} else {
+			ErrorExceptionUtil.logAndFail(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, "DealUtil.update(); no dealId in deal : " + deal, completionHandler);
+		}
+	}
+	/**
+	 * Get the revision of a DEAL object.
+	 * @param deal a DEAL object
+	 * @return the revision. {@code 0} if none
+	 *          
+	 * DEAL オブジェクトのリビジョンを取得する.
+	 * @param deal DEAL オブジェクト
+	 * @return リビジョン. なければ {@code 0}
+	 */
+	private static long revision_(JsonObject deal) {
+		return JsonObjectUtil.getLong(deal, 0L, REVISION_KEY);
+	}
+	/**
+	 * Replace the DEAL object in shared memory with {@code deal} under the exclusive lock.
+	 * First try a compare-and-swap in a single round trip using the value in the near-cache as the expected value, if it is of the same revision as {@code deal}.
+	 * If that misses, retry once from a fresh read.
+	 * @param vertx a vertx object
+	 * @param dealId an interchange ID
+	 * @param deal a DEAL object
+	 * @param ignoreNotExists the action to take if the specified DEAL does not exist
+	 * @param completionHandler the completion handler
+	 *          
+	 * 排他ロックのもとで共有メモリ上の DEAL オブジェクトを {@code deal} で差し替える.
+	 * ニアキャッシュの値が {@code deal} と同じリビジョンならまずそれを期待値とした一往復の compare-and-swap を試みる.
+	 * それが外れたら一度だけ読み直してやり直す.
+	 * @param vertx vertx オブジェクト
+	 * @param dealId 融通 ID
+	 * @param deal DEAL オブジェクト
+	 * @param ignoreNotExists 指定した DEAL が存在しない場合の挙動
+	 * @param completionHandler the completion handler
+	 */
+	private static void doUpdate_(Vertx vertx, String dealId, JsonObject deal, boolean ignoreNotExists, Handler<AsyncResult<Void>> completionHandler) {
+		long revision = revision_(deal);
+		JsonObject updated = deal.copy().put(REVISION_KEY, revision + 1L);
+		JsonObject expected = cachedDeal_(dealId);
+		if (expected != null && revision < revision_(expected)) {
+			// The near-cache already holds a later revision → deal is stale
+			// ニアキャッシュがすでに後のリビジョンを持っている → deal は古い
+			conflicted_(dealId, revision, revision_(expected), completionHandler);
+		} else if (expected != null && revision == revision_(expected)) {
 			EncryptedClusterWideMapUtil.<String, JsonObject>getEncryptedClusterWideMap(vertx, MAP_NAME, resMap -> {
 				if (resMap.succeeded()) {
-					resMap.result().get(dealId, resGet -> {
-						if (resGet.succeeded()) {
-							JsonObject old = resGet.result();
-							if (old != null) {
-								resMap.result().replaceIfPresent(dealId, old, deal, resReplaceIfPresent -> {
-									if (resReplaceIfPresent.succeeded()) {
-										Boolean replaced = resReplaceIfPresent.result();
-										if (replaced) {
-											if (log.isInfoEnabled()) log.info("deal updated : " + dealId);
-											completionHandler.handle(Future.succeededFuture());
-										} else {
-											// Replacement failed because the old value has changed
-											// old の値が変わっていたので差し替え失敗
-											String msg = "DealUtil.update(); failed to replace with dealId : " + dealId;
-											ErrorExceptionUtil.logAndFail(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, msg, completionHandler);
-										}
-									} else {
-										ErrorExceptionUtil.logAndFail(Error.Category.FRAMEWORK, Error.Extent.GLOBAL, Error.Level.ERROR, "Communication failed on SharedData", resReplaceIfPresent.cause(), completionHandler);
-									}
-								});
-							} else {
-								String msg = "DealUtil.update(); no deal found with dealId : " + dealId;
-								if (ignoreNotExists) {
-									ErrorExceptionUtil.log(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.WARN, msg);
-									completionHandler.handle(Future.succeededFuture());
-								} else {
-									ErrorExceptionUtil.logAndFail(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, msg, completionHandler);
-								}
-							}
+					resMap.result().replaceIfPresent(dealId, expected, updated, resReplaceIfPresent -> {
+						if (resReplaceIfPresent.succeeded() && resReplaceIfPresent.result()) {
+							updated_(vertx, dealId, deal, updated, completionHandler);
 						} else {
-							ErrorExceptionUtil.logAndFail(Error.Category.FRAMEWORK, Error.Extent.GLOBAL, Error.Level.ERROR, "Communication failed on SharedData", resGet.cause(), completionHandler);
+							// The near-cache was stale → Retry from a fresh read
+							// ニアキャッシュが古かった → 読み直してやり直す
+							if (log.isDebugEnabled()) log.debug("optimistic update missed, retry from a fresh read ; deal : " + dealId);
+							doUpdateFromFreshRead_(vertx, dealId, deal, updated, ignoreNotExists, completionHandler);
 						}
 					});
 				} else {
@@ -343,9 +767,91 @@ public class DealUtil {
 				}
 			});
 		} else {
-			ErrorExceptionUtil.logAndFail(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, "DealUtil.update(); no dealId in deal : " + deal, completionHandler);
+			doUpdateFromFreshRead_(vertx, dealId, deal, updated, ignoreNotExists, completionHandler);
 		}
 	}
+	private static void doUpdateFromFreshRead_(Vertx vertx, String dealId, JsonObject deal, JsonObject updated, boolean ignoreNotExists, Handler<AsyncResult<Void>> completionHandler) {
+		long revision = revision_(deal);
+		EncryptedClusterWideMapUtil.<String, JsonObject>getEncryptedClusterWideMap(vertx, MAP_NAME, resMap -> {
+			if (resMap.succeeded()) {
+				resMap.result().get(dealId, resGet -> {
+					if (resGet.succeeded()) {
+						JsonObject old = resGet.result();
+						if (old == null) {
+							String msg = "DealUtil.update(); no deal found with dealId : " + dealId;
+							if (ignoreNotExists) {
+								ErrorExceptionUtil.log(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.WARN, msg);
+								completionHandler.handle(Future.succeededFuture());
+							} else {
+								ErrorExceptionUtil.logAndFail(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, msg, completionHandler);
+							}
+						} else if (revision != revision_(old)) {
+							conflicted_(dealId, revision, revision_(old), completionHandler);
+						} else {
+							resMap.result().replaceIfPresent(dealId, old, updated, resReplaceIfPresent -> {
+								if (resReplaceIfPresent.succeeded()) {
+									if (resReplaceIfPresent.result()) {
+										updated_(vertx, dealId, deal, updated, completionHandler);
+									} else {
+										// Replaced by another unit since the read
+										// 読んだ後に他のユニットが差し替えた
+										conflicted_(dealId, revision, null, completionHandler);
+									}
+								} else {
+									ErrorExceptionUtil.logAndFail(Error.Category.FRAMEWORK, Error.Extent.GLOBAL, Error.Level.ERROR, "Communication failed on SharedData", resReplaceIfPresent.cause(), completionHandler);
+								}
+							});
+						}
+					} else {
+						ErrorExceptionUtil.logAndFail(Error.Category.FRAMEWORK, Error.Extent.GLOBAL, Error.Level.ERROR, "Communication failed on SharedData", resGet.cause(), completionHandler);
+					}
+				});
+			} else {
+				ErrorExceptionUtil.logAndFail(Error.Category.FRAMEWORK, Error.Extent.GLOBAL, Error.Level.ERROR, "Communication failed on SharedData", resMap.cause(), completionHandler);
+			}
+		});
+	}
+	/**
+	 * Finish a successful update.
+	 * The revision of {@code deal} is advanced so that the caller can keep updating the same object.
+	 * @param vertx a vertx object
+	 * @param dealId an interchange ID
+	 * @param deal the DEAL object given by the caller
+	 * @param updated the DEAL object written
+	 * @param completionHandler the completion handler
+	 *          
+	 * 更新の成功を仕上げる.
+	 * 呼び出し側が同じオブジェクトで更新を続けられるよう {@code deal} のリビジョンを進める.
+	 * @param vertx vertx オブジェクト
+	 * @param dealId 融通 ID
+	 * @param deal 呼び出し側が渡した DEAL オブジェクト
+	 * @param updated 書き込んだ DEAL オブジェクト
+	 * @param completionHandler the completion handler
+	 */
+	private static void updated_(Vertx vertx, String dealId, JsonObject deal, JsonObject updated, Handler<AsyncResult<Void>> completionHandler) {
+		if (log.isInfoEnabled()) log.info("deal updated : " + dealId);
+		deal.put(REVISION_KEY, revision_(updated));
+		incrementVersion_(vertx, dealId, updated.copy(), completionHandler);
+	}
+	/**
+	 * Fail an update whose DEAL object is based on a revision that is no longer current.
+	 * The DEAL object is never re-applied over the current one, since that would undo the other write.
+	 * @param dealId an interchange ID
+	 * @param revision the revision on which the DEAL object is based
+	 * @param currentRevision the current revision. {@code null} if unknown
+	 * @param completionHandler the completion handler
+	 *          
+	 * 現在のものではないリビジョンに基づいた DEAL オブジェクトの更新を失敗させる.
+	 * 他の書き込みを取り消すことになるので現在のものの上に DEAL オブジェクトを再適用することはしない.
+	 * @param dealId 融通 ID
+	 * @param revision DEAL オブジェクトが基づいているリビジョン
+	 * @param currentRevision 現在のリビジョン. 不明なら {@code null}
+	 * @param completionHandler the completion handler
+	 */
+	private static void conflicted_(String dealId, long revision, Long currentRevision, Handler<AsyncResult<Void>> completionHandler) {
+		String msg = "DealUtil.update(); deal updated by others with dealId : " + dealId + " ; revision : " + revision + " ; current revision : " + currentRevision;
+		ErrorExceptionUtil.logAndFail(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, msg, completionHandler);
+	}
 
 	/**
 	 * Delete the DEAL object specified by {@code dealId} from shared memory.
@@ -388,37 +894,37 @@ public class DealUtil {
 	 */
 	public static void remove(Vertx vertx, String dealId, boolean ignoreNotExists, Handler<AsyncResult<JsonObject>> completionHandler) {
 		if (dealId != null) {
+			acquireExclusiveLock(vertx, resExclusiveLock -> {
+				if (resExclusiveLock.succeeded()) {
+					LocalExclusiveLock.Lock lock = resExclusiveLock.result();
+					doRemove_(vertx, dealId, ignoreNotExists, resDoRemove -> {
+						lock.release();
+						completionHandler.handle(resDoRemove);
+					});
+				} else {
+					ErrorExceptionUtil.logAndFail(Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.WARN, resExclusiveLock.cause(), completionHandler);
+				}
+			});
+		} else {
+			ErrorExceptionUtil.logAndFail(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, "DealUtil.remove(); no dealId", completionHandler);
+		}
+	}
+	private static void doRemove_(Vertx vertx, String dealId, boolean ignoreNotExists, Handler<AsyncResult<JsonObject>> completionHandler) {
+		JsonObject expected = cachedDeal_(dealId);
+		if (expected != null) {
+			// Try to remove in a single round trip using the value in the near-cache as the expected value
+			// ニアキャッシュの値を期待値として一往復で削除してみる
 			EncryptedClusterWideMapUtil.<String, JsonObject>getEncryptedClusterWideMap(vertx, MAP_NAME, resMap -> {
 				if (resMap.succeeded()) {
-					resMap.result().get(dealId, resGet -> {
-						if (resGet.succeeded()) {
-							JsonObject old = resGet.result();
-							if (old != null) {
-								resMap.result().removeIfPresent(dealId, old, resRemoveIfPresent -> {
-									if (resRemoveIfPresent.succeeded()) {
-										Boolean removed = resRemoveIfPresent.result();
-										if (removed) {
-											if (log.isInfoEnabled()) log.info("deal removed : " + dealId);
-											completionHandler.handle(Future.succeededFuture());
-										} else {
-											String msg = "DealUtil.remove(); failed to remove with dealId : " + dealId;
-											ErrorExceptionUtil.logAndFail(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, msg, completionHandler);
-										}
-									} else {
-										ErrorExceptionUtil.logAndFail(Error.Category.FRAMEWORK, Error.Extent.GLOBAL, Error.Level.ERROR, "Communication failed on SharedData", resRemoveIfPresent.cause(), completionHandler);
-									}
-								});
-							} else {
-								String msg = "DealUtil.remove(); no deal found with dealId : " + dealId;
-								if (ignoreNotExists) {
-									ErrorExceptionUtil.log(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.WARN, msg);
-									completionHandler.handle(Future.succeededFuture());
-								} else {
-									ErrorExceptionUtil.logAndFail(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, msg, completionHandler);
-								}
-							}
+					resMap.result().removeIfPresent(dealId, expected, resRemoveIfPresent -> {
+						if (resRemoveIfPresent.succeeded() && resRemoveIfPresent.result()) {
+							if (log.isInfoEnabled()) log.info("deal removed : " + dealId);
+							incrementVersion_(vertx, dealId, null, resIncrementVersion -> completionHandler.handle(Future.succeededFuture()));
 						} else {
-							ErrorExceptionUtil.logAndFail(Error.Category.FRAMEWORK, Error.Extent.GLOBAL, Error.Level.ERROR, "Communication failed on SharedData", resGet.cause(), completionHandler);
+							// The near-cache was stale → Retry from a fresh read
+							// ニアキャッシュが古かった → 読み直してやり直す
+							if (log.isDebugEnabled()) log.debug("optimistic remove missed, retry from a fresh read ; deal : " + dealId);
+							doRemoveFromFreshRead_(vertx, dealId, ignoreNotExists, completionHandler);
 						}
 					});
 				} else {
@@ -426,9 +932,50 @@ public class DealUtil {
 				}
 			});
 		} else {
-			ErrorExceptionUtil.logAndFail(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, "DealUtil.remove(); no dealId", completionHandler);
+			doRemoveFromFreshRead_(vertx, dealId, ignoreNotExists, completionHandler);
 		}
 	}
+	private static void doRemoveFromFreshRead_(Vertx vertx, String dealId, boolean ignoreNotExists, Handler<AsyncResult<JsonObject>> completionHandler) {
+		EncryptedClusterWideMapUtil.<String, JsonObject>getEncryptedClusterWideMap(vertx, MAP_NAME, resMap -> {
+			if (resMap.succeeded()) {
+				resMap.result().get(dealId, resGet -> {
+					if (resGet.succeeded()) {
+						JsonObject old = resGet.result();
+						if (old != null) {
+							resMap.result().removeIfPresent(dealId, old, resRemoveIfPresent -> {
+								if (resRemoveIfPresent.succeeded()) {
+									Boolean removed = resRemoveIfPresent.result();
+									if (removed) {
+										if (log.isInfoEnabled()) log.info("deal removed : " + dealId);
+										incrementVersion_(vertx, dealId, null, resIncrementVersion -> completionHandler.handle(Future.succeededFuture()));
+									} else {
+										// Replaced by another unit since the read
+										// 読んだ後に他のユニットが差し替えた
+										String msg = "DealUtil.remove(); failed to remove with dealId : " + dealId;
+										ErrorExceptionUtil.logAndFail(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, msg, completionHandler);
+									}
+								} else {
+									ErrorExceptionUtil.logAndFail(Error.Category.FRAMEWORK, Error.Extent.GLOBAL, Error.Level.ERROR, "Communication failed on SharedData", resRemoveIfPresent.cause(), completionHandler);
+								}
+							});
+						} else {
+							String msg = "DealUtil.remove(); no deal found with dealId : " + dealId;
+							if (ignoreNotExists) {
+								ErrorExceptionUtil.log(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.WARN, msg);
+								completionHandler.handle(Future.succeededFuture());
+							} else {
+								ErrorExceptionUtil.logAndFail(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, msg, completionHandler);
+							}
+						}
+					} else {
+						ErrorExceptionUtil.logAndFail(Error.Category.FRAMEWORK, Error.Extent.GLOBAL, Error.Level.ERROR, "Communication failed on SharedData", resGet.cause(), completionHandler);
+					}
+				});
+			} else {
+				ErrorExceptionUtil.logAndFail(Error.Category.FRAMEWORK, Error.Extent.GLOBAL, Error.Level.ERROR, "Communication failed on SharedData", resMap.cause(), completionHandler);
+			}
+		});
+	}
 
 	////
 
@@ -14,6 +14,7 @@ import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectUtil;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.ReplyFailureUtil;
 import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
 import jp.co.sony.csl.dcoes.apis.main.app.StateHandling;
+import jp.co.sony.csl.dcoes.apis.main.app.gridmaster.BatchNegotiation;
 import jp.co.sony.csl.dcoes.apis.main.app.user.util.Misc;
 import jp.co.sony.csl.dcoes.apis.main.evaluation.scenario.ScenarioEvaluation;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
@@ -204,6 +205,11 @@ public class HouseKeeping extends AbstractVerticle {
 														request.put("efficientGridVoltageV", efficientGridVoltageV);
 													}
 													request.put("dateTime", dateTime);
+													if (BatchNegotiation.enabled() && scenario != null) {
+														// In a batch round the "accept" response is chosen by GridMaster ; tell it how this unit would choose
+														// 一括交渉ラウンドではアクセプトを GridMaster が選ぶ ; 自ユニットの選び方を伝える
+														request.put("acceptSelection", scenario.getJsonObject("acceptSelection"));
+													}
 													// Issue the request
 													// リクエストを発する
 													vertx.eventBus().send(ServiceAddress.Mediator.internalRequest(), request);
@@ -10,7 +10,10 @@ import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 
 import java.time.LocalDateTime;
-import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
 
 import jp.co.sony.csl.dcoes.apis.common.Error;
 import jp.co.sony.csl.dcoes.apis.common.ServiceAddress;
@@ -84,6 +87,8 @@ public class ScenarioKeeping extends AbstractVerticle {
 	private String controlCenterPassword_;
 	private long localFileReadingTimerId_ = 0L;
 	private long controlCenterAccessingTimerId_ = 0L;
+	private TimeSlots localFileTimeSlots_ = null;
+	private TimeSlots controlCenterTimeSlots_ = null;
 	private boolean stopped_ = false;
 
 	/**
@@ -185,35 +190,18 @@ public class ScenarioKeeping extends AbstractVerticle {
 	 */
 	private void startScenarioService_(Handler<AsyncResult<Void>> completionHandler) {
 		vertx.eventBus().<String>localConsumer(ServiceAddress.User.scenario(), req -> {
-			JsonObject globalAcceptSelection = cache().getJsonObject("acceptSelection");
 			LocalDateTime dt = DateTimeUtil.toLocalDateTime(req.body());
 			if (dt != null) {
-				LocalTime t = dt.toLocalTime();
-				String hhmmss = DateTimeUtil.toString(t);
-				JsonObject jsonObject = cache().jsonObject();
-				if (jsonObject != null) {
-					for (String aKey : jsonObject.fieldNames()) {
-						// The setting in each time zone is registered with a key in the format "hh.mm.ss-hh.mm.ss"
-						// 時間帯ごとの設定は "時時:分分:秒秒-時時:分分:秒秒" というフォーマットのキーで登録されている
-						String[] fromTo = aKey.split("-", 2);
-						if (fromTo.length == 2) {
-							if (fromTo[0].compareTo(hhmmss) <= 0 && hhmmss.compareTo(fromTo[1]) < 0) {
-								// If greater than or equal to start time and less than end time
-								// "開始時分秒" 以上 "終了時分秒" 未満なら
-								JsonObject result = jsonObject.getJsonObject(aKey);
-								if (!result.containsKey("acceptSelection") && globalAcceptSelection != null) {
-									// If the time zone setting does not have an acceptSelection, copy & paste the global acceptSelection
-									// 時間帯設定が acceptSelection を持っていない場合はグローバルの acceptSelection をコピペする
-									result = result.copy().put("acceptSelection", globalAcceptSelection);
-								}
-								// Return
-								// 返す
-								req.reply(result);
-								return;
-							}
-						}
+				TimeSlots timeSlots = timeSlots_();
+				if (timeSlots != null) {
+					JsonObject result = timeSlots.subset(dt.toLocalTime().toSecondOfDay());
+					if (result != null) {
+						// Return
+						// 返す
+						req.reply(result);
+					} else {
+						ErrorUtil.reportAndFail(vertx, Error.Category.USER, Error.Extent.LOCAL, Error.Level.WARN, "no entry matched for time : " + DateTimeUtil.toString(dt.toLocalTime()), req);
 					}
-					ErrorUtil.reportAndFail(vertx, Error.Category.USER, Error.Extent.LOCAL, Error.Level.WARN, "no entry matched for time : " + hhmmss, req);
 				} else {
 					req.fail(-1, "cache is null");
 				}
@@ -223,6 +211,144 @@ public class ScenarioKeeping extends AbstractVerticle {
 		}).completionHandler(completionHandler);
 	}
 
+	/**
+	 * Get the compiled time slots of the SCENARIO returned by {@link #cache()}.
+	 * @return the compiled time slots. {@code null} if the cache is empty
+	 *          
+	 * {@link #cache()} が返す SCENARIO のコンパイルずみの時間帯を取得する.
+	 * @return コンパイルずみの時間帯. キャッシュが空なら {@code null}
+	 */
+	private TimeSlots timeSlots_() {
+		return (!controlCenterCache_.isNull()) ? controlCenterTimeSlots_ : localFileTimeSlots_;
+	}
+
+	/**
+	 * The time slots of a SCENARIO compiled into a sorted array of intervals over seconds of the day.
+	 * Compiled once each time the SCENARIO is reloaded, so that a query is a binary search without allocation.
+	 * Each interval holds the SCENARIO subset to reply, into which the global {@code acceptSelection} has already been merged.
+	 * Where time slots overlap, the one written first wins.
+	 *          
+	 * 一日の秒数上の整列した区間の配列にコンパイルした SCENARIO の時間帯.
+	 * 問い合わせがアロケーションなしの二分探索になるよう SCENARIO を読み込むたびに一度だけコンパイルする.
+	 * 各区間はグローバルの {@code acceptSelection} をマージずみの返すべき SCENARIO サブセットを持つ.
+	 * 時間帯が重なる場合は先に書かれたものが優先される.
+	 */
+	static class TimeSlots {
+		private final int[] fromSeconds_;
+		private final int[] toSeconds_;
+		private final JsonObject[] subsets_;
+		TimeSlots(JsonObject scenario) {
+			JsonObject globalAcceptSelection = JsonObjectUtil.getJsonObject(scenario, "acceptSelection");
+			List<int[]> fromTos = new ArrayList<>();
+			List<JsonObject> subsets = new ArrayList<>();
+			TreeSet<Integer> boundaries = new TreeSet<>();
+			for (String aKey : scenario.fieldNames()) {
+				// The setting in each time zone is registered with a key in the format "hh.mm.ss-hh.mm.ss"
+				// 時間帯ごとの設定は "時時:分分:秒秒-時時:分分:秒秒" というフォーマットのキーで登録されている
+				String[] fromTo = aKey.split("-", 2);
+				if (fromTo.length == 2) {
+					int from = secondOfDay_(fromTo[0]);
+					int to = secondOfDay_(fromTo[1]);
+					Object value = scenario.getValue(aKey);
+					if (0 <= from && from < to && value instanceof JsonObject) {
+						JsonObject subset = (JsonObject) value;
+						if (!subset.containsKey("acceptSelection") && globalAcceptSelection != null) {
+							// If the time zone setting does not have an acceptSelection, copy & paste the global acceptSelection
+							// 時間帯設定が acceptSelection を持っていない場合はグローバルの acceptSelection をコピペする
+							subset = subset.copy().put("acceptSelection", globalAcceptSelection);
+						}
+						fromTos.add(new int[] { from, to });
+						subsets.add(subset);
+						boundaries.add(from);
+						boundaries.add(to);
+					} else {
+						if (log.isDebugEnabled()) log.debug("ignored : " + aKey);
+					}
+				}
+			}
+			// Split the day at every boundary and give each piece to the first time slot covering it
+			// 一日を全ての境界で分割し各部分をそれを含む最初の時間帯に割り当てる
+			List<Integer> pieceFroms = new ArrayList<>();
+			List<Integer> pieceTos = new ArrayList<>();
+			List<JsonObject> pieceSubsets = new ArrayList<>();
+			Integer from = null;
+			for (Integer to : boundaries) {
+				if (from != null) {
+					for (int i = 0; i < fromTos.size(); i++) {
+						if (fromTos.get(i)[0] <= from && to <= fromTos.get(i)[1]) {
+							int last = pieceSubsets.size() - 1;
+							if (0 <= last && pieceSubsets.get(last) == subsets.get(i) && pieceTos.get(last).equals(from)) {
+								// Join with the previous piece of the same time slot
+								// 同じ時間帯の直前の部分とつなげる
+								pieceTos.set(last, to);
+							} else {
+								pieceFroms.add(from);
+								pieceTos.add(to);
+								pieceSubsets.add(subsets.get(i));
+							}
+							break;
+						}
+					}
+				}
+				from = to;
+			}
+			fromSeconds_ = new int[pieceFroms.size()];
+			toSeconds_ = new int[pieceTos.size()];
+			for (int i = 0; i < fromSeconds_.length; i++) {
+				fromSeconds_[i] = pieceFroms.get(i);
+				toSeconds_[i] = pieceTos.get(i);
+			}
+			subsets_ = pieceSubsets.toArray(new JsonObject[pieceSubsets.size()]);
+		}
+		/**
+		 * Get the SCENARIO subset at a time.
+		 * @param secondOfDay the time in seconds of the day
+		 * @return the SCENARIO subset. {@code null} if not found
+		 *          
+		 * ある時刻の SCENARIO サブセットを取得する.
+		 * @param secondOfDay 一日の秒数で表した時刻
+		 * @return SCENARIO サブセット. 見つからなければ {@code null}
+		 */
+		JsonObject subset(int secondOfDay) {
+			int i = Arrays.binarySearch(fromSeconds_, secondOfDay);
+			// The last interval starting at or before the time
+			// その時刻以前に始まる最後の区間
+			if (i < 0) i = -i - 2;
+			return (0 <= i && secondOfDay < toSeconds_[i]) ? subsets_[i] : null;
+		}
+		/**
+		 * Convert a time in the format "HH:mm:ss" into seconds of the day.
+		 * "24:00:00" is allowed as the end of a day.
+		 * @param hhmmss the time
+		 * @return seconds of the day. {@code -1} if the format is bad
+		 *          
+		 * "HH:mm:ss" フォーマットの時刻を一日の秒数に変換する.
+		 * 一日の終わりとして "24:00:00" を許す.
+		 * @param hhmmss 時刻
+		 * @return 一日の秒数. フォーマットが不正なら {@code -1}
+		 */
+		private static int secondOfDay_(String hhmmss) {
+			String[] hms = hhmmss.split(":", -1);
+			if (hms.length != 3) return -1;
+			try {
+				int h = Integer.parseInt(hms[0]);
+				int m = Integer.parseInt(hms[1]);
+				int sec = Integer.parseInt(hms[2]);
+				if (h < 0 || 24 < h || m < 0 || 59 < m || sec < 0 || 59 < sec) return -1;
+				int result = h * 3600 + m * 60 + sec;
+				return (result <= 24 * 3600) ? result : -1;
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+	}
+	private static TimeSlots compile_(JsonObject scenario) {
+		if (scenario == null) return null;
+		TimeSlots result = new TimeSlots(scenario);
+		if (log.isDebugEnabled()) log.debug("scenario compiled ; intervals : " + result.subsets_.length);
+		return result;
+	}
+
 	////
 
 	/**
@@ -264,6 +390,7 @@ public class ScenarioKeeping extends AbstractVerticle {
 				// Keep in cache
 				// キャッシュしておく
 				localFileCache_.setJsonObject(resRead.result());
+				localFileTimeSlots_ = compile_(resRead.result());
 			} else {
 				// If unable to read
 				// 読み込めなかったら
@@ -340,6 +467,7 @@ public class ScenarioKeeping extends AbstractVerticle {
 				// Keep in cache
 				// キャッシュしておく
 				controlCenterCache_.setJsonObject(resScenario.result().body());
+				controlCenterTimeSlots_ = compile_(resScenario.result().body());
 			} else {
 				ErrorUtil.report(vertx, Error.Category.USER, Error.Extent.LOCAL, Error.Level.WARN, "Communication failed on EventBus", resScenario.cause());
 			}
@@ -0,0 +1,381 @@
+package jp.co.sony.csl.dcoes.apis.main.evaluation.safety;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jp.co.sony.csl.dcoes.apis.common.Deal;
+import jp.co.sony.csl.dcoes.apis.common.Error;
+import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectUtil;
+import jp.co.sony.csl.dcoes.apis.main.util.ErrorExceptionUtil;
+
+/**
+ * A running ledger of the currents committed by interchanges.
+ * Fed only on the GridMaster by the deal executions whenever they write a state transition, so that activation, stop and disposal are reflected without rescanning all interchanges.
+ * Keeps the grid total and the per-branch sums of {@code dealGridCurrentA} of interchanges whose master side must be active, and the units participating in working interchanges.
+ * Transitions written elsewhere are not seen, so the ledger is reconciled against a full recompute every {@code POLICY.safety.dealCurrentLedger.reconciliationCycles} main loop cycles, and is invalidated as soon as it is found not to match the interchanges being judged.
+ * Used only if {@code POLICY.safety.dealCurrentLedger.enabled} is {@code true}.
+ * @author OES Project
+ *          
+ * 融通が確保している電流の累計台帳.
+ * GridMaster 上でのみ融通実行処理が状態遷移を書き込むたびに更新するので全融通を走査しなおさずに起動, 停止, 削除を反映できる.
+ * master 側が起動ずみの融通の {@code dealGridCurrentA} のグリッド合計とブランチごとの合計, および動いている融通に参加しているユニットを保持する.
+ * それ以外で書き込まれた遷移は見えないので {@code POLICY.safety.dealCurrentLedger.reconciliationCycles} メインループ周期ごとに全体の再計算と突き合わせ, 判定対象の融通と一致しないと分かった時点で無効にする.
+ * {@code POLICY.safety.dealCurrentLedger.enabled} が {@code true} の場合のみ使う.
+ * @author OES Project
+ */
+public class DealCurrentLedger {
+	private static final Logger log = LoggerFactory.getLogger(DealCurrentLedger.class);
+
+	/**
+	 * Default number of main loop cycles between reconciliations.
+	 * Value: {@value}.
+	 *          
+	 * 突き合わせの間のメインループ周期数のデフォルト値.
+	 * 値は {@value}.
+	 */
+	private static final Integer DEFAULT_RECONCILIATION_CYCLES = 10;
+	/**
+	 * Difference of a sum regarded as a discrepancy in reconciliation [A].
+	 * Value: {@value}.
+	 *          
+	 * 突き合わせで食い違いとみなす合計の差 [A].
+	 * 値は {@value}.
+	 */
+	private static final float DISCREPANCY_TOLERANCE_A = 0.001F;
+
+	private static final Map<String, Entry_> entries_ = new HashMap<>();
+	private static final Map<String, Integer> dealingUnitCounts_ = new HashMap<>();
+	private static final Set<String> dealIdsWithoutDealGridCurrentA_ = new HashSet<>();
+	private static int numberOfDealingDeals_ = 0;
+	private static float sumOfDealGridCurrentA_ = 0F;
+	private static GridTopology.BranchCurrents branchCurrents_ = null;
+	private static boolean synced_ = false;
+	private static int cyclesSinceReconciliation_ = 0;
+
+	private DealCurrentLedger() { }
+
+	/**
+	 * Find out whether the ledger is enabled.
+	 * @param policy a POLICY object
+	 * @return {@code true} if {@code POLICY.safety.dealCurrentLedger.enabled} is {@code true}
+	 *          
+	 * 台帳が有効か否かを取得する.
+	 * @param policy POLICY オブジェクト
+	 * @return {@code POLICY.safety.dealCurrentLedger.enabled} が {@code true} なら {@code true}
+	 */
+	public static boolean enabled(JsonObject policy) {
+		return JsonObjectUtil.getBoolean(policy, Boolean.FALSE, "safety", "dealCurrentLedger", "enabled");
+	}
+
+	/**
+	 * Reflect a write of a DEAL object.
+	 * @param dealId the ID of the written interchange
+	 * @param deal the written DEAL object. {@code null} if removed
+	 *          
+	 * DEAL オブジェクトの書き込みを反映する.
+	 * @param dealId 書き込んだ融通の ID
+	 * @param deal 書き込んだ DEAL オブジェクト. 削除なら {@code null}
+	 */
+	public static synchronized void update(String dealId, JsonObject deal) {
+		Entry_ old = entries_.remove(dealId);
+		if (old != null) apply_(old, -1);
+		dealIdsWithoutDealGridCurrentA_.remove(dealId);
+		Entry_ entry = (deal != null) ? Entry_.of_(deal) : null;
+		if (entry != null) {
+			entries_.put(dealId, entry);
+			apply_(entry, 1);
+		}
+		if (deal != null && Deal.masterSideUnitMustBeActive(deal) && Deal.dealGridCurrentA(deal) == null) {
+			dealIdsWithoutDealGridCurrentA_.add(dealId);
+		}
+	}
+
+	/**
+	 * Count a main loop cycle and find out whether the ledger should be reconciled.
+	 * Due if the ledger has never been reconciled or {@code POLICY.safety.dealCurrentLedger.reconciliationCycles} (default: {@link #DEFAULT_RECONCILIATION_CYCLES}) cycles have passed.
+	 * @param policy a POLICY object
+	 * @return {@code true} if due
+	 *          
+	 * メインループ周期を数え台帳を突き合わせるべきか否かを取得する.
+	 * 一度も突き合わせていないか {@code POLICY.safety.dealCurrentLedger.reconciliationCycles} ( デフォルト値 {@link #DEFAULT_RECONCILIATION_CYCLES} ) 周期経っていれば突き合わせる.
+	 * @param policy POLICY オブジェクト
+	 * @return 突き合わせるべきなら {@code true}
+	 */
+	public static synchronized boolean reconciliationDue(JsonObject policy) {
+		int cycles = JsonObjectUtil.getInteger(policy, DEFAULT_RECONCILIATION_CYCLES, "safety", "dealCurrentLedger", "reconciliationCycles");
+		return !synced_ || cycles <= ++cyclesSinceReconciliation_;
+	}
+
+	/**
+	 * Reconcile the ledger against a full recompute from all DEAL objects.
+	 * Discrepancies are logged and the ledger is replaced by the recomputed values.
+	 * @param deals all DEAL objects
+	 *          
+	 * 台帳を全 DEAL オブジェクトからの再計算と突き合わせる.
+	 * 食い違いがあればログを出し台帳を再計算した値で置き換える.
+	 * @param deals 全 DEAL オブジェクト
+	 */
+	public static synchronized void reconcile(List<JsonObject> deals) {
+		Map<String, Entry_> entries = new HashMap<>();
+		for (JsonObject aDeal : deals) {
+			String aDealId = Deal.dealId(aDeal);
+			Entry_ anEntry = Entry_.of_(aDeal);
+			if (aDealId != null && anEntry != null) entries.put(aDealId, anEntry);
+		}
+		Set<String> dealIdsWithoutDealGridCurrentA = new HashSet<>();
+		for (JsonObject aDeal : deals) {
+			if (Deal.masterSideUnitMustBeActive(aDeal) && Deal.dealGridCurrentA(aDeal) == null) dealIdsWithoutDealGridCurrentA.add(Deal.dealId(aDeal));
+		}
+		if (synced_) {
+			float sum = 0F;
+			int dealing = 0;
+			for (Entry_ anEntry : entries.values()) {
+				if (!Float.isNaN(anEntry.dealGridCurrentA_)) sum += anEntry.dealGridCurrentA_;
+				if (anEntry.dealing_) ++dealing;
+			}
+			if (!entries.keySet().equals(entries_.keySet()) || DISCREPANCY_TOLERANCE_A < Math.abs(sum - sumOfDealGridCurrentA_) || dealing != numberOfDealingDeals_) {
+				ErrorExceptionUtil.log(Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.WARN, "deal current ledger discrepancy ; deals : " + entries_.keySet() + " -> " + entries.keySet() + ", sumOfDealGridCurrentA : " + sumOfDealGridCurrentA_ + " -> " + sum + ", numberOfDealingDeals : " + numberOfDealingDeals_ + " -> " + dealing);
+			}
+		}
+		clear_();
+		for (Map.Entry<String, Entry_> anEntry : entries.entrySet()) {
+			entries_.put(anEntry.getKey(), anEntry.getValue());
+			apply_(anEntry.getValue(), 1);
+		}
+		dealIdsWithoutDealGridCurrentA_.addAll(dealIdsWithoutDealGridCurrentA);
+		synced_ = true;
+		cyclesSinceReconciliation_ = 0;
+		if (log.isDebugEnabled()) log.debug("deal current ledger reconciled ; deals : " + entries_.size() + ", sumOfDealGridCurrentA : " + sumOfDealGridCurrentA_);
+	}
+
+	/**
+	 * Discard the ledger.
+	 * The ledger is not used until it is reconciled again.
+	 *          
+	 * 台帳を破棄する.
+	 * 再び突き合わせるまで台帳は使われない.
+	 */
+	public static synchronized void reset() {
+		clear_();
+		synced_ = false;
+		cyclesSinceReconciliation_ = 0;
+	}
+
+	/**
+	 * Mark the ledger as stale.
+	 * The ledger is not used until it is reconciled again, which happens at the next main loop cycle.
+	 *          
+	 * 台帳を古いものとする.
+	 * 次のメインループ周期で再び突き合わせるまで台帳は使われない.
+	 */
+	public static synchronized void invalidate() {
+		synced_ = false;
+	}
+
+	/**
+	 * Find out whether the ledger agrees with a list of interchanges whose master side must be active.
+	 * Every interchange in the list must be in the ledger with the same {@code dealGridCurrentA}, and the ledger must hold no other such interchange.
+	 * @param activeDeals a list of DEAL objects whose master side must be active
+	 * @param excludedDealId the ID of an interchange not to compare. May be {@code null}
+	 * @return {@code true} if they agree
+	 *          
+	 * master 側が起動ずみの融通のリストと台帳が一致するか否かを取得する.
+	 * リストの全融通が同じ {@code dealGridCurrentA} で台帳にあり, 台帳にそれ以外のそのような融通がないこと.
+	 * @param activeDeals master 側が起動ずみの DEAL オブジェクトのリスト
+	 * @param excludedDealId 比較しない融通の ID. {@code null} でもよい
+	 * @return 一致すれば {@code true}
+	 */
+	public static synchronized boolean matches(List<JsonObject> activeDeals, String excludedDealId) {
+		Set<String> dealIds = new HashSet<>();
+		for (JsonObject aDeal : activeDeals) {
+			String aDealId = Deal.dealId(aDeal);
+			if (aDealId == null || aDealId.equals(excludedDealId)) continue;
+			Float dealGridCurrentA = Deal.dealGridCurrentA(aDeal);
+			if (dealGridCurrentA == null) {
+				if (!dealIdsWithoutDealGridCurrentA_.contains(aDealId)) return false;
+			} else {
+				Entry_ anEntry = entries_.get(aDealId);
+				if (anEntry == null || Float.isNaN(anEntry.dealGridCurrentA_) || DISCREPANCY_TOLERANCE_A < Math.abs(anEntry.dealGridCurrentA_ - dealGridCurrentA)) return false;
+			}
+			dealIds.add(aDealId);
+		}
+		int count = 0;
+		for (Map.Entry<String, Entry_> anEntry : entries_.entrySet()) {
+			if (!Float.isNaN(anEntry.getValue().dealGridCurrentA_) && !anEntry.getKey().equals(excludedDealId)) ++count;
+		}
+		for (String aDealId : dealIdsWithoutDealGridCurrentA_) {
+			if (!aDealId.equals(excludedDealId)) ++count;
+		}
+		return count == dealIds.size();
+	}
+
+	/**
+	 * Find out whether the ledger can be used.
+	 * @return {@code true} if reconciled at least once since the last reset
+	 *          
+	 * 台帳を使えるか否かを取得する.
+	 * @return 最後のリセット以降に一度でも突き合わせていれば {@code true}
+	 */
+	public static synchronized boolean isSynced() {
+		return synced_;
+	}
+
+	/**
+	 * Get the sum of {@code dealGridCurrentA} of interchanges whose master side must be active.
+	 * @param excludedDealId the ID of an interchange not to include. May be {@code null}
+	 * @return the sum [A]
+	 *          
+	 * master 側が起動ずみの融通の {@code dealGridCurrentA} の合計を取得する.
+	 * @param excludedDealId 含めない融通の ID. {@code null} でもよい
+	 * @return 合計 [A]
+	 */
+	public static synchronized float sumOfDealGridCurrentA(String excludedDealId) {
+		Entry_ excluded = (excludedDealId != null) ? entries_.get(excludedDealId) : null;
+		return (excluded != null && !Float.isNaN(excluded.dealGridCurrentA_)) ? sumOfDealGridCurrentA_ - excluded.dealGridCurrentA_ : sumOfDealGridCurrentA_;
+	}
+
+	/**
+	 * Get the ID of an interchange whose master side must be active but which has no {@code dealGridCurrentA}.
+	 * @param excludedDealId the ID of an interchange not to include. May be {@code null}
+	 * @return the interchange ID. {@code null} if there is none
+	 *          
+	 * master 側が起動ずみなのに {@code dealGridCurrentA} がない融通の ID を取得する.
+	 * @param excludedDealId 含めない融通の ID. {@code null} でもよい
+	 * @return 融通 ID. なければ {@code null}
+	 */
+	public static synchronized String dealIdWithoutDealGridCurrentA(String excludedDealId) {
+		for (String aDealId : dealIdsWithoutDealGridCurrentA_) {
+			if (!aDealId.equals(excludedDealId)) return aDealId;
+		}
+		return null;
+	}
+
+	/**
+	 * Get a copy of the per-branch sums of {@code dealGridCurrentA} of interchanges whose master side must be active.
+	 * The sums are rebuilt from the ledger entries only when the topology has been recompiled.
+	 * @param topology the compiled topology
+	 * @param excludedDealId the ID of an interchange not to include. May be {@code null}
+	 * @return the per-branch sums. The caller may modify them
+	 *          
+	 * master 側が起動ずみの融通の {@code dealGridCurrentA} のブランチごとの合計のコピーを取得する.
+	 * トポロジがコンパイルしなおされた時だけ台帳のエントリから合計を作りなおす.
+	 * @param topology コンパイルしたトポロジ
+	 * @param excludedDealId 含めない融通の ID. {@code null} でもよい
+	 * @return ブランチごとの合計. 呼び出し側で変更してよい
+	 */
+	public static synchronized GridTopology.BranchCurrents branchCurrents(GridTopology topology, String excludedDealId) {
+		if (branchCurrents_ == null || !branchCurrents_.isFor(topology)) {
+			branchCurrents_ = topology.newBranchCurrents();
+			for (Entry_ anEntry : entries_.values()) {
+				if (!Float.isNaN(anEntry.dealGridCurrentA_)) branchCurrents_.add(anEntry.dischargeUnitId_, anEntry.chargeUnitId_, anEntry.dealGridCurrentA_);
+			}
+		}
+		GridTopology.BranchCurrents result = branchCurrents_.copy();
+		Entry_ excluded = (excludedDealId != null) ? entries_.get(excludedDealId) : null;
+		if (excluded != null && !Float.isNaN(excluded.dealGridCurrentA_)) {
+			result.add(excluded.dischargeUnitId_, excluded.chargeUnitId_, -excluded.dealGridCurrentA_);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the IDs of the units participating in working interchanges.
+	 * Working means {@link Deal#bothSideUnitsMustBeActive(JsonObject)}.
+	 * @return an unmodifiable set of unit IDs
+	 *          
+	 * 動いている融通に参加しているユニットの ID を取得する.
+	 * 動いているとは {@link Deal#bothSideUnitsMustBeActive(JsonObject)} であること.
+	 * @return ユニット ID の変更不可なセット
+	 */
+	public static synchronized Set<String> dealingUnitIds() {
+		return Collections.unmodifiableSet(new HashSet<>(dealingUnitCounts_.keySet()));
+	}
+	/**
+	 * Get the number of working interchanges.
+	 * @return the number of interchanges
+	 *          
+	 * 動いている融通の数を取得する.
+	 * @return 融通の数
+	 */
+	public static synchronized int numberOfDealingDeals() {
+		return numberOfDealingDeals_;
+	}
+
+	////
+
+	private static void clear_() {
+		entries_.clear();
+		dealingUnitCounts_.clear();
+		dealIdsWithoutDealGridCurrentA_.clear();
+		numberOfDealingDeals_ = 0;
+		sumOfDealGridCurrentA_ = 0F;
+		branchCurrents_ = null;
+	}
+
+	private static void apply_(Entry_ entry, int sign) {
+		if (!Float.isNaN(entry.dealGridCurrentA_)) {
+			sumOfDealGridCurrentA_ += sign * entry.dealGridCurrentA_;
+			if (branchCurrents_ != null) branchCurrents_.add(entry.dischargeUnitId_, entry.chargeUnitId_, sign * entry.dealGridCurrentA_);
+		}
+		if (entry.dealing_) {
+			numberOfDealingDeals_ += sign;
+			count_(entry.dischargeUnitId_, sign);
+			count_(entry.chargeUnitId_, sign);
+		}
+	}
+	private static void count_(String unitId, int sign) {
+		int count = dealingUnitCounts_.getOrDefault(unitId, 0) + sign;
+		if (0 < count) {
+			dealingUnitCounts_.put(unitId, count);
+		} else {
+			dealingUnitCounts_.remove(unitId);
+		}
+	}
+
+	/**
+	 * What one interchange contributes to the ledger.
+	 * @author OES Project
+	 *          
+	 * 一つの融通が台帳に寄与する内容.
+	 * @author OES Project
+	 */
+	private static class Entry_ {
+		private final String dischargeUnitId_;
+		private final String chargeUnitId_;
+		private final float dealGridCurrentA_;
+		private final boolean dealing_;
+		private Entry_(String dischargeUnitId, String chargeUnitId, float dealGridCurrentA, boolean dealing) {
+			dischargeUnitId_ = dischargeUnitId;
+			chargeUnitId_ = chargeUnitId;
+			dealGridCurrentA_ = dealGridCurrentA;
+			dealing_ = dealing;
+		}
+		/**
+		 * Create the contribution of a DEAL object.
+		 * @param deal a DEAL object
+		 * @return the contribution. {@code null} if it contributes nothing
+		 *          
+		 * DEAL オブジェクトの寄与を生成する.
+		 * @param deal DEAL オブジェクト
+		 * @return 寄与. 何も寄与しなければ {@code null}
+		 */
+		private static Entry_ of_(JsonObject deal) {
+			String dischargeUnitId = Deal.dischargeUnitId(deal);
+			String chargeUnitId = Deal.chargeUnitId(deal);
+			if (dischargeUnitId == null || chargeUnitId == null) return null;
+			Float dealGridCurrentA = (Deal.masterSideUnitMustBeActive(deal)) ? Deal.dealGridCurrentA(deal) : null;
+			boolean dealing = Deal.bothSideUnitsMustBeActive(deal);
+			if (dealGridCurrentA == null && !dealing) return null;
+			return new Entry_(dischargeUnitId, chargeUnitId, (dealGridCurrentA != null) ? dealGridCurrentA : Float.NaN, dealing);
+		}
+	}
+
+}
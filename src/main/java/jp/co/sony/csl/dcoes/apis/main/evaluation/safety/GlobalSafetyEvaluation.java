@@ -8,7 +8,7 @@ import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -19,6 +19,7 @@ import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectWrapper;
 import jp.co.sony.csl.dcoes.apis.main.app.mediator.util.DealUtil;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorExceptionUtil;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
+import jp.co.sony.csl.dcoes.apis.main.util.UnitDataView;
 
 /**
  * Global safety check processing.
@@ -45,15 +46,17 @@ public class GlobalSafetyEvaluation {
 	 * @param vertx a vertx object
 	 * @param policy a POLICY object
 	 * @param unitData unit data of all units
+	 * @param unitDataView a typed view of {@code unitData}
 	 * @param completionHandler the completion handler
 	 *          
 	 * グローバルな安全性をチェックする.
 	 * @param vertx vertx オブジェクト
 	 * @param policy POLICY オブジェクト
 	 * @param unitData 全ユニットのユニットデータ
+	 * @param unitDataView {@code unitData} の型付きビュー
 	 * @param completionHandler the completion handler
 	 */
-	public static void check(Vertx vertx, JsonObject policy, JsonObject unitData, Handler<AsyncResult<Void>> completionHandler) {
+	public static void check(Vertx vertx, JsonObject policy, JsonObject unitData, UnitDataView unitDataView, Handler<AsyncResult<Void>> completionHandler) {
 		// "failed" is declared in multiple places because the spec says "Local variable failed defined in an enclosing scope must be final or effectively final"
 		// failed があちこちに宣言されているのは「Local variable failed defined in an enclosing scope must be final or effectively final」と怒られるため (汗)
 		if (unitData != null) {
@@ -65,7 +68,7 @@ public class GlobalSafetyEvaluation {
 					failed = true;
 				}
 				boolean failed_ = failed;
-				checkSumOfUnitAndDealCurrent_(vertx, policy, unitData, resCheckSumOfUnitAndDealCurrent -> {
+				checkSumOfUnitAndDealCurrent_(vertx, policy, unitData, unitDataView, resCheckSumOfUnitAndDealCurrent -> {
 					boolean failed__ = failed_;
 					if (resCheckSumOfUnitAndDealCurrent.succeeded()) {
 						// nop
@@ -73,7 +76,7 @@ public class GlobalSafetyEvaluation {
 						failed__ = true;
 					}
 					boolean failed___ = failed__;
-					GridBranchCurrentCapacity.check(vertx, policy, unitData, resCheckGridBranchCurrentCapacity -> {
+					GridBranchCurrentCapacity.check(vertx, policy, unitData, unitDataView, resCheckGridBranchCurrentCapacity -> {
 						boolean failed____ = failed___;
 						if (resCheckGridBranchCurrentCapacity.succeeded()) {
 							// nop
@@ -136,95 +139,133 @@ public class GlobalSafetyEvaluation {
 	 * @param vertx a vertx object
 	 * @param policy a POLICY object
 	 * @param unitData unit data of all units
+	 * @param unitDataView a typed view of {@code unitData}
 	 * @param completionHandler the completion handler
 	 *          
 	 * 融通に参加しているユニットの ig の合計が許容範囲内かチェックする.
 	 * @param vertx vertx オブジェクト
 	 * @param policy POLICY オブジェクト
 	 * @param unitData 全ユニットのユニットデータ
+	 * @param unitDataView {@code unitData} の型付きビュー
 	 * @param completionHandler the completion handler
 	 */
-	private static void checkSumOfUnitAndDealCurrent_(Vertx vertx, JsonObject policy, JsonObject unitData, Handler<AsyncResult<Void>> completionHandler) {
+	private static void checkSumOfUnitAndDealCurrent_(Vertx vertx, JsonObject policy, JsonObject unitData, UnitDataView unitDataView, Handler<AsyncResult<Void>> completionHandler) {
 		Float sumOfDealingUnitGridCurrentAllowancePerUnitA = JsonObjectUtil.getFloat(policy, "safety", "sumOfDealingUnitGridCurrentAllowancePerUnitA");
 		if (sumOfDealingUnitGridCurrentAllowancePerUnitA != null) {
-			// Loop through all interchanges and add up the ig of the units participating in each interchange
-			// 全融通をループし融通参加ユニットの ig を加算する
+			if (DealCurrentLedger.enabled(policy)) {
+				reconcileDealCurrentLedgerIfDue_(vertx, policy, v -> {
+					if (DealCurrentLedger.isSynced()) {
+						// Take the units participating in working interchanges from the running ledger
+						// 動いている融通の参加ユニットは累計台帳から取る
+						checkSumOfDealingUnitGridCurrent_(vertx, unitData, unitDataView, sumOfDealingUnitGridCurrentAllowancePerUnitA, DealCurrentLedger.numberOfDealingDeals(), DealCurrentLedger.dealingUnitIds(), false, completionHandler);
+					} else {
+						checkSumOfUnitAndDealCurrent_scanning_(vertx, unitData, unitDataView, sumOfDealingUnitGridCurrentAllowancePerUnitA, completionHandler);
+					}
+				});
+			} else {
+				checkSumOfUnitAndDealCurrent_scanning_(vertx, unitData, unitDataView, sumOfDealingUnitGridCurrentAllowancePerUnitA, completionHandler);
+			}
+		} else {
+			ErrorUtil.reportAndFail(vertx, Error.Category.USER, Error.Extent.GLOBAL, Error.Level.ERROR, "no sumOfDealingUnitGridCurrentAllowancePerUnitA value in POLICY.safety : " + JsonObjectUtil.getJsonObject(policy, "safety"), completionHandler);
+		}
+	}
+	/**
+	 * Reconcile {@link DealCurrentLedger} against all DEAL objects if it is due.
+	 * The completion handler is always called ; if reading DEAL objects fails the ledger is left as it is.
+	 * @param vertx a vertx object
+	 * @param policy a POLICY object
+	 * @param completionHandler the completion handler
+	 *          
+	 * 期限なら {@link DealCurrentLedger} を全 DEAL オブジェクトと突き合わせる.
+	 * completionHandler は必ず呼ばれる ; DEAL オブジェクトの読み出しに失敗したら台帳はそのまま.
+	 * @param vertx vertx オブジェクト
+	 * @param policy POLICY オブジェクト
+	 * @param completionHandler the completion handler
+	 */
+	private static void reconcileDealCurrentLedgerIfDue_(Vertx vertx, JsonObject policy, Handler<Void> completionHandler) {
+		if (DealCurrentLedger.reconciliationDue(policy)) {
 			DealUtil.all(vertx, resAll -> {
 				if (resAll.succeeded()) {
-					boolean failed = false;
-					int numberOfRunningDeals = 0;
-					float sumOfDealingUnitGridCurrentA = 0;
-					Set<String> dealingUnitIds = new HashSet<>();
-					for (JsonObject aDeal : resAll.result()) {
-						if (Deal.bothSideUnitsMustBeActive(aDeal)) {
-							numberOfRunningDeals++;
-							String dischargeUnitId = Deal.dischargeUnitId(aDeal);
-							String chargeUnitId = Deal.chargeUnitId(aDeal);
-							if (dischargeUnitId == null || chargeUnitId == null) {
-								ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, "no dischargeUnitId and/or chargeUnitId in deal : " + aDeal);
-								failed = true;
-							} else {
-								if (dealingUnitIds.add(dischargeUnitId)) {
-									// If dischargeUnitId is not included in dealingUnitIds (so as not to add multiple times)
-									// ( 複数回加算しないように ) dischargeUnitId が dealingUnitIds に含まれていなければ
-									Float dischargeUnitIg = JsonObjectUtil.getFloat(unitData, dischargeUnitId, "dcdc", "meter", "ig");
-									if (dischargeUnitIg == null) {
-										ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, "no dcdc.meter.ig value in discharging unit data : " + JsonObjectUtil.getJsonObject(unitData, dischargeUnitId));
-										failed = true;
-									} else {
-										sumOfDealingUnitGridCurrentA += dischargeUnitIg;
-									}
-								}
-								if (dealingUnitIds.add(chargeUnitId)) {
-									// If chargeUnitId is not included in dealingUnitIds (so as not to add multiple times)
-									// ( 複数回加算しないように ) chargeUnitId が dealingUnitIds に含まれていなければ
-									Float chargeUnitIg = JsonObjectUtil.getFloat(unitData, chargeUnitId, "dcdc", "meter", "ig");
-									if (chargeUnitIg == null) {
-										ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, "no dcdc.meter.ig value in charging unit data : " + JsonObjectUtil.getJsonObject(unitData, chargeUnitId));
-										failed = true;
-									} else {
-										sumOfDealingUnitGridCurrentA += chargeUnitIg;
-									}
-								}
-							}
-						}
-					}
-					// Multiply the grid current error allowance per unit (POLICY.safety.sumOfDealingUnitGridCurrentAllowancePerUnitA) by the number of units to obtain the allowed value.
-					// ユニットあたりのグリッド電流誤差許容値 ( POLICY.safety.sumOfDealingUnitGridCurrentAllowancePerUnitA ) をユニット数倍し許容値を出す
-					float sumOfDealingUnitGridCurrentAllowanceA = sumOfDealingUnitGridCurrentAllowancePerUnitA * dealingUnitIds.size();
-					// Raise an error if the total ig value exceeds the allowed value
-					// ig 合計値が許容値を超えていたらエラー
-					if (sumOfDealingUnitGridCurrentAllowanceA < Math.abs(sumOfDealingUnitGridCurrentA)) {
-						// If there is only one occurrence, record it in the cache for the time being in order to pass through
-						// 一発だけならスルーするためにひとまずキャッシュに記録する
-						errors.add(Boolean.FALSE, ERROR_SUM_OF_METER_IG_EXCEEDS_ALLOWANCE);
-						String msg = "sum of dcdc.meter.ig of all dealing units : " + sumOfDealingUnitGridCurrentA + " ; exceeds allowance : " + sumOfDealingUnitGridCurrentAllowanceA + " ( number of running deals : " + numberOfRunningDeals + ", number of dealing units : " + dealingUnitIds.size() + " )";
-						if (1 < errors.getJsonArray(ERROR_SUM_OF_METER_IG_EXCEEDS_ALLOWANCE).size()) {
-							// If it is not the first occurrence, raise an error
-							// 一発目じゃないならエラーにする
-							ErrorUtil.report(vertx, Error.Category.HARDWARE, Error.Extent.GLOBAL, Error.Level.ERROR, msg);
-						} else {
-							// First occurrence, so let it pass through
-							// 一発目なのでスルーする
-							ErrorUtil.report(vertx, Error.Category.HARDWARE, Error.Extent.GLOBAL, Error.Level.WARN, msg);
-						}
+					DealCurrentLedger.reconcile(resAll.result());
+				} else {
+					ErrorExceptionUtil.log(Error.Category.FRAMEWORK, Error.Extent.GLOBAL, Error.Level.WARN, "failed to reconcile deal current ledger", resAll.cause());
+				}
+				completionHandler.handle(null);
+			});
+		} else {
+			completionHandler.handle(null);
+		}
+	}
+	private static void checkSumOfUnitAndDealCurrent_scanning_(Vertx vertx, JsonObject unitData, UnitDataView unitDataView, float sumOfDealingUnitGridCurrentAllowancePerUnitA, Handler<AsyncResult<Void>> completionHandler) {
+		// Loop through all working interchanges and collect the units participating in each interchange
+		// 動いている全融通をループし融通参加ユニットを集める
+		DealUtil.active(vertx, resActive -> {
+			if (resActive.succeeded()) {
+				boolean failed = false;
+				int numberOfRunningDeals = 0;
+				Set<String> dealingUnitIds = new LinkedHashSet<>();
+				for (JsonObject aDeal : resActive.result()) {
+					numberOfRunningDeals++;
+					String dischargeUnitId = Deal.dischargeUnitId(aDeal);
+					String chargeUnitId = Deal.chargeUnitId(aDeal);
+					if (dischargeUnitId == null || chargeUnitId == null) {
+						ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, "no dischargeUnitId and/or chargeUnitId in deal : " + aDeal);
 						failed = true;
 					} else {
-						// Not an error, so clear the counter
-						// エラーではないのでカウントクリア
-						errors.remove(ERROR_SUM_OF_METER_IG_EXCEEDS_ALLOWANCE);
+						// A set so as not to add multiple times
+						// 複数回加算しないようにセットにする
+						dealingUnitIds.add(dischargeUnitId);
+						dealingUnitIds.add(chargeUnitId);
 					}
-					if (failed) {
-						completionHandler.handle(Future.failedFuture("global safety evaluation failed"));
-					} else {
-						completionHandler.handle(Future.succeededFuture());
-					}
-				} else {
-					ErrorExceptionUtil.reportIfNeedAndFail(vertx, resAll.cause(), completionHandler);
 				}
-			});
+				checkSumOfDealingUnitGridCurrent_(vertx, unitData, unitDataView, sumOfDealingUnitGridCurrentAllowancePerUnitA, numberOfRunningDeals, dealingUnitIds, failed, completionHandler);
+			} else {
+				ErrorExceptionUtil.reportIfNeedAndFail(vertx, resActive.cause(), completionHandler);
+			}
+		});
+	}
+	private static void checkSumOfDealingUnitGridCurrent_(Vertx vertx, JsonObject unitData, UnitDataView unitDataView, float sumOfDealingUnitGridCurrentAllowancePerUnitA, int numberOfRunningDeals, Set<String> dealingUnitIds, boolean failed, Handler<AsyncResult<Void>> completionHandler) {
+		// Add up the ig of the units participating in interchanges
+		// 融通参加ユニットの ig を加算する
+		float sumOfDealingUnitGridCurrentA = 0;
+		for (String aUnitId : dealingUnitIds) {
+			float ig = unitDataView.ig(aUnitId);
+			if (Float.isNaN(ig)) {
+				ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, "no dcdc.meter.ig value in dealing unit data : " + JsonObjectUtil.getJsonObject(unitData, aUnitId));
+				failed = true;
+			} else {
+				sumOfDealingUnitGridCurrentA += ig;
+			}
+		}
+		// Multiply the grid current error allowance per unit (POLICY.safety.sumOfDealingUnitGridCurrentAllowancePerUnitA) by the number of units to obtain the allowed value.
+		// ユニットあたりのグリッド電流誤差許容値 ( POLICY.safety.sumOfDealingUnitGridCurrentAllowancePerUnitA ) をユニット数倍し許容値を出す
+		float sumOfDealingUnitGridCurrentAllowanceA = sumOfDealingUnitGridCurrentAllowancePerUnitA * dealingUnitIds.size();
+		// Raise an error if the total ig value exceeds the allowed value
+		// ig 合計値が許容値を超えていたらエラー
+		if (sumOfDealingUnitGridCurrentAllowanceA < Math.abs(sumOfDealingUnitGridCurrentA)) {
+			// If there is only one occurrence, record it in the cache for the time being in order to pass through
+			// 一発だけならスルーするためにひとまずキャッシュに記録する
+			errors.add(Boolean.FALSE, ERROR_SUM_OF_METER_IG_EXCEEDS_ALLOWANCE);
+			String msg = "sum of dcdc.meter.ig of all dealing units : " + sumOfDealingUnitGridCurrentA + " ; exceeds allowance : " + sumOfDealingUnitGridCurrentAllowanceA + " ( number of running deals : " + numberOfRunningDeals + ", number of dealing units : " + dealingUnitIds.size() + " )";
+			if (1 < errors.getJsonArray(ERROR_SUM_OF_METER_IG_EXCEEDS_ALLOWANCE).size()) {
+				// If it is not the first occurrence, raise an error
+				// 一発目じゃないならエラーにする
+				ErrorUtil.report(vertx, Error.Category.HARDWARE, Error.Extent.GLOBAL, Error.Level.ERROR, msg);
+			} else {
+				// First occurrence, so let it pass through
+				// 一発目なのでスルーする
+				ErrorUtil.report(vertx, Error.Category.HARDWARE, Error.Extent.GLOBAL, Error.Level.WARN, msg);
+			}
+			failed = true;
 		} else {
-			ErrorUtil.reportAndFail(vertx, Error.Category.USER, Error.Extent.GLOBAL, Error.Level.ERROR, "no sumOfDealingUnitGridCurrentAllowancePerUnitA value in POLICY.safety : " + JsonObjectUtil.getJsonObject(policy, "safety"), completionHandler);
+			// Not an error, so clear the counter
+			// エラーではないのでカウントクリア
+			errors.remove(ERROR_SUM_OF_METER_IG_EXCEEDS_ALLOWANCE);
+		}
+		if (failed) {
+			completionHandler.handle(Future.failedFuture("global safety evaluation failed"));
+		} else {
+			completionHandler.handle(Future.succeededFuture());
 		}
 	}
 
@@ -15,6 +15,7 @@ import jp.co.sony.csl.dcoes.apis.common.Deal;
 import jp.co.sony.csl.dcoes.apis.common.Error;
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectUtil;
 import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
+import jp.co.sony.csl.dcoes.apis.main.util.UnitDataView;
 
 /**
  * Judge whether or not an interchange is possible based on grid currents, and perform safety checks.
@@ -37,6 +38,7 @@ public class GridBranchCurrentCapacity {
 	 * @param vertx a vertx object
 	 * @param policy a POLICY object
 	 * @param unitData unit data of all units
+	 * @param unitDataView a typed view of {@code unitData}
 	 * @param completionHandler the completion handler
 	 *          
 	 * グリッド電流容量の安全性をチェックする.
@@ -44,11 +46,12 @@ public class GridBranchCurrentCapacity {
 	 * @param vertx vertx オブジェクト
 	 * @param policy POLICY オブジェクト
 	 * @param unitData 全ユニットのユニットデータ
+	 * @param unitDataView {@code unitData} の型付きビュー
 	 * @param completionHandler the completion handler
 	 */
-	public static void check(Vertx vertx, JsonObject policy, JsonObject unitData, Handler<AsyncResult<Void>> completionHandler) {
+	public static void check(Vertx vertx, JsonObject policy, JsonObject unitData, UnitDataView unitDataView, Handler<AsyncResult<Void>> completionHandler) {
 		if (JsonObjectUtil.getBoolean(policy, Boolean.FALSE, "safety", "gridTopologyBasedEvaluation", "enabled")) {
-			check_topologyBased_(vertx, policy, unitData, completionHandler);
+			check_topologyBased_(vertx, policy, unitData, unitDataView, completionHandler);
 		} else {
 			// If not using topology functions (POLICY.safety.gridTopologyBasedEvaluation.enabled == false), do nothing
 			// トポロジ機能を使わない ( POLICY.safety.gridTopologyBasedEvaluation.enabled == false ) なら何もしない
@@ -60,6 +63,7 @@ public class GridBranchCurrentCapacity {
 	 * @param vertx a vertx object
 	 * @param policy a POLICY object
 	 * @param unitData unit data of all units
+	 * @param unitDataView a typed view of {@code unitData}
 	 * @param completionHandler the completion handler
 	 * TODO: Checks are ended if one deviation is found, but should check everything
 	 *          
@@ -67,27 +71,28 @@ public class GridBranchCurrentCapacity {
 	 * @param vertx vertx オブジェクト
 	 * @param policy POLICY オブジェクト
 	 * @param unitData 全ユニットのユニットデータ
+	 * @param unitDataView {@code unitData} の型付きビュー
 	 * @param completionHandler the completion handler
 	 * TODO : 逸脱が一つ見つかったら終わらせてるが全部チェックすべき
 	 */
-	private static void check_topologyBased_(Vertx vertx, JsonObject policy, JsonObject unitData, Handler<AsyncResult<Void>> completionHandler) {
-		JsonObject config = JsonObjectUtil.getJsonObject(policy, "safety", "gridTopologyBasedEvaluation");
-		List<String> branchIds = JsonObjectUtil.getStringList(config, "branchIds");
-		if (branchIds != null) {
-			for (String aBranchId : branchIds) {
+	private static void check_topologyBased_(Vertx vertx, JsonObject policy, JsonObject unitData, UnitDataView unitDataView, Handler<AsyncResult<Void>> completionHandler) {
+		GridTopology topology = GridTopology.compiled(policy);
+		if (topology.hasBranchIds()) {
+			for (int b = 0; b < topology.numberOfBranches(); b++) {
+				String aBranchId = topology.branchId(b);
 				if (log.isInfoEnabled()) log.info(aBranchId);
-				Float capacity = JsonObjectUtil.getFloat(config, "branchCurrentCapacityA", aBranchId);
+				Float capacity = topology.capacityA(b);
 				// Check only in the forward direction
 				// 順方向だけチェックする
-				List<String> forwardUnitIds = JsonObjectUtil.getStringList(config, "branchAssociation", aBranchId, "forwardUnitIds");
+				List<String> forwardUnitIds = topology.forwardUnitIds(b);
 				if (capacity != null && forwardUnitIds != null) {
 					if (log.isInfoEnabled()) log.info("  currentCapacityA : " + capacity);
 					float sum = 0F;
 					for (String aUnitId : forwardUnitIds) {
 						// Add the unit's ig
 						// ユニットの ig を加算する
-						Float ig = JsonObjectUtil.getFloat(unitData, aUnitId, "dcdc", "meter", "ig");
-						if (ig != null) {
+						float ig = unitDataView.ig(aUnitId);
+						if (!Float.isNaN(ig)) {
 							sum += ig;
 						} else {
 							ErrorUtil.report(vertx, Error.Category.HARDWARE, Error.Extent.GLOBAL, Error.Level.WARN, "no " + aUnitId + ".dcdc.meter.ig");
@@ -110,6 +115,8 @@ public class GridBranchCurrentCapacity {
 
 	/**
 	 * Judge whether or not a new interchange is possible based on the grid current capacity.
+	 * If {@code POLICY.safety.dealCurrentLedger.enabled} is {@code true} and {@link DealCurrentLedger} has been reconciled, the sums of the other interchanges are read from the ledger instead of {@code otherDeals}.
+	 * The ledger is used only while its interchanges match those of {@code otherDeals}; otherwise it is invalidated and {@code otherDeals} are used.
 	 * @param vertx a vertx object
 	 * @param policy a POLICY object
 	 * @param deal a new DEAL object
@@ -117,6 +124,8 @@ public class GridBranchCurrentCapacity {
 	 * @return {@code null} if possible, or the reason for failure otherwise
 	 *          
 	 * グリッド電流容量から新しい融通の可否を判定する.
+	 * {@code POLICY.safety.dealCurrentLedger.enabled} が {@code true} で {@link DealCurrentLedger} が突き合わせずみなら他の融通の合計は {@code otherDeals} ではなく台帳から読む.
+	 * 台帳を使うのは台帳の融通が {@code otherDeals} のものと一致する間だけで, 一致しなければ台帳を無効にして {@code otherDeals} を使う.
 	 * @param vertx vertx オブジェクト
 	 * @param policy POLICY オブジェクト
 	 * @param deal 新しい DEAL オブジェクト
@@ -127,6 +136,15 @@ public class GridBranchCurrentCapacity {
 		// Start by making a list containing only interchanges that are operating
 		// まず動いている融通だけをリストし
 		List<JsonObject> activeDeals = activeDeals_(otherDeals);
+		if (DealCurrentLedger.enabled(policy) && DealCurrentLedger.isSynced()) {
+			if (DealCurrentLedger.matches(activeDeals, Deal.dealId(deal))) {
+				return checkNewDeal_withLedger_(vertx, policy, deal);
+			}
+			// The ledger has missed a transition, so judge from otherDeals and have it reconciled
+			// 台帳が遷移を取りこぼしているので otherDeals から判定し突き合わせさせる
+			if (log.isDebugEnabled()) log.debug("deal current ledger does not match otherDeals ; falling back");
+			DealCurrentLedger.invalidate();
+		}
 		// Check the effect of adding the new interchange. If the result is out, then this addition is impossible
 		// それに新しく始める融通を加えてチェックした結果アウトなら不可ということ
 		activeDeals.add(deal);
@@ -136,6 +154,43 @@ public class GridBranchCurrentCapacity {
 			return checkNewDeal_gridTotal_(vertx, policy, activeDeals);
 		}
 	}
+	/**
+	 * Judge the possibility of adding a new interchange by adding its current to the sums kept in {@link DealCurrentLedger}.
+	 * @param vertx a vertx object
+	 * @param policy a POLICY object
+	 * @param deal a new DEAL object
+	 * @return {@code null} if possible, or the reason for failure otherwise
+	 *          
+	 * {@link DealCurrentLedger} が保持する合計に新しい融通の電流を加えて新規融通可否判定を実行する.
+	 * @param vertx vertx オブジェクト
+	 * @param policy POLICY オブジェクト
+	 * @param deal 新しい DEAL オブジェクト
+	 * @return 可なら {@code null}, 不可なら理由
+	 */
+	private static String checkNewDeal_withLedger_(Vertx vertx, JsonObject policy, JsonObject deal) {
+		String dealId = Deal.dealId(deal);
+		Float dealGridCurrentA = Deal.dealGridCurrentA(deal);
+		String dealIdWithoutDealGridCurrentA = DealCurrentLedger.dealIdWithoutDealGridCurrentA(dealId);
+		if (dealGridCurrentA == null || dealIdWithoutDealGridCurrentA != null) {
+			String msg = "no dealGridCurrentA in deal : " + ((dealGridCurrentA == null) ? deal : dealIdWithoutDealGridCurrentA);
+			ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, msg);
+			return msg;
+		}
+		if (JsonObjectUtil.getBoolean(policy, Boolean.FALSE, "safety", "gridTopologyBasedEvaluation", "enabled")) {
+			GridTopology topology = GridTopology.compiled(policy);
+			if (topology.hasBranchIds()) {
+				GridTopology.BranchCurrents currents = DealCurrentLedger.branchCurrents(topology, dealId);
+				currents.add(Deal.dischargeUnitId(deal), Deal.chargeUnitId(deal), dealGridCurrentA);
+				return checkBranchCurrents_(vertx, topology, currents);
+			} else {
+				String msg = "no POLICY.safety.gridTopologyBasedEvaluation.branchIds";
+				ErrorUtil.report(vertx, Error.Category.USER, Error.Extent.GLOBAL, Error.Level.ERROR, msg);
+				return msg;
+			}
+		} else {
+			return checkSumOfDealGridCurrentA_(vertx, policy, DealCurrentLedger.sumOfDealGridCurrentA(dealId) + dealGridCurrentA);
+		}
+	}
 	/**
 	 * Judge the possibility of adding a new interchange by taking the grid topology into consideration.
 	 * @param vertx a vertx object
@@ -150,85 +205,38 @@ public class GridBranchCurrentCapacity {
 	 * @return 可なら {@code true}
 	 */
 	private static String checkNewDeal_topologyBased_(Vertx vertx, JsonObject policy, List<JsonObject> activeDeals) {
-		JsonObject config = JsonObjectUtil.getJsonObject(policy, "safety", "gridTopologyBasedEvaluation");
-		List<String> branchIds = JsonObjectUtil.getStringList(config, "branchIds");
-		if (branchIds != null) {
-			for (String aBranchId : branchIds) {
-				if (log.isInfoEnabled()) log.info(aBranchId);
-				Float capacity = JsonObjectUtil.getFloat(config, "branchCurrentCapacityA", aBranchId);
-				List<String> forwardUnitIds = JsonObjectUtil.getStringList(config, "branchAssociation", aBranchId, "forwardUnitIds");
-				List<String> backwardUnitIds = JsonObjectUtil.getStringList(config, "branchAssociation", aBranchId, "backwardUnitIds");
-				if (capacity != null && forwardUnitIds != null && backwardUnitIds != null) {
-					if (log.isInfoEnabled()) log.info("  currentCapacityA : " + capacity);
-					// Check in the forward direction
-					// 順方向チェック
-					float forwardDischargeSum = 0F;
-					float forwardChargeSum = 0F;
-					for (String aUnitId : forwardUnitIds) {
-						for (JsonObject aDeal : activeDeals) {
-							Float dealGridCurrentA = Deal.dealGridCurrentA(aDeal);
-							if (dealGridCurrentA != null) {
-								// Add the interchange currents separately for the discharge and charging sides
-								// 送電側と受電側とに分けて融通電流を加算する
-								if (Deal.isDischargeUnit(aDeal, aUnitId)) {
-									forwardDischargeSum += dealGridCurrentA;
-								} else if (Deal.isChargeUnit(aDeal, aUnitId)) {
-									forwardChargeSum += dealGridCurrentA;
-								}
-							} else {
-								String msg = "no dealGridCurrentA in deal : " + aDeal;
-								ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, msg);
-								return msg;
-							}
-						}
-					}
-					if (log.isInfoEnabled()) log.info("  forward sum of discharge dealGridCurrentA : " + forwardDischargeSum);
-					if (log.isInfoEnabled()) log.info("  forward sum of charge dealGridCurrentA : " + forwardChargeSum);
-					if (Math.abs(capacity) < Math.abs(forwardDischargeSum)) {
-						return "branch : " + aBranchId + ", forward sum of discharge dealGridCurrentA : " + forwardDischargeSum + ", exceeds capacity : " + capacity;
-					} else if (Math.abs(capacity) < Math.abs(forwardChargeSum)) {
-						return "branch : " + aBranchId + ", forward sum of charge dealGridCurrentA : " + forwardChargeSum + ", exceeds capacity : " + capacity;
-					}
-					// Check in the reverse direction
-					// 逆方向チェック
-					float backwardDischargeSum = 0F;
-					float backwardChargeSum = 0F;
-					for (String aUnitId : backwardUnitIds) {
-						for (JsonObject aDeal : activeDeals) {
-							Float dealGridCurrentA = Deal.dealGridCurrentA(aDeal);
-							if (dealGridCurrentA != null) {
-								// Add the interchange currents separately for the discharge and charging sides
-								// 送電側と受電側とに分けて融通電流を加算する
-								if (Deal.isDischargeUnit(aDeal, aUnitId)) {
-									backwardDischargeSum += dealGridCurrentA;
-								} else if (Deal.isChargeUnit(aDeal, aUnitId)) {
-									backwardChargeSum += dealGridCurrentA;
-								}
-							} else {
-								String msg = "no dealGridCurrentA in deal : " + aDeal;
-								ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, msg);
-								return msg;
-							}
-						}
-					}
-					if (log.isInfoEnabled()) log.info("  backward sum of discharge dealGridCurrentA : " + backwardDischargeSum);
-					if (log.isInfoEnabled()) log.info("  backward sum of charge dealGridCurrentA : " + backwardChargeSum);
-					if (Math.abs(capacity) < Math.abs(backwardDischargeSum)) {
-						return "branch : " + aBranchId + ", backward sum of discharge dealGridCurrentA : " + backwardDischargeSum + ", exceeds capacity : " + capacity;
-					} else if (Math.abs(capacity) < Math.abs(backwardChargeSum)) {
-						return "branch : " + aBranchId + ", backward sum of charge dealGridCurrentA : " + backwardChargeSum + ", exceeds capacity : " + capacity;
-					}
+		GridTopology topology = GridTopology.compiled(policy);
+		if (topology.hasBranchIds()) {
+			// Add the interchange currents to the branches associated with the units on both sides
+			// 両側ユニットが関連付けられたブランチに融通電流を加算する
+			GridTopology.BranchCurrents currents = topology.newBranchCurrents();
+			for (JsonObject aDeal : activeDeals) {
+				Float dealGridCurrentA = Deal.dealGridCurrentA(aDeal);
+				if (dealGridCurrentA != null) {
+					currents.add(Deal.dischargeUnitId(aDeal), Deal.chargeUnitId(aDeal), dealGridCurrentA);
 				} else {
-					String msg = "data deficiency ; POLICY.safety.gridTopologyBasedEvaluation.branchCurrentCapacityA." + aBranchId + " : " + capacity + ", POLICY.safety.gridTopologyBasedEvaluation.branchAssociation." + aBranchId + ".forwardUnitIds : " + forwardUnitIds + ", POLICY.safety.gridTopologyBasedEvaluation.branchAssociation." + aBranchId + ".backwardUnitIds : " + backwardUnitIds;
-					ErrorUtil.report(vertx, Error.Category.USER, Error.Extent.GLOBAL, Error.Level.ERROR, msg);
+					String msg = "no dealGridCurrentA in deal : " + aDeal;
+					ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, msg);
 					return msg;
 				}
 			}
+			return checkBranchCurrents_(vertx, topology, currents);
 		} else {
 			String msg = "no POLICY.safety.gridTopologyBasedEvaluation.branchIds";
 			ErrorUtil.report(vertx, Error.Category.USER, Error.Extent.GLOBAL, Error.Level.ERROR, msg);
 			return msg;
 		}
+	}
+	private static String checkBranchCurrents_(Vertx vertx, GridTopology topology, GridTopology.BranchCurrents currents) {
+		String exceedance = currents.exceedance();
+		if (exceedance != null) {
+			return exceedance;
+		}
+		String deficiency = topology.deficiency();
+		if (deficiency != null) {
+			ErrorUtil.report(vertx, Error.Category.USER, Error.Extent.GLOBAL, Error.Level.ERROR, deficiency);
+			return deficiency;
+		}
 		return null;
 	}
 	/**
@@ -245,20 +253,23 @@ public class GridBranchCurrentCapacity {
 	 * @return 可なら {@code true}
 	 */
 	private static String checkNewDeal_gridTotal_(Vertx vertx, JsonObject policy, List<JsonObject> activeDeals) {
+		float sumOfDealGridCurrentA = 0F;
+		for (JsonObject aDeal : activeDeals) {
+			Float dealGridCurrentA = Deal.dealGridCurrentA(aDeal);
+			if (dealGridCurrentA != null) {
+				sumOfDealGridCurrentA += dealGridCurrentA;
+			} else {
+				String msg = "no dealGridCurrentA in deal : " + aDeal;
+				ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, msg);
+				return msg;
+			}
+		}
+		return checkSumOfDealGridCurrentA_(vertx, policy, sumOfDealGridCurrentA);
+	}
+	private static String checkSumOfDealGridCurrentA_(Vertx vertx, JsonObject policy, float sumOfDealGridCurrentA) {
 		Float sumOfDealGridCurrentMaxA = JsonObjectUtil.getFloat(policy, "safety", "sumOfDealGridCurrentMaxA");
 		if (sumOfDealGridCurrentMaxA != null) {
 			if (log.isInfoEnabled()) log.info("sumOfDealGridCurrentMaxA : " + sumOfDealGridCurrentMaxA);
-			float sumOfDealGridCurrentA = 0F;
-			for (JsonObject aDeal : activeDeals) {
-				Float dealGridCurrentA = Deal.dealGridCurrentA(aDeal);
-				if (dealGridCurrentA != null) {
-					sumOfDealGridCurrentA += dealGridCurrentA;
-				} else {
-					String msg = "no dealGridCurrentA in deal : " + aDeal;
-					ErrorUtil.report(vertx, Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, msg);
-					return msg;
-				}
-			}
 			if (log.isInfoEnabled()) log.info("sumOfDealGridCurrentA : " + sumOfDealGridCurrentA);
 			if (sumOfDealGridCurrentMaxA < sumOfDealGridCurrentA) {
 				return "sum of dealGridCurrentA of all deals : " + sumOfDealGridCurrentA + " ; exceeds limit : " + sumOfDealGridCurrentMaxA;
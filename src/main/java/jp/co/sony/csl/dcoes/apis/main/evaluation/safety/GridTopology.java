@@ -0,0 +1,346 @@
+package jp.co.sony.csl.dcoes.apis.main.evaluation.safety;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectUtil;
+
+/**
+ * A compiled form of {@code POLICY.safety.gridTopologyBasedEvaluation}.
+ * Holds the branch capacities in a primitive array and, for each unit, the branches it is associated with in the forward and backward directions as bitsets.
+ * Adding the current of a deal to per-branch sums is therefore proportional to the number of branches, not to the number of units.
+ * Compiled lazily and rebuilt only when the content of the policy section changes.
+ * @author OES Project
+ *          
+ * {@code POLICY.safety.gridTopologyBasedEvaluation} をコンパイルしたもの.
+ * 各ブランチの容量をプリミティブ配列で, 各ユニットが順方向および逆方向に関連付けられたブランチをビットセットで保持する.
+ * そのため融通電流をブランチごとの合計に加える処理はユニット数ではなくブランチ数に比例する.
+ * 必要になった時にコンパイルし POLICY の該当部分の内容が変わった時だけ作りなおす.
+ * @author OES Project
+ */
+public class GridTopology {
+	private static final Logger log = LoggerFactory.getLogger(GridTopology.class);
+
+	private static GridTopology compiled_ = null;
+
+	private JsonObject source_;
+	private final String[] branchIds_;
+	private final float[] capacityA_;
+	private final List<List<String>> forwardUnitIds_ = new ArrayList<>();
+	private final List<List<String>> backwardUnitIds_ = new ArrayList<>();
+	private final Map<String, Integer> unitIndex_ = new HashMap<>();
+	private final List<BitSet> forwardBranches_ = new ArrayList<>();
+	private final List<BitSet> backwardBranches_ = new ArrayList<>();
+	private final int firstDeficientBranch_;
+
+	/**
+	 * Get the compiled topology of a POLICY.
+	 * The previous result is reused while {@code POLICY.safety.gridTopologyBasedEvaluation} has the same content.
+	 * @param policy a POLICY object
+	 * @return the compiled topology
+	 *          
+	 * POLICY のトポロジのコンパイル結果を取得する.
+	 * {@code POLICY.safety.gridTopologyBasedEvaluation} の内容が同じ間は前回の結果を使い回す.
+	 * @param policy POLICY オブジェクト
+	 * @return コンパイルしたトポロジ
+	 */
+	public static synchronized GridTopology compiled(JsonObject policy) {
+		JsonObject config = JsonObjectUtil.getJsonObject(policy, "safety", "gridTopologyBasedEvaluation");
+		if (compiled_ != null) {
+			if (compiled_.source_ == config) return compiled_;
+			if (config != null && config.equals(compiled_.source_)) {
+				// The POLICY has been reloaded with the same content
+				// 同じ内容で POLICY が読みなおされた
+				compiled_.source_ = config;
+				return compiled_;
+			}
+		}
+		compiled_ = new GridTopology(config);
+		if (log.isInfoEnabled()) log.info("grid topology compiled ; branches : " + compiled_.numberOfBranches() + ", units : " + compiled_.unitIndex_.size());
+		return compiled_;
+	}
+
+	private GridTopology(JsonObject config) {
+		source_ = config;
+		List<String> branchIds = JsonObjectUtil.getStringList(config, "branchIds");
+		if (branchIds != null) {
+			branchIds_ = branchIds.toArray(new String[branchIds.size()]);
+			capacityA_ = new float[branchIds_.length];
+			for (int b = 0; b < branchIds_.length; b++) {
+				Float capacity = JsonObjectUtil.getFloat(config, "branchCurrentCapacityA", branchIds_[b]);
+				capacityA_[b] = (capacity != null) ? capacity : Float.NaN;
+				List<String> forwardUnitIds = JsonObjectUtil.getStringList(config, "branchAssociation", branchIds_[b], "forwardUnitIds");
+				List<String> backwardUnitIds = JsonObjectUtil.getStringList(config, "branchAssociation", branchIds_[b], "backwardUnitIds");
+				forwardUnitIds_.add(forwardUnitIds);
+				backwardUnitIds_.add(backwardUnitIds);
+				if (forwardUnitIds != null) {
+					for (String aUnitId : forwardUnitIds) {
+						forwardBranches_.get(unitIndex_(aUnitId)).set(b);
+					}
+				}
+				if (backwardUnitIds != null) {
+					for (String aUnitId : backwardUnitIds) {
+						backwardBranches_.get(unitIndex_(aUnitId)).set(b);
+					}
+				}
+			}
+		} else {
+			branchIds_ = null;
+			capacityA_ = new float[0];
+		}
+		int firstDeficientBranch = capacityA_.length;
+		for (int b = 0; b < capacityA_.length; b++) {
+			if (Float.isNaN(capacityA_[b]) || forwardUnitIds_.get(b) == null || backwardUnitIds_.get(b) == null) {
+				firstDeficientBranch = b;
+				break;
+			}
+		}
+		firstDeficientBranch_ = firstDeficientBranch;
+	}
+	private int unitIndex_(String unitId) {
+		Integer result = unitIndex_.get(unitId);
+		if (result == null) {
+			result = unitIndex_.size();
+			unitIndex_.put(unitId, result);
+			forwardBranches_.add(new BitSet());
+			backwardBranches_.add(new BitSet());
+		}
+		return result;
+	}
+
+	/**
+	 * Find out whether {@code branchIds} is defined.
+	 * @return {@code true} if defined
+	 *          
+	 * {@code branchIds} が定義されているか否かを取得する.
+	 * @return 定義されていれば {@code true}
+	 */
+	public boolean hasBranchIds() {
+		return branchIds_ != null;
+	}
+	/**
+	 * Get the number of branches.
+	 * @return the number of branches
+	 *          
+	 * ブランチ数を取得する.
+	 * @return ブランチ数
+	 */
+	public int numberOfBranches() {
+		return capacityA_.length;
+	}
+	/**
+	 * Get the ID of a branch.
+	 * @param branch the branch index
+	 * @return the branch ID
+	 *          
+	 * ブランチの ID を取得する.
+	 * @param branch ブランチのインデクス
+	 * @return ブランチ ID
+	 */
+	public String branchId(int branch) {
+		return branchIds_[branch];
+	}
+	/**
+	 * Get the current capacity of a branch.
+	 * @param branch the branch index
+	 * @return the capacity [A]. {@code null} if not defined
+	 *          
+	 * ブランチの電流容量を取得する.
+	 * @param branch ブランチのインデクス
+	 * @return 容量 [A]. 定義されていなければ {@code null}
+	 */
+	public Float capacityA(int branch) {
+		return (Float.isNaN(capacityA_[branch])) ? null : capacityA_[branch];
+	}
+	/**
+	 * Get the IDs of the units associated with a branch in the forward direction.
+	 * @param branch the branch index
+	 * @return the list of unit IDs. {@code null} if not defined
+	 *          
+	 * ブランチに順方向で関連付けられたユニットの ID を取得する.
+	 * @param branch ブランチのインデクス
+	 * @return ユニット ID のリスト. 定義されていなければ {@code null}
+	 */
+	public List<String> forwardUnitIds(int branch) {
+		return forwardUnitIds_.get(branch);
+	}
+	/**
+	 * Get the IDs of the units associated with a branch in the backward direction.
+	 * @param branch the branch index
+	 * @return the list of unit IDs. {@code null} if not defined
+	 *          
+	 * ブランチに逆方向で関連付けられたユニットの ID を取得する.
+	 * @param branch ブランチのインデクス
+	 * @return ユニット ID のリスト. 定義されていなければ {@code null}
+	 */
+	public List<String> backwardUnitIds(int branch) {
+		return backwardUnitIds_.get(branch);
+	}
+
+	/**
+	 * Get the description of the first branch whose definition is deficient.
+	 * A branch is deficient if its capacity, {@code forwardUnitIds} or {@code backwardUnitIds} is not defined.
+	 * @return the description. {@code null} if there is none
+	 *          
+	 * 定義が不足している最初のブランチの説明を取得する.
+	 * 容量, {@code forwardUnitIds}, {@code backwardUnitIds} のいずれかが定義されていないブランチは不足している.
+	 * @return 説明. なければ {@code null}
+	 */
+	public String deficiency() {
+		if (numberOfBranches() <= firstDeficientBranch_) return null;
+		int b = firstDeficientBranch_;
+		String aBranchId = branchIds_[b];
+		return "data deficiency ; POLICY.safety.gridTopologyBasedEvaluation.branchCurrentCapacityA." + aBranchId + " : " + capacityA(b) + ", POLICY.safety.gridTopologyBasedEvaluation.branchAssociation." + aBranchId + ".forwardUnitIds : " + forwardUnitIds(b) + ", POLICY.safety.gridTopologyBasedEvaluation.branchAssociation." + aBranchId + ".backwardUnitIds : " + backwardUnitIds(b);
+	}
+
+	/**
+	 * Create an empty set of per-branch sums of deal currents for this topology.
+	 * @return a new {@link BranchCurrents} object
+	 *          
+	 * このトポロジ用のブランチごとの融通電流合計を空で生成する.
+	 * @return 新しい {@link BranchCurrents} オブジェクト
+	 */
+	public BranchCurrents newBranchCurrents() {
+		return new BranchCurrents(this);
+	}
+
+	////
+
+	/**
+	 * Per-branch sums of deal currents, split by direction and by discharging and charging side.
+	 * @author OES Project
+	 *          
+	 * ブランチごとの融通電流の合計. 方向と送電側受電側とで分けて持つ.
+	 * @author OES Project
+	 */
+	public static class BranchCurrents {
+		private final GridTopology topology_;
+		private final float[] forwardDischargeA_;
+		private final float[] forwardChargeA_;
+		private final float[] backwardDischargeA_;
+		private final float[] backwardChargeA_;
+		private BranchCurrents(GridTopology topology) {
+			topology_ = topology;
+			int n = topology.numberOfBranches();
+			forwardDischargeA_ = new float[n];
+			forwardChargeA_ = new float[n];
+			backwardDischargeA_ = new float[n];
+			backwardChargeA_ = new float[n];
+		}
+
+		/**
+		 * Create a copy of this object.
+		 * @return the copy
+		 *          
+		 * このオブジェクトのコピーを生成する.
+		 * @return コピー
+		 */
+		public BranchCurrents copy() {
+			BranchCurrents result = new BranchCurrents(topology_);
+			System.arraycopy(forwardDischargeA_, 0, result.forwardDischargeA_, 0, forwardDischargeA_.length);
+			System.arraycopy(forwardChargeA_, 0, result.forwardChargeA_, 0, forwardChargeA_.length);
+			System.arraycopy(backwardDischargeA_, 0, result.backwardDischargeA_, 0, backwardDischargeA_.length);
+			System.arraycopy(backwardChargeA_, 0, result.backwardChargeA_, 0, backwardChargeA_.length);
+			return result;
+		}
+		/**
+		 * Find out whether this object is for a topology.
+		 * @param topology the topology
+		 * @return {@code true} if this object was created for {@code topology}
+		 *          
+		 * このオブジェクトがトポロジ用か否かを取得する.
+		 * @param topology トポロジ
+		 * @return {@code topology} 用に生成されたものなら {@code true}
+		 */
+		public boolean isFor(GridTopology topology) {
+			return topology_ == topology;
+		}
+
+		/**
+		 * Add the current of a deal to the branches its units are associated with.
+		 * Use a negative current to remove a deal.
+		 * @param dischargeUnitId the ID of the discharging unit
+		 * @param chargeUnitId the ID of the charging unit
+		 * @param dealGridCurrentA the deal current [A]
+		 *          
+		 * 融通の電流を参加ユニットが関連付けられたブランチに加える.
+		 * 融通を取り除くには負の電流を渡す.
+		 * @param dischargeUnitId 送電側ユニットの ID
+		 * @param chargeUnitId 受電側ユニットの ID
+		 * @param dealGridCurrentA 融通電流 [A]
+		 */
+		public void add(String dischargeUnitId, String chargeUnitId, float dealGridCurrentA) {
+			Integer discharge = topology_.unitIndex_.get(dischargeUnitId);
+			if (discharge != null) {
+				add_(topology_.forwardBranches_.get(discharge), forwardDischargeA_, dealGridCurrentA);
+				add_(topology_.backwardBranches_.get(discharge), backwardDischargeA_, dealGridCurrentA);
+			}
+			Integer charge = topology_.unitIndex_.get(chargeUnitId);
+			if (charge != null) {
+				add_(topology_.forwardBranches_.get(charge), forwardChargeA_, dealGridCurrentA);
+				add_(topology_.backwardBranches_.get(charge), backwardChargeA_, dealGridCurrentA);
+			}
+		}
+		private static void add_(BitSet branches, float[] sums, float value) {
+			for (int b = branches.nextSetBit(0); 0 <= b; b = branches.nextSetBit(b + 1)) {
+				sums[b] += value;
+			}
+		}
+
+		/**
+		 * Find the first branch whose capacity is exceeded.
+		 * Branches are checked in the order of {@code branchIds}, forward before backward and discharging side before charging side.
+		 * Checking stops at the first deficient branch ; see {@link GridTopology#deficiency()}.
+		 * @return {@code null} if within capacity, or the reason otherwise
+		 *          
+		 * 容量を超えている最初のブランチを探す.
+		 * {@code branchIds} の順に, 順方向から逆方向, 送電側から受電側の順でチェックする.
+		 * 定義が不足している最初のブランチでチェックを止める ; {@link GridTopology#deficiency()} を参照.
+		 * @return 容量内なら {@code null}, そうでなければ理由
+		 */
+		public String exceedance() {
+			for (int b = 0; b < topology_.firstDeficientBranch_; b++) {
+				String aBranchId = topology_.branchIds_[b];
+				float capacity = topology_.capacityA_[b];
+				if (log.isInfoEnabled()) log.info(aBranchId + " ; currentCapacityA : " + capacity + ", forward sum of discharge/charge dealGridCurrentA : " + forwardDischargeA_[b] + "/" + forwardChargeA_[b] + ", backward sum of discharge/charge dealGridCurrentA : " + backwardDischargeA_[b] + "/" + backwardChargeA_[b]);
+				float limit = Math.abs(capacity);
+				if (limit < Math.abs(forwardDischargeA_[b])) {
+					return "branch : " + aBranchId + ", forward sum of discharge dealGridCurrentA : " + forwardDischargeA_[b] + ", exceeds capacity : " + capacity;
+				} else if (limit < Math.abs(forwardChargeA_[b])) {
+					return "branch : " + aBranchId + ", forward sum of charge dealGridCurrentA : " + forwardChargeA_[b] + ", exceeds capacity : " + capacity;
+				} else if (limit < Math.abs(backwardDischargeA_[b])) {
+					return "branch : " + aBranchId + ", backward sum of discharge dealGridCurrentA : " + backwardDischargeA_[b] + ", exceeds capacity : " + capacity;
+				} else if (limit < Math.abs(backwardChargeA_[b])) {
+					return "branch : " + aBranchId + ", backward sum of charge dealGridCurrentA : " + backwardChargeA_[b] + ", exceeds capacity : " + capacity;
+				}
+			}
+			return null;
+		}
+		/**
+		 * Find out whether every branch is within capacity, without logging.
+		 * Branches are checked in the same way as {@link #exceedance()}.
+		 * @return {@code true} if within capacity
+		 *          
+		 * 全ブランチが容量内か否かをログを出さずに取得する.
+		 * {@link #exceedance()} と同じ方法でチェックする.
+		 * @return 容量内なら {@code true}
+		 */
+		public boolean isWithinCapacity() {
+			for (int b = 0; b < topology_.firstDeficientBranch_; b++) {
+				float limit = Math.abs(topology_.capacityA_[b]);
+				if (limit < Math.abs(forwardDischargeA_[b]) || limit < Math.abs(forwardChargeA_[b]) || limit < Math.abs(backwardDischargeA_[b]) || limit < Math.abs(backwardChargeA_[b])) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+}
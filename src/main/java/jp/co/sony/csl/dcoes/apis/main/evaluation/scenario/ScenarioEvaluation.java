@@ -6,6 +6,7 @@ import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
 
 import java.util.List;
+import java.util.Map;
 
 import jp.co.sony.csl.dcoes.apis.main.evaluation.scenario.impl.SimpleScenarioEvaluationImpl;
 
@@ -90,6 +91,32 @@ public class ScenarioEvaluation {
 		 * @param completionHandler the completion handler
 		 */
 		void chooseAccept(Vertx vertx, JsonObject scenario, JsonObject unitData, JsonObject request, List<JsonObject> accepts, Handler<AsyncResult<JsonObject>> completionHandler);
+		/**
+		 * Match many interchange requests of various units with the "accept" responses returned to them, all at once.
+		 * Each request holds {@code "negotiationId"}, {@code "unitId"} and optionally {@code "acceptSelection"} of the requesting unit.
+		 * Units do not take part in more interchanges than their free interchange interlocks, and the grid current capacity is respected.
+		 * Receive the matched "accept" response by negotiation ID with the {@link AsyncResult#result()} method of completionHandler.
+		 * @param vertx a vertx object
+		 * @param policy a POLICY object
+		 * @param requests interchange requests
+		 * @param acceptsByNegotiationId "accept" responses for each request by negotiation ID
+		 * @param freeInterlocks number of free interchange interlocks by unit ID. Units not included are not restricted
+		 * @param otherDeals existing DEAL objects
+		 * @param completionHandler the completion handler
+		 *          
+		 * 様々なユニットの多数の融通リクエストとそれらに返されたアクセプト群を一度にマッチさせる.
+		 * 各リクエストは {@code "negotiationId"}, {@code "unitId"} および任意でリクエスト元ユニットの {@code "acceptSelection"} を持つ.
+		 * ユニットは空き融通インタロック数を超えて融通に参加せず, グリッド電流容量を守る.
+		 * completionHandler の {@link AsyncResult#result()} で融通交渉 ID ごとのマッチしたアクセプトを受け取る.
+		 * @param vertx vertx オブジェクト
+		 * @param policy POLICY オブジェクト
+		 * @param requests 融通リクエスト群
+		 * @param acceptsByNegotiationId 融通交渉 ID ごとの各リクエストに対するアクセプト群
+		 * @param freeInterlocks ユニット ID ごとの空き融通インタロック数. 含まれないユニットは制限しない
+		 * @param otherDeals 既存の DEAL オブジェクト群
+		 * @param completionHandler the completion handler
+		 */
+		void chooseAccepts(Vertx vertx, JsonObject policy, List<JsonObject> requests, Map<String, List<JsonObject>> acceptsByNegotiationId, Map<String, Integer> freeInterlocks, List<JsonObject> otherDeals, Handler<AsyncResult<Map<String, JsonObject>>> completionHandler);
 	}
 
 	private static final Impl instance_ = new SimpleScenarioEvaluationImpl();
@@ -148,5 +175,27 @@ public class ScenarioEvaluation {
 	public static void chooseAccept(Vertx vertx, JsonObject scenario, JsonObject unitData, JsonObject request, List<JsonObject> accepts, Handler<AsyncResult<JsonObject>> completionHandler) {
 		instance_.chooseAccept(vertx, scenario, unitData, request, accepts, completionHandler);
 	}
+	/**
+	 * Call the {@link Impl#chooseAccepts(Vertx, JsonObject, List, Map, Map, List, Handler)} method of an implementation object.
+	 * @param vertx a vertx object
+	 * @param policy a POLICY object
+	 * @param requests interchange requests
+	 * @param acceptsByNegotiationId "accept" responses for each request by negotiation ID
+	 * @param freeInterlocks number of free interchange interlocks by unit ID
+	 * @param otherDeals existing DEAL objects
+	 * @param completionHandler the completion handler
+	 *          
+	 * 実装オブジェクトの {@link Impl#chooseAccepts(Vertx, JsonObject, List, Map, Map, List, Handler)} を呼ぶ.
+	 * @param vertx vertx オブジェクト
+	 * @param policy POLICY オブジェクト
+	 * @param requests 融通リクエスト群
+	 * @param acceptsByNegotiationId 融通交渉 ID ごとの各リクエストに対するアクセプト群
+	 * @param freeInterlocks ユニット ID ごとの空き融通インタロック数
+	 * @param otherDeals 既存の DEAL オブジェクト群
+	 * @param completionHandler the completion handler
+	 */
+	public static void chooseAccepts(Vertx vertx, JsonObject policy, List<JsonObject> requests, Map<String, List<JsonObject>> acceptsByNegotiationId, Map<String, Integer> freeInterlocks, List<JsonObject> otherDeals, Handler<AsyncResult<Map<String, JsonObject>>> completionHandler) {
+		instance_.chooseAccepts(vertx, policy, requests, acceptsByNegotiationId, freeInterlocks, otherDeals, completionHandler);
+	}
 
 }
@@ -0,0 +1,525 @@
+package jp.co.sony.csl.dcoes.apis.main.evaluation.scenario.impl;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jp.co.sony.csl.dcoes.apis.common.Deal;
+import jp.co.sony.csl.dcoes.apis.common.Error;
+import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectUtil;
+import jp.co.sony.csl.dcoes.apis.main.evaluation.safety.GridTopology;
+import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
+
+/**
+ * Match many interchange requests with many "accept" responses at once.
+ * Solved as a min-cost flow in which each request gets at most one "accept" response and each unit takes part in at most as many interchanges as it has free interchange interlocks.
+ * The total interchange amount is maximized ; among equal amounts better prices are preferred for requests with the {@code "pointAndAmount"} strategy.
+ * The flow cannot express a unit taking part on both the requesting and the accepting side, nor the grid current capacity, nor the energy of an accepting unit :
+ * the free interlocks of a unit bound its requesting side and its accepting side separately, not their sum,
+ * and every "accept" response of a unit offers the same surplus or shortage, so the interchanges of a unit on its accepting side must not exceed the largest of its "accept" responses in total.
+ * Exact matching under these limits is not a flow problem, so they are handled by a heuristic that is neither optimal nor exhaustive :
+ * the matched interchanges are checked in descending order of value, those that break the limits are dropped to give a feasible matching,
+ * then the first one that broke them is banned and the flow is solved again, at most {@code POLICY.mediator.batchNegotiation.maxMatchingSolves} (default: {@link #DEFAULT_MAX_SOLVES}) times.
+ * The feasible matching of the largest total value seen is returned.
+ * Takes time proportional to the number of solves times the number of candidates squared, so call it off the event loop.
+ * @author OES Project
+ *          
+ * 多数の融通リクエストと多数のアクセプトを一度にマッチさせる.
+ * 各リクエストに高々一つのアクセプトを割り当て各ユニットは空き融通インタロック数までしか融通に参加しない最小費用流として解く.
+ * 融通電力量の合計を最大化する ; {@code "pointAndAmount"} 方針のリクエストでは同じ電力量ならよいポイントを優先する.
+ * リクエスト側とアクセプト側の両方に参加するユニット, グリッド電流容量およびアクセプト側ユニットの電力量は流れでは表現できない :
+ * ユニットの空き融通インタロックはリクエスト側とアクセプト側をそれぞれ別々に制限し, その合計は制限しない.
+ * また, ユニットのアクセプトはどれも同じ余剰または不足を申し出るので, アクセプト側ユニットの融通の合計はそのアクセプトのうち最大のものを超えてはならない.
+ * これらの制限の下での厳密なマッチングは流れの問題ではないので, 最適でも網羅的でもない発見的手法で扱う :
+ * マッチした融通を価値の大きい順にチェックし制限を破るものを除いて実行可能なマッチングを得て,
+ * 最初に制限を破ったものを禁止して流れを解きなおす. これを高々 {@code POLICY.mediator.batchNegotiation.maxMatchingSolves} ( デフォルト値 {@link #DEFAULT_MAX_SOLVES} ) 回繰り返す.
+ * それまでに得た実行可能なマッチングのうち価値の合計が最大のものを返す.
+ * 解く回数と候補数の二乗の積に比例する時間がかかるのでイベントループの外で呼ぶこと.
+ * @author OES Project
+ */
+public class GlobalAcceptMatching {
+	private static final Logger log = LoggerFactory.getLogger(GlobalAcceptMatching.class);
+
+	/**
+	 * Default maximum number of times the flow is solved.
+	 * Value: {@value}.
+	 *          
+	 * 流れを解く回数の上限のデフォルト値.
+	 * 値は {@value}.
+	 */
+	private static final Integer DEFAULT_MAX_SOLVES = 16;
+
+	private GlobalAcceptMatching() { }
+
+	/**
+	 * Match requests with "accept" responses.
+	 * Each request holds {@code "negotiationId"}, {@code "unitId"} and optionally {@code "acceptSelection"} of the requesting unit.
+	 * @param vertx a vertx object
+	 * @param policy a POLICY object
+	 * @param requests interchange requests
+	 * @param acceptsByNegotiationId "accept" responses for each request by negotiation ID
+	 * @param freeInterlocks number of free interchange interlocks by unit ID. Units not included are not restricted
+	 * @param otherDeals existing DEAL objects whose currents are taken into account
+	 * @return the matched "accept" response by negotiation ID
+	 *          
+	 * リクエストとアクセプトをマッチさせる.
+	 * 各リクエストは {@code "negotiationId"}, {@code "unitId"} および任意でリクエスト元ユニットの {@code "acceptSelection"} を持つ.
+	 * @param vertx vertx オブジェクト
+	 * @param policy POLICY オブジェクト
+	 * @param requests 融通リクエスト群
+	 * @param acceptsByNegotiationId 融通交渉 ID ごとの各リクエストに対するアクセプト群
+	 * @param freeInterlocks ユニット ID ごとの空き融通インタロック数. 含まれないユニットは制限しない
+	 * @param otherDeals 電流を考慮する既存の DEAL オブジェクト群
+	 * @return 融通交渉 ID ごとのマッチしたアクセプト
+	 */
+	public static Map<String, JsonObject> match(Vertx vertx, JsonObject policy, List<JsonObject> requests, Map<String, List<JsonObject>> acceptsByNegotiationId, Map<String, Integer> freeInterlocks, List<JsonObject> otherDeals) {
+		Map<String, JsonObject> result = new HashMap<>();
+		Integer dealAmountMinWh = JsonObjectUtil.getInteger(policy, "mediator", "deal", "amountMinWh");
+		Integer dealAmountMaxWh = JsonObjectUtil.getInteger(policy, "mediator", "deal", "amountMaxWh");
+		Integer dealAmountUnitWh = JsonObjectUtil.getInteger(policy, "mediator", "deal", "amountUnitWh");
+		if (dealAmountMinWh == null || dealAmountMaxWh == null || dealAmountUnitWh == null || dealAmountUnitWh <= 0) {
+			ErrorUtil.report(vertx, Error.Category.USER, Error.Extent.GLOBAL, Error.Level.WARN, "data deficiency; POLICY.mediator.deal.amountMinWh : " + dealAmountMinWh + ", POLICY.mediator.deal.amountMaxWh : " + dealAmountMaxWh + ", POLICY.mediator.deal.amountUnitWh : " + dealAmountUnitWh);
+			return result;
+		}
+		List<Edge_> edges = new ArrayList<>();
+		int maxCandidates = 0;
+		for (int r = 0; r < requests.size(); r++) {
+			JsonObject request = requests.get(r);
+			List<JsonObject> accepts = acceptsByNegotiationId.get(request.getString("negotiationId"));
+			if (accepts != null) {
+				List<Edge_> candidates = candidates_(r, request, accepts, dealAmountMinWh, dealAmountMaxWh, dealAmountUnitWh);
+				edges.addAll(candidates);
+				if (maxCandidates < candidates.size()) maxCandidates = candidates.size();
+			}
+		}
+		if (edges.isEmpty()) return result;
+		// The energy an accepting unit can offer in each direction
+		// アクセプト側ユニットが各方向に申し出られる電力量
+		Map<String, Integer> acceptableWh = new HashMap<>();
+		for (Edge_ anEdge : edges) {
+			acceptableWh.merge(anEdge.acceptKey_, anEdge.accept_.getInteger("amountWh"), Math::max);
+		}
+		// Scale amounts so that the price rank only decides among equal amounts
+		// ポイントの順位が同じ電力量の中でだけ効くように電力量をスケールする
+		long scale = maxCandidates + 1;
+		for (Edge_ anEdge : edges) {
+			anEdge.value_ = anEdge.dealAmountWh_ * scale + ((0 <= anEdge.priceRank_) ? maxCandidates - anEdge.priceRank_ : 0);
+		}
+		for (int e = 0; e < edges.size(); e++) {
+			edges.get(e).index_ = e;
+		}
+		CurrentCapacity_ capacity = CurrentCapacity_.create(policy, otherDeals);
+		int maxSolves = Math.max(1, JsonObjectUtil.getInteger(policy, DEFAULT_MAX_SOLVES, "mediator", "batchNegotiation", "maxMatchingSolves"));
+		boolean[] banned = new boolean[edges.size()];
+		List<Edge_> best = new ArrayList<>();
+		long bestValue = -1L;
+		int solves = 0;
+		while (solves < maxSolves) {
+			++solves;
+			List<Edge_> chosen = solve_(requests.size(), edges, banned, freeInterlocks);
+			chosen.sort((e1, e2) -> Long.compare(e2.value_, e1.value_));
+			List<Edge_> feasible = new ArrayList<>();
+			Edge_ violating = feasible_(chosen, freeInterlocks, acceptableWh, capacity.copy(), feasible);
+			long value = 0L;
+			for (Edge_ anEdge : feasible) value += anEdge.value_;
+			if (bestValue < value) {
+				best = feasible;
+				bestValue = value;
+			}
+			// Nothing broke the limits : solving again cannot do better
+			// 制限を破るものがなかった : 解きなおしてもよくならない
+			if (violating == null) break;
+			if (log.isDebugEnabled()) log.debug("banned : " + violating.requestUnitId_ + " - " + violating.acceptUnitId_);
+			banned[violating.index_] = true;
+		}
+		for (Edge_ anEdge : best) {
+			result.put(requests.get(anEdge.request_).getString("negotiationId"), anEdge.accept_);
+		}
+		if (log.isDebugEnabled()) log.debug("matched " + result.size() + " of " + requests.size() + " requests ; solves : " + solves);
+		return result;
+	}
+
+	////
+
+	/**
+	 * A candidate pair of a request and an "accept" response.
+	 *          
+	 * リクエストとアクセプトの候補の組.
+	 */
+	private static class Edge_ {
+		private final int request_;
+		private final JsonObject accept_;
+		private final String requestUnitId_;
+		private final String acceptUnitId_;
+		private final String dischargeUnitId_;
+		private final String chargeUnitId_;
+		private final String acceptKey_;
+		private final int dealAmountWh_;
+		private final float dealGridCurrentA_;
+		private final Float pointPerWh_;
+		private int priceRank_ = -1;
+		private long value_;
+		private int index_;
+		private int flowEdge_;
+		private Edge_(int request, JsonObject accept, String requestUnitId, String acceptUnitId, boolean charge, int dealAmountWh, float dealGridCurrentA, Float pointPerWh) {
+			request_ = request;
+			accept_ = accept;
+			requestUnitId_ = requestUnitId;
+			acceptUnitId_ = acceptUnitId;
+			dischargeUnitId_ = (charge) ? acceptUnitId : requestUnitId;
+			chargeUnitId_ = (charge) ? requestUnitId : acceptUnitId;
+			acceptKey_ = acceptUnitId + ((charge) ? ".discharge" : ".charge");
+			dealAmountWh_ = dealAmountWh;
+			dealGridCurrentA_ = dealGridCurrentA;
+			pointPerWh_ = pointPerWh;
+		}
+	}
+
+	/**
+	 * List the candidate "accept" responses of a request.
+	 * Filters and amounts follow {@link SimpleScenarioEvaluationImpl#chooseAccept(Vertx, JsonObject, JsonObject, JsonObject, List, io.vertx.core.Handler)} and the creation of an interchange.
+	 * @param r index of the request
+	 * @param request the request
+	 * @param accepts "accept" responses to the request
+	 * @param dealAmountMinWh {@code POLICY.mediator.deal.amountMinWh}
+	 * @param dealAmountMaxWh {@code POLICY.mediator.deal.amountMaxWh}
+	 * @param dealAmountUnitWh {@code POLICY.mediator.deal.amountUnitWh}
+	 * @return the candidates
+	 *          
+	 * リクエストに対するアクセプトの候補を列挙する.
+	 * 絞り込みと電力量は {@link SimpleScenarioEvaluationImpl#chooseAccept(Vertx, JsonObject, JsonObject, JsonObject, List, io.vertx.core.Handler)} および融通の作成に従う.
+	 * @param r リクエストのインデクス
+	 * @param request リクエスト
+	 * @param accepts リクエストに対するアクセプト群
+	 * @param dealAmountMinWh {@code POLICY.mediator.deal.amountMinWh}
+	 * @param dealAmountMaxWh {@code POLICY.mediator.deal.amountMaxWh}
+	 * @param dealAmountUnitWh {@code POLICY.mediator.deal.amountUnitWh}
+	 * @return 候補
+	 */
+	private static List<Edge_> candidates_(int r, JsonObject request, List<JsonObject> accepts, int dealAmountMinWh, int dealAmountMaxWh, int dealAmountUnitWh) {
+		List<Edge_> result = new ArrayList<>();
+		String requestUnitId = request.getString("unitId");
+		String requestType = request.getString("type");
+		Integer requestAmountWh = request.getInteger("amountWh");
+		Float requestDealGridCurrentA = request.getFloat("dealGridCurrentA");
+		if (requestUnitId == null || requestAmountWh == null || requestDealGridCurrentA == null || (!"charge".equals(requestType) && !"discharge".equals(requestType))) {
+			if (log.isWarnEnabled()) log.warn("illegal request : " + request);
+			return result;
+		}
+		boolean charge = "charge".equals(requestType);
+		String strategy = JsonObjectUtil.getString(request, "acceptSelection", "strategy");
+		if (strategy != null && !"amount".equals(strategy) && !"pointAndAmount".equals(strategy)) {
+			if (log.isWarnEnabled()) log.warn("acceptSelection.strategy '" + strategy + "' not supported, use 'amount'");
+		}
+		boolean byPoint = "pointAndAmount".equals(strategy);
+		Float requestPointPerWh = request.getFloat("pointPerWh");
+		if (byPoint && requestPointPerWh == null) {
+			if (log.isWarnEnabled()) log.warn("no pointPerWh in request : " + request);
+			return result;
+		}
+		String requestPairUnitId = request.getString("pairUnitId");
+		for (JsonObject anAccept : accepts) {
+			String acceptUnitId = anAccept.getString("unitId");
+			if (acceptUnitId == null || acceptUnitId.equals(requestUnitId)) continue;
+			// Ignore the pairUnitId specified by the accepting side as the requesting unit does
+			// リクエスト元ユニットと同様アクセプト側が指定する pairUnitId は無視する
+			if (requestPairUnitId != null && !requestPairUnitId.equals(acceptUnitId)) continue;
+			Integer acceptAmountWh = anAccept.getInteger("amountWh");
+			Float acceptDealGridCurrentA = anAccept.getFloat("dealGridCurrentA");
+			if (acceptAmountWh == null || acceptDealGridCurrentA == null || acceptDealGridCurrentA <= 0 || requestDealGridCurrentA <= 0) continue;
+			Float acceptPointPerWh = anAccept.getFloat("pointPerWh");
+			if (byPoint) {
+				// Buy for no more than the price of the request, sell for no less
+				// リクエストのポイント以下で買い, 以上で売る
+				if (acceptPointPerWh == null) continue;
+				if (charge ? requestPointPerWh < acceptPointPerWh : acceptPointPerWh < requestPointPerWh) continue;
+			}
+			int dealAmountWh = (requestAmountWh < acceptAmountWh) ? requestAmountWh : acceptAmountWh;
+			dealAmountWh = (dealAmountMaxWh < dealAmountWh) ? dealAmountMaxWh : dealAmountWh;
+			dealAmountWh = (dealAmountWh / dealAmountUnitWh) * dealAmountUnitWh;
+			if (dealAmountWh < dealAmountMinWh || dealAmountWh <= 0) continue;
+			float dealGridCurrentA = (requestDealGridCurrentA < acceptDealGridCurrentA) ? requestDealGridCurrentA : acceptDealGridCurrentA;
+			result.add(new Edge_(r, anAccept, requestUnitId, acceptUnitId, charge, dealAmountWh, dealGridCurrentA, (byPoint) ? acceptPointPerWh : null));
+		}
+		if (byPoint) {
+			// Rank by price : the cheapest first when buying, the dearest first when selling
+			// ポイントで順位をつける : 買うなら安い順, 売るなら高い順
+			for (Edge_ anEdge : result) {
+				int rank = 0;
+				for (Edge_ another : result) {
+					if (charge ? another.pointPerWh_ < anEdge.pointPerWh_ : anEdge.pointPerWh_ < another.pointPerWh_) rank++;
+				}
+				anEdge.priceRank_ = rank;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Solve the min-cost flow of the requests and the candidates not banned.
+	 * @param numberOfRequests the number of requests
+	 * @param edges the candidates
+	 * @param banned whether each candidate is banned
+	 * @param freeInterlocks number of free interchange interlocks by unit ID
+	 * @return the chosen candidates
+	 *          
+	 * リクエスト群と禁止されていない候補群の最小費用流を解く.
+	 * @param numberOfRequests リクエストの数
+	 * @param edges 候補群
+	 * @param banned 各候補が禁止されているか否か
+	 * @param freeInterlocks ユニット ID ごとの空き融通インタロック数
+	 * @return 選ばれた候補群
+	 */
+	private static List<Edge_> solve_(int numberOfRequests, List<Edge_> edges, boolean[] banned, Map<String, Integer> freeInterlocks) {
+		// Nodes : source, sink, requests, requesting units, accepting units
+		// ノード : 始点, 終点, リクエスト, リクエスト側ユニット, アクセプト側ユニット
+		final int source = 0;
+		final int sink = 1;
+		Map<String, Integer> requestUnitNodes = new HashMap<>();
+		Map<String, Integer> acceptUnitNodes = new HashMap<>();
+		int numberOfNodes = 2 + numberOfRequests;
+		for (Edge_ anEdge : edges) {
+			if (!requestUnitNodes.containsKey(anEdge.requestUnitId_)) requestUnitNodes.put(anEdge.requestUnitId_, numberOfNodes++);
+			if (!acceptUnitNodes.containsKey(anEdge.acceptUnitId_)) acceptUnitNodes.put(anEdge.acceptUnitId_, numberOfNodes++);
+		}
+		Flow_ flow = new Flow_(numberOfNodes);
+		for (Map.Entry<String, Integer> anEntry : requestUnitNodes.entrySet()) {
+			flow.addEdge(source, anEntry.getValue(), capacity_(anEntry.getKey(), freeInterlocks, numberOfRequests), 0L);
+		}
+		for (Map.Entry<String, Integer> anEntry : acceptUnitNodes.entrySet()) {
+			flow.addEdge(anEntry.getValue(), sink, capacity_(anEntry.getKey(), freeInterlocks, numberOfRequests), 0L);
+		}
+		boolean[] connected = new boolean[numberOfRequests];
+		for (int e = 0; e < edges.size(); e++) {
+			if (banned[e]) continue;
+			Edge_ anEdge = edges.get(e);
+			int requestNode = 2 + anEdge.request_;
+			if (!connected[anEdge.request_]) {
+				flow.addEdge(requestUnitNodes.get(anEdge.requestUnitId_), requestNode, 1, 0L);
+				connected[anEdge.request_] = true;
+			}
+			anEdge.flowEdge_ = flow.addEdge(requestNode, acceptUnitNodes.get(anEdge.acceptUnitId_), 1, -anEdge.value_);
+		}
+		flow.run(source, sink);
+		List<Edge_> result = new ArrayList<>();
+		for (int e = 0; e < edges.size(); e++) {
+			if (!banned[e] && flow.isSaturated(edges.get(e).flowEdge_)) {
+				result.add(edges.get(e));
+			}
+		}
+		return result;
+	}
+	private static int capacity_(String unitId, Map<String, Integer> freeInterlocks, int unlimited) {
+		Integer free = freeInterlocks.get(unitId);
+		return (free == null) ? unlimited : Math.max(0, free);
+	}
+
+	/**
+	 * Keep the chosen candidates that stay within the interlock, energy and current limits, in descending order of value.
+	 * @param chosen the chosen candidates in descending order of value
+	 * @param freeInterlocks number of free interchange interlocks by unit ID
+	 * @param acceptableWh the energy an accepting unit can offer by unit ID and direction
+	 * @param capacity the currents of the existing interchanges. Modified
+	 * @param feasible the candidates kept. Modified
+	 * @return the first candidate that broke the limits, or {@code null} if there is none
+	 *          
+	 * 選ばれた候補のうちインタロック, 電力量および電流の制限に収まるものを価値の大きい順に残す.
+	 * @param chosen 価値の大きい順の選ばれた候補群
+	 * @param freeInterlocks ユニット ID ごとの空き融通インタロック数
+	 * @param acceptableWh ユニット ID と方向ごとのアクセプト側ユニットが申し出られる電力量
+	 * @param capacity 既存の融通の電流. 変更される
+	 * @param feasible 残した候補群. 変更される
+	 * @return 制限を破った最初の候補. なければ {@code null}
+	 */
+	private static Edge_ feasible_(List<Edge_> chosen, Map<String, Integer> freeInterlocks, Map<String, Integer> acceptableWh, CurrentCapacity_ capacity, List<Edge_> feasible) {
+		Edge_ result = null;
+		Map<String, Integer> usedInterlocks = new HashMap<>();
+		Map<String, Integer> usedWh = new HashMap<>();
+		for (Edge_ anEdge : chosen) {
+			int requestUnitUsed = usedInterlocks.getOrDefault(anEdge.requestUnitId_, 0) + 1;
+			int acceptUnitUsed = usedInterlocks.getOrDefault(anEdge.acceptUnitId_, 0) + 1;
+			int acceptUnitUsedWh = usedWh.getOrDefault(anEdge.acceptKey_, 0) + anEdge.dealAmountWh_;
+			Integer requestUnitFree = freeInterlocks.get(anEdge.requestUnitId_);
+			Integer acceptUnitFree = freeInterlocks.get(anEdge.acceptUnitId_);
+			if ((requestUnitFree != null && requestUnitFree < requestUnitUsed) || (acceptUnitFree != null && acceptUnitFree < acceptUnitUsed) || acceptableWh.get(anEdge.acceptKey_) < acceptUnitUsedWh || !capacity.add(anEdge.dischargeUnitId_, anEdge.chargeUnitId_, anEdge.dealGridCurrentA_)) {
+				if (result == null) result = anEdge;
+				continue;
+			}
+			usedInterlocks.put(anEdge.requestUnitId_, requestUnitUsed);
+			usedInterlocks.put(anEdge.acceptUnitId_, acceptUnitUsed);
+			usedWh.put(anEdge.acceptKey_, acceptUnitUsedWh);
+			feasible.add(anEdge);
+		}
+		return result;
+	}
+
+	////
+
+	/**
+	 * Currents of interchanges checked against the branch capacities or against {@code POLICY.safety.sumOfDealGridCurrentMaxA}.
+	 * Limits that cannot be evaluated are left to {@link jp.co.sony.csl.dcoes.apis.main.evaluation.safety.GridBranchCurrentCapacity} at the activation of the interchange.
+	 *          
+	 * ブランチ容量または {@code POLICY.safety.sumOfDealGridCurrentMaxA} に対してチェックする融通の電流.
+	 * 評価できない制限は融通起動時の {@link jp.co.sony.csl.dcoes.apis.main.evaluation.safety.GridBranchCurrentCapacity} に任せる.
+	 */
+	private static class CurrentCapacity_ {
+		private final GridTopology.BranchCurrents branchCurrents_;
+		private final Float sumOfDealGridCurrentMaxA_;
+		private float sumOfDealGridCurrentA_;
+		private CurrentCapacity_(GridTopology.BranchCurrents branchCurrents, Float sumOfDealGridCurrentMaxA, float sumOfDealGridCurrentA) {
+			branchCurrents_ = branchCurrents;
+			sumOfDealGridCurrentMaxA_ = sumOfDealGridCurrentMaxA;
+			sumOfDealGridCurrentA_ = sumOfDealGridCurrentA;
+		}
+		private static CurrentCapacity_ create(JsonObject policy, List<JsonObject> otherDeals) {
+			GridTopology.BranchCurrents branchCurrents = null;
+			Float sumOfDealGridCurrentMaxA = null;
+			if (JsonObjectUtil.getBoolean(policy, Boolean.FALSE, "safety", "gridTopologyBasedEvaluation", "enabled")) {
+				GridTopology topology = GridTopology.compiled(policy);
+				if (topology.hasBranchIds()) branchCurrents = topology.newBranchCurrents();
+			} else {
+				sumOfDealGridCurrentMaxA = JsonObjectUtil.getFloat(policy, "safety", "sumOfDealGridCurrentMaxA");
+			}
+			CurrentCapacity_ result = new CurrentCapacity_(branchCurrents, sumOfDealGridCurrentMaxA, 0F);
+			// Count every existing interchange since the ones not yet active will be
+			// まだ動いていない融通もいずれ動くので既存の融通は全て数える
+			for (JsonObject aDeal : otherDeals) {
+				Float dealGridCurrentA = Deal.dealGridCurrentA(aDeal);
+				if (dealGridCurrentA != null) {
+					if (result.branchCurrents_ != null) result.branchCurrents_.add(Deal.dischargeUnitId(aDeal), Deal.chargeUnitId(aDeal), dealGridCurrentA);
+					result.sumOfDealGridCurrentA_ += dealGridCurrentA;
+				}
+			}
+			return result;
+		}
+		private CurrentCapacity_ copy() {
+			return new CurrentCapacity_((branchCurrents_ != null) ? branchCurrents_.copy() : null, sumOfDealGridCurrentMaxA_, sumOfDealGridCurrentA_);
+		}
+		/**
+		 * Add the current of an interchange if it stays within capacity.
+		 * @return {@code true} if added
+		 *          
+		 * 容量内に収まるなら融通の電流を加える.
+		 * @return 加えたら {@code true}
+		 */
+		private boolean add(String dischargeUnitId, String chargeUnitId, float dealGridCurrentA) {
+			if (branchCurrents_ != null) {
+				branchCurrents_.add(dischargeUnitId, chargeUnitId, dealGridCurrentA);
+				if (!branchCurrents_.isWithinCapacity()) {
+					branchCurrents_.add(dischargeUnitId, chargeUnitId, -dealGridCurrentA);
+					return false;
+				}
+			}
+			if (sumOfDealGridCurrentMaxA_ != null) {
+				if (sumOfDealGridCurrentMaxA_ < sumOfDealGridCurrentA_ + dealGridCurrentA) return false;
+				sumOfDealGridCurrentA_ += dealGridCurrentA;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A min-cost flow solved by successive shortest paths.
+	 * Costs may be negative as long as there is no negative cycle ; augmentation stops when no path of negative cost remains.
+	 *          
+	 * 逐次最短路で解く最小費用流.
+	 * 負閉路がなければ費用は負でもよい ; 負の費用の経路がなくなったら増加を止める.
+	 */
+	private static class Flow_ {
+		private final int numberOfNodes_;
+		// Edges are kept in primitive arrays ; the edges of a node form a linked list through next_
+		// 辺はプリミティブ配列で保持する ; ノードの辺は next_ でつながったリストになる
+		private final int[] head_;
+		private int[] next_ = new int[16];
+		private int[] to_ = new int[16];
+		private int[] capacity_ = new int[16];
+		private long[] cost_ = new long[16];
+		private int numberOfEdges_ = 0;
+		private Flow_(int numberOfNodes) {
+			numberOfNodes_ = numberOfNodes;
+			head_ = new int[numberOfNodes];
+			Arrays.fill(head_, -1);
+		}
+		private int addEdge(int from, int to, int capacity, long cost) {
+			if (to_.length < numberOfEdges_ + 2) {
+				int length = to_.length * 2;
+				next_ = Arrays.copyOf(next_, length);
+				to_ = Arrays.copyOf(to_, length);
+				capacity_ = Arrays.copyOf(capacity_, length);
+				cost_ = Arrays.copyOf(cost_, length);
+			}
+			int result = numberOfEdges_;
+			add_(from, to, capacity, cost);
+			// The reverse edge is always at index ^ 1
+			// 逆辺は常に index ^ 1 にある
+			add_(to, from, 0, -cost);
+			return result;
+		}
+		private void add_(int from, int to, int capacity, long cost) {
+			int e = numberOfEdges_++;
+			to_[e] = to;
+			capacity_[e] = capacity;
+			cost_[e] = cost;
+			next_[e] = head_[from];
+			head_[from] = e;
+		}
+		private boolean isSaturated(int edge) {
+			return capacity_[edge] == 0;
+		}
+		private void run(int source, int sink) {
+			long[] dist = new long[numberOfNodes_];
+			int[] prevEdge = new int[numberOfNodes_];
+			boolean[] queued = new boolean[numberOfNodes_];
+			int[] queue = new int[numberOfNodes_ + 1];
+			while (true) {
+				Arrays.fill(dist, Long.MAX_VALUE);
+				Arrays.fill(prevEdge, -1);
+				dist[source] = 0L;
+				// A ring buffer : a node is queued at most once at a time
+				// リングバッファ : ノードは同時には高々一度しかキューに入らない
+				int first = 0;
+				int last = 0;
+				queue[last++] = source;
+				queued[source] = true;
+				while (first != last) {
+					int n = queue[first];
+					first = (first + 1) % queue.length;
+					queued[n] = false;
+					for (int e = head_[n]; e != -1; e = next_[e]) {
+						if (0 < capacity_[e]) {
+							int m = to_[e];
+							long d = dist[n] + cost_[e];
+							if (d < dist[m]) {
+								dist[m] = d;
+								prevEdge[m] = e;
+								if (!queued[m]) {
+									queue[last] = m;
+									last = (last + 1) % queue.length;
+									queued[m] = true;
+								}
+							}
+						}
+					}
+				}
+				if (dist[sink] == Long.MAX_VALUE || 0L <= dist[sink]) return;
+				int amount = Integer.MAX_VALUE;
+				for (int n = sink; n != source; n = to_[prevEdge[n] ^ 1]) {
+					amount = Math.min(amount, capacity_[prevEdge[n]]);
+				}
+				for (int n = sink; n != source; n = to_[prevEdge[n] ^ 1]) {
+					int e = prevEdge[n];
+					capacity_[e] -= amount;
+					capacity_[e ^ 1] += amount;
+				}
+			}
+		}
+	}
+
+}
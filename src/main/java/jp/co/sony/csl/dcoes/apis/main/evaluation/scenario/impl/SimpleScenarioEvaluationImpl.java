@@ -10,6 +10,7 @@ import io.vertx.core.logging.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectUtil;
 import jp.co.sony.csl.dcoes.apis.main.util.ApisConfig;
@@ -307,4 +308,19 @@ public class SimpleScenarioEvaluationImpl extends AbstractScenarioEvaluationImpl
 		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * Solved as a whole by {@link GlobalAcceptMatching} on a worker thread, so as not to block the event loop.
+	 * Rounds are solved one after another in the order they are passed, so that a round is not solved concurrently with another one.
+	 *          
+	 * {@inheritDoc}
+	 * イベントループを止めないようワーカスレッドで {@link GlobalAcceptMatching} により全体として解く.
+	 * ラウンドが他のラウンドと同時に解かれないよう, 渡された順に一つずつ解く.
+	 */
+	@Override public void chooseAccepts(Vertx vertx, JsonObject policy, List<JsonObject> requests, Map<String, List<JsonObject>> acceptsByNegotiationId, Map<String, Integer> freeInterlocks, List<JsonObject> otherDeals, Handler<AsyncResult<Map<String, JsonObject>>> completionHandler) {
+		vertx.<Map<String, JsonObject>>executeBlocking(future -> {
+			future.complete(GlobalAcceptMatching.match(vertx, policy, requests, acceptsByNegotiationId, freeInterlocks, otherDeals));
+		}, true, completionHandler);
+	}
+
 }
@@ -0,0 +1,113 @@
+package jp.co.sony.csl.dcoes.apis.main.util;
+
+import io.vertx.core.VertxOptions;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.spi.VertxMetricsFactory;
+import io.vertx.core.spi.metrics.EventBusMetrics;
+import io.vertx.core.spi.metrics.VertxMetrics;
+
+/**
+ * Vert.x metrics SPI implementation that records {@link EventBusStatistics}.
+ * Registered in {@code META-INF/services/io.vertx.core.spi.VertxMetricsFactory} and used when Vert.x metrics are enabled, e.g. with {@code -Dvertx.metrics.options.enabled=true}.
+ * Only the event bus is instrumented.
+ * The SPI is used rather than an {@link io.vertx.core.eventbus.EventBus#addInterceptor(io.vertx.core.Handler)} interceptor because interceptors only see outgoing messages and so miss replies from other nodes, timeouts and the sizes on the wire.
+ * @author OES Project
+ *          
+ * {@link EventBusStatistics} を記録する Vert.x メトリクス SPI 実装.
+ * {@code META-INF/services/io.vertx.core.spi.VertxMetricsFactory} に登録してあり Vert.x のメトリクスが有効な場合 ( 例えば {@code -Dvertx.metrics.options.enabled=true} ) に使われる.
+ * EventBus のみを計測する.
+ * {@link io.vertx.core.eventbus.EventBus#addInterceptor(io.vertx.core.Handler)} のインタセプタは送信するメッセージしか見えず他ノードからの返信, タイムアウト, 通信上のサイズがわからないため SPI を使う.
+ * @author OES Project
+ */
+public class EventBusMetricsFactory implements VertxMetricsFactory {
+
+	/**
+	 * Create the metrics of a Vert.x instance.
+	 * @param options {@inheritDoc}
+	 * @return {@inheritDoc}
+	 *          
+	 * Vert.x インスタンスのメトリクスを生成する.
+	 * @param options {@inheritDoc}
+	 * @return {@inheritDoc}
+	 */
+	@Override public VertxMetrics metrics(VertxOptions options) {
+		return new VertxMetrics_();
+	}
+
+	////
+
+	private static class VertxMetrics_ implements VertxMetrics {
+		@Override public EventBusMetrics<?> createEventBusMetrics() {
+			EventBusStatistics.setEnabled(true);
+			return new EventBusMetrics_();
+		}
+	}
+
+	/**
+	 * A handler registration.
+	 * For a reply handler, {@code repliedAddress} is the address of the request and {@code registeredNanos} is the time of the request.
+	 *          
+	 * ハンドラの登録.
+	 * 返信ハンドラの場合 {@code repliedAddress} はリクエストのアドレスで {@code registeredNanos} はリクエストの時刻.
+	 */
+	private static class Handler_ {
+		private final String address_;
+		private final String repliedAddress_;
+		private final long registeredNanos_;
+		private long beginNanos_ = 0L;
+		private Handler_(String address, String repliedAddress) {
+			address_ = address;
+			repliedAddress_ = repliedAddress;
+			registeredNanos_ = System.nanoTime();
+		}
+	}
+
+	private static class EventBusMetrics_ implements EventBusMetrics<Handler_> {
+		@Override public Handler_ handlerRegistered(String address, String repliedAddress) {
+			return new Handler_(address, repliedAddress);
+		}
+		@Override public void beginHandleMessage(Handler_ handler, boolean local) {
+			if (handler == null) return;
+			if (handler.repliedAddress_ != null) {
+				if (!EventBusStatistics.isReplyAddress(handler.repliedAddress_)) {
+					EventBusStatistics.address(handler.repliedAddress_).replyLatency.recordNanos(System.nanoTime() - handler.registeredNanos_);
+				}
+			} else {
+				handler.beginNanos_ = System.nanoTime();
+			}
+		}
+		@Override public void endHandleMessage(Handler_ handler, Throwable failure) {
+			if (handler == null || handler.repliedAddress_ != null || handler.beginNanos_ == 0L) return;
+			if (!EventBusStatistics.isReplyAddress(handler.address_)) {
+				EventBusStatistics.address(handler.address_).handling.recordNanos(System.nanoTime() - handler.beginNanos_);
+			}
+			handler.beginNanos_ = 0L;
+		}
+		@Override public void messageSent(String address, boolean publish, boolean local, boolean remote) {
+			if (EventBusStatistics.isReplyAddress(address)) return;
+			EventBusStatistics.Address_ stats = EventBusStatistics.address(address);
+			if (publish) {
+				stats.published.incrementAndGet();
+			} else {
+				stats.sent.incrementAndGet();
+			}
+		}
+		@Override public void messageReceived(String address, boolean publish, boolean local, int handlers) {
+			if (handlers <= 0 || EventBusStatistics.isReplyAddress(address)) return;
+			EventBusStatistics.address(address).received.incrementAndGet();
+		}
+		@Override public void messageWritten(String address, int numberOfBytes) {
+			if (EventBusStatistics.isReplyAddress(address)) return;
+			EventBusStatistics.address(address).bytesWritten.addAndGet(numberOfBytes);
+		}
+		@Override public void messageRead(String address, int numberOfBytes) {
+			if (EventBusStatistics.isReplyAddress(address)) return;
+			EventBusStatistics.address(address).bytesRead.addAndGet(numberOfBytes);
+		}
+		@Override public void replyFailure(String address, ReplyFailure failure) {
+			if (failure == null || EventBusStatistics.isReplyAddress(address)) return;
+			EventBusStatistics.address(address).replyFailures[failure.ordinal()].incrementAndGet();
+		}
+	}
+
+}
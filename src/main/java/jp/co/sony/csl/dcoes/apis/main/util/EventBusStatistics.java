@@ -0,0 +1,301 @@
+package jp.co.sony.csl.dcoes.apis.main.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-address statistics of the {@link io.vertx.core.eventbus.EventBus} traffic of this process.
+ * Recorded by {@link EventBusMetricsFactory} when Vert.x metrics are enabled ( {@code -Dvertx.metrics.options.enabled=true} ).
+ * Reply addresses are not recorded as addresses of their own ; replies are counted on the address of the request.
+ * At most {@link #MAX_ADDRESSES} addresses are recorded ; the traffic of any further address is counted on {@link #OTHERS_ADDRESS}.
+ * Recording does not allocate once the statistics of an address exist, apart from one small object per request awaiting a reply.
+ * @author OES Project
+ *          
+ * このプロセスの {@link io.vertx.core.eventbus.EventBus} 通信のアドレスごとの統計.
+ * Vert.x のメトリクスが有効な場合 ( {@code -Dvertx.metrics.options.enabled=true} ) に {@link EventBusMetricsFactory} が記録する.
+ * 返信アドレスはそれ自体のアドレスとしては記録しない ; 返信はリクエストのアドレスで数える.
+ * 記録するアドレスは {@link #MAX_ADDRESSES} 個までで, それ以上のアドレスの通信は {@link #OTHERS_ADDRESS} で数える.
+ * 返信を待つリクエストごとの小さなオブジェクトを除きアドレスの統計ができた後の記録はアロケーションしない.
+ * @author OES Project
+ */
+public class EventBusStatistics {
+
+	/**
+	 * Maximum number of addresses recorded.
+	 * Value: {@value}.
+	 *          
+	 * 記録するアドレスの最大数.
+	 * 値は {@value}.
+	 */
+	public static final int MAX_ADDRESSES = 1000;
+	/**
+	 * Address under which the traffic beyond {@link #MAX_ADDRESSES} is counted.
+	 * Value: {@value}.
+	 *          
+	 * {@link #MAX_ADDRESSES} を超えた通信を数えるアドレス.
+	 * 値は {@value}.
+	 */
+	public static final String OTHERS_ADDRESS = "(others)";
+
+	private static final String PROMETHEUS_PREFIX_ = "apis_eventbus_";
+	private static final ReplyFailure[] REPLY_FAILURES_ = ReplyFailure.values();
+
+	private static final Map<String, Address_> addresses_ = new ConcurrentHashMap<>();
+	private static volatile boolean enabled_ = false;
+
+	private EventBusStatistics() { }
+
+	/**
+	 * Find out whether the statistics are being recorded.
+	 * @return {@code true} if Vert.x metrics are enabled and {@link EventBusMetricsFactory} is in use
+	 *          
+	 * 統計を記録中か否かを取得する.
+	 * @return Vert.x のメトリクスが有効で {@link EventBusMetricsFactory} が使われていれば {@code true}
+	 */
+	public static boolean enabled() {
+		return enabled_;
+	}
+	static void setEnabled(boolean value) {
+		enabled_ = value;
+	}
+
+	/**
+	 * Find out whether an address is a reply address.
+	 * Vert.x makes reply addresses as sequence numbers locally and as random UUIDs in a cluster ; addresses with the {@code __vertx.} prefix are internal.
+	 * @param address the address
+	 * @return {@code true} if a reply address
+	 *          
+	 * アドレスが返信アドレスか否かを取得する.
+	 * Vert.x は返信アドレスをローカルでは連番で, クラスタではランダムな UUID で作る ; {@code __vertx.} 接頭辞のアドレスは内部用.
+	 * @param address アドレス
+	 * @return 返信アドレスなら {@code true}
+	 */
+	static boolean isReplyAddress(String address) {
+		if (address == null) return true;
+		if (address.startsWith("__vertx.")) return true;
+		if (isDigits_(address)) return true;
+		return (address.length() == 36 && address.charAt(8) == '-' && address.charAt(13) == '-' && address.charAt(18) == '-' && address.charAt(23) == '-');
+	}
+
+	/**
+	 * Get the statistics of an address, creating them if necessary.
+	 * Those of {@link #OTHERS_ADDRESS} are returned for a new address once {@link #MAX_ADDRESSES} addresses are recorded.
+	 * @param address the address. Must not be a reply address
+	 * @return the statistics
+	 *          
+	 * アドレスの統計を取得する. なければ作る.
+	 * {@link #MAX_ADDRESSES} 個のアドレスを記録ずみなら新しいアドレスには {@link #OTHERS_ADDRESS} の統計を返す.
+	 * @param address アドレス. 返信アドレスであってはならない
+	 * @return 統計
+	 */
+	static Address_ address(String address) {
+		Address_ result = addresses_.get(address);
+		if (result == null) {
+			String key = (addresses_.size() < MAX_ADDRESSES) ? address : OTHERS_ADDRESS;
+			result = addresses_.computeIfAbsent(key, k -> new Address_());
+		}
+		return result;
+	}
+	private static boolean isDigits_(String value) {
+		if (value.isEmpty()) return false;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < '0' || '9' < c) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Clear the statistics.
+	 *          
+	 * 統計をクリアする.
+	 */
+	public static void reset() {
+		addresses_.clear();
+	}
+
+	/**
+	 * Summarize the statistics.
+	 * - {@code "enabled"} : {@link #enabled()} [{@link Boolean}]
+	 * - {@code "addresses"} : statistics keyed by address [{@link JsonObject}]
+	 *   - {@code "sent"}, {@code "published"} : the number of messages sent and published from this process [{@link Long}]
+	 *   - {@code "received"} : the number of messages delivered to handlers of this process [{@link Long}]
+	 *   - {@code "replies"} : the number of replies received for requests from this process [{@link Long}]
+	 *   - {@code "replyLatency"} : {@link LatencyHistogram#toJsonObject()} from the request to its reply [{@link JsonObject}]
+	 *   - {@code "handling"} : {@link LatencyHistogram#toJsonObject()} of the handlers of this process [{@link JsonObject}]
+	 *   - {@code "replyFailures"} : the number of failed requests keyed by {@link ReplyFailure} [{@link JsonObject}]
+	 *   - {@code "bytesWritten"}, {@code "bytesRead"} : the size of the messages written to and read from other nodes [{@link Long}]
+	 * @return the summary
+	 *          
+	 * 統計を要約する.
+	 * - {@code "enabled"} : {@link #enabled()} [{@link Boolean}]
+	 * - {@code "addresses"} : アドレスをキーとする統計 [{@link JsonObject}]
+	 *   - {@code "sent"}, {@code "published"} : このプロセスから send および publish したメッセージ数 [{@link Long}]
+	 *   - {@code "received"} : このプロセスのハンドラに届いたメッセージ数 [{@link Long}]
+	 *   - {@code "replies"} : このプロセスからのリクエストに対し受け取った返信数 [{@link Long}]
+	 *   - {@code "replyLatency"} : リクエストから返信までの {@link LatencyHistogram#toJsonObject()} [{@link JsonObject}]
+	 *   - {@code "handling"} : このプロセスのハンドラの処理時間の {@link LatencyHistogram#toJsonObject()} [{@link JsonObject}]
+	 *   - {@code "replyFailures"} : {@link ReplyFailure} をキーとする失敗したリクエスト数 [{@link JsonObject}]
+	 *   - {@code "bytesWritten"}, {@code "bytesRead"} : 他ノードとの間で書き込みおよび読み込みしたメッセージのサイズ [{@link Long}]
+	 * @return 要約
+	 */
+	public static JsonObject toJsonObject() {
+		JsonObject addresses = new JsonObject();
+		for (Map.Entry<String, Address_> anEntry : new TreeMap<>(addresses_).entrySet()) {
+			Address_ stats = anEntry.getValue();
+			JsonObject replyFailures = new JsonObject();
+			for (ReplyFailure aFailure : REPLY_FAILURES_) {
+				replyFailures.put(aFailure.name(), stats.replyFailures[aFailure.ordinal()].get());
+			}
+			JsonObject value = new JsonObject();
+			value.put("sent", stats.sent.get());
+			value.put("published", stats.published.get());
+			value.put("received", stats.received.get());
+			value.put("replies", stats.replyLatency.totalCount());
+			value.put("replyLatency", stats.replyLatency.toJsonObject());
+			value.put("handling", stats.handling.toJsonObject());
+			value.put("replyFailures", replyFailures);
+			value.put("bytesWritten", stats.bytesWritten.get());
+			value.put("bytesRead", stats.bytesRead.get());
+			addresses.put(anEntry.getKey(), value);
+		}
+		return new JsonObject().put("enabled", enabled_).put("addresses", addresses);
+	}
+
+	/**
+	 * Format the statistics in the Prometheus text exposition format.
+	 * Every sample has the {@code unitId} and {@code address} labels.
+	 * Latencies are summaries in seconds with the {@code 0.5}, {@code 0.9} and {@code 0.99} quantiles.
+	 * @param unitId the unit ID of this process
+	 * @return the text
+	 *          
+	 * 統計を Prometheus のテキスト形式で出力する.
+	 * 全てのサンプルに {@code unitId} と {@code address} のラベルをつける.
+	 * 遅延は {@code 0.5}, {@code 0.9}, {@code 0.99} 分位点を持つ秒単位の summary.
+	 * @param unitId このプロセスのユニット ID
+	 * @return テキスト
+	 */
+	public static String toPrometheusText(String unitId) {
+		Map<String, Address_> addresses = new TreeMap<>(addresses_);
+		StringBuilder sb = new StringBuilder();
+		counter_(sb, unitId, addresses, "messages_sent_total", "Messages sent from this process", stats -> stats.sent.get());
+		counter_(sb, unitId, addresses, "messages_published_total", "Messages published from this process", stats -> stats.published.get());
+		counter_(sb, unitId, addresses, "messages_received_total", "Messages delivered to handlers of this process", stats -> stats.received.get());
+		counter_(sb, unitId, addresses, "bytes_written_total", "Bytes of messages written to other nodes", stats -> stats.bytesWritten.get());
+		counter_(sb, unitId, addresses, "bytes_read_total", "Bytes of messages read from other nodes", stats -> stats.bytesRead.get());
+		sb.append("# HELP ").append(PROMETHEUS_PREFIX_).append("reply_failures_total Failed requests from this process\n");
+		sb.append("# TYPE ").append(PROMETHEUS_PREFIX_).append("reply_failures_total counter\n");
+		for (Map.Entry<String, Address_> anEntry : addresses.entrySet()) {
+			for (ReplyFailure aFailure : REPLY_FAILURES_) {
+				sb.append(PROMETHEUS_PREFIX_).append("reply_failures_total");
+				labels_(sb, unitId, anEntry.getKey()).append(",failure=\"").append(aFailure.name()).append("\"} ").append(anEntry.getValue().replyFailures[aFailure.ordinal()].get()).append('\n');
+			}
+		}
+		summary_(sb, unitId, addresses, "reply_latency_seconds", "Time from a request to its reply", true);
+		summary_(sb, unitId, addresses, "handling_seconds", "Time spent in handlers of this process", false);
+		return sb.toString();
+	}
+
+	/**
+	 * Launch the {@link io.vertx.core.eventbus.EventBus} service.
+	 * Address: {@link MainServiceAddress#eventBusStatistics()}
+	 * Scope: local
+	 * Function: Query the event bus statistics of this process.
+	 * Message body: Options [{@link JsonObject}]. Optional
+	 *               - {@code "format"}: {@code "json"} or {@code "prometheus"} [{@link String}]. Optional ; default {@code "json"}
+	 *               - {@code "reset"}: clear the statistics after the query [{@link Boolean}]. Optional ; default {@code false}
+	 * Message header: none
+	 * Response: The result of {@link #toJsonObject()} [{@link JsonObject}] or {@link #toPrometheusText(String)} [{@link String}].
+	 * @param vertx a vertx object
+	 * @param completionHandler the completion handler
+	 *          
+	 * {@link io.vertx.core.eventbus.EventBus} サービス起動.
+	 * アドレス : {@link MainServiceAddress#eventBusStatistics()}
+	 * 範囲 : ローカル
+	 * 処理 : このプロセスの EventBus 統計を問い合わせる.
+	 * メッセージボディ : オプション [{@link JsonObject}]. 任意
+	 * 　　　　　　　　   - {@code "format"} : {@code "json"} または {@code "prometheus"} [{@link String}]. 任意 ; デフォルト {@code "json"}
+	 * 　　　　　　　　   - {@code "reset"} : 問い合わせ後に統計をクリアする [{@link Boolean}]. 任意 ; デフォルト {@code false}
+	 * メッセージヘッダ : なし
+	 * レスポンス : {@link #toJsonObject()} [{@link JsonObject}] または {@link #toPrometheusText(String)} [{@link String}] の結果.
+	 * @param vertx vertx オブジェクト
+	 * @param completionHandler the completion handler
+	 */
+	public static void startService(Vertx vertx, Handler<AsyncResult<Void>> completionHandler) {
+		vertx.eventBus().<JsonObject>localConsumer(MainServiceAddress.eventBusStatistics(), req -> {
+			JsonObject options = (req.body() != null) ? req.body() : new JsonObject();
+			if ("prometheus".equals(options.getString("format"))) {
+				req.reply(toPrometheusText(ApisConfig.unitId()));
+			} else {
+				req.reply(toJsonObject());
+			}
+			if (options.getBoolean("reset", Boolean.FALSE)) reset();
+		}).completionHandler(completionHandler);
+	}
+
+	////
+
+	private interface Counter_ {
+		long get(Address_ stats);
+	}
+	private static void counter_(StringBuilder sb, String unitId, Map<String, Address_> addresses, String name, String help, Counter_ counter) {
+		sb.append("# HELP ").append(PROMETHEUS_PREFIX_).append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(PROMETHEUS_PREFIX_).append(name).append(" counter\n");
+		for (Map.Entry<String, Address_> anEntry : addresses.entrySet()) {
+			sb.append(PROMETHEUS_PREFIX_).append(name);
+			labels_(sb, unitId, anEntry.getKey()).append("} ").append(counter.get(anEntry.getValue())).append('\n');
+		}
+	}
+	private static void summary_(StringBuilder sb, String unitId, Map<String, Address_> addresses, String name, String help, boolean replyLatency) {
+		sb.append("# HELP ").append(PROMETHEUS_PREFIX_).append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(PROMETHEUS_PREFIX_).append(name).append(" summary\n");
+		for (Map.Entry<String, Address_> anEntry : addresses.entrySet()) {
+			LatencyHistogram histogram = (replyLatency) ? anEntry.getValue().replyLatency : anEntry.getValue().handling;
+			for (String aQuantile : new String[] { "0.5", "0.9", "0.99" }) {
+				sb.append(PROMETHEUS_PREFIX_).append(name);
+				labels_(sb, unitId, anEntry.getKey()).append(",quantile=\"").append(aQuantile).append("\"} ").append(histogram.percentileMicros(Double.parseDouble(aQuantile) * 100D) / 1000000D).append('\n');
+			}
+			sb.append(PROMETHEUS_PREFIX_).append(name).append("_sum");
+			labels_(sb, unitId, anEntry.getKey()).append("} ").append(histogram.sumMicros() / 1000000D).append('\n');
+			sb.append(PROMETHEUS_PREFIX_).append(name).append("_count");
+			labels_(sb, unitId, anEntry.getKey()).append("} ").append(histogram.totalCount()).append('\n');
+		}
+	}
+	private static StringBuilder labels_(StringBuilder sb, String unitId, String address) {
+		sb.append("{unitId=\"").append(escape_(unitId)).append("\",address=\"").append(escape_(address)).append('"');
+		return sb;
+	}
+	private static String escape_(String value) {
+		return (value == null) ? "" : value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Statistics of one address.
+	 *          
+	 * 一つのアドレスの統計.
+	 */
+	static class Address_ {
+		final AtomicLong sent = new AtomicLong();
+		final AtomicLong published = new AtomicLong();
+		final AtomicLong received = new AtomicLong();
+		final AtomicLong bytesWritten = new AtomicLong();
+		final AtomicLong bytesRead = new AtomicLong();
+		final AtomicLong[] replyFailures = new AtomicLong[REPLY_FAILURES_.length];
+		final LatencyHistogram replyLatency = new LatencyHistogram();
+		final LatencyHistogram handling = new LatencyHistogram();
+		private Address_() {
+			for (int i = 0; i < replyFailures.length; i++) {
+				replyFailures[i] = new AtomicLong();
+			}
+		}
+	}
+
+}
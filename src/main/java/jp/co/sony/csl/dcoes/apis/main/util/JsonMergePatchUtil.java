@@ -0,0 +1,93 @@
+package jp.co.sony.csl.dcoes.apis.main.util;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.Objects;
+
+/**
+ * A tool for computing and applying differences between {@link JsonObject}s.
+ * Differences are expressed in the JSON Merge Patch format (RFC 7386).
+ * - Only changed or added fields are included
+ * - Removed fields are expressed by {@code null}
+ * - Nested {@link JsonObject}s are compared recursively; other values (including arrays) are compared as a whole
+ * Since {@code null} means removal, a field holding {@code null} is treated the same as an absent field.
+ * @author OES Project
+ *          
+ * {@link JsonObject} 同士の差分を算出し適用するツール.
+ * 差分は JSON Merge Patch 形式 ( RFC 7386 ) で表現する.
+ * - 変更または追加された要素のみを含む
+ * - 削除された要素は {@code null} で表す
+ * - 入れ子の {@link JsonObject} は再帰的に比較し, それ以外の値 ( 配列を含む ) は丸ごと比較する
+ * {@code null} は削除を意味するため値が {@code null} の要素は存在しない要素と同じ扱いになる.
+ * @author OES Project
+ */
+public class JsonMergePatchUtil {
+
+	private JsonMergePatchUtil() { }
+
+	/**
+	 * Compute the difference that turns {@code base} into {@code target}.
+	 * Neither argument is modified.
+	 * @param base the JSON object before the change
+	 * @param target the JSON object after the change
+	 * @return the difference. An empty {@link JsonObject} if there is no change
+	 *          
+	 * {@code base} を {@code target} にするための差分を算出する.
+	 * 引数はどちらも変更しない.
+	 * @param base 変更前の JSON オブジェクト
+	 * @param target 変更後の JSON オブジェクト
+	 * @return 差分. 変化がなければ空の {@link JsonObject}
+	 */
+	public static JsonObject diff(JsonObject base, JsonObject target) {
+		JsonObject result = new JsonObject();
+		for (String aKey : base.fieldNames()) {
+			if (base.getValue(aKey) != null && target.getValue(aKey) == null) {
+				result.putNull(aKey);
+			}
+		}
+		for (String aKey : target.fieldNames()) {
+			Object targetValue = target.getValue(aKey);
+			if (targetValue == null) continue;
+			Object baseValue = base.getValue(aKey);
+			if (targetValue instanceof JsonObject && baseValue instanceof JsonObject) {
+				JsonObject aDiff = diff((JsonObject) baseValue, (JsonObject) targetValue);
+				if (!aDiff.isEmpty()) {
+					result.put(aKey, aDiff);
+				}
+			} else if (!Objects.equals(baseValue, targetValue)) {
+				result.put(aKey, (targetValue instanceof JsonObject) ? ((JsonObject) targetValue).copy() : targetValue);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Apply {@code patch} to {@code base}.
+	 * {@code base} is modified in place.
+	 * @param base the JSON object to which the difference is applied
+	 * @param patch the difference obtained by {@link #diff(JsonObject, JsonObject)}
+	 * @return {@code base}
+	 *          
+	 * {@code base} に {@code patch} を適用する.
+	 * {@code base} をその場で書き換える.
+	 * @param base 差分を適用する JSON オブジェクト
+	 * @param patch {@link #diff(JsonObject, JsonObject)} で得た差分
+	 * @return {@code base}
+	 */
+	public static JsonObject apply(JsonObject base, JsonObject patch) {
+		for (String aKey : patch.fieldNames()) {
+			Object patchValue = patch.getValue(aKey);
+			if (patchValue == null) {
+				base.remove(aKey);
+			} else if (patchValue instanceof JsonObject) {
+				Object baseValue = base.getValue(aKey);
+				JsonObject aBase = (baseValue instanceof JsonObject) ? (JsonObject) baseValue : new JsonObject();
+				base.put(aKey, apply(aBase, (JsonObject) patchValue));
+			} else {
+				base.put(aKey, patchValue);
+			}
+		}
+		return base;
+	}
+
+}
@@ -0,0 +1,155 @@
+package jp.co.sony.csl.dcoes.apis.main.util;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size histogram of durations.
+ * Buckets are log-linear as in HdrHistogram : values below {@code 128} [us] have their own bucket, and each higher power of two is split into {@code 64} buckets, so the relative error is below 1/64.
+ * Values are recorded in microseconds up to about 19 hours ; larger values are counted in the last bucket.
+ * Counts are kept in one primitive array allocated at construction, so recording does not allocate.
+ * @author OES Project
+ *          
+ * 時間の固定長ヒストグラム.
+ * バケットは HdrHistogram と同様に対数線形 : {@code 128} [us] 未満の値はそれぞれのバケットを持ち, それ以上の 2 の冪ごとに {@code 64} 個のバケットに分けるので相対誤差は 1/64 未満.
+ * 値はマイクロ秒単位で約 19 時間まで記録する ; それより大きい値は最後のバケットに数える.
+ * カウントは生成時に確保する一つのプリミティブ配列に保持するので記録はアロケーションしない.
+ * @author OES Project
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS_ = 7;
+	private static final int SUB_BUCKET_COUNT_ = 1 << SUB_BUCKET_BITS_;
+	private static final int SUB_BUCKET_HALF_COUNT_ = SUB_BUCKET_COUNT_ >> 1;
+	private static final int HIGHEST_BIT_ = 36;
+	private static final int MAX_SHIFT_ = HIGHEST_BIT_ - (SUB_BUCKET_BITS_ - 1);
+	private static final int LENGTH_ = SUB_BUCKET_COUNT_ + MAX_SHIFT_ * SUB_BUCKET_HALF_COUNT_;
+
+	private final long[] counts_ = new long[LENGTH_];
+	private long totalCount_ = 0L;
+	private long sumMicros_ = 0L;
+	private long minMicros_ = Long.MAX_VALUE;
+	private long maxMicros_ = 0L;
+
+	/**
+	 * Record a duration.
+	 * @param nanos the duration [ns]. Negative values are recorded as {@code 0}
+	 *          
+	 * 時間を記録する.
+	 * @param nanos 時間 [ns]. 負の値は {@code 0} として記録する
+	 */
+	public synchronized void recordNanos(long nanos) {
+		long micros = Math.max(0L, nanos / 1000L);
+		++counts_[index_(micros)];
+		++totalCount_;
+		sumMicros_ += micros;
+		if (micros < minMicros_) minMicros_ = micros;
+		if (maxMicros_ < micros) maxMicros_ = micros;
+	}
+
+	/**
+	 * Get the number of recorded durations.
+	 * @return the number of recorded durations
+	 *          
+	 * 記録した時間の数を取得する.
+	 * @return 記録した時間の数
+	 */
+	public synchronized long totalCount() {
+		return totalCount_;
+	}
+	/**
+	 * Get the sum of the recorded durations.
+	 * @return the sum [us]
+	 *          
+	 * 記録した時間の合計を取得する.
+	 * @return 合計 [us]
+	 */
+	public synchronized long sumMicros() {
+		return sumMicros_;
+	}
+
+	/**
+	 * Get a percentile of the recorded durations.
+	 * The result is the highest value of the bucket that holds the percentile, but not above the maximum.
+	 * @param percentile the percentile [%]
+	 * @return the duration [us]. {@code 0} if nothing is recorded
+	 *          
+	 * 記録した時間のパーセンタイルを取得する.
+	 * 結果はパーセンタイルを含むバケットの最大値だが最大値を超えない.
+	 * @param percentile パーセンタイル [%]
+	 * @return 時間 [us]. 何も記録していなければ {@code 0}
+	 */
+	public synchronized long percentileMicros(double percentile) {
+		if (totalCount_ == 0L) return 0L;
+		long target = Math.max(1L, (long) Math.ceil(Math.min(100D, Math.max(0D, percentile)) / 100D * totalCount_));
+		long cumulative = 0L;
+		for (int i = 0; i < LENGTH_; i++) {
+			cumulative += counts_[i];
+			if (target <= cumulative) {
+				// The last bucket also counts values beyond the range, so its highest value is the maximum
+				// 最後のバケットは範囲を超えた値も数えるのでその最大値は最大値そのもの
+				if (i == LENGTH_ - 1) return maxMicros_;
+				return Math.min(maxMicros_, highestEquivalentValue_(i));
+			}
+		}
+		return maxMicros_;
+	}
+
+	/**
+	 * Clear the histogram.
+	 *          
+	 * ヒストグラムをクリアする.
+	 */
+	public synchronized void reset() {
+		Arrays.fill(counts_, 0L);
+		totalCount_ = 0L;
+		sumMicros_ = 0L;
+		minMicros_ = Long.MAX_VALUE;
+		maxMicros_ = 0L;
+	}
+
+	/**
+	 * Summarize the histogram.
+	 * Durations are in milliseconds.
+	 * - {@code "count"} : the number of recorded durations [{@link Long}]
+	 * - {@code "minMsec"}, {@code "meanMsec"}, {@code "maxMsec"} : the minimum, mean and maximum [{@link Double}]
+	 * - {@code "p50Msec"}, {@code "p90Msec"}, {@code "p99Msec"}, {@code "p999Msec"} : the percentiles [{@link Double}]
+	 * @return the summary
+	 *          
+	 * ヒストグラムを要約する.
+	 * 時間はミリ秒単位.
+	 * - {@code "count"} : 記録した時間の数 [{@link Long}]
+	 * - {@code "minMsec"}, {@code "meanMsec"}, {@code "maxMsec"} : 最小値, 平均値, 最大値 [{@link Double}]
+	 * - {@code "p50Msec"}, {@code "p90Msec"}, {@code "p99Msec"}, {@code "p999Msec"} : パーセンタイル [{@link Double}]
+	 * @return 要約
+	 */
+	public synchronized JsonObject toJsonObject() {
+		JsonObject result = new JsonObject();
+		result.put("count", totalCount_);
+		result.put("minMsec", (totalCount_ == 0L) ? 0D : minMicros_ / 1000D);
+		result.put("meanMsec", (totalCount_ == 0L) ? 0D : sumMicros_ / 1000D / totalCount_);
+		result.put("p50Msec", percentileMicros(50D) / 1000D);
+		result.put("p90Msec", percentileMicros(90D) / 1000D);
+		result.put("p99Msec", percentileMicros(99D) / 1000D);
+		result.put("p999Msec", percentileMicros(99.9D) / 1000D);
+		result.put("maxMsec", maxMicros_ / 1000D);
+		return result;
+	}
+
+	////
+
+	private static int index_(long micros) {
+		if (micros < SUB_BUCKET_COUNT_) return (int) micros;
+		int shift = (63 - Long.numberOfLeadingZeros(micros)) - (SUB_BUCKET_BITS_ - 1);
+		if (MAX_SHIFT_ < shift) return LENGTH_ - 1;
+		return SUB_BUCKET_COUNT_ + (shift - 1) * SUB_BUCKET_HALF_COUNT_ + (int) ((micros >> shift) - SUB_BUCKET_HALF_COUNT_);
+	}
+	private static long highestEquivalentValue_(int index) {
+		if (index < SUB_BUCKET_COUNT_) return index;
+		int shift = (index - SUB_BUCKET_COUNT_) / SUB_BUCKET_HALF_COUNT_ + 1;
+		long subBucket = (index - SUB_BUCKET_COUNT_) % SUB_BUCKET_HALF_COUNT_ + SUB_BUCKET_HALF_COUNT_;
+		return ((subBucket + 1L) << shift) - 1L;
+	}
+
+}
@@ -0,0 +1,201 @@
+package jp.co.sony.csl.dcoes.apis.main.util;
+
+/**
+ * {@link io.vertx.core.eventbus.EventBus} addresses used only within apis-main.
+ * Addresses shared with other APIS programs are defined in {@link jp.co.sony.csl.dcoes.apis.common.ServiceAddress}.
+ * @author OES Project
+ *          
+ * apis-main の中だけで使う {@link io.vertx.core.eventbus.EventBus} アドレス.
+ * 他の APIS プログラムと共有するアドレスは {@link jp.co.sony.csl.dcoes.apis.common.ServiceAddress} で定義されている.
+ * @author OES Project
+ */
+public class MainServiceAddress {
+
+	private static final String PREFIX_ = "apis.main.";
+
+	private MainServiceAddress() { }
+
+	/**
+	 * Address to query the {@link io.vertx.core.eventbus.EventBus} statistics of this process.
+	 * Scope: local
+	 * @return the address
+	 *          
+	 * このプロセスの {@link io.vertx.core.eventbus.EventBus} 統計を問い合わせるアドレス.
+	 * 範囲 : ローカル
+	 * @return アドレス
+	 */
+	public static String eventBusStatistics() {
+		return PREFIX_ + "eventBusStatistics";
+	}
+
+	/**
+	 * Addresses of the GridMaster service.
+	 * @author OES Project
+	 *          
+	 * GridMaster サービスのアドレス.
+	 * @author OES Project
+	 */
+	public static class GridMaster {
+		private static final String PREFIX_ = MainServiceAddress.PREFIX_ + "GridMaster.";
+		private GridMaster() { }
+		/**
+		 * Address to request an immediate execution of the main loop.
+		 * Scope: global
+		 * @return the address
+		 *          
+		 * メインループの即時実行を要求するアドレス.
+		 * 範囲 : グローバル
+		 * @return アドレス
+		 */
+		public static String mainLoopTriggering() {
+			return PREFIX_ + "mainLoopTriggering";
+		}
+		/**
+		 * Address to query the timing statistics of the main loop.
+		 * Scope: local
+		 * @return the address
+		 *          
+		 * メインループの時間統計を問い合わせるアドレス.
+		 * 範囲 : ローカル
+		 * @return アドレス
+		 */
+		public static String mainLoopStatistics() {
+			return PREFIX_ + "mainLoopStatistics";
+		}
+		/**
+		 * Address to query the time series of the unit data of all units.
+		 * Scope: local
+		 * @return the address
+		 *          
+		 * 全ユニットのユニットデータの時系列を問い合わせるアドレス.
+		 * 範囲 : ローカル
+		 * @return アドレス
+		 */
+		public static String unitDataHistory() {
+			return PREFIX_ + "unitDataHistory";
+		}
+		/**
+		 * Address to which units send their interchange requests to be negotiated in a batch round.
+		 * Scope: global
+		 * @return the address
+		 *          
+		 * 一括交渉ラウンドで交渉する融通リクエストをユニットが送るアドレス.
+		 * 範囲 : グローバル
+		 * @return アドレス
+		 */
+		public static String batchRequest() {
+			return PREFIX_ + "batchRequest";
+		}
+		/**
+		 * Address to which units send their "accept" responses to all the requests of a batch round in one message.
+		 * Scope: global
+		 * @return the address
+		 *          
+		 * 一括交渉ラウンドの全リクエストに対するアクセプトをユニットが一つのメッセージで送るアドレス.
+		 * 範囲 : グローバル
+		 * @return アドレス
+		 */
+		public static String batchAccepts() {
+			return PREFIX_ + "batchAccepts";
+		}
+	}
+
+	/**
+	 * Addresses of the Controller service.
+	 * @author OES Project
+	 *          
+	 * Controller サービスのアドレス.
+	 * @author OES Project
+	 */
+	public static class Controller {
+		private static final String PREFIX_ = MainServiceAddress.PREFIX_ + "Controller.";
+		private Controller() { }
+		/**
+		 * Address to query the time series of the unit data of this unit.
+		 * Scope: local
+		 * @return the address
+		 *          
+		 * 自ユニットのユニットデータの時系列を問い合わせるアドレス.
+		 * 範囲 : ローカル
+		 * @return アドレス
+		 */
+		public static String unitDataHistory() {
+			return PREFIX_ + "unitDataHistory";
+		}
+		/**
+		 * Address to query the metrics of the requests to the devices.
+		 * Scope: local
+		 * @return the address
+		 *          
+		 * デバイスへのリクエストの計測値を問い合わせるアドレス.
+		 * 範囲 : ローカル
+		 * @return アドレス
+		 */
+		public static String deviceHttpMetrics() {
+			return PREFIX_ + "deviceHttpMetrics";
+		}
+	}
+
+	/**
+	 * Addresses of the Mediator service.
+	 * @author OES Project
+	 *          
+	 * Mediator サービスのアドレス.
+	 * @author OES Project
+	 */
+	public static class Mediator {
+		private static final String PREFIX_ = MainServiceAddress.PREFIX_ + "Mediator.";
+		private Mediator() { }
+		/**
+		 * Address to query the recorded interchange information.
+		 * Scope: local
+		 * @return the address
+		 *          
+		 * 記録された融通情報を問い合わせるアドレス.
+		 * 範囲 : ローカル
+		 * @return アドレス
+		 */
+		public static String dealLogQuery() {
+			return PREFIX_ + "dealLogQuery";
+		}
+		/**
+		 * Address to start an interchange negotiation.
+		 * Scope: local
+		 * @return the address
+		 *          
+		 * 融通交渉を開始するアドレス.
+		 * 範囲 : ローカル
+		 * @return アドレス
+		 */
+		public static String negotiation() {
+			return PREFIX_ + "negotiation";
+		}
+		/**
+		 * Address to which other units send "accept" responses to the negotiations of the unit with ID {@code unitId}.
+		 * Scope: global
+		 * @param unitId the unit ID
+		 * @return the address
+		 *          
+		 * ユニット ID が {@code unitId} のユニットの融通交渉に対し他ユニットがアクセプトを送るアドレス.
+		 * 範囲 : グローバル
+		 * @param unitId ユニット ID
+		 * @return アドレス
+		 */
+		public static String negotiationReply(String unitId) {
+			return PREFIX_ + "negotiationReply." + unitId;
+		}
+		/**
+		 * Address to which GridMaster publishes the requests of a batch round.
+		 * Scope: global
+		 * @return the address
+		 *          
+		 * GridMaster が一括交渉ラウンドのリクエスト群を publish するアドレス.
+		 * 範囲 : グローバル
+		 * @return アドレス
+		 */
+		public static String batchRequests() {
+			return PREFIX_ + "batchRequests";
+		}
+	}
+
+}
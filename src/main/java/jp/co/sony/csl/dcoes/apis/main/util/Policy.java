@@ -18,6 +18,17 @@ import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectUtil;
  */
 public class Policy {
 
+	/**
+	 * Default maximum number of interchanges controlled concurrently.
+	 * Enough to overlap the device round trips of a few interchanges without flooding the device drivers with concurrent requests.
+	 * Value: {@value}.
+	 *          
+	 * 並行に制御する融通の最大数のデフォルト値.
+	 * デバイスドライバに同時要求を溢れさせずにいくつかの融通のデバイス往復を重ねられる数.
+	 * 値は {@value}.
+	 */
+	public static final int DEFAULT_PARALLEL_DEAL_EXECUTION_MAX_BATCH_SIZE = 4;
+
 	private Policy() { }
 
 	/**
@@ -164,6 +175,37 @@ public class Policy {
 		return JsonObjectUtil.getBoolean(policy, Boolean.FALSE, "gridMaster", "gridVoltageOptimization", "enabled");
 	}
 
+	/**
+	 * Get a flag indicating whether or not to control independent interchanges concurrently.
+	 * Returns the value defined in POLICY.gridMaster.parallelDealExecution.enabled.
+	 * @param policy a POLICY object
+	 * @return a flag indicating whether or not to control independent interchanges concurrently
+	 *          
+	 * 互いに独立した融通を並行に制御するか否かのフラグを取得する.
+	 * POLICY.gridMaster.parallelDealExecution.enabled で定義した値を返す.
+	 * @param policy POLICY オブジェクト
+	 * @return 互いに独立した融通を並行に制御するか否かのフラグ
+	 */
+	public static Boolean parallelDealExecutionEnabled(JsonObject policy) {
+		return JsonObjectUtil.getBoolean(policy, Boolean.FALSE, "gridMaster", "parallelDealExecution", "enabled");
+	}
+	/**
+	 * Get the maximum number of interchanges controlled concurrently.
+	 * Returns the value defined in POLICY.gridMaster.parallelDealExecution.maxBatchSize.
+	 * Defaults to {@link #DEFAULT_PARALLEL_DEAL_EXECUTION_MAX_BATCH_SIZE}. Values smaller than {@code 1} are treated as {@code 1}.
+	 * @param policy a POLICY object
+	 * @return the maximum number of interchanges controlled concurrently
+	 *          
+	 * 並行に制御する融通の最大数を取得する.
+	 * POLICY.gridMaster.parallelDealExecution.maxBatchSize で定義した値を返す.
+	 * デフォルトは {@link #DEFAULT_PARALLEL_DEAL_EXECUTION_MAX_BATCH_SIZE}. {@code 1} より小さい値は {@code 1} とみなす.
+	 * @param policy POLICY オブジェクト
+	 * @return 並行に制御する融通の最大数
+	 */
+	public static int parallelDealExecutionMaxBatchSize(JsonObject policy) {
+		return Math.max(1, JsonObjectUtil.getInteger(policy, DEFAULT_PARALLEL_DEAL_EXECUTION_MAX_BATCH_SIZE, "gridMaster", "parallelDealExecution", "maxBatchSize"));
+	}
+
 	/**
 	 * Get the grid voltage setting value policy at the destination when moving the voltage reference.
 	 * @param policy a POLICY object
@@ -14,6 +14,7 @@ import jp.co.sony.csl.dcoes.apis.common.util.vertx.ReplyFailureUtil;
 import jp.co.sony.csl.dcoes.apis.main.app.Apis;
 import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
 import jp.co.sony.csl.dcoes.apis.main.app.StateHandling;
+import jp.co.sony.csl.dcoes.apis.main.app.controller.impl.dcdc.emulator.InProcessEmulator;
 import jp.co.sony.csl.dcoes.apis.main.error.action.AskAndWaitForStopDeals;
 import jp.co.sony.csl.dcoes.apis.main.error.action.DeactivateGridMaster;
 import jp.co.sony.csl.dcoes.apis.main.error.action.StopLocal;
@@ -45,11 +46,23 @@ public class Starter extends AbstractStarter {
 			if (resInitGlobalFactory.succeeded()) {
 				startShutdownService_(resShutdown -> {
 					if (resShutdown.succeeded()) {
-						vertx.deployVerticle(new Apis(), resApis -> {
-							if (resApis.succeeded()) {
-								completionHandler.handle(Future.succeededFuture());
+						EventBusStatistics.startService(vertx, resEventBusStatistics -> {
+							if (resEventBusStatistics.succeeded()) {
+								deployInProcessEmulator_(resEmulator -> {
+									if (resEmulator.succeeded()) {
+										vertx.deployVerticle(new Apis(), resApis -> {
+											if (resApis.succeeded()) {
+												completionHandler.handle(Future.succeededFuture());
+											} else {
+												completionHandler.handle(Future.failedFuture(resApis.cause()));
+											}
+										});
+									} else {
+										completionHandler.handle(Future.failedFuture(resEmulator.cause()));
+									}
+								});
 							} else {
-								completionHandler.handle(Future.failedFuture(resApis.cause()));
+								completionHandler.handle(Future.failedFuture(resEventBusStatistics.cause()));
 							}
 						});
 					} else {
@@ -62,6 +75,29 @@ public class Starter extends AbstractStarter {
 		});
 	}
 
+	/**
+	 * Launch the {@link InProcessEmulator} Verticle if {@code CONFIG.inProcessEmulator.enabled} is {@code true}.
+	 * It must be listening before the {@code dcdc_emulator} controller of {@link Apis} starts polling.
+	 * @param completionHandler the completion handler
+	 *          
+	 * {@code CONFIG.inProcessEmulator.enabled} が {@code true} なら {@link InProcessEmulator} Verticle を起動する.
+	 * {@link Apis} の {@code dcdc_emulator} コントローラがポーリングを始める前に待ち受けている必要がある.
+	 * @param completionHandler the completion handler
+	 */
+	private void deployInProcessEmulator_(Handler<AsyncResult<Void>> completionHandler) {
+		if (InProcessEmulator.enabled()) {
+			vertx.deployVerticle(new InProcessEmulator(), res -> {
+				if (res.succeeded()) {
+					completionHandler.handle(Future.succeededFuture());
+				} else {
+					completionHandler.handle(Future.failedFuture(res.cause()));
+				}
+			});
+		} else {
+			completionHandler.handle(Future.succeededFuture());
+		}
+	}
+
 	/**
 	 * Called by the closeHook of Vert.x and by a shutdown message from EventBus.
 	 *          
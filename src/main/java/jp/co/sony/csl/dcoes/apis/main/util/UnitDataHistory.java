@@ -0,0 +1,281 @@
+package jp.co.sony.csl.dcoes.apis.main.util;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A fixed-size time series of the key numeric channels of unit data.
+ * Keeps one ring buffer of primitive arrays per unit, so recording does not allocate once the buffer of a unit exists.
+ * The oldest samples are overwritten when the buffer is full.
+ * Channels are {@link #CHANNELS}. Missing values are kept as {@code NaN} and returned as {@code null}.
+ * A unit missing from a number of consecutive {@link #recordAll(long, JsonObject)} calls is forgotten, as is a unit dropped by {@link #retain(Collection)}.
+ * @author OES Project
+ *          
+ * ユニットデータの主要な数値チャネルの固定長時系列.
+ * ユニットごとにプリミティブ配列のリングバッファを一つ持つのでユニットのバッファができた後の記録はアロケーションしない.
+ * バッファが一杯になると古いサンプルから上書きする.
+ * チャネルは {@link #CHANNELS}. 値がなければ {@code NaN} として保持し {@code null} として返す.
+ * 一定回数連続して {@link #recordAll(long, JsonObject)} に含まれなかったユニットと {@link #retain(Collection)} で除かれたユニットは忘れる.
+ * @author OES Project
+ */
+public class UnitDataHistory {
+
+	/**
+	 * Default number of samples kept per unit.
+	 * Value: {@value}.
+	 *          
+	 * ユニットごとに保持するサンプル数のデフォルト値.
+	 * 値は {@value}.
+	 */
+	public static final Integer DEFAULT_CAPACITY = 720;
+
+	/**
+	 * Names of the recorded channels.
+	 *          
+	 * 記録するチャネルの名前.
+	 */
+	public static final String[] CHANNELS = new String[] {
+			"dcdc.meter.ig",
+			"dcdc.meter.vg",
+			"dcdc.meter.wb",
+			"battery.rsoc",
+			"dcdc.vdis.dvg",
+			"dcdc.param.dig",
+	};
+	private static final String[][] PATHS_ = new String[CHANNELS.length][];
+	static {
+		for (int i = 0; i < CHANNELS.length; i++) {
+			PATHS_[i] = CHANNELS[i].split("\\.");
+		}
+	}
+
+	private final int capacity_;
+	private final int maxIdleSamples_;
+	private final Map<String, Ring_> rings_ = new HashMap<>();
+	private long samples_ = 0L;
+
+	/**
+	 * Create an instance.
+	 * A unit is forgotten after missing from as many {@link #recordAll(long, JsonObject)} calls as {@code capacity}.
+	 * @param capacity the number of samples kept per unit
+	 *          
+	 * インスタンスを生成する.
+	 * ユニットは {@code capacity} 回の {@link #recordAll(long, JsonObject)} に含まれなければ忘れる.
+	 * @param capacity ユニットごとに保持するサンプル数
+	 */
+	public UnitDataHistory(int capacity) {
+		this(capacity, capacity);
+	}
+	/**
+	 * Create an instance.
+	 * @param capacity the number of samples kept per unit
+	 * @param maxIdleSamples the number of consecutive {@link #recordAll(long, JsonObject)} calls a unit can miss before it is forgotten
+	 *          
+	 * インスタンスを生成する.
+	 * @param capacity ユニットごとに保持するサンプル数
+	 * @param maxIdleSamples ユニットを忘れるまでに連続して含まれなくてよい {@link #recordAll(long, JsonObject)} の回数
+	 */
+	public UnitDataHistory(int capacity, int maxIdleSamples) {
+		capacity_ = Math.max(1, capacity);
+		maxIdleSamples_ = Math.max(1, maxIdleSamples);
+	}
+
+	/**
+	 * Record the unit data of one unit.
+	 * @param unitId the unit ID
+	 * @param millis the time of the sample [ms]
+	 * @param unitData the unit data
+	 *          
+	 * 一つのユニットのユニットデータを記録する.
+	 * @param unitId ユニット ID
+	 * @param millis サンプルの時刻 [ms]
+	 * @param unitData ユニットデータ
+	 */
+	public synchronized void record(String unitId, long millis, JsonObject unitData) {
+		if (unitId == null || unitData == null) return;
+		Ring_ ring = rings_.get(unitId);
+		if (ring == null) {
+			ring = new Ring_(capacity_);
+			rings_.put(unitId, ring);
+		}
+		ring.add_(millis, unitData);
+		ring.lastSample_ = samples_;
+	}
+	/**
+	 * Record the unit data of all units.
+	 * @param millis the time of the samples [ms]
+	 * @param unitDataByUnitId unit data keyed by unit ID
+	 *          
+	 * 全ユニットのユニットデータを記録する.
+	 * @param millis サンプルの時刻 [ms]
+	 * @param unitDataByUnitId ユニット ID をキーとするユニットデータ
+	 */
+	public synchronized void recordAll(long millis, JsonObject unitDataByUnitId) {
+		if (unitDataByUnitId == null) return;
+		++samples_;
+		for (String aUnitId : unitDataByUnitId.fieldNames()) {
+			Object aUnitData = unitDataByUnitId.getValue(aUnitId);
+			if (aUnitData instanceof JsonObject) {
+				record(aUnitId, millis, (JsonObject) aUnitData);
+			}
+		}
+		for (Iterator<Ring_> it = rings_.values().iterator(); it.hasNext();) {
+			if (maxIdleSamples_ < samples_ - it.next().lastSample_) it.remove();
+		}
+	}
+	/**
+	 * Forget the units not in the list.
+	 * Used to drop units that have left the cluster.
+	 * @param unitIds the IDs of the units to keep. Nothing is forgotten if {@code null}
+	 *          
+	 * リストにないユニットを忘れる.
+	 * クラスタから抜けたユニットを除くために使う.
+	 * @param unitIds 残すユニットの ID. {@code null} なら何も忘れない
+	 */
+	public synchronized void retain(Collection<String> unitIds) {
+		if (unitIds == null) return;
+		rings_.keySet().retainAll(unitIds);
+	}
+
+	/**
+	 * Query the samples of a unit.
+	 * Without {@code bucketMsec}, the samples are returned as is:
+	 * {@code {"time":[millis, ...], channel:[value, ...], ...}}.
+	 * With {@code bucketMsec}, the samples are downsampled into buckets of that duration:
+	 * {@code {"time":[bucket start millis, ...], channel:{"min":[...], "max":[...], "avg":[...]}, ...}}.
+	 * Empty buckets are omitted.
+	 * @param unitId the unit ID
+	 * @param fromMillis start of the period, inclusive. {@code null} for the oldest sample
+	 * @param toMillis end of the period, exclusive. {@code null} for the newest sample
+	 * @param bucketMsec the bucket duration [ms]. {@code null} or not positive for no downsampling
+	 * @return the result. {@code null} if nothing is recorded for the unit
+	 *          
+	 * ユニットのサンプルを問い合わせる.
+	 * {@code bucketMsec} がなければサンプルをそのまま返す :
+	 * {@code {"time":[millis, ...], チャネル:[値, ...], ...}}.
+	 * {@code bucketMsec} があればその長さのバケットにダウンサンプルする :
+	 * {@code {"time":[バケット開始 millis, ...], チャネル:{"min":[...], "max":[...], "avg":[...]}, ...}}.
+	 * 空のバケットは省く.
+	 * @param unitId ユニット ID
+	 * @param fromMillis 期間の開始 ( 含む ). {@code null} なら最も古いサンプルから
+	 * @param toMillis 期間の終了 ( 含まない ). {@code null} なら最も新しいサンプルまで
+	 * @param bucketMsec バケットの長さ [ms]. {@code null} または正でなければダウンサンプルしない
+	 * @return 結果. ユニットの記録がなければ {@code null}
+	 */
+	public synchronized JsonObject query(String unitId, Long fromMillis, Long toMillis, Long bucketMsec) {
+		Ring_ ring = rings_.get(unitId);
+		if (ring == null) return null;
+		long from = (fromMillis != null) ? fromMillis : Long.MIN_VALUE;
+		long to = (toMillis != null) ? toMillis : Long.MAX_VALUE;
+		return (bucketMsec != null && 0 < bucketMsec) ? ring.downsample_(from, to, bucketMsec) : ring.raw_(from, to);
+	}
+
+	////
+
+	private static void addValue_(JsonArray array, float value) {
+		if (Float.isNaN(value)) {
+			array.addNull();
+		} else {
+			array.add(value);
+		}
+	}
+
+	/**
+	 * A ring buffer of one unit.
+	 * @author OES Project
+	 *          
+	 * 一つのユニットのリングバッファ.
+	 * @author OES Project
+	 */
+	private static class Ring_ {
+		private final long[] millis_;
+		private final float[][] values_;
+		private int next_ = 0;
+		private int size_ = 0;
+		private long lastSample_ = 0L;
+		private Ring_(int capacity) {
+			millis_ = new long[capacity];
+			values_ = new float[CHANNELS.length][capacity];
+		}
+		private void add_(long millis, JsonObject unitData) {
+			millis_[next_] = millis;
+			for (int c = 0; c < CHANNELS.length; c++) {
+				values_[c][next_] = UnitDataView.value(unitData, PATHS_[c]);
+			}
+			next_ = (next_ + 1) % millis_.length;
+			if (size_ < millis_.length) ++size_;
+		}
+		private int index_(int n) {
+			return (next_ - size_ + n + millis_.length) % millis_.length;
+		}
+		private JsonObject raw_(long from, long to) {
+			JsonArray time = new JsonArray();
+			JsonArray[] channels = new JsonArray[CHANNELS.length];
+			for (int c = 0; c < CHANNELS.length; c++) channels[c] = new JsonArray();
+			for (int n = 0; n < size_; n++) {
+				int i = index_(n);
+				if (millis_[i] < from || to <= millis_[i]) continue;
+				time.add(millis_[i]);
+				for (int c = 0; c < CHANNELS.length; c++) addValue_(channels[c], values_[c][i]);
+			}
+			JsonObject result = new JsonObject().put("time", time);
+			for (int c = 0; c < CHANNELS.length; c++) result.put(CHANNELS[c], channels[c]);
+			return result;
+		}
+		private JsonObject downsample_(long from, long to, long bucketMsec) {
+			JsonArray time = new JsonArray();
+			JsonArray[][] channels = new JsonArray[CHANNELS.length][3];
+			for (int c = 0; c < CHANNELS.length; c++) for (int k = 0; k < 3; k++) channels[c][k] = new JsonArray();
+			float[] min = new float[CHANNELS.length];
+			float[] max = new float[CHANNELS.length];
+			double[] sum = new double[CHANNELS.length];
+			int[] count = new int[CHANNELS.length];
+			long bucket = Long.MIN_VALUE;
+			for (int n = 0; n <= size_; n++) {
+				int i = (n < size_) ? index_(n) : -1;
+				if (0 <= i && (millis_[i] < from || to <= millis_[i])) continue;
+				long aBucket = (0 <= i) ? millis_[i] - Math.floorMod(millis_[i], bucketMsec) : Long.MAX_VALUE;
+				if (aBucket != bucket) {
+					if (bucket != Long.MIN_VALUE) {
+						// Close the previous bucket
+						// 前のバケットを閉じる
+						time.add(bucket);
+						for (int c = 0; c < CHANNELS.length; c++) {
+							boolean has = 0 < count[c];
+							addValue_(channels[c][0], (has) ? min[c] : Float.NaN);
+							addValue_(channels[c][1], (has) ? max[c] : Float.NaN);
+							addValue_(channels[c][2], (has) ? (float) (sum[c] / count[c]) : Float.NaN);
+						}
+					}
+					if (i < 0) break;
+					bucket = aBucket;
+					for (int c = 0; c < CHANNELS.length; c++) {
+						min[c] = Float.POSITIVE_INFINITY;
+						max[c] = Float.NEGATIVE_INFINITY;
+						sum[c] = 0D;
+						count[c] = 0;
+					}
+				}
+				for (int c = 0; c < CHANNELS.length; c++) {
+					float v = values_[c][i];
+					if (Float.isNaN(v)) continue;
+					if (v < min[c]) min[c] = v;
+					if (max[c] < v) max[c] = v;
+					sum[c] += v;
+					++count[c];
+				}
+			}
+			JsonObject result = new JsonObject().put("time", time);
+			for (int c = 0; c < CHANNELS.length; c++) {
+				result.put(CHANNELS[c], new JsonObject().put("min", channels[c][0]).put("max", channels[c][1]).put("avg", channels[c][2]));
+			}
+			return result;
+		}
+	}
+
+}
@@ -0,0 +1,355 @@
+package jp.co.sony.csl.dcoes.apis.main.util;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A typed snapshot of the numeric values of unit data of all units.
+ * Values are held in primitive arrays indexed through a unit ID to index table, so evaluations can read them without walking JSON paths.
+ * Built once per data collection by {@link #reset(JsonObject)} and kept in sync with partial updates by {@link #update(String, JsonObject)}.
+ * Missing values are held as {@code NaN}.
+ * Not thread-safe ; use it from the same context as the unit data it mirrors.
+ * @author OES Project
+ *          
+ * 全ユニットのユニットデータの数値の型付きスナップショット.
+ * 値はユニット ID からインデクスへの表で引くプリミティブ配列に保持するので評価処理は JSON パスを辿らずに読める.
+ * データ収集ごとに {@link #reset(JsonObject)} で一度だけ構築し部分的な更新は {@link #update(String, JsonObject)} で同期する.
+ * 値がなければ {@code NaN} として保持する.
+ * スレッドセーフではない ; 元のユニットデータと同じコンテキストから使うこと.
+ * @author OES Project
+ */
+public class UnitDataView {
+
+	private static final String[] IG_PATH_ = new String[] { "dcdc", "meter", "ig" };
+	private static final String[] VG_PATH_ = new String[] { "dcdc", "meter", "vg" };
+	private static final String[] WB_PATH_ = new String[] { "dcdc", "meter", "wb" };
+	private static final String[] DVG_PATH_ = new String[] { "dcdc", "vdis", "dvg" };
+	private static final String[] DIG_PATH_ = new String[] { "dcdc", "param", "dig" };
+	private static final String[] RSOC_PATH_ = new String[] { "battery", "rsoc" };
+
+	private final Map<String, Integer> index_ = new HashMap<>();
+	private String[] unitIds_ = new String[0];
+	private float[] ig_ = new float[0];
+	private float[] vg_ = new float[0];
+	private float[] wb_ = new float[0];
+	private float[] dvg_ = new float[0];
+	private float[] dig_ = new float[0];
+	private float[] rsoc_ = new float[0];
+	private int size_ = 0;
+
+	/**
+	 * Create an empty instance.
+	 *          
+	 * 空のインスタンスを生成する.
+	 */
+	public UnitDataView() {
+	}
+
+	/**
+	 * Create an instance from unit data of all units.
+	 * @param unitDataByUnitId unit data keyed by unit ID
+	 * @return a new instance
+	 *          
+	 * 全ユニットのユニットデータからインスタンスを生成する.
+	 * @param unitDataByUnitId ユニット ID をキーとするユニットデータ
+	 * @return 新しいインスタンス
+	 */
+	public static UnitDataView of(JsonObject unitDataByUnitId) {
+		UnitDataView result = new UnitDataView();
+		result.reset(unitDataByUnitId);
+		return result;
+	}
+
+	/**
+	 * Rebuild the whole view from unit data of all units.
+	 * Arrays are reused while the number of units does not grow.
+	 * @param unitDataByUnitId unit data keyed by unit ID. {@code null} for empty
+	 *          
+	 * 全ユニットのユニットデータからビュー全体を構築しなおす.
+	 * ユニット数が増えない限り配列は再利用する.
+	 * @param unitDataByUnitId ユニット ID をキーとするユニットデータ. {@code null} なら空
+	 */
+	public void reset(JsonObject unitDataByUnitId) {
+		index_.clear();
+		size_ = 0;
+		if (unitDataByUnitId == null) return;
+		ensureCapacity_(unitDataByUnitId.size());
+		for (String aUnitId : unitDataByUnitId.fieldNames()) {
+			Object aUnitData = unitDataByUnitId.getValue(aUnitId);
+			if (aUnitData instanceof JsonObject) {
+				update(aUnitId, (JsonObject) aUnitData);
+			}
+		}
+	}
+
+	/**
+	 * Refresh the values of one unit.
+	 * Call after the unit data of the unit has been changed, e.g. by merging a device control state.
+	 * A unit not yet in the view is added.
+	 * @param unitId the unit ID
+	 * @param unitData the whole unit data of the unit. {@code null} to clear the values
+	 *          
+	 * 一つのユニットの値を更新する.
+	 * デバイス制御状態のマージなどでそのユニットのユニットデータが変わった後に呼ぶ.
+	 * ビューにまだないユニットは追加する.
+	 * @param unitId ユニット ID
+	 * @param unitData そのユニットのユニットデータ全体. {@code null} なら値をクリアする
+	 */
+	public void update(String unitId, JsonObject unitData) {
+		if (unitId == null) return;
+		Integer i = index_.get(unitId);
+		if (i == null) {
+			ensureCapacity_(size_ + 1);
+			i = size_++;
+			index_.put(unitId, i);
+			unitIds_[i] = unitId;
+		}
+		ig_[i] = value(unitData, IG_PATH_);
+		vg_[i] = value(unitData, VG_PATH_);
+		wb_[i] = value(unitData, WB_PATH_);
+		dvg_[i] = value(unitData, DVG_PATH_);
+		dig_[i] = value(unitData, DIG_PATH_);
+		rsoc_[i] = value(unitData, RSOC_PATH_);
+	}
+
+	/**
+	 * Get the number of units.
+	 * @return the number of units
+	 *          
+	 * ユニット数を取得する.
+	 * @return ユニット数
+	 */
+	public int size() {
+		return size_;
+	}
+	/**
+	 * Get the index of a unit.
+	 * @param unitId the unit ID
+	 * @return the index. {@code -1} if the unit is not in the view
+	 *          
+	 * ユニットのインデクスを取得する.
+	 * @param unitId ユニット ID
+	 * @return インデクス. ビューになければ {@code -1}
+	 */
+	public int indexOf(String unitId) {
+		Integer result = index_.get(unitId);
+		return (result != null) ? result : -1;
+	}
+	/**
+	 * Get the unit ID at an index.
+	 * @param index the index
+	 * @return the unit ID
+	 *          
+	 * インデクスのユニット ID を取得する.
+	 * @param index インデクス
+	 * @return ユニット ID
+	 */
+	public String unitId(int index) {
+		return unitIds_[index];
+	}
+
+	/**
+	 * Get {@code dcdc.meter.ig} of the unit at an index.
+	 * @param index the index
+	 * @return the value [A]. {@code NaN} if missing
+	 *          
+	 * インデクスのユニットの {@code dcdc.meter.ig} を取得する.
+	 * @param index インデクス
+	 * @return 値 [A]. なければ {@code NaN}
+	 */
+	public float ig(int index) {
+		return ig_[index];
+	}
+	/**
+	 * Get {@code dcdc.meter.vg} of the unit at an index.
+	 * @param index the index
+	 * @return the value [V]. {@code NaN} if missing
+	 *          
+	 * インデクスのユニットの {@code dcdc.meter.vg} を取得する.
+	 * @param index インデクス
+	 * @return 値 [V]. なければ {@code NaN}
+	 */
+	public float vg(int index) {
+		return vg_[index];
+	}
+	/**
+	 * Get {@code dcdc.meter.wb} of the unit at an index.
+	 * @param index the index
+	 * @return the value [W]. {@code NaN} if missing
+	 *          
+	 * インデクスのユニットの {@code dcdc.meter.wb} を取得する.
+	 * @param index インデクス
+	 * @return 値 [W]. なければ {@code NaN}
+	 */
+	public float wb(int index) {
+		return wb_[index];
+	}
+	/**
+	 * Get {@code dcdc.vdis.dvg} of the unit at an index.
+	 * @param index the index
+	 * @return the value [V]. {@code NaN} if missing
+	 *          
+	 * インデクスのユニットの {@code dcdc.vdis.dvg} を取得する.
+	 * @param index インデクス
+	 * @return 値 [V]. なければ {@code NaN}
+	 */
+	public float dvg(int index) {
+		return dvg_[index];
+	}
+	/**
+	 * Get {@code dcdc.param.dig} of the unit at an index.
+	 * @param index the index
+	 * @return the value [A]. {@code NaN} if missing
+	 *          
+	 * インデクスのユニットの {@code dcdc.param.dig} を取得する.
+	 * @param index インデクス
+	 * @return 値 [A]. なければ {@code NaN}
+	 */
+	public float dig(int index) {
+		return dig_[index];
+	}
+	/**
+	 * Get {@code battery.rsoc} of the unit at an index.
+	 * @param index the index
+	 * @return the value [%]. {@code NaN} if missing
+	 *          
+	 * インデクスのユニットの {@code battery.rsoc} を取得する.
+	 * @param index インデクス
+	 * @return 値 [%]. なければ {@code NaN}
+	 */
+	public float rsoc(int index) {
+		return rsoc_[index];
+	}
+
+	/**
+	 * Get {@code dcdc.meter.ig} of a unit.
+	 * @param unitId the unit ID
+	 * @return the value [A]. {@code NaN} if missing or the unit is not in the view
+	 *          
+	 * ユニットの {@code dcdc.meter.ig} を取得する.
+	 * @param unitId ユニット ID
+	 * @return 値 [A]. 値がないかビューにユニットがなければ {@code NaN}
+	 */
+	public float ig(String unitId) {
+		int i = indexOf(unitId);
+		return (0 <= i) ? ig_[i] : Float.NaN;
+	}
+	/**
+	 * Get {@code dcdc.meter.vg} of a unit.
+	 * @param unitId the unit ID
+	 * @return the value [V]. {@code NaN} if missing or the unit is not in the view
+	 *          
+	 * ユニットの {@code dcdc.meter.vg} を取得する.
+	 * @param unitId ユニット ID
+	 * @return 値 [V]. 値がないかビューにユニットがなければ {@code NaN}
+	 */
+	public float vg(String unitId) {
+		int i = indexOf(unitId);
+		return (0 <= i) ? vg_[i] : Float.NaN;
+	}
+	/**
+	 * Get {@code dcdc.meter.wb} of a unit.
+	 * @param unitId the unit ID
+	 * @return the value [W]. {@code NaN} if missing or the unit is not in the view
+	 *          
+	 * ユニットの {@code dcdc.meter.wb} を取得する.
+	 * @param unitId ユニット ID
+	 * @return 値 [W]. 値がないかビューにユニットがなければ {@code NaN}
+	 */
+	public float wb(String unitId) {
+		int i = indexOf(unitId);
+		return (0 <= i) ? wb_[i] : Float.NaN;
+	}
+	/**
+	 * Get {@code dcdc.vdis.dvg} of a unit.
+	 * @param unitId the unit ID
+	 * @return the value [V]. {@code NaN} if missing or the unit is not in the view
+	 *          
+	 * ユニットの {@code dcdc.vdis.dvg} を取得する.
+	 * @param unitId ユニット ID
+	 * @return 値 [V]. 値がないかビューにユニットがなければ {@code NaN}
+	 */
+	public float dvg(String unitId) {
+		int i = indexOf(unitId);
+		return (0 <= i) ? dvg_[i] : Float.NaN;
+	}
+	/**
+	 * Get {@code dcdc.param.dig} of a unit.
+	 * @param unitId the unit ID
+	 * @return the value [A]. {@code NaN} if missing or the unit is not in the view
+	 *          
+	 * ユニットの {@code dcdc.param.dig} を取得する.
+	 * @param unitId ユニット ID
+	 * @return 値 [A]. 値がないかビューにユニットがなければ {@code NaN}
+	 */
+	public float dig(String unitId) {
+		int i = indexOf(unitId);
+		return (0 <= i) ? dig_[i] : Float.NaN;
+	}
+	/**
+	 * Get {@code battery.rsoc} of a unit.
+	 * @param unitId the unit ID
+	 * @return the value [%]. {@code NaN} if missing or the unit is not in the view
+	 *          
+	 * ユニットの {@code battery.rsoc} を取得する.
+	 * @param unitId ユニット ID
+	 * @return 値 [%]. 値がないかビューにユニットがなければ {@code NaN}
+	 */
+	public float rsoc(String unitId) {
+		int i = indexOf(unitId);
+		return (0 <= i) ? rsoc_[i] : Float.NaN;
+	}
+
+	/**
+	 * Read a numeric value at a path without boxing.
+	 * Numeric strings are parsed.
+	 * @param jsonObject the object to read
+	 * @param path the path
+	 * @return the value. {@code NaN} if missing or not numeric
+	 *          
+	 * パスの数値をボクシングせずに読む.
+	 * 数値の文字列はパースする.
+	 * @param jsonObject 読む対象
+	 * @param path パス
+	 * @return 値. ないか数値でなければ {@code NaN}
+	 */
+	static float value(JsonObject jsonObject, String[] path) {
+		if (jsonObject == null) return Float.NaN;
+		JsonObject o = jsonObject;
+		for (int i = 0; i < path.length - 1; i++) {
+			Object v = o.getValue(path[i]);
+			if (!(v instanceof JsonObject)) return Float.NaN;
+			o = (JsonObject) v;
+		}
+		Object v = o.getValue(path[path.length - 1]);
+		if (v instanceof Number) {
+			return ((Number) v).floatValue();
+		} else if (v instanceof String) {
+			try {
+				return Float.parseFloat((String) v);
+			} catch (NumberFormatException e) {
+				return Float.NaN;
+			}
+		}
+		return Float.NaN;
+	}
+
+	////
+
+	private void ensureCapacity_(int capacity) {
+		if (unitIds_.length < capacity) {
+			int newCapacity = Math.max(capacity, unitIds_.length * 2);
+			unitIds_ = Arrays.copyOf(unitIds_, newCapacity);
+			ig_ = Arrays.copyOf(ig_, newCapacity);
+			vg_ = Arrays.copyOf(vg_, newCapacity);
+			wb_ = Arrays.copyOf(wb_, newCapacity);
+			dvg_ = Arrays.copyOf(dvg_, newCapacity);
+			dig_ = Arrays.copyOf(dig_, newCapacity);
+			rsoc_ = Arrays.copyOf(rsoc_, newCapacity);
+		}
+	}
+
+}
@@ -0,0 +1,116 @@
+package jp.co.sony.csl.dcoes.apis.main.app.controller;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.co.sony.csl.dcoes.apis.common.util.vertx.JsonObjectUtil;
+import jp.co.sony.csl.dcoes.apis.common.util.vertx.VertxConfig;
+import jp.co.sony.csl.dcoes.apis.main.app.controller.util.DeviceHttpClient;
+import jp.co.sony.csl.dcoes.apis.main.factory.Factory;
+import jp.co.sony.csl.dcoes.apis.main.test.AbstractApisTest;
+
+import org.junit.Test;
+
+/**
+ * DataAcquisition measurement stream test.
+ * @author OES Project
+ *          
+ * DataAcquisition の測定値ストリームのテスト.
+ * @author OES Project
+ */
+public class DataAcquisitionStreamingTest extends AbstractApisTest {
+
+	private static final String STREAMING_URI_ = "/all/stream";
+
+	/**
+	 * Frames update the unit data cache, and the stream is reconnected after the server closes it.
+	 * @param context a testcontext object
+	 *          
+	 * フレームがユニットデータのキャッシュを更新し, サーバが閉じたらストリームを再接続する.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testFramesAndReconnection(TestContext context) {
+		Async async = context.async();
+		AtomicInteger connections = new AtomicInteger();
+		HttpServer server = vertx.createHttpServer().requestHandler(req -> {
+			context.assertEquals(STREAMING_URI_, req.path());
+			int connection = connections.incrementAndGet();
+			HttpServerResponse res = req.response().setChunked(true);
+			AtomicInteger frames = new AtomicInteger();
+			vertx.setPeriodic(50L, timerId -> {
+				if (res.closed()) {
+					vertx.cancelTimer(timerId);
+				} else if (connection == 1 && 3 <= frames.get()) {
+					// Close the first stream from the server side
+					// 最初のストリームはサーバ側から閉じる
+					vertx.cancelTimer(timerId);
+					req.connection().close();
+				} else {
+					frames.incrementAndGet();
+					res.write(new JsonObject().put("meter", new JsonObject().put("ig", connection)).encode() + "\n");
+				}
+			});
+		});
+		server.listen(0, "localhost", context.asyncAssertSuccess(s -> {
+			JsonObject config = VertxConfig.config.jsonObject();
+			JsonObjectUtil.put(config, new JsonObject().put("enabled", true).put("uri", STREAMING_URI_).put("reconnectDelayMsec", 100).put("idleTimeoutMsec", 1000), "connection", "streaming");
+			Factory.initialize(context.asyncAssertSuccess(v -> {
+				vertx.deployVerticle(new StubDataAcquisition_(s.actualPort()), context.asyncAssertSuccess(deploymentID -> {
+					vertx.setPeriodic(50L, timerId -> {
+						JsonObject cache = DataAcquisition.cache.jsonObject();
+						if (cache != null && Integer.valueOf(2).equals(JsonObjectUtil.getInteger(cache, "meter", "ig"))) {
+							vertx.cancelTimer(timerId);
+							// A frame carries only part of the unit data ; the rest must survive the merge
+							// フレームはユニットデータの一部しか運ばない ; 残りはマージ後も残っていなければならない
+							context.assertEquals(Integer.valueOf(350), JsonObjectUtil.getInteger(cache, "meter", "vg"));
+							context.assertEquals(2, connections.get());
+							vertx.undeploy(deploymentID, context.asyncAssertSuccess(vv -> {
+								async.complete();
+							}));
+						}
+					});
+				}));
+			}));
+		}));
+	}
+
+	////
+
+	/**
+	 * A driver whose periodic acquisition returns fixed unit data and whose stream is served by the stub server.
+	 *          
+	 * 定期的な取得は固定のユニットデータを返しストリームはスタブサーバから受けるドライバ.
+	 */
+	private static class StubDataAcquisition_ extends DataAcquisition {
+		private final int port_;
+		private StubDataAcquisition_(int port) {
+			port_ = port;
+		}
+		@Override protected void init(Handler<AsyncResult<Void>> completionHandler) {
+			completionHandler.handle(Future.succeededFuture());
+		}
+		@Override protected void getData(Handler<AsyncResult<JsonObject>> completionHandler) {
+			completionHandler.handle(Future.succeededFuture(new JsonObject().put("meter", new JsonObject().put("vg", 350).put("ig", 0))));
+		}
+		@Override protected void getDeviceStatus(Handler<AsyncResult<JsonObject>> completionHandler) {
+			completionHandler.handle(Future.succeededFuture(new JsonObject()));
+		}
+		@Override protected JsonObject mergeDeviceStatus(JsonObject value) {
+			return value;
+		}
+		@Override protected HttpClient streamingClient() {
+			return DeviceHttpClient.streaming(vertx, "localhost", port_);
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+package jp.co.sony.csl.dcoes.apis.main.app.controller.impl.dcdc.device_controlling;
+
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * GridVoltageStepping test.
+ * @author OES Project
+ *          
+ * GridVoltageStepping のテスト.
+ * @author OES Project
+ */
+@RunWith(VertxUnitRunner.class)
+public class GridVoltageSteppingTest {
+
+	/**
+	 * The maximum step defaults to a multiple of the minimum step, and a configured maximum is not less than the minimum.
+	 * @param context a testcontext object
+	 *          
+	 * ステップ幅の上限のデフォルトは下限の倍数で, 設定された上限は下限を下回らない.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testMaxStepV(TestContext context) {
+		context.assertEquals(5F * GridVoltageStepping.DEFAULT_MAX_STEP_FACTOR, GridVoltageStepping.maxStepV(5F, null));
+		context.assertTrue(5F < GridVoltageStepping.maxStepV(5F, null));
+		context.assertEquals(20F, GridVoltageStepping.maxStepV(5F, 20F));
+		context.assertEquals(5F, GridVoltageStepping.maxStepV(5F, 2F));
+	}
+
+	/**
+	 * A followed step doubles the next one up to the maximum, a lagging one halves it down to the minimum, and no measurement keeps it.
+	 * @param context a testcontext object
+	 *          
+	 * 追従したステップの次は上限まで倍に, 遅れたステップの次は下限まで半分になり, 測定値がなければ変わらない.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testNextStepV(TestContext context) {
+		float minStepV = 5F;
+		float maxStepV = GridVoltageStepping.maxStepV(minStepV, null);
+		float stepV = minStepV;
+		float setpoint = 350F;
+		for (int i = 0; i < 10; i++) {
+			setpoint += stepV;
+			stepV = GridVoltageStepping.nextStepV(stepV, setpoint, setpoint - 1F, 2F, minStepV, maxStepV);
+		}
+		context.assertEquals(maxStepV, stepV);
+		context.assertEquals(20F, GridVoltageStepping.nextStepV(10F, 350F, 352F, 2F, minStepV, maxStepV));
+		context.assertEquals(5F, GridVoltageStepping.nextStepV(10F, 350F, 352.5F, 2F, minStepV, maxStepV));
+		context.assertEquals(minStepV, GridVoltageStepping.nextStepV(minStepV, 350F, 340F, 2F, minStepV, maxStepV));
+		context.assertEquals(10F, GridVoltageStepping.nextStepV(10F, 350F, null, 2F, minStepV, maxStepV));
+	}
+
+}
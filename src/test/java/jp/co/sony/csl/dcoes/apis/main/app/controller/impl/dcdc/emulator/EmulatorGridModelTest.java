@@ -0,0 +1,134 @@
+package jp.co.sony.csl.dcoes.apis.main.app.controller.impl.dcdc.emulator;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+import java.util.Arrays;
+
+import jp.co.sony.csl.dcoes.apis.main.app.controller.util.DDCon;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * EmulatorGridModel test.
+ * @author OES Project
+ *          
+ * EmulatorGridModel のテスト.
+ * @author OES Project
+ */
+@RunWith(VertxUnitRunner.class)
+public class EmulatorGridModelTest {
+
+	private static final float DELTA_ = 0.001F;
+
+	private static EmulatorGridModel model_() {
+		// Every unit starts at rsoc 50 without local power
+		// 全ユニットがローカル電力なしの rsoc 50 で始まる
+		return new EmulatorGridModel(Arrays.asList("E001", "E002", "E003"), 4800F, 50F, 50F, 0F, 1L);
+	}
+
+	/**
+	 * A CV unit carries no current until a voltage reference makes the grid, which then takes the balance and droops.
+	 * @param context a testcontext object
+	 *          
+	 * 電圧リファレンスがグリッドを作るまで CV のユニットは電流を流さず, 作った後は電圧リファレンスが差分を引き受け垂下する.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testGridNeedsVoltageReference(TestContext context) {
+		EmulatorGridModel model = model_();
+		context.assertEquals(Arrays.asList("E001", "E002", "E003"), model.unitIds());
+		context.assertTrue(model.contains("E001"));
+		context.assertFalse(model.contains("E999"));
+
+		model.setMode("E002", DDCon.Mode.CHARGE, null, 2F, null);
+		JsonObject dcdc = model.dcdc("E002");
+		context.assertEquals(DDCon.MODE_CODE_CHARGE, dcdc.getJsonObject("status").getString("status"));
+		context.assertEquals(0F, dcdc.getJsonObject("meter").getFloat("ig"));
+		context.assertEquals(0F, dcdc.getJsonObject("meter").getFloat("vg"));
+
+		model.setMode("E001", DDCon.Mode.VOLTAGE_REFERENCE, 350F, null, 0.1F);
+		context.assertInRange(2F, model.dcdc("E002").getJsonObject("meter").getFloat("ig"), DELTA_);
+		context.assertInRange(-2F, model.dcdc("E001").getJsonObject("meter").getFloat("ig"), DELTA_);
+		context.assertInRange(349.8F, model.dcdc("E001").getJsonObject("meter").getFloat("vg"), DELTA_);
+		context.assertEquals(0F, model.dcdc("E003").getJsonObject("meter").getFloat("ig"));
+
+		// A DISCHARGE unit takes over the supply from the voltage reference
+		// DISCHARGE のユニットが電圧リファレンスから供給を引き継ぐ
+		model.setMode("E003", DDCon.Mode.DISCHARGE, null, 2F, null);
+		context.assertInRange(-2F, model.dcdc("E003").getJsonObject("meter").getFloat("ig"), DELTA_);
+		context.assertInRange(0F, model.dcdc("E001").getJsonObject("meter").getFloat("ig"), DELTA_);
+		context.assertInRange(350F, model.dcdc("E001").getJsonObject("meter").getFloat("vg"), DELTA_);
+
+		// Without the voltage reference the grid is gone
+		// 電圧リファレンスがなければグリッドはない
+		model.setMode("E001", DDCon.Mode.WAIT, null, null, null);
+		context.assertEquals(0F, model.dcdc("E002").getJsonObject("meter").getFloat("ig"));
+		context.assertEquals(0F, model.dcdc("E003").getJsonObject("meter").getFloat("ig"));
+	}
+
+	/**
+	 * Stepping moves the rsoc of the batteries by the converter power and its loss.
+	 * @param context a testcontext object
+	 *          
+	 * ステップを進めるとコンバータの電力と損失でバッテリの rsoc が変わる.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testStepChargesAndDischarges(TestContext context) {
+		EmulatorGridModel model = model_();
+		model.setMode("E001", DDCon.Mode.VOLTAGE_REFERENCE, 350F, null, 0F);
+		model.setMode("E002", DDCon.Mode.CHARGE, null, 2F, null);
+		model.step(3600D);
+		float wg = 350F * 2F;
+		JsonObject e001 = model.unit("E001", "2020/01/01-01:00:00");
+		JsonObject e002 = model.unit("E002", "2020/01/01-01:00:00");
+		JsonObject e003 = model.unit("E003", "2020/01/01-01:00:00");
+		context.assertEquals("2020/01/01-01:00:00", e002.getString("time"));
+		context.assertInRange(50F + wg * EmulatorGridModel.CONVERTER_EFFICIENCY / 4800F * 100F, e002.getJsonObject("emu").getFloat("rsoc"), DELTA_);
+		context.assertInRange(50F - wg / EmulatorGridModel.CONVERTER_EFFICIENCY / 4800F * 100F, e001.getJsonObject("emu").getFloat("rsoc"), DELTA_);
+		context.assertInRange(50F, e003.getJsonObject("emu").getFloat("rsoc"), DELTA_);
+		context.assertTrue(EmulatorGridModel.BATTERY_VOLTAGE_EMPTY_V < e002.getJsonObject("emu").getFloat("battery_voltage"));
+		context.assertTrue(e002.getJsonObject("emu").getFloat("battery_voltage") < EmulatorGridModel.BATTERY_VOLTAGE_FULL_V);
+		context.assertTrue(0F < e002.getJsonObject("dcdc").getJsonObject("meter").getFloat("ib"));
+		context.assertTrue(e001.getJsonObject("dcdc").getJsonObject("meter").getFloat("ib") < 0F);
+	}
+
+	/**
+	 * A full battery stops charging and the rsoc stays within range.
+	 * @param context a testcontext object
+	 *          
+	 * 満充電のバッテリは充電を止め rsoc は範囲内にとどまる.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testFullBatteryStopsCharging(TestContext context) {
+		EmulatorGridModel model = new EmulatorGridModel(Arrays.asList("E001", "E002"), 100F, 99F, 99F, 0F, 1L);
+		model.setMode("E001", DDCon.Mode.VOLTAGE_REFERENCE, 350F, null, 0F);
+		model.setMode("E002", DDCon.Mode.CHARGE, null, 2F, null);
+		model.step(3600D);
+		context.assertEquals(100F, model.unit("E002", null).getJsonObject("emu").getFloat("rsoc"));
+		model.step(0D);
+		context.assertEquals(0F, model.dcdc("E002").getJsonObject("meter").getFloat("ig"));
+	}
+
+	/**
+	 * The same seed gives the same initial values.
+	 * @param context a testcontext object
+	 *          
+	 * 同じシードなら同じ初期値になる.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testSeed(TestContext context) {
+		EmulatorGridModel a = new EmulatorGridModel(Arrays.asList("E001", "E002"), 4800F, 30F, 80F, 200F, 7L);
+		EmulatorGridModel b = new EmulatorGridModel(Arrays.asList("E001", "E002"), 4800F, 30F, 80F, 200F, 7L);
+		context.assertEquals(a.unit("E001", null), b.unit("E001", null));
+		context.assertEquals(a.unit("E002", null), b.unit("E002", null));
+		float rsoc = a.unit("E001", null).getJsonObject("emu").getFloat("rsoc");
+		context.assertTrue(30F <= rsoc && rsoc <= 80F);
+	}
+
+}
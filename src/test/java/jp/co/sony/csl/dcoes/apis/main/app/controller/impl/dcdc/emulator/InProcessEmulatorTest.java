@@ -0,0 +1,150 @@
+package jp.co.sony.csl.dcoes.apis.main.app.controller.impl.dcdc.emulator;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+import java.net.ServerSocket;
+import java.util.function.Consumer;
+
+import jp.co.sony.csl.dcoes.apis.common.util.vertx.VertxConfig;
+import jp.co.sony.csl.dcoes.apis.main.app.controller.util.DDCon;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * InProcessEmulator test.
+ * @author OES Project
+ *          
+ * InProcessEmulator のテスト.
+ * @author OES Project
+ */
+@RunWith(VertxUnitRunner.class)
+public class InProcessEmulatorTest {
+
+	private Vertx vertx;
+	private HttpClient client_;
+	private int port_;
+
+	@Before
+	public void before(TestContext context) throws Exception {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port_ = socket.getLocalPort();
+		}
+		// The step timer is kept from firing during the test
+		// テスト中は模擬ステップのタイマが発火しないようにする
+		VertxConfig.config.setJsonObject(new JsonObject()
+				.put("connection", new JsonObject().put("emulator", new JsonObject().put("host", "localhost").put("port", port_)))
+				.put("inProcessEmulator", new JsonObject().put("enabled", true).put("numberOfUnits", 3).put("periodMsec", 3600000L).put("initialRsoc", new JsonObject().put("min", 50F).put("max", 50F)).put("localPowerW", 0F)));
+		vertx = Vertx.vertx();
+		client_ = vertx.createHttpClient();
+		vertx.deployVerticle(new InProcessEmulator(), context.asyncAssertSuccess());
+	}
+
+	@After
+	public void after(TestContext context) {
+		VertxConfig.config.setJsonObject(null);
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	private void get_(TestContext context, String uri, int statusCode, Consumer<String> bodyHandler) {
+		client_.getNow(port_, "localhost", uri, res -> {
+			context.assertEquals(statusCode, res.statusCode());
+			res.bodyHandler(body -> bodyHandler.accept(body.toString()));
+		});
+	}
+
+	/**
+	 * The enabled flag is read from CONFIG.
+	 * @param context a testcontext object
+	 *          
+	 * 有効フラグは CONFIG から読む.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testEnabled(TestContext context) {
+		context.assertTrue(InProcessEmulator.enabled());
+		VertxConfig.config.setJsonObject(new JsonObject());
+		context.assertFalse(InProcessEmulator.enabled());
+	}
+
+	/**
+	 * Units are made with the default ID format and served one by one and all together.
+	 * @param context a testcontext object
+	 *          
+	 * ユニットはデフォルトの ID フォーマットで作られ個別にも全体でも返される.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testGet(TestContext context) {
+		Async async = context.async(3);
+		get_(context, "/get/units", 200, body -> {
+			JsonObject units = new JsonObject(body);
+			context.assertEquals(3, units.size());
+			context.assertTrue(units.containsKey("E001") && units.containsKey("E002") && units.containsKey("E003"));
+			context.assertEquals(50F, units.getJsonObject("E002").getJsonObject("emu").getFloat("rsoc"));
+			context.assertNotNull(units.getJsonObject("E002").getString("time"));
+			async.countDown();
+		});
+		get_(context, "/get/unit/E001", 200, body -> {
+			context.assertEquals(DDCon.MODE_CODE_WAIT, new JsonObject(body).getJsonObject("dcdc").getJsonObject("status").getString("status"));
+			async.countDown();
+		});
+		get_(context, "/get/dcdc/status/E003", 200, body -> {
+			context.assertTrue(new JsonObject(body).getJsonObject("meter").containsKey("ig"));
+			async.countDown();
+		});
+	}
+
+	/**
+	 * Setting the modes makes the grid and current flows between the units.
+	 * @param context a testcontext object
+	 *          
+	 * モードを設定するとグリッドができユニット間に電流が流れる.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testSet(TestContext context) {
+		Async async = context.async();
+		get_(context, "/set/dcdc/E001?mode=" + DDCon.MODE_CODE_VOLTAGE_REFERENCE + "&dvg=350&drg=0", 200, vr -> {
+			context.assertEquals(DDCon.MODE_CODE_VOLTAGE_REFERENCE, new JsonObject(vr).getJsonObject("status").getString("status"));
+			get_(context, "/set/dcdc/E002?mode=" + DDCon.MODE_CODE_CHARGE + "&dig=1", 200, charge -> {
+				context.assertEquals(1F, new JsonObject(charge).getJsonObject("meter").getFloat("ig"));
+				get_(context, "/set/dcdc/current/E002?dig=2", 200, current -> {
+					context.assertEquals(2F, new JsonObject(current).getJsonObject("meter").getFloat("ig"));
+					get_(context, "/set/dcdc/voltage/E001?dvg=360&drg=null", 200, voltage -> {
+						context.assertEquals(360F, new JsonObject(voltage).getJsonObject("meter").getFloat("vg"));
+						context.assertEquals(-2F, new JsonObject(voltage).getJsonObject("meter").getFloat("ig"));
+						async.complete();
+					});
+				});
+			});
+		});
+	}
+
+	/**
+	 * Unknown paths and units, invalid modes and invalid numbers are rejected.
+	 * @param context a testcontext object
+	 *          
+	 * 不明なパスとユニット, 不正なモードと数値は拒否される.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testErrors(TestContext context) {
+		Async async = context.async(4);
+		get_(context, "/no/such/path", 404, body -> async.countDown());
+		get_(context, "/get/unit/E999", 404, body -> {
+			context.assertTrue(body.contains("E999"));
+			async.countDown();
+		});
+		get_(context, "/set/dcdc/E001?mode=0xFFFF", 400, body -> async.countDown());
+		get_(context, "/set/dcdc/current/E001?dig=abc", 400, body -> async.countDown());
+	}
+
+}
@@ -0,0 +1,121 @@
+package jp.co.sony.csl.dcoes.apis.main.app.controller.util;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * DeviceHttpClient test.
+ * @author OES Project
+ *          
+ * DeviceHttpClient のテスト.
+ * @author OES Project
+ */
+@RunWith(VertxUnitRunner.class)
+public class DeviceHttpClientTest {
+
+	private Vertx vertx;
+
+	@Before
+	public void before(TestContext context) {
+		vertx = Vertx.vertx();
+		DeviceHttpClient.resetMetrics();
+	}
+
+	@After
+	public void after(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	private static class User_ extends AbstractVerticle {
+		private final int port_;
+		private HttpClient client_;
+		private HttpClient again_;
+		private User_(int port) {
+			port_ = port;
+		}
+		@Override public void start() throws Exception {
+			client_ = DeviceHttpClient.shared(vertx, "localhost", port_);
+			again_ = DeviceHttpClient.shared(vertx, "localhost", port_);
+		}
+		@Override public void stop() throws Exception {
+			DeviceHttpClient.release(vertx, client_);
+			DeviceHttpClient.release(vertx, again_);
+		}
+	}
+
+	/**
+	 * A client is shared within a Verticle, each Verticle has its own, and undeploying one Verticle leaves the client of another usable.
+	 * @param context a testcontext object
+	 *          
+	 * クライアントは Verticle 内で共有され, Verticle ごとに別で, ある Verticle をアンデプロイしても他の Verticle のクライアントは使える.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testClientPerVerticle(TestContext context) {
+		Async async = context.async();
+		vertx.createHttpServer().requestHandler(req -> req.response().end("ok")).listen(0, "localhost", context.asyncAssertSuccess(server -> {
+			User_ a = new User_(server.actualPort());
+			User_ b = new User_(server.actualPort());
+			vertx.deployVerticle(a, context.asyncAssertSuccess(idA -> {
+				vertx.deployVerticle(b, context.asyncAssertSuccess(idB -> {
+					context.assertTrue(a.client_ == a.again_);
+					context.assertTrue(b.client_ == b.again_);
+					context.assertFalse(a.client_ == b.client_);
+					vertx.undeploy(idA, context.asyncAssertSuccess(v -> {
+						b.client_.get("/", res -> {
+							context.assertEquals(200, res.statusCode());
+							async.complete();
+						}).exceptionHandler(context::fail).end();
+					}));
+				}));
+			}));
+		}));
+	}
+
+	/**
+	 * Results recorded from many threads at once are all counted, and the query string is ignored.
+	 * @param context a testcontext object
+	 *          
+	 * 多くのスレッドから同時に記録した結果はすべて数えられ, クエリ文字列は無視される.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testRecordFromManyThreads(TestContext context) throws Exception {
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			Thread aThread = new Thread(() -> {
+				for (int i = 0; i < 1000; i++) {
+					DeviceHttpClient.record("/dcdc/get?i=" + i, i % 50, i % 10 != 0);
+				}
+			});
+			threads.add(aThread);
+			aThread.start();
+		}
+		for (Thread aThread : threads) {
+			aThread.join();
+		}
+		JsonObject metrics = DeviceHttpClient.metrics();
+		context.assertEquals(1, metrics.size());
+		JsonObject path = metrics.getJsonObject("/dcdc/get");
+		context.assertEquals(8000L, path.getLong("count"));
+		context.assertEquals(800L, path.getLong("failureCount"));
+		context.assertEquals(24L, path.getLong("averageMsec"));
+		context.assertEquals(49L, path.getLong("maxMsec"));
+		DeviceHttpClient.resetMetrics();
+		context.assertTrue(DeviceHttpClient.metrics().isEmpty());
+	}
+
+}
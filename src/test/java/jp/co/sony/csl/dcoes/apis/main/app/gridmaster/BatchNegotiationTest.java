@@ -0,0 +1,255 @@
+package jp.co.sony.csl.dcoes.apis.main.app.gridmaster;
+
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
+import jp.co.sony.csl.dcoes.apis.main.test.AbstractApisTest;
+import jp.co.sony.csl.dcoes.apis.main.util.MainServiceAddress;
+
+import org.junit.Test;
+
+/**
+ * BatchNegotiation test.
+ * @author OES Project
+ *          
+ * BatchNegotiation のテスト.
+ * @author OES Project
+ */
+public class BatchNegotiationTest extends AbstractApisTest {
+
+	private static final long WINDOW_MSEC = 300L;
+
+	private final List<JsonObject> replies_ = new CopyOnWriteArrayList<>();
+
+	private static JsonObject request_(String unitId) {
+		return new JsonObject().put("unitId", unitId).put("type", "charge").put("amountWh", 200).put("dealGridCurrentA", 2F);
+	}
+	private static JsonObject accept_(String negotiationId, String unitId) {
+		return new JsonObject().put("negotiationId", negotiationId).put("unitId", unitId).put("type", "discharge").put("amountWh", 1000).put("dealGridCurrentA", 2F);
+	}
+
+	/**
+	 * Set POLICY, record the replies to E001 and E002, act as the mediators of all units and deploy BatchNegotiation.
+	 * @param context a testcontext object
+	 * @param negotiationTimeoutMsec the negotiation timeout [ms]
+	 * @param roundHandler called with the published message of each round
+	 * @param handler called with the deployment ID
+	 *          
+	 * POLICY を設定し, E001 と E002 への返信を記録し, 全ユニットの Mediator として振る舞い BatchNegotiation を起動する.
+	 * @param context testcontext オブジェクト
+	 * @param negotiationTimeoutMsec 融通交渉のタイムアウト [ms]
+	 * @param roundHandler 各ラウンドで publish されたメッセージを渡して呼ぶ
+	 * @param handler デプロイメント ID を渡して呼ぶ
+	 */
+	private void deploy_(TestContext context, long negotiationTimeoutMsec, Handler<Message<JsonArray>> roundHandler, Handler<String> handler) {
+		PolicyKeeping.cache().setJsonObject(new JsonObject()
+				.put("memberUnitIds", new JsonArray().add("E001").add("E002").add("E003"))
+				.put("mediator", new JsonObject()
+						.put("negotiationTimeoutMsec", negotiationTimeoutMsec)
+						.put("batchNegotiation", new JsonObject().put("enabled", true).put("windowMsec", WINDOW_MSEC))
+						.put("deal", new JsonObject().put("amountMinWh", 50).put("amountMaxWh", 1000).put("amountUnitWh", 50))));
+		vertx.eventBus().<JsonObject>consumer(MainServiceAddress.Mediator.negotiationReply("E001"), this::record_).completionHandler(context.asyncAssertSuccess(v1 -> {
+			vertx.eventBus().<JsonObject>consumer(MainServiceAddress.Mediator.negotiationReply("E002"), this::record_).completionHandler(context.asyncAssertSuccess(v2 -> {
+				vertx.eventBus().<JsonArray>consumer(MainServiceAddress.Mediator.batchRequests(), roundHandler).completionHandler(context.asyncAssertSuccess(v3 -> {
+					vertx.deployVerticle(new BatchNegotiation(), context.asyncAssertSuccess(handler::handle));
+				}));
+			}));
+		}));
+	}
+	private void record_(Message<JsonObject> rep) {
+		replies_.add(new JsonObject()
+				.put("address", rep.address())
+				.put("negotiationId", rep.headers().get("negotiationId"))
+				.put("batch", rep.headers().contains("batch"))
+				.put("declined", rep.headers().contains("declined"))
+				.put("body", rep.body()));
+	}
+	private void request_(String negotiationId, String unitId) {
+		vertx.eventBus().send(MainServiceAddress.GridMaster.batchRequest(), request_(unitId), new DeliveryOptions().addHeader("negotiationId", negotiationId));
+	}
+	private void respond_(Message<JsonArray> round, String unitId, JsonObject... accepts) {
+		JsonObject body = new JsonObject().put("unitId", unitId).put("accepts", new JsonArray());
+		for (JsonObject anAccept : accepts) {
+			body.getJsonArray("accepts").add(anAccept);
+		}
+		vertx.eventBus().send(round.headers().get("replyAddress"), body, new DeliveryOptions().addHeader("batchId", round.headers().get("batchId")));
+	}
+	private JsonObject reply_(String negotiationId) {
+		for (JsonObject aReply : replies_) {
+			if (negotiationId.equals(aReply.getString("negotiationId"))) return aReply;
+		}
+		return null;
+	}
+
+	/**
+	 * The first request starts a window and the requests that arrive within it are published together.
+	 * @param context a testcontext object
+	 *          
+	 * 最初のリクエストでウィンドウが始まりその間に届いたリクエストはまとめて publish される.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testWindow(TestContext context) {
+		Async async = context.async();
+		List<JsonArray> rounds = new CopyOnWriteArrayList<>();
+		long[] startMsec = new long[1];
+		deploy_(context, 60000L, round -> {
+			context.assertTrue(WINDOW_MSEC - 50L <= System.currentTimeMillis() - startMsec[0]);
+			rounds.add(round.body());
+		}, deploymentID -> {
+			startMsec[0] = System.currentTimeMillis();
+			request_("n1", "E001");
+			vertx.setTimer(WINDOW_MSEC / 3, t1 -> {
+				request_("n2", "E002");
+				vertx.setTimer(WINDOW_MSEC * 3, t2 -> {
+					context.assertEquals(1, rounds.size());
+					context.assertEquals(2, rounds.get(0).size());
+					context.assertEquals("n1", rounds.get(0).getJsonObject(0).getString("negotiationId"));
+					context.assertEquals("n2", rounds.get(0).getJsonObject(1).getString("negotiationId"));
+					async.complete();
+				});
+			});
+		});
+	}
+
+	/**
+	 * A round is matched without waiting for the timeout once every member has responded.
+	 * @param context a testcontext object
+	 *          
+	 * 全メンバがレスポンスしたらタイムアウトを待たずにラウンドをマッチさせる.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testAllResponded(TestContext context) {
+		Async async = context.async();
+		deploy_(context, 60000L, round -> {
+			respond_(round, "E001");
+			respond_(round, "E002");
+			respond_(round, "E003", accept_("n1", "E003"), accept_("n2", "E003"));
+		}, deploymentID -> {
+			request_("n1", "E001");
+			request_("n2", "E002");
+			vertx.setTimer(WINDOW_MSEC + 1500L, t -> {
+				context.assertEquals(2, replies_.size());
+				for (String negotiationId : new String[] { "n1", "n2" }) {
+					JsonObject reply = reply_(negotiationId);
+					context.assertNotNull(reply);
+					context.assertTrue(reply.getBoolean("batch"));
+					context.assertFalse(reply.getBoolean("declined"));
+					context.assertEquals("E003", reply.getJsonObject("body").getString("unitId"));
+				}
+				async.complete();
+			});
+		});
+	}
+
+	/**
+	 * Without every member responding a round is matched by the timeout, and a request without a match gets a "no match" reply.
+	 * @param context a testcontext object
+	 *          
+	 * 全メンバがレスポンスしなければラウンドはタイムアウトでマッチし, マッチしないリクエストには「マッチなし」が返信される.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testTimeout(TestContext context) {
+		Async async = context.async();
+		deploy_(context, 500L, round -> {
+			respond_(round, "E003", accept_("n1", "E003"));
+		}, deploymentID -> {
+			request_("n1", "E001");
+			request_("n2", "E002");
+			vertx.setTimer(WINDOW_MSEC + 300L, t1 -> {
+				// E001 and E002 have not responded yet
+				// E001 と E002 はまだレスポンスしていない
+				context.assertTrue(replies_.isEmpty());
+				vertx.setTimer(1500L, t2 -> {
+					context.assertEquals(2, replies_.size());
+					JsonObject matched = reply_("n1");
+					context.assertFalse(matched.getBoolean("declined"));
+					context.assertEquals("E003", matched.getJsonObject("body").getString("unitId"));
+					JsonObject noMatch = reply_("n2");
+					context.assertTrue(noMatch.getBoolean("batch"));
+					context.assertTrue(noMatch.getBoolean("declined"));
+					context.assertNull(noMatch.getJsonObject("body").getString("unitId"));
+					async.complete();
+				});
+			});
+		});
+	}
+
+	/**
+	 * Accepts for a round that is already matched are ignored.
+	 * @param context a testcontext object
+	 *          
+	 * 既にマッチしたラウンドへのアクセプトは無視される.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testClosedRound(TestContext context) {
+		Async async = context.async();
+		deploy_(context, 60000L, round -> {
+			respond_(round, "E001");
+			respond_(round, "E002");
+			respond_(round, "E003", accept_("n1", "E003"));
+			vertx.setTimer(1000L, t -> {
+				// Too late : the round has been matched
+				// 遅すぎる : ラウンドはマッチ済み
+				respond_(round, "E003", accept_("n2", "E003"));
+			});
+		}, deploymentID -> {
+			request_("n1", "E001");
+			request_("n2", "E002");
+			vertx.setTimer(WINDOW_MSEC + 2000L, t -> {
+				context.assertEquals(2, replies_.size());
+				context.assertFalse(reply_("n1").getBoolean("declined"));
+				context.assertTrue(reply_("n2").getBoolean("declined"));
+				async.complete();
+			});
+		});
+	}
+
+	/**
+	 * Stopping GridMaster replies "no match" to the requests of open rounds and to the pending ones.
+	 * @param context a testcontext object
+	 *          
+	 * GridMaster を停止すると進行中のラウンドと保留中のリクエストに「マッチなし」を返信する.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testStop(TestContext context) {
+		Async async = context.async();
+		String[] deployment = new String[1];
+		deploy_(context, 60000L, round -> {
+			// n1 is in an open round ; n2 waits for the next window
+			// n1 は進行中のラウンドにある ; n2 は次のウィンドウを待つ
+			request_("n2", "E002");
+			vertx.setTimer(WINDOW_MSEC / 3, t1 -> {
+				vertx.undeploy(deployment[0], context.asyncAssertSuccess(v -> {
+					vertx.setTimer(500L, t2 -> {
+						context.assertEquals(2, replies_.size());
+						for (String negotiationId : new String[] { "n1", "n2" }) {
+							JsonObject reply = reply_(negotiationId);
+							context.assertNotNull(reply);
+							context.assertTrue(reply.getBoolean("batch"));
+							context.assertTrue(reply.getBoolean("declined"));
+						}
+						async.complete();
+					});
+				}));
+			});
+		}, deploymentID -> {
+			deployment[0] = deploymentID;
+			request_("n1", "E001");
+		});
+	}
+
+}
@@ -0,0 +1,145 @@
+package jp.co.sony.csl.dcoes.apis.main.app.gridmaster;
+
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jp.co.sony.csl.dcoes.apis.common.ServiceAddress;
+import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
+import jp.co.sony.csl.dcoes.apis.main.test.AbstractApisTest;
+
+import org.junit.Test;
+
+/**
+ * DataCollection coalescing test.
+ * @author OES Project
+ *          
+ * DataCollection の要求のまとめ方のテスト.
+ * @author OES Project
+ */
+public class DataCollectionTest extends AbstractApisTest {
+
+	/**
+	 * Data collection requests received by the stub units, in order.
+	 *          
+	 * スタブのユニットが受けたデータ収集要求. 受けた順.
+	 */
+	private final List<Message<Object>> requests_ = Collections.synchronizedList(new ArrayList<>());
+	/**
+	 * Whether the stub units hold back their replies.
+	 *          
+	 * スタブのユニットが返信を保留するか否か.
+	 */
+	private volatile boolean holding_ = false;
+
+	/**
+	 * Reply to a data collection request from the two member units.
+	 * The unit data carries the number of the request so that callers can tell collections apart.
+	 * @param request the data collection request
+	 *          
+	 * データ収集要求に二つのメンバユニットから返信する.
+	 * 呼び出し元が収集を区別できるようユニットデータは要求の番号を運ぶ.
+	 * @param request データ収集要求
+	 */
+	private void reply_(Message<Object> request) {
+		String replyAddress = request.headers().get("replyAddress");
+		int n = requests_.indexOf(request) + 1;
+		for (String aUnitId : new String[] { "E001", "E002" }) {
+			vertx.eventBus().send(replyAddress, new JsonObject().put("oesunit", new JsonObject().put("id", aUnitId)).put("request", n));
+		}
+	}
+
+	/**
+	 * Deploy DataCollection with stub units and wait for its first periodic collection.
+	 * @param context a testcontext object
+	 * @param then called when ready
+	 *          
+	 * スタブのユニットとともに DataCollection を起動し最初の定期的な収集を待つ.
+	 * @param context testcontext オブジェクト
+	 * @param then 準備ができたら呼ばれる
+	 */
+	private void deploy_(TestContext context, Runnable then) {
+		PolicyKeeping.cache().setJsonObject(new JsonObject().put("memberUnitIds", new JsonArray().add("E001").add("E002")).put("gridMaster", new JsonObject().put("dataCollectionPeriodMsec", 60000).put("dataCollectionTimeoutMsec", 2000)));
+		DataCollection.cache.setJsonObject(new JsonObject());
+		vertx.eventBus().<Object>consumer(ServiceAddress.Controller.unitDatas(), req -> {
+			requests_.add(req);
+			if (!holding_) reply_(req);
+		}).completionHandler(context.asyncAssertSuccess(v -> {
+			vertx.deployVerticle(new DataCollection(), context.asyncAssertSuccess(deploymentID -> {
+				vertx.setPeriodic(20L, timerId -> {
+					if (!DataCollection.cache.isEmpty()) {
+						vertx.cancelTimer(timerId);
+						then.run();
+					}
+				});
+			}));
+		}));
+	}
+
+	/**
+	 * Urgent requests that arrive before the collection request is sent share one collection.
+	 * @param context a testcontext object
+	 *          
+	 * 収集要求を送る前に来た緊急の要求は一つの収集を共有する.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testJoinBeforeRequestSent(TestContext context) {
+		Async async = context.async(2);
+		deploy_(context, () -> {
+			int before = requests_.size();
+			for (int i = 0; i < 2; i++) {
+				vertx.eventBus().<JsonObject>send(ServiceAddress.GridMaster.urgentUnitDatas(), null, context.asyncAssertSuccess(rep -> {
+					context.assertEquals(before + 1, requests_.size());
+					context.assertEquals(before + 1, rep.body().getJsonObject("E001").getInteger("request"));
+					async.countDown();
+				}));
+			}
+		});
+	}
+
+	/**
+	 * Urgent requests that arrive after the collection request is sent share one follow-up collection instead of the stale one.
+	 * @param context a testcontext object
+	 *          
+	 * 収集要求を送った後に来た緊急の要求は古い収集ではなく一つの後続の収集を共有する.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testFollowUpAfterRequestSent(TestContext context) {
+		Async async = context.async(3);
+		deploy_(context, () -> {
+			int first = requests_.size() + 1;
+			holding_ = true;
+			vertx.eventBus().<JsonObject>send(ServiceAddress.GridMaster.urgentUnitDatas(), null, context.asyncAssertSuccess(rep -> {
+				context.assertEquals(first, rep.body().getJsonObject("E002").getInteger("request"));
+				async.countDown();
+			}));
+			vertx.setPeriodic(20L, timerId -> {
+				if (requests_.size() == first) {
+					vertx.cancelTimer(timerId);
+					// The request has been sent ; these callers must not get its result
+					// 要求は送られた ; これらの呼び出し元はその結果を受け取ってはならない
+					for (int i = 0; i < 2; i++) {
+						vertx.eventBus().<JsonObject>send(ServiceAddress.GridMaster.urgentUnitDatas(), null, context.asyncAssertSuccess(rep -> {
+							context.assertEquals(first + 1, rep.body().getJsonObject("E002").getInteger("request"));
+							context.assertEquals(first + 1, requests_.size());
+							async.countDown();
+						}));
+					}
+					vertx.setTimer(200L, t -> {
+						holding_ = false;
+						reply_(requests_.get(first - 1));
+					});
+				}
+			});
+		});
+	}
+
+}
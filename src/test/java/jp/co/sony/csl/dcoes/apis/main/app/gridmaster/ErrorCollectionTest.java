@@ -0,0 +1,67 @@
+package jp.co.sony.csl.dcoes.apis.main.app.gridmaster;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.co.sony.csl.dcoes.apis.common.Error;
+import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
+import jp.co.sony.csl.dcoes.apis.main.test.AbstractApisTest;
+import jp.co.sony.csl.dcoes.apis.main.util.ErrorUtil;
+import jp.co.sony.csl.dcoes.apis.main.util.MainServiceAddress;
+
+import org.junit.Test;
+
+/**
+ * ErrorCollection main loop triggering test.
+ * @author OES Project
+ *          
+ * ErrorCollection のメインループのトリガのテスト.
+ * @author OES Project
+ */
+public class ErrorCollectionTest extends AbstractApisTest {
+
+	/**
+	 * Global errors trigger the main loop at most once per {@code errorMinIntervalMsec}, and warnings and local errors never do.
+	 * @param context a testcontext object
+	 *          
+	 * グローバルエラーは {@code errorMinIntervalMsec} に一度までメインループをトリガし, 警告とローカルエラーはトリガしない.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testErrorTriggeringIsRateLimited(TestContext context) {
+		Async async = context.async();
+		PolicyKeeping.cache().setJsonObject(new JsonObject().put("memberUnitIds", new JsonArray().add("E001").add("E002")).put("gridMaster", new JsonObject().put("mainLoopTriggering", new JsonObject().put("enabled", true).put("errorMinIntervalMsec", 500))));
+		AtomicInteger triggers = new AtomicInteger();
+		vertx.eventBus().<String>consumer(MainServiceAddress.GridMaster.mainLoopTriggering(), req -> {
+			triggers.incrementAndGet();
+		}).completionHandler(context.asyncAssertSuccess(v -> {
+			vertx.deployVerticle(new ErrorCollection(), context.asyncAssertSuccess(deploymentID -> {
+				ErrorUtil.report(vertx, "E001", Error.Category.LOGIC, Error.Extent.LOCAL, Error.Level.ERROR, "local");
+				ErrorUtil.report(vertx, "E002", Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.WARN, "warning");
+				vertx.setTimer(200L, t1 -> {
+					context.assertEquals(0, triggers.get());
+					// A burst of errors, as reported by the main loop itself while a fault lasts
+					// 障害が続く間にメインループ自身が報告するようなエラーの連続
+					for (int i = 0; i < 3; i++) {
+						ErrorUtil.report(vertx, "E002", Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.ERROR, "burst " + i);
+					}
+					vertx.setTimer(200L, t2 -> {
+						context.assertEquals(1, triggers.get());
+						vertx.setTimer(500L, t3 -> {
+							ErrorUtil.report(vertx, "E002", Error.Category.LOGIC, Error.Extent.GLOBAL, Error.Level.FATAL, "later");
+							vertx.setTimer(200L, t4 -> {
+								context.assertEquals(2, triggers.get());
+								async.complete();
+							});
+						});
+					});
+				});
+			}));
+		}));
+	}
+
+}
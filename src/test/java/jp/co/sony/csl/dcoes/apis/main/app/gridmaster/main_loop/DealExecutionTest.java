@@ -0,0 +1,117 @@
+package jp.co.sony.csl.dcoes.apis.main.app.gridmaster.main_loop;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jp.co.sony.csl.dcoes.apis.main.util.Policy;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * DealExecution batching test.
+ * @author OES Project
+ *          
+ * DealExecution のバッチ分けのテスト.
+ * @author OES Project
+ */
+@RunWith(VertxUnitRunner.class)
+public class DealExecutionTest {
+
+	private static final String DATE_TIME_ = "2020/01/01-00:00:00";
+	private static final String VR_ = "E001";
+
+	private static JsonObject deal_(String dealId, String dischargeUnitId, String chargeUnitId) {
+		return new JsonObject().put("dealId", dealId).put("createDateTime", DATE_TIME_).put("type", "charge").put("dealGridCurrentA", 1F).put("dealAmountWh", 100).put("acceptUnitId", dischargeUnitId).put("dischargeUnitId", dischargeUnitId).put("requestUnitId", chargeUnitId).put("chargeUnitId", chargeUnitId);
+	}
+	private static JsonObject started_(String dealId, String dischargeUnitId, String chargeUnitId) {
+		return deal_(dealId, dischargeUnitId, chargeUnitId).put("activateDateTime", DATE_TIME_).put("rampUpDateTime", DATE_TIME_).put("warmUpDateTime", DATE_TIME_).put("startDateTime", DATE_TIME_);
+	}
+	private static JsonObject policy_(boolean enabled, Integer maxBatchSize) {
+		JsonObject parallelDealExecution = new JsonObject().put("enabled", enabled);
+		if (maxBatchSize != null) parallelDealExecution.put("maxBatchSize", maxBatchSize);
+		return new JsonObject().put("gridMaster", new JsonObject().put("parallelDealExecution", parallelDealExecution));
+	}
+
+	/**
+	 * Only running interchanges apart from the voltage reference unit are processed at the same time as others.
+	 * @param context a testcontext object
+	 *          
+	 * 電圧リファレンスユニットと無関係で動作中の融通だけが他と同時に処理される.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testIsParallelizable(TestContext context) {
+		JsonObject started = started_("d1", "E002", "E003");
+		context.assertTrue(DealExecution.isParallelizable(started, VR_));
+		context.assertFalse(DealExecution.isParallelizable(started, null));
+		context.assertFalse(DealExecution.isParallelizable(started.copy().put("isMaster", true), VR_));
+		context.assertFalse(DealExecution.isParallelizable(started_("d2", VR_, "E003"), VR_));
+		context.assertFalse(DealExecution.isParallelizable(started_("d3", "E002", VR_), VR_));
+		// Not yet activated, and being launched
+		// まだ起動していない, および起動中
+		context.assertFalse(DealExecution.isParallelizable(deal_("d4", "E002", "E003"), VR_));
+		context.assertFalse(DealExecution.isParallelizable(deal_("d5", "E002", "E003").put("activateDateTime", DATE_TIME_).put("rampUpDateTime", DATE_TIME_), VR_));
+		// Being stopped
+		// 停止処理中
+		context.assertTrue(DealExecution.isParallelizable(started_("d6", "E002", "E003").put("stopDateTime", DATE_TIME_), VR_));
+	}
+
+	/**
+	 * Deals are taken one by one when disabled, and in consecutive independent runs up to the limit when enabled.
+	 * @param context a testcontext object
+	 *          
+	 * 無効なら一つずつ, 有効なら上限まで連続した独立な並びで取り出される.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testNextBatch(TestContext context) {
+		JsonObject d1 = started_("d1", "E002", "E003");
+		JsonObject d2 = started_("d2", "E004", "E005");
+		JsonObject d3 = started_("d3", "E005", "E006");
+		JsonObject d4 = started_("d4", "E007", "E008");
+		List<JsonObject> deals = new ArrayList<>(Arrays.asList(d1, d2, d3, d4));
+		context.assertEquals(Arrays.asList(d1), DealExecution.nextBatch(deals, policy_(false, null), VR_));
+		context.assertEquals(Arrays.asList(d2, d3, d4), deals);
+		// d3 shares E005 with d2 ; d4 is independent but must wait to keep the order
+		// d3 は d2 と E005 を共有する ; d4 は独立だが順序を保つため待つ
+		deals = new ArrayList<>(Arrays.asList(d1, d2, d3, d4));
+		context.assertEquals(Arrays.asList(d1, d2), DealExecution.nextBatch(deals, policy_(true, null), VR_));
+		context.assertEquals(Arrays.asList(d3, d4), DealExecution.nextBatch(deals, policy_(true, null), VR_));
+		context.assertTrue(deals.isEmpty());
+		// Unknown voltage reference unit
+		// 電圧リファレンスユニットが不明
+		deals = new ArrayList<>(Arrays.asList(d1, d2));
+		context.assertEquals(Arrays.asList(d1), DealExecution.nextBatch(deals, policy_(true, null), null));
+		// A head that can not run with others is taken alone
+		// 他と同時に処理できない先頭は単独で取り出される
+		JsonObject launching = deal_("d5", "E009", "E010");
+		deals = new ArrayList<>(Arrays.asList(launching, d1, d2));
+		context.assertEquals(Arrays.asList(launching), DealExecution.nextBatch(deals, policy_(true, null), VR_));
+		context.assertEquals(Arrays.asList(d1, d2), DealExecution.nextBatch(deals, policy_(true, null), VR_));
+	}
+
+	/**
+	 * The batch size is capped by POLICY, its default and a floor of one.
+	 * @param context a testcontext object
+	 *          
+	 * バッチの大きさは POLICY, そのデフォルト値, および下限 1 で制限される.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testMaxBatchSize(TestContext context) {
+		List<JsonObject> many = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			many.add(started_("d" + i, "A" + i, "B" + i));
+		}
+		context.assertEquals(Policy.DEFAULT_PARALLEL_DEAL_EXECUTION_MAX_BATCH_SIZE, DealExecution.nextBatch(new ArrayList<>(many), policy_(true, null), VR_).size());
+		context.assertEquals(2, DealExecution.nextBatch(new ArrayList<>(many), policy_(true, 2), VR_).size());
+		context.assertEquals(1, DealExecution.nextBatch(new ArrayList<>(many), policy_(true, 0), VR_).size());
+	}
+
+}
@@ -0,0 +1,89 @@
+package jp.co.sony.csl.dcoes.apis.main.app.gridmaster.main_loop;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * MainLoopStatistics test.
+ * @author OES Project
+ *          
+ * MainLoopStatistics のテスト.
+ * @author OES Project
+ */
+@RunWith(VertxUnitRunner.class)
+public class MainLoopStatisticsTest {
+
+	private static final long MSEC_ = 1000000L;
+
+	@Before
+	public void before(TestContext context) {
+		MainLoopStatistics.reset();
+	}
+
+	/**
+	 * Rotation starts a new interval, keeps the ended one and the totals.
+	 * @param context a testcontext object
+	 *          
+	 * ローテーションは新しい区間を始め, 終えた区間と累計を保持する.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testRotate(TestContext context) {
+		MainLoopStatistics.record(MainLoopStatistics.Phase.DEAL_EXECUTION, 500L * MSEC_);
+		context.assertTrue(MainLoopStatistics.recordLoop(1500L * MSEC_, 1000L));
+		context.assertFalse(MainLoopStatistics.recordLoop(100L * MSEC_, 1000L));
+		JsonObject stats = MainLoopStatistics.toJsonObject();
+		context.assertEquals(2L, stats.getLong("loops"));
+		context.assertEquals(1L, stats.getLong("overruns"));
+		context.assertEquals(1500L, stats.getLong("lastOverrunMsec"));
+		context.assertFalse(stats.containsKey("lastInterval"));
+
+		String ended = MainLoopStatistics.rotate();
+		context.assertTrue(ended.startsWith("loops : 2, overruns : 1"));
+		stats = MainLoopStatistics.toJsonObject();
+		context.assertEquals(0L, stats.getLong("loops"));
+		context.assertEquals(0L, stats.getLong("overruns"));
+		context.assertEquals(0L, stats.getJsonObject("phases").getJsonObject(MainLoopStatistics.Phase.DEAL_EXECUTION.key()).getLong("count"));
+		context.assertEquals(2L, stats.getLong("totalLoops"));
+		context.assertEquals(1L, stats.getLong("totalOverruns"));
+		context.assertEquals(2L, stats.getJsonObject("lastInterval").getLong("loops"));
+		context.assertEquals(1500L, stats.getJsonObject("lastInterval").getLong("lastOverrunMsec"));
+
+		// The slow interval no longer shows in the percentiles
+		// 遅かった区間はもうパーセンタイルに現れない
+		MainLoopStatistics.recordLoop(100L * MSEC_, 1000L);
+		context.assertTrue(MainLoopStatistics.toLogString().startsWith("loops : 1, overruns : 0"));
+		context.assertEquals(3L, MainLoopStatistics.toJsonObject().getLong("totalLoops"));
+
+		MainLoopStatistics.reset();
+		stats = MainLoopStatistics.toJsonObject();
+		context.assertEquals(0L, stats.getLong("totalLoops"));
+		context.assertFalse(stats.containsKey("lastInterval"));
+	}
+
+	/**
+	 * Overrun warnings are limited to one per interval and report the overruns in between.
+	 * @param context a testcontext object
+	 *          
+	 * オーバラン警告は間隔あたり一回までで, その間のオーバランを報告する.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testOverrunsToWarn(TestContext context) {
+		context.assertEquals(0L, MainLoopStatistics.overrunsToWarn(0L, 60000L));
+		MainLoopStatistics.recordLoop(1500L * MSEC_, 1000L);
+		context.assertEquals(1L, MainLoopStatistics.overrunsToWarn(0L, 60000L));
+		MainLoopStatistics.recordLoop(1500L * MSEC_, 1000L);
+		context.assertEquals(0L, MainLoopStatistics.overrunsToWarn(1000L, 60000L));
+		MainLoopStatistics.recordLoop(1500L * MSEC_, 1000L);
+		context.assertEquals(0L, MainLoopStatistics.overrunsToWarn(2000L, 60000L));
+		context.assertEquals(2L, MainLoopStatistics.overrunsToWarn(60000L, 60000L));
+		context.assertEquals(0L, MainLoopStatistics.overrunsToWarn(200000L, 60000L));
+	}
+
+}
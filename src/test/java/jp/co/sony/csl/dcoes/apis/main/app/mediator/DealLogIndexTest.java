@@ -0,0 +1,95 @@
+package jp.co.sony.csl.dcoes.apis.main.app.mediator;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * DealLogIndex test.
+ * @author OES Project
+ *          
+ * DealLogIndex のテスト.
+ * @author OES Project
+ */
+@RunWith(VertxUnitRunner.class)
+public class DealLogIndexTest {
+
+	private static JsonObject deal_(String dealId, int cumulateAmountWh) {
+		return new JsonObject().put("dealId", dealId).put("createDateTime", "2020/01/01-10:00:00").put("type", "charge").put("chargeUnitId", "E001").put("dischargeUnitId", "E002").put("dealAmountWh", 100).put("cumulateAmountWh", cumulateAmountWh).put("dealGridCurrentA", 1F);
+	}
+	private static DealLogIndex.Summary summary_(DealLogIndex index, String dir, String dealId) {
+		for (DealLogIndex.Summary aSummary : index.summaries(dir)) {
+			if (dealId.equals(aSummary.dealId)) return aSummary;
+		}
+		return null;
+	}
+
+	/**
+	 * A summary holds only the indexed fields, and a deal without DEAL ID, creation date and time or with a broken field is not indexed.
+	 * @param context a testcontext object
+	 *          
+	 * 要約は索引の項目だけを持ち, DEAL ID か作成日時がないか壊れた項目のある融通は索引に入らない.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testSummary(TestContext context) {
+		JsonObject summary = DealLogIndex.Summary.of(deal_("d1", 10)).toJson();
+		context.assertEquals(new JsonObject().put("dealId", "d1").put("createDateTime", "2020/01/01-10:00:00").put("type", "charge").put("chargeUnitId", "E001").put("dischargeUnitId", "E002").put("dealAmountWh", 100).put("cumulateAmountWh", 10F), summary);
+		context.assertNull(DealLogIndex.Summary.of(deal_("d1", 10).put("createDateTime", (String) null)));
+		context.assertNull(DealLogIndex.Summary.of(deal_("d1", 10).put("dealId", (String) null)));
+		context.assertNull(DealLogIndex.Summary.of(deal_("d1", 10).put("dealAmountWh", "many")));
+	}
+
+	/**
+	 * Updates replace the summary of a deal, directories are kept apart, and a directory is loaded only once.
+	 * @param context a testcontext object
+	 *          
+	 * 更新は融通の要約を置き換え, ディレクトリは分かれたままで, ディレクトリは一度だけ読み込まれる.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testUpdate(TestContext context) {
+		DealLogIndex index = new DealLogIndex();
+		index.update("a", deal_("d1", 10));
+		index.update("a", deal_("d1", 20));
+		index.update("b", deal_("d2", 30));
+		context.assertEquals(1, index.summaries("a").size());
+		context.assertEquals(20F, summary_(index, "a", "d1").cumulateAmountWh);
+		context.assertEquals(1, index.summaries("b").size());
+		context.assertTrue(index.summaries("c").isEmpty());
+		context.assertFalse(index.isLoaded("a"));
+		index.load("a", null);
+		context.assertTrue(index.isLoaded("a"));
+		context.assertFalse(index.isLoaded("b"));
+		context.assertEquals(1, index.summaries("a").size());
+	}
+
+	/**
+	 * What is loaded from the file system does not override what has been updated in the meantime, and broken deals are skipped.
+	 * @param context a testcontext object
+	 *          
+	 * ファイルシステムから読み込んだものはその間に更新されたものを上書きせず, 壊れた融通は読み飛ばす.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testLoadKeepsUpdates(TestContext context) {
+		DealLogIndex index = new DealLogIndex();
+		index.update("a", deal_("d1", 50));
+		List<JsonObject> loaded = Arrays.asList(deal_("d1", 10), deal_("d2", 20), new JsonObject().put("dealId", "d3"));
+		index.load("a", loaded);
+		context.assertTrue(index.isLoaded("a"));
+		context.assertEquals(2, index.summaries("a").size());
+		context.assertEquals(50F, summary_(index, "a", "d1").cumulateAmountWh);
+		context.assertEquals(20F, summary_(index, "a", "d2").cumulateAmountWh);
+		context.assertNull(summary_(index, "a", "d3"));
+		index.update("a", deal_("d2", 60));
+		context.assertEquals(60F, summary_(index, "a", "d2").cumulateAmountWh);
+	}
+
+}
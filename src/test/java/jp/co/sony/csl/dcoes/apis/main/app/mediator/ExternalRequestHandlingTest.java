@@ -0,0 +1,73 @@
+package jp.co.sony.csl.dcoes.apis.main.app.mediator;
+
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+
+import jp.co.sony.csl.dcoes.apis.common.ServiceAddress;
+import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
+import jp.co.sony.csl.dcoes.apis.main.app.StateHandling;
+import jp.co.sony.csl.dcoes.apis.main.test.AbstractApisTest;
+import jp.co.sony.csl.dcoes.apis.main.util.MainServiceAddress;
+
+import org.junit.Test;
+
+/**
+ * ExternalRequestHandling test.
+ * @author OES Project
+ *          
+ * ExternalRequestHandling のテスト.
+ * @author OES Project
+ */
+public class ExternalRequestHandlingTest extends AbstractApisTest {
+
+	private static final String REPLY_ADDRESS = "test.batchAccepts";
+
+	private static JsonObject request_(String negotiationId, String unitId, int amountWh) {
+		return new JsonObject().put("negotiationId", negotiationId).put("unitId", unitId).put("type", "charge").put("amountWh", amountWh);
+	}
+
+	/**
+	 * The amount that may be interchanged by the earlier accepts of a batch round is deducted from the later ones.
+	 * @param context a testcontext object
+	 *          
+	 * 一括交渉ラウンドの先のアクセプトで融通されうる量を後のアクセプトから差し引く.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testBatchAcceptsDeductOfferedAmount(TestContext context) {
+		Async async = context.async();
+		PolicyKeeping.cache().setJsonObject(new JsonObject().put("memberUnitIds", new JsonArray().add("E001").add("E002").add("E003").add("E004")).put("mediator", new JsonObject().put("deal", new JsonObject().put("amountMinWh", 50).put("gridCurrentA", 2F))));
+		StateHandling.setStarted();
+		// The User service offers the whole surplus of 500 Wh to every request
+		// User サービスは全リクエストに余剰 500 Wh 全体を申し出る
+		vertx.eventBus().<JsonObject>localConsumer(ServiceAddress.User.mediatorRequest(), req -> {
+			req.reply(new JsonObject().put("type", "discharge").put("amountWh", 500));
+		}).completionHandler(context.asyncAssertSuccess(v1 -> {
+			vertx.eventBus().<JsonObject>consumer(REPLY_ADDRESS, rep -> {
+				context.assertEquals("b1", rep.headers().get("batchId"));
+				context.assertEquals("E001", rep.body().getString("unitId"));
+				JsonArray accepts = rep.body().getJsonArray("accepts");
+				// 500, then 500 - 200, then 500 - 400 ; nothing is left for the last one
+				// 500, 次に 500 - 200, 次に 500 - 400 ; 最後には何も残らない
+				context.assertEquals(3, accepts.size());
+				context.assertEquals("n1", accepts.getJsonObject(0).getString("negotiationId"));
+				context.assertEquals(500, accepts.getJsonObject(0).getInteger("amountWh"));
+				context.assertEquals("n2", accepts.getJsonObject(1).getString("negotiationId"));
+				context.assertEquals(300, accepts.getJsonObject(1).getInteger("amountWh"));
+				context.assertEquals("n3", accepts.getJsonObject(2).getString("negotiationId"));
+				context.assertEquals(100, accepts.getJsonObject(2).getInteger("amountWh"));
+				async.complete();
+			}).completionHandler(context.asyncAssertSuccess(v2 -> {
+				vertx.deployVerticle(new ExternalRequestHandling(), context.asyncAssertSuccess(deploymentID -> {
+					JsonArray requests = new JsonArray().add(request_("n1", "E002", 200)).add(request_("n2", "E003", 200)).add(request_("n3", "E004", 200)).add(request_("n4", "E002", 200));
+					DeliveryOptions options = new DeliveryOptions().addHeader("replyAddress", REPLY_ADDRESS).addHeader("batchId", "b1");
+					vertx.eventBus().publish(MainServiceAddress.Mediator.batchRequests(), requests, options);
+				}));
+			}));
+		}));
+	}
+
+}
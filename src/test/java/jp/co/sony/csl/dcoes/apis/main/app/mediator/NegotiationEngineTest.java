@@ -0,0 +1,150 @@
+package jp.co.sony.csl.dcoes.apis.main.app.mediator;
+
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import jp.co.sony.csl.dcoes.apis.common.ServiceAddress;
+import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
+import jp.co.sony.csl.dcoes.apis.main.test.AbstractApisTest;
+import jp.co.sony.csl.dcoes.apis.main.util.ApisConfig;
+import jp.co.sony.csl.dcoes.apis.main.util.MainServiceAddress;
+
+import org.junit.Test;
+
+/**
+ * NegotiationEngine test.
+ * @author OES Project
+ *          
+ * NegotiationEngine のテスト.
+ * @author OES Project
+ */
+public class NegotiationEngineTest extends AbstractApisTest {
+
+	private final List<JsonObject> treated_ = new CopyOnWriteArrayList<>();
+
+	private static JsonObject request_() {
+		return new JsonObject().put("unitId", ApisConfig.unitId()).put("type", "charge").put("amountWh", 100).put("pointPerWh", 10F).put("dealGridCurrentA", 2F);
+	}
+	private static JsonObject accept_(String unitId) {
+		return new JsonObject().put("unitId", unitId).put("type", "discharge").put("amountWh", 100).put("pointPerWh", 10F).put("dealGridCurrentA", 2F);
+	}
+
+	/**
+	 * Set POLICY, record the accepts handed to the User service and deploy the engine.
+	 * @param context a testcontext object
+	 * @param negotiationTimeoutMsec the negotiation timeout [ms]
+	 * @param handler called with the deployment ID
+	 *          
+	 * POLICY を設定し, User サービスに渡されたアクセプトを記録しエンジンを起動する.
+	 * @param context testcontext オブジェクト
+	 * @param negotiationTimeoutMsec 融通交渉のタイムアウト [ms]
+	 * @param handler デプロイメント ID を渡して呼ぶ
+	 */
+	private void deploy_(TestContext context, long negotiationTimeoutMsec, Handler<String> handler) {
+		PolicyKeeping.cache().setJsonObject(new JsonObject().put("memberUnitIds", new JsonArray().add("E001").add("E002").add("E003")).put("mediator", new JsonObject().put("negotiationTimeoutMsec", negotiationTimeoutMsec)));
+		vertx.eventBus().<JsonObject>consumer(ServiceAddress.User.mediatorAccepts(), req -> {
+			treated_.add(req.body());
+			req.reply(null);
+		}).completionHandler(context.asyncAssertSuccess(v -> {
+			vertx.deployVerticle(new NegotiationEngine(), context.asyncAssertSuccess(handler::handle));
+		}));
+	}
+	private void negotiate_(TestContext context, Handler<String> handler) {
+		vertx.eventBus().<String>send(MainServiceAddress.Mediator.negotiation(), request_(), context.asyncAssertSuccess(rep -> handler.handle(rep.body())));
+	}
+	private void reply_(JsonObject accept, String negotiationId, boolean batch) {
+		DeliveryOptions options = new DeliveryOptions();
+		if (negotiationId != null) options.addHeader("negotiationId", negotiationId);
+		if (batch) options.addHeader("batch", "true");
+		vertx.eventBus().send(MainServiceAddress.Mediator.negotiationReply(ApisConfig.unitId()), accept, options);
+	}
+
+	/**
+	 * An accept matched by a batch round closes its negotiation at once.
+	 * @param context a testcontext object
+	 *          
+	 * 一括交渉ラウンドでマッチしたアクセプトは融通交渉を即座に閉じる.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testBatchAcceptClosesAtOnce(TestContext context) {
+		Async async = context.async();
+		deploy_(context, 60000L, deploymentID -> {
+			negotiate_(context, negotiationId -> {
+				reply_(accept_("E002"), negotiationId, true);
+				vertx.setTimer(500L, t -> {
+					context.assertEquals(1, treated_.size());
+					context.assertEquals("E002", treated_.get(0).getJsonArray("accepts").getJsonObject(0).getString("unitId"));
+					async.complete();
+				});
+			});
+		});
+	}
+
+	/**
+	 * An accept without the negotiation ID is matched only if exactly one negotiation fits.
+	 * @param context a testcontext object
+	 *          
+	 * 融通交渉 ID のないアクセプトは合う融通交渉がちょうど一つの場合のみ対応付けられる.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testLegacyAcceptMatchedOnlyIfUnique(TestContext context) {
+		Async async = context.async();
+		deploy_(context, 300L, deploymentID -> {
+			negotiate_(context, first -> {
+				negotiate_(context, second -> {
+					// Two open charge requests : the discharge accept of E002 cannot be told apart
+					// 二つの充電リクエストが進行中 : E002 の放電アクセプトは区別できない
+					reply_(accept_("E002"), null, false);
+					vertx.setTimer(800L, t1 -> {
+						context.assertTrue(treated_.isEmpty());
+						negotiate_(context, third -> {
+							reply_(accept_("E003"), null, false);
+							vertx.setTimer(800L, t2 -> {
+								context.assertEquals(1, treated_.size());
+								context.assertEquals("E003", treated_.get(0).getJsonArray("accepts").getJsonObject(0).getString("unitId"));
+								async.complete();
+							});
+						});
+					});
+				});
+			});
+		});
+	}
+
+	/**
+	 * Stopping the engine still handles the accepts collected so far.
+	 * @param context a testcontext object
+	 *          
+	 * エンジンを停止してもそれまでに集まったアクセプトは処理される.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testStopTreatsAccepts(TestContext context) {
+		Async async = context.async();
+		deploy_(context, 60000L, deploymentID -> {
+			negotiate_(context, withAccept -> {
+				negotiate_(context, withoutAccept -> {
+					reply_(accept_("E002"), withAccept, false);
+					vertx.setTimer(200L, t -> {
+						context.assertTrue(treated_.isEmpty());
+						vertx.undeploy(deploymentID, context.asyncAssertSuccess(v -> {
+							context.assertEquals(1, treated_.size());
+							context.assertEquals("E002", treated_.get(0).getJsonArray("accepts").getJsonObject(0).getString("unitId"));
+							async.complete();
+						}));
+					});
+				});
+			});
+		});
+	}
+
+}
@@ -0,0 +1,143 @@
+package jp.co.sony.csl.dcoes.apis.main.app.mediator;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+import jp.co.sony.csl.dcoes.apis.common.util.vertx.VertxConfig;
+import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Negotiation test.
+ * @author OES Project
+ *          
+ * Negotiation のテスト.
+ * @author OES Project
+ */
+@RunWith(VertxUnitRunner.class)
+public class NegotiationTest {
+
+	private Vertx vertx;
+
+	@Before
+	public void before(TestContext context) {
+		vertx = Vertx.vertx();
+		VertxConfig.config.setJsonObject(new JsonObject().put("unitId", "E001"));
+	}
+
+	@After
+	public void after(TestContext context) {
+		VertxConfig.config.setJsonObject(null);
+		PolicyKeeping.cache().setJsonObject(null);
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	private static void policy_(boolean enabled, Float goodEnoughAmountRatio, Integer amountMaxWh) {
+		JsonObject earlyClose = new JsonObject().put("enabled", enabled);
+		if (goodEnoughAmountRatio != null) earlyClose.put("goodEnoughAmountRatio", goodEnoughAmountRatio);
+		JsonObject mediator = new JsonObject().put("negotiationEarlyClose", earlyClose);
+		if (amountMaxWh != null) mediator.put("deal", new JsonObject().put("amountMaxWh", amountMaxWh));
+		PolicyKeeping.cache().setJsonObject(new JsonObject().put("memberUnitIds", new JsonArray().add("E001").add("E002").add("E003").add("E004")).put("mediator", mediator));
+	}
+	private static JsonObject request_(String type, int amountWh, float pointPerWh) {
+		return new JsonObject().put("unitId", "E001").put("type", type).put("amountWh", amountWh).put("pointPerWh", pointPerWh);
+	}
+	private static JsonObject accept_(String unitId, int amountWh, float pointPerWh) {
+		return new JsonObject().put("unitId", unitId).put("amountWh", amountWh).put("pointPerWh", pointPerWh);
+	}
+
+	/**
+	 * Nothing satisfies a negotiation while early close is disabled.
+	 * @param context a testcontext object
+	 *          
+	 * 早期クローズが無効の間は何も融通交渉を満たさない.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testDisabled(TestContext context) {
+		policy_(false, 0.5F, null);
+		Negotiation negotiation = new Negotiation(vertx, "n", request_("charge", 1000, 10F));
+		negotiation.addAccept(accept_("E002", 1000, 10F));
+		negotiation.addAccept(accept_("E003", 1000, 10F));
+		context.assertFalse(negotiation.isSatisfied());
+	}
+
+	/**
+	 * A negotiation is satisfied once every other member has accepted or declined, and accepts from non-members do not count.
+	 * @param context a testcontext object
+	 *          
+	 * 他の全メンバがアクセプトするか断れば融通交渉は満たされ, メンバ以外からのアクセプトは数えない.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testAllResponded(TestContext context) {
+		policy_(true, null, null);
+		Negotiation negotiation = new Negotiation(vertx, "n", request_("charge", 1000, 10F));
+		context.assertFalse(negotiation.addAccept(accept_("E999", 1000, 10F)));
+		context.assertFalse(negotiation.hasResponded("E999"));
+		negotiation.addDecline("E002");
+		context.assertTrue(negotiation.hasResponded("E002"));
+		context.assertFalse(negotiation.isSatisfied());
+		context.assertTrue(negotiation.addAccept(accept_("E003", 100, 20F)));
+		context.assertFalse(negotiation.isSatisfied());
+		negotiation.addDecline("E004");
+		context.assertTrue(negotiation.isSatisfied());
+	}
+
+	/**
+	 * A single accept satisfies a negotiation if it covers enough of the wanted amount at an acceptable price.
+	 * @param context a testcontext object
+	 *          
+	 * 一つのアクセプトが求める電力量を十分に受け入れられるポイントでカバーすれば融通交渉は満たされる.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testGoodEnoughAccept(TestContext context) {
+		policy_(true, 0.8F, null);
+		Negotiation charge = new Negotiation(vertx, "c", request_("charge", 1000, 10F));
+		charge.addAccept(accept_("E002", 700, 10F));
+		context.assertFalse(charge.isSatisfied());
+		// Enough but dearer than the buyer wants
+		// 十分だが買い手の望みより高い
+		Negotiation dearer = new Negotiation(vertx, "d", request_("charge", 1000, 10F));
+		dearer.addAccept(accept_("E002", 900, 12F));
+		context.assertFalse(dearer.isSatisfied());
+		charge.addAccept(accept_("E003", 900, 9F));
+		context.assertTrue(charge.isSatisfied());
+
+		Negotiation discharge = new Negotiation(vertx, "s", request_("discharge", 1000, 10F));
+		discharge.addAccept(accept_("E002", 900, 9F));
+		context.assertFalse(discharge.isSatisfied());
+		discharge.addAccept(accept_("E003", 900, 11F));
+		context.assertTrue(discharge.isSatisfied());
+	}
+
+	/**
+	 * The wanted amount is capped by {@code amountMaxWh}, and only the pair unit counts if one is specified.
+	 * @param context a testcontext object
+	 *          
+	 * 求める電力量は {@code amountMaxWh} で制限され, ペアユニットが指定されていればそのユニットのみ数える.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testGoodEnoughLimits(TestContext context) {
+		policy_(true, 0.8F, 500);
+		Negotiation capped = new Negotiation(vertx, "c", request_("charge", 1000, 10F));
+		capped.addAccept(accept_("E002", 400, 10F));
+		context.assertTrue(capped.isSatisfied());
+
+		Negotiation paired = new Negotiation(vertx, "p", request_("charge", 1000, 10F).put("pairUnitId", "E003"));
+		paired.addAccept(accept_("E002", 1000, 10F));
+		context.assertFalse(paired.isSatisfied());
+		paired.addAccept(accept_("E003", 1000, 10F));
+		context.assertTrue(paired.isSatisfied());
+	}
+
+}
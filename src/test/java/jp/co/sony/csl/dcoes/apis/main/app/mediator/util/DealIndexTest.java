@@ -0,0 +1,114 @@
+package jp.co.sony.csl.dcoes.apis.main.app.mediator.util;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * DealIndex test.
+ * @author OES Project
+ *          
+ * DealIndex のテスト.
+ * @author OES Project
+ */
+@RunWith(VertxUnitRunner.class)
+public class DealIndexTest {
+
+	private static final String DATE_TIME_ = "2020/01/01-00:00:00";
+
+	private static JsonObject deal_(String dealId, String dischargeUnitId, String chargeUnitId) {
+		JsonObject result = new JsonObject().put("createDateTime", DATE_TIME_).put("type", "charge").put("dealGridCurrentA", 1F).put("dealAmountWh", 100);
+		if (dealId != null) result.put("dealId", dealId);
+		if (dischargeUnitId != null) result.put("acceptUnitId", dischargeUnitId).put("dischargeUnitId", dischargeUnitId);
+		if (chargeUnitId != null) result.put("requestUnitId", chargeUnitId).put("chargeUnitId", chargeUnitId);
+		return result;
+	}
+
+	/**
+	 * Deals are found by DEAL ID and by either unit in the order of the source list.
+	 * @param context a testcontext object
+	 *          
+	 * 融通は DEAL ID とどちらのユニットからでも元のリストの順で見つかる.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testLookups(TestContext context) {
+		JsonObject d1 = deal_("d1", "E001", "E002");
+		JsonObject d2 = deal_("d2", "E002", "E003");
+		JsonObject d3 = deal_("d3", "E004", "E001");
+		DealIndex index = new DealIndex(Arrays.asList(d1, d2, d3));
+		context.assertEquals(Arrays.asList(d1, d2, d3), index.all());
+		context.assertEquals(d2, index.get("d2"));
+		context.assertNull(index.get("d9"));
+		context.assertEquals(Arrays.asList(d1, d3), index.withUnitId("E001"));
+		context.assertEquals(Arrays.asList(d1, d2), index.withUnitId("E002"));
+		context.assertEquals(Arrays.asList(d3), index.withUnitId("E004"));
+		context.assertTrue(index.withUnitId("E999").isEmpty());
+		context.assertTrue(index.withUnitId(null).isEmpty());
+	}
+
+	/**
+	 * A deal without DEAL ID or unit IDs is kept in the list but not indexed by what it lacks, and a deal between a unit and itself is listed once.
+	 * @param context a testcontext object
+	 *          
+	 * DEAL ID やユニット ID のない融通はリストに残るが欠けているものでは索引されず, ユニット自身との融通は一度だけ並ぶ.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testIncompleteDeals(TestContext context) {
+		JsonObject noDealId = deal_(null, "E001", "E002");
+		JsonObject noChargeUnitId = deal_("d2", "E003", null);
+		JsonObject self = deal_("d3", "E001", "E001");
+		DealIndex index = new DealIndex(Arrays.asList(noDealId, noChargeUnitId, self));
+		context.assertEquals(3, index.all().size());
+		context.assertNull(index.get(null));
+		context.assertEquals(Arrays.asList(noDealId, self), index.withUnitId("E001"));
+		context.assertEquals(Arrays.asList(noDealId), index.withUnitId("E002"));
+		context.assertEquals(Arrays.asList(noChargeUnitId), index.withUnitId("E003"));
+	}
+
+	/**
+	 * The first master deal wins, stopped deals are not active, and the index is an unmodifiable snapshot.
+	 * @param context a testcontext object
+	 *          
+	 * 最初のマスタ融通が優先され, 停止した融通はアクティブでなく, インデクスは変更できないスナップショット.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testMasterActiveAndSnapshot(TestContext context) {
+		JsonObject started = deal_("d1", "E001", "E002").put("activateDateTime", DATE_TIME_).put("rampUpDateTime", DATE_TIME_).put("warmUpDateTime", DATE_TIME_).put("startDateTime", DATE_TIME_);
+		JsonObject firstMaster = deal_("d2", "E003", "E004").put("isMaster", true);
+		JsonObject secondMaster = deal_("d3", "E005", "E006").put("isMaster", true);
+		JsonObject stopped = deal_("d4", "E007", "E008").put("activateDateTime", DATE_TIME_).put("rampUpDateTime", DATE_TIME_).put("warmUpDateTime", DATE_TIME_).put("startDateTime", DATE_TIME_).put("stopDateTime", DATE_TIME_).put("deactivateDateTime", DATE_TIME_);
+		List<JsonObject> source = new ArrayList<>(Arrays.asList(started, firstMaster, secondMaster, stopped));
+		DealIndex index = new DealIndex(source);
+		context.assertEquals(firstMaster, index.master());
+		context.assertEquals(Arrays.asList(started), index.active());
+		context.assertNull(new DealIndex(Arrays.asList(started)).master());
+
+		// Later changes to the source list are not seen
+		// 後から元のリストを変えても見えない
+		source.clear();
+		context.assertEquals(4, index.all().size());
+		try {
+			index.withUnitId("E001").clear();
+			context.fail("modified");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			index.active().clear();
+			context.fail("modified");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+}
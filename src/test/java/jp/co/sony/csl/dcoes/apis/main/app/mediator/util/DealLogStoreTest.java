@@ -0,0 +1,265 @@
+package jp.co.sony.csl.dcoes.apis.main.app.mediator.util;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * DealLogStore test.
+ * @author OES Project
+ *          
+ * DealLogStore のテスト.
+ * @author OES Project
+ */
+@RunWith(VertxUnitRunner.class)
+public class DealLogStoreTest {
+
+	private Vertx vertx;
+	private File dir_;
+	private DateTimeFormatter formatter_;
+
+	@Before
+	public void before(TestContext context) throws Exception {
+		vertx = Vertx.vertx();
+		dir_ = Files.createTempDirectory("dealLogStoreTest").toFile();
+		formatter_ = DateTimeFormatter.ofPattern("'" + dir_.getAbsolutePath() + File.separatorChar + "'yyyyMMdd");
+	}
+
+	@After
+	public void after(TestContext context) {
+		vertx.fileSystem().deleteRecursive(dir_.getAbsolutePath(), true, r -> {
+			vertx.close(context.asyncAssertSuccess());
+		});
+	}
+
+	private static JsonObject deal_(String dealId, String createDateTime) {
+		return new JsonObject().put("dealId", dealId).put("createDateTime", createDateTime).put("type", "charge").put("chargeUnitId", "E001").put("dischargeUnitId", "E002").put("dealAmountWh", 100);
+	}
+	private String[] lines_(JsonObject deal) throws Exception {
+		return new String(Files.readAllBytes(new File(DealLogStore.segmentPath(formatter_, deal)).toPath()), "UTF-8").split("\n");
+	}
+
+	/**
+	 * A changed deal is written as a patch, including removed fields, an unchanged one is not written, and the segment reads back as the latest state.
+	 * @param context a testcontext object
+	 *          
+	 * 変化した融通は削除された項目も含めパッチとして書き, 変化のない融通は書かず, セグメントは最新の状態として読み戻せる.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testWholeThenPatch(TestContext context) {
+		DealLogStore store = new DealLogStore(vertx, formatter_, true);
+		JsonObject d1 = deal_("d1", "2020/01/01-10:00:00");
+		JsonObject d2 = deal_("d2", "2020/01/01-11:00:00");
+		store.append(Arrays.asList(d1, d2), context.asyncAssertSuccess(v1 -> {
+			d1.put("cumulateAmountWh", 50).remove("type");
+			store.append(Arrays.asList(d1, d2), context.asyncAssertSuccess(v2 -> {
+				try {
+					String[] lines = lines_(d1);
+					context.assertEquals(3, lines.length);
+					context.assertEquals(new JsonObject().put("dealId", "d1").put("patch", new JsonObject().putNull("type").put("cumulateAmountWh", 50)), new JsonObject(lines[2]));
+				} catch (Exception e) {
+					context.fail(e);
+				}
+				DealLogStore.read(vertx, DealLogStore.segmentPath(formatter_, d1), context.asyncAssertSuccess(deals -> {
+					context.assertEquals(Arrays.asList("d1", "d2"), Arrays.asList(deals.keySet().toArray()));
+					context.assertEquals(d1, deals.get("d1"));
+					context.assertFalse(deals.get("d1").containsKey("type"));
+					context.assertEquals(d2, deals.get("d2"));
+					store.close();
+				}));
+			}));
+		}));
+	}
+
+	/**
+	 * Deals go to the segment of their creation date, a forgotten deal is written whole again, and appending after closing fails.
+	 * @param context a testcontext object
+	 *          
+	 * 融通は作成日のセグメントに入り, 忘れた融通は再び全体を書き, 閉じた後の追記は失敗する.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testSegmentsRetainAndClose(TestContext context) {
+		DealLogStore store = new DealLogStore(vertx, formatter_, true);
+		JsonObject d1 = deal_("d1", "2020/01/01-23:59:59");
+		JsonObject d2 = deal_("d2", "2020/01/02-00:00:00");
+		context.assertNotEquals(DealLogStore.segmentPath(formatter_, d1), DealLogStore.segmentPath(formatter_, d2));
+		Async async = context.async();
+		store.append(Arrays.asList(d1, d2), context.asyncAssertSuccess(v1 -> {
+			store.retain(Collections.singletonList(d2));
+			store.append(Arrays.asList(d1, d2), context.asyncAssertSuccess(v2 -> {
+				try {
+					String[] lines1 = lines_(d1);
+					context.assertEquals(2, lines1.length);
+					context.assertTrue(new JsonObject(lines1[1]).containsKey("deal"));
+					context.assertEquals(1, lines_(d2).length);
+				} catch (Exception e) {
+					context.fail(e);
+				}
+				store.close();
+				store.append(Arrays.asList(d1.put("cumulateAmountWh", 10)), res -> {
+					context.assertTrue(res.failed());
+					async.complete();
+				});
+			}));
+		}));
+	}
+
+	/**
+	 * When one segment can not be written the call fails, the deals of the segments written before it stay written, and the others are written whole by the next call.
+	 * @param context a testcontext object
+	 *          
+	 * 一つのセグメントに書き込めないと呼び出しは失敗し, それより前に書き込んだセグメントの融通は書き込みずみのまま, 他は次の呼び出しで全体が書かれる.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testFailedSegmentWrittenAgain(TestContext context) throws Exception {
+		DealLogStore store = new DealLogStore(vertx, formatter_, true);
+		JsonObject d1 = deal_("d1", "2020/01/01-00:00:00");
+		JsonObject d2 = deal_("d2", "2020/01/02-00:00:00");
+		// A plain file where the date directory of d2 should be
+		// d2 の日付ディレクトリがあるべき場所に普通のファイル
+		File blocker = new File(DealLogStore.segmentPath(formatter_, d2)).getParentFile();
+		context.assertTrue(blocker.createNewFile());
+		Async async = context.async();
+		store.append(Arrays.asList(d1, d2), res -> {
+			context.assertTrue(res.failed());
+			context.assertTrue(blocker.delete());
+			store.append(Arrays.asList(d1, d2), context.asyncAssertSuccess(v -> {
+				try {
+					context.assertEquals(1, lines_(d1).length);
+					String[] lines2 = lines_(d2);
+					context.assertEquals(1, lines2.length);
+					context.assertEquals(d2, new JsonObject(lines2[0]).getJsonObject("deal"));
+				} catch (Exception e) {
+					context.fail(e);
+				}
+				store.close();
+				async.complete();
+			}));
+		});
+	}
+
+	/**
+	 * Records follow what is already in a segment file when it is opened again by a new store.
+	 * @param context a testcontext object
+	 *          
+	 * 新しいストアでセグメントファイルを開き直すとレコードはすでにあるものに続く.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testReopenAppendsAtEnd(TestContext context) {
+		JsonObject d1 = deal_("d1", "2020/01/01-00:00:00");
+		DealLogStore first = new DealLogStore(vertx, formatter_, false);
+		first.append(Arrays.asList(d1), context.asyncAssertSuccess(v1 -> {
+			first.close();
+			DealLogStore second = new DealLogStore(vertx, formatter_, false);
+			second.append(Arrays.asList(d1.put("cumulateAmountWh", 10)), context.asyncAssertSuccess(v2 -> {
+				second.close();
+				DealLogStore.read(vertx, DealLogStore.segmentPath(formatter_, d1), context.asyncAssertSuccess(deals -> {
+					context.assertEquals(d1, deals.get("d1"));
+					try {
+						context.assertEquals(2, lines_(d1).length);
+					} catch (Exception e) {
+						context.fail(e);
+					}
+				}));
+			}));
+		}));
+	}
+
+	/**
+	 * A truncated last line, a record without DEAL ID and a patch without a base are skipped while the rest is rebuilt.
+	 * @param context a testcontext object
+	 *          
+	 * 途切れた最終行, DEAL ID のないレコード, ベースのないパッチは読み飛ばし残りを再構築する.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testRebuildAfterCrash(TestContext context) {
+		String patch = new JsonObject().put("dealId", "d1").put("patch", new JsonObject().put("cumulateAmountWh", 80)).encode();
+		String contents = new JsonObject().put("dealId", "d1").put("deal", deal_("d1", "2020/01/01-00:00:00")).encode() + "\n"
+				+ new JsonObject().put("deal", deal_("d2", "2020/01/01-00:00:00")).encode() + "\n"
+				+ new JsonObject().put("dealId", "d3").put("patch", new JsonObject().put("dealAmountWh", 1)).encode() + "\n"
+				+ new JsonObject().put("dealId", "d1").put("patch", new JsonObject().put("cumulateAmountWh", 40)).encode() + "\n"
+				+ patch.substring(0, patch.length() - 3);
+		Map<String, JsonObject> deals = DealLogStore.rebuild(contents);
+		context.assertEquals(1, deals.size());
+		context.assertEquals(deal_("d1", "2020/01/01-00:00:00").put("cumulateAmountWh", 40), deals.get("d1"));
+	}
+
+	/**
+	 * Applying a segment file part by part gives the same result as rebuilding it at once, and each part reports only the deals it changed.
+	 * @param context a testcontext object
+	 *          
+	 * セグメントファイルを部分ごとに適用すると一度に再構築したのと同じ結果になり, 各部分はそれが変更した融通だけを返す.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testApply(TestContext context) {
+		String part1 = new JsonObject().put("dealId", "d1").put("deal", deal_("d1", "2020/01/01-00:00:00")).encode() + "\n"
+				+ new JsonObject().put("dealId", "d2").put("deal", deal_("d2", "2020/01/01-00:00:00")).encode() + "\n";
+		String part2 = new JsonObject().put("dealId", "d2").put("patch", new JsonObject().put("cumulateAmountWh", 30)).encode() + "\n"
+				+ "{broken\n"
+				+ new JsonObject().put("dealId", "d3").put("patch", new JsonObject().put("cumulateAmountWh", 1)).encode() + "\n";
+		Map<String, JsonObject> deals = new LinkedHashMap<>();
+		context.assertEquals(new LinkedHashSet<>(Arrays.asList("d1", "d2")), DealLogStore.apply(deals, part1));
+		JsonObject d1 = deals.get("d1");
+		context.assertEquals(Collections.singleton("d2"), DealLogStore.apply(deals, part2));
+		context.assertTrue(d1 == deals.get("d1"));
+		context.assertEquals(deal_("d2", "2020/01/01-00:00:00").put("cumulateAmountWh", 30), deals.get("d2"));
+		context.assertFalse(deals.containsKey("d3"));
+		context.assertEquals(DealLogStore.rebuild(part1 + part2), deals);
+		context.assertTrue(DealLogStore.apply(deals, "").isEmpty());
+	}
+
+	/**
+	 * The written handler receives the deals of a segment only after it has been written, and those of a failed segment once written by the next call.
+	 * @param context a testcontext object
+	 *          
+	 * 書き込みハンドラはセグメントの融通をその書き込み後にのみ受け取り, 失敗したセグメントの融通は次の呼び出しで書き込んだ時に受け取る.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testWrittenHandler(TestContext context) throws Exception {
+		List<String> written = new ArrayList<>();
+		DealLogStore store = new DealLogStore(vertx, formatter_, true, deal -> written.add(deal.getString("dealId")));
+		JsonObject d1 = deal_("d1", "2020/01/01-00:00:00");
+		JsonObject d2 = deal_("d2", "2020/01/02-00:00:00");
+		File blocker = new File(DealLogStore.segmentPath(formatter_, d2)).getParentFile();
+		context.assertTrue(blocker.createNewFile());
+		Async async = context.async();
+		store.append(Arrays.asList(d1, d2), res -> {
+			context.assertTrue(res.failed());
+			context.assertEquals(Arrays.asList("d1"), written);
+			context.assertTrue(blocker.delete());
+			store.append(Arrays.asList(d1, d2), context.asyncAssertSuccess(v -> {
+				// d1 is unchanged and not written again
+				// d1 は変化がなく再び書かれない
+				context.assertEquals(Arrays.asList("d1", "d2"), written);
+				store.close();
+				async.complete();
+			}));
+		});
+	}
+
+}
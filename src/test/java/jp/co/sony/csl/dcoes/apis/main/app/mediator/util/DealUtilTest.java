@@ -0,0 +1,338 @@
+package jp.co.sony.csl.dcoes.apis.main.app.mediator.util;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import jp.co.sony.csl.dcoes.apis.common.util.vertx.EncryptedClusterWideMapUtil;
+import jp.co.sony.csl.dcoes.apis.main.app.PolicyKeeping;
+import jp.co.sony.csl.dcoes.apis.main.test.AbstractApisTest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * DealUtil near-cache test.
+ * Writes by other units are simulated by writing shared memory directly, with or without a notification.
+ * @author OES Project
+ *          
+ * DealUtil のニアキャッシュのテスト.
+ * 他ユニットによる書き込みは共有メモリへの直接の書き込みと通知の有無で模擬する.
+ * @author OES Project
+ */
+public class DealUtilTest extends AbstractApisTest {
+
+	private static final String DATE_TIME_ = "2020/01/01-00:00:00";
+
+	private static JsonObject deal_(String dealId, String dischargeUnitId, String chargeUnitId) {
+		return new JsonObject().put("dealId", dealId).put("createDateTime", DATE_TIME_).put("type", "charge").put("dealGridCurrentA", 1F).put("dealAmountWh", 100).put("acceptUnitId", dischargeUnitId).put("dischargeUnitId", dischargeUnitId).put("requestUnitId", chargeUnitId).put("chargeUnitId", chargeUnitId);
+	}
+
+	@Before
+	public void setUpPolicy(TestContext context) {
+		PolicyKeeping.cache().setJsonObject(new JsonObject());
+	}
+
+	/**
+	 * Write shared memory directly as another unit would, bypassing the near-cache of this unit.
+	 * @param context a testcontext object
+	 * @param dealId an interchange ID
+	 * @param deal the DEAL object. {@code null} to remove
+	 * @param then called when written
+	 *          
+	 * 他ユニットのように, このユニットのニアキャッシュを介さずに共有メモリに直接書き込む.
+	 * @param context testcontext オブジェクト
+	 * @param dealId 融通 ID
+	 * @param deal DEAL オブジェクト. 削除するなら {@code null}
+	 * @param then 書き込んだら呼ばれる
+	 */
+	private void write_(TestContext context, String dealId, JsonObject deal, Runnable then) {
+		EncryptedClusterWideMapUtil.<String, JsonObject>getEncryptedClusterWideMap(vertx, DealUtil.class.getName(), context.asyncAssertSuccess(map -> {
+			if (deal != null) {
+				map.put(dealId, deal, context.asyncAssertSuccess(v -> then.run()));
+			} else {
+				map.remove(dealId, context.asyncAssertSuccess(v -> then.run()));
+			}
+		}));
+	}
+	/**
+	 * Read a DEAL object repeatedly until it satisfies {@code condition}.
+	 * @param context a testcontext object
+	 * @param dealId an interchange ID
+	 * @param condition the condition. Receives {@code null} if the DEAL object does not exist
+	 * @param then called when satisfied
+	 *          
+	 * DEAL オブジェクトが {@code condition} を満たすまで繰り返し読み出す.
+	 * @param context testcontext オブジェクト
+	 * @param dealId 融通 ID
+	 * @param condition 条件. DEAL オブジェクトがなければ {@code null} を受け取る
+	 * @param then 満たしたら呼ばれる
+	 */
+	private void await_(TestContext context, String dealId, Predicate<JsonObject> condition, Runnable then) {
+		long started = System.currentTimeMillis();
+		vertx.setPeriodic(20L, timerId -> {
+			DealUtil.get(vertx, dealId, true, context.asyncAssertSuccess(deal -> {
+				if (condition.test(deal)) {
+					if (vertx.cancelTimer(timerId)) then.run();
+				} else if (started + 5000L < System.currentTimeMillis()) {
+					vertx.cancelTimer(timerId);
+					context.fail("not satisfied : " + deal);
+				}
+			}));
+		});
+	}
+
+	/**
+	 * A write of this unit is read back at once.
+	 * @param context a testcontext object
+	 *          
+	 * このユニットの書き込みは直ちに読み出せる.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testOwnWriteVisible(TestContext context) {
+		Async async = context.async();
+		DealUtil.add(vertx, deal_("d1", "E001", "E002"), context.asyncAssertSuccess(v1 -> {
+			DealUtil.get(vertx, "d1", context.asyncAssertSuccess(deal -> {
+				context.assertEquals(100, deal.getInteger("dealAmountWh"));
+				DealUtil.update(vertx, deal.put("dealAmountWh", 200), context.asyncAssertSuccess(v2 -> {
+					DealUtil.get(vertx, "d1", context.asyncAssertSuccess(updated -> {
+						context.assertEquals(200, updated.getInteger("dealAmountWh"));
+						DealUtil.remove(vertx, "d1", context.asyncAssertSuccess(removed -> {
+							DealUtil.all(vertx, context.asyncAssertSuccess(all -> {
+								context.assertTrue(all.isEmpty());
+								async.complete();
+							}));
+						}));
+					}));
+				}));
+			}));
+		}));
+	}
+
+	/**
+	 * A write without notification is not seen until the near-cache gets older than its maximum age.
+	 * @param context a testcontext object
+	 *          
+	 * 通知のない書き込みはニアキャッシュが最大寿命より古くなるまで見えない.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testStalenessBoundedByMaxAge(TestContext context) {
+		Async async = context.async();
+		PolicyKeeping.cache().setJsonObject(new JsonObject().put("mediator", new JsonObject().put("dealCacheMaxAgeMsec", 500)));
+		DealUtil.add(vertx, deal_("d1", "E001", "E002"), context.asyncAssertSuccess(v -> {
+			DealUtil.get(vertx, "d1", context.asyncAssertSuccess(cached -> {
+				write_(context, "d1", deal_("d1", "E001", "E002").put("dealAmountWh", 300), () -> {
+					// Served locally, so the direct write is not seen yet
+					// ローカルで返すので直接の書き込みはまだ見えない
+					DealUtil.get(vertx, "d1", context.asyncAssertSuccess(stale -> {
+						context.assertEquals(100, stale.getInteger("dealAmountWh"));
+						await_(context, "d1", deal -> deal != null && deal.getInteger("dealAmountWh") == 300, async::complete);
+					}));
+				});
+			}));
+		}));
+	}
+
+	/**
+	 * A notification re-reads the written DEAL object alone, while a notification older than the near-cache is ignored.
+	 * @param context a testcontext object
+	 *          
+	 * 通知で書き込まれた DEAL オブジェクトだけを読み直し, ニアキャッシュより古い通知は無視する.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testNotificationPatchesEntry(TestContext context) {
+		Async async = context.async();
+		DealUtil.add(vertx, deal_("d1", "E001", "E002"), context.asyncAssertSuccess(v1 -> {
+			DealUtil.add(vertx, deal_("d2", "E003", "E004"), context.asyncAssertSuccess(v2 -> {
+				DealUtil.get(vertx, "d1", context.asyncAssertSuccess(cached -> {
+					write_(context, "d1", deal_("d1", "E001", "E002").put("dealAmountWh", 300), () -> {
+						write_(context, "d2", deal_("d2", "E003", "E004").put("dealAmountWh", 400), () -> {
+							// An old version is ignored
+							// 古いバージョンは無視される
+							vertx.eventBus().publish(DealUtil.UPDATED_ADDRESS, new JsonObject().put("dealId", "d2").put("version", 0L));
+							vertx.eventBus().publish(DealUtil.UPDATED_ADDRESS, new JsonObject().put("dealId", "d1").put("version", 100L));
+							await_(context, "d1", deal -> deal != null && deal.getInteger("dealAmountWh") == 300, () -> {
+								DealUtil.get(vertx, "d2", context.asyncAssertSuccess(d2 -> {
+									context.assertEquals(100, d2.getInteger("dealAmountWh"));
+									async.complete();
+								}));
+							});
+						});
+					});
+				}));
+			}));
+		}));
+	}
+
+	/**
+	 * A notified removal drops the DEAL object, and a late notification of an older version does not bring it back.
+	 * @param context a testcontext object
+	 *          
+	 * 通知された削除で DEAL オブジェクトは消え, 遅れて届いた古いバージョンの通知で復活しない.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testNotifiedRemoval(TestContext context) {
+		Async async = context.async();
+		DealUtil.add(vertx, deal_("d1", "E001", "E002"), context.asyncAssertSuccess(v -> {
+			DealUtil.get(vertx, "d1", context.asyncAssertSuccess(cached -> {
+				write_(context, "d1", null, () -> {
+					vertx.eventBus().publish(DealUtil.UPDATED_ADDRESS, new JsonObject().put("dealId", "d1").put("version", 100L));
+					await_(context, "d1", deal -> deal == null, () -> {
+						write_(context, "d1", deal_("d1", "E001", "E002"), () -> {
+							vertx.eventBus().publish(DealUtil.UPDATED_ADDRESS, new JsonObject().put("dealId", "d1").put("version", 50L));
+							vertx.setTimer(200L, t -> {
+								DealUtil.get(vertx, "d1", true, context.asyncAssertSuccess(deal -> {
+									context.assertNull(deal);
+									async.complete();
+								}));
+							});
+						});
+					});
+				});
+			}));
+		}));
+	}
+
+	/**
+	 * A notification without a version discards the near-cache.
+	 * @param context a testcontext object
+	 *          
+	 * バージョンのない通知でニアキャッシュは破棄される.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testNotificationWithoutVersion(TestContext context) {
+		Async async = context.async();
+		DealUtil.add(vertx, deal_("d1", "E001", "E002"), context.asyncAssertSuccess(v -> {
+			DealUtil.get(vertx, "d1", context.asyncAssertSuccess(cached -> {
+				write_(context, "d1", deal_("d1", "E001", "E002").put("dealAmountWh", 300), () -> {
+					vertx.eventBus().publish(DealUtil.UPDATED_ADDRESS, new JsonObject().put("dealId", "d1"));
+					await_(context, "d1", deal -> deal != null && deal.getInteger("dealAmountWh") == 300, async::complete);
+				});
+			}));
+		}));
+	}
+
+	/**
+	 * An update based on a stale revision fails and leaves the other write in place, while the winner keeps updating the same object.
+	 * @param context a testcontext object
+	 *          
+	 * 古いリビジョンに基づいた更新は失敗し他の書き込みを残す. 勝った側は同じオブジェクトで更新を続けられる.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testStaleUpdateFails(TestContext context) {
+		Async async = context.async();
+		DealUtil.add(vertx, deal_("d1", "E001", "E002"), context.asyncAssertSuccess(v1 -> {
+			DealUtil.get(vertx, "d1", context.asyncAssertSuccess(a -> {
+				DealUtil.get(vertx, "d1", context.asyncAssertSuccess(b -> {
+					DealUtil.update(vertx, a.put("dealAmountWh", 200), context.asyncAssertSuccess(v2 -> {
+						DealUtil.update(vertx, b.put("dealAmountWh", 300), context.asyncAssertFailure(t -> {
+							DealUtil.update(vertx, a.put("dealAmountWh", 250), context.asyncAssertSuccess(v3 -> {
+								DealUtil.get(vertx, "d1", context.asyncAssertSuccess(deal -> {
+									context.assertEquals(250, deal.getInteger("dealAmountWh"));
+									async.complete();
+								}));
+							}));
+						}));
+					}));
+				}));
+			}));
+		}));
+	}
+
+	/**
+	 * Of concurrent updates based on the same revision exactly one succeeds, without the lock-free path racing the locked one.
+	 * @param context a testcontext object
+	 *          
+	 * 同じリビジョンに基づいた同時の更新はちょうど一つだけが成功し, ロックなしの経路がロックありの経路と競合することはない.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testConcurrentUpdates(TestContext context) {
+		Async async = context.async();
+		int n = 5;
+		DealUtil.add(vertx, deal_("d1", "E001", "E002"), context.asyncAssertSuccess(v -> {
+			DealUtil.get(vertx, "d1", context.asyncAssertSuccess(base -> {
+				AtomicInteger succeeded = new AtomicInteger();
+				AtomicInteger done = new AtomicInteger();
+				AtomicInteger winner = new AtomicInteger();
+				for (int i = 0; i < n; i++) {
+					int amount = 1000 + i;
+					DealUtil.update(vertx, base.copy().put("dealAmountWh", amount), res -> {
+						if (res.succeeded()) {
+							succeeded.incrementAndGet();
+							winner.set(amount);
+						}
+						if (done.incrementAndGet() == n) {
+							context.assertEquals(1, succeeded.get());
+							DealUtil.get(vertx, "d1", context.asyncAssertSuccess(deal -> {
+								context.assertEquals(winner.get(), deal.getInteger("dealAmountWh"));
+								async.complete();
+							}));
+						}
+					});
+				}
+			}));
+		}));
+	}
+
+	/**
+	 * When the compare-and-swap misses because another unit wrote without notification, the update is retried from a fresh read and fails instead of re-applying the stale object.
+	 * @param context a testcontext object
+	 *          
+	 * 他ユニットが通知なしに書き込んだため compare-and-swap が外れた場合, 読み直してやり直し古いオブジェクトを再適用せずに失敗する.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testMissedCompareAndSwapNotReapplied(TestContext context) {
+		Async async = context.async();
+		DealUtil.add(vertx, deal_("d1", "E001", "E002"), context.asyncAssertSuccess(v1 -> {
+			DealUtil.get(vertx, "d1", context.asyncAssertSuccess(stale -> {
+				write_(context, "d1", stale.copy().put("dealAmountWh", 300).put("revision", stale.getLong("revision", 0L) + 1L), () -> {
+					DealUtil.update(vertx, stale.copy().put("dealAmountWh", 200), context.asyncAssertFailure(t -> {
+						PolicyKeeping.cache().setJsonObject(new JsonObject().put("mediator", new JsonObject().put("dealCacheMaxAgeMsec", 0)));
+						DealUtil.get(vertx, "d1", context.asyncAssertSuccess(deal -> {
+							context.assertEquals(300, deal.getInteger("dealAmountWh"));
+							async.complete();
+						}));
+					}));
+				});
+			}));
+		}));
+	}
+
+	/**
+	 * When the compare-and-swap misses only because the near-cache differs from shared memory at the same revision, the retry from a fresh read succeeds.
+	 * @param context a testcontext object
+	 *          
+	 * 同じリビジョンでニアキャッシュが共有メモリと異なるだけで compare-and-swap が外れた場合, 読み直してのやり直しは成功する.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testMissedCompareAndSwapRetried(TestContext context) {
+		Async async = context.async();
+		DealUtil.add(vertx, deal_("d1", "E001", "E002"), context.asyncAssertSuccess(v1 -> {
+			DealUtil.get(vertx, "d1", context.asyncAssertSuccess(cached -> {
+				write_(context, "d1", cached.copy().put("dealAmountWh", 300), () -> {
+					DealUtil.update(vertx, cached.copy().put("dealAmountWh", 200), context.asyncAssertSuccess(v2 -> {
+						PolicyKeeping.cache().setJsonObject(new JsonObject().put("mediator", new JsonObject().put("dealCacheMaxAgeMsec", 0)));
+						DealUtil.get(vertx, "d1", context.asyncAssertSuccess(deal -> {
+							context.assertEquals(200, deal.getInteger("dealAmountWh"));
+							context.assertEquals(cached.getLong("revision", 0L) + 1L, deal.getLong("revision"));
+							async.complete();
+						}));
+					}));
+				});
+			}));
+		}));
+	}
+
+}
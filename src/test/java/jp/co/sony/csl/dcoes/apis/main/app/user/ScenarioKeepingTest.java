@@ -0,0 +1,102 @@
+package jp.co.sony.csl.dcoes.apis.main.app.user;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * ScenarioKeeping time slot compilation test.
+ * @author OES Project
+ *          
+ * ScenarioKeeping の時間帯コンパイルのテスト.
+ * @author OES Project
+ */
+@RunWith(VertxUnitRunner.class)
+public class ScenarioKeepingTest {
+
+	private static final int HOUR_ = 3600;
+
+	/**
+	 * Overlapping time slots are resolved in favor of the one written first, and "24:00:00" ends the day.
+	 * @param context a testcontext object
+	 *          
+	 * 重なる時間帯は先に書かれたものが優先され, "24:00:00" で一日が終わる.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testOverlapAndEndOfDay(TestContext context) {
+		JsonObject globalAcceptSelection = new JsonObject().put("strategy", "amount");
+		JsonObject morning = new JsonObject().put("slot", "morning");
+		JsonObject rest = new JsonObject().put("slot", "rest").put("acceptSelection", new JsonObject().put("strategy", "pointAndAmount"));
+		JsonObject scenario = new JsonObject()
+				.put("refreshingPeriodMsec", 5000)
+				.put("acceptSelection", globalAcceptSelection)
+				.put("00:00:00-12:00:00", morning)
+				.put("06:00:00-24:00:00", rest);
+		ScenarioKeeping.TimeSlots timeSlots = new ScenarioKeeping.TimeSlots(scenario);
+		context.assertEquals("morning", timeSlots.subset(0).getString("slot"));
+		// The global acceptSelection is merged into a copy
+		// グローバルの acceptSelection はコピーにマージされる
+		context.assertEquals(globalAcceptSelection, timeSlots.subset(0).getJsonObject("acceptSelection"));
+		context.assertFalse(morning.containsKey("acceptSelection"));
+		context.assertEquals("morning", timeSlots.subset(6 * HOUR_).getString("slot"));
+		context.assertEquals("morning", timeSlots.subset(12 * HOUR_ - 1).getString("slot"));
+		context.assertEquals(rest, timeSlots.subset(12 * HOUR_));
+		context.assertEquals(rest, timeSlots.subset(24 * HOUR_ - 1));
+		context.assertNull(timeSlots.subset(24 * HOUR_));
+	}
+
+	/**
+	 * Times outside every time slot have no subset, and bad time slots are ignored.
+	 * @param context a testcontext object
+	 *          
+	 * どの時間帯にも含まれない時刻にはサブセットがなく, 不正な時間帯は無視する.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testGapsAndBadTimeSlots(TestContext context) {
+		JsonObject night = new JsonObject().put("slot", "night");
+		JsonObject scenario = new JsonObject()
+				.put("01:00:00-02:00:00", night)
+				.put("05:00:00-04:00:00", new JsonObject().put("slot", "reversed"))
+				.put("24:00:00-24:00:00", new JsonObject().put("slot", "empty"))
+				.put("23:00:00-25:00:00", new JsonObject().put("slot", "beyond"))
+				.put("10:60:00-11:00:00", new JsonObject().put("slot", "badMinute"))
+				.put("12:00:00-13:00:00", "notAnObject");
+		ScenarioKeeping.TimeSlots timeSlots = new ScenarioKeeping.TimeSlots(scenario);
+		context.assertNull(timeSlots.subset(0));
+		context.assertNull(timeSlots.subset(HOUR_ - 1));
+		context.assertEquals(night, timeSlots.subset(HOUR_));
+		context.assertEquals(night, timeSlots.subset(2 * HOUR_ - 1));
+		context.assertNull(timeSlots.subset(2 * HOUR_));
+		context.assertNull(timeSlots.subset(4 * HOUR_ + 30 * 60));
+		context.assertNull(timeSlots.subset(10 * HOUR_ + 30 * 60));
+		context.assertNull(timeSlots.subset(12 * HOUR_ + 30 * 60));
+		context.assertNull(timeSlots.subset(23 * HOUR_ + 30 * 60));
+	}
+
+	/**
+	 * A time slot nested inside an earlier one never wins.
+	 * @param context a testcontext object
+	 *          
+	 * 先に書かれた時間帯の内側にある時間帯は決して優先されない.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testNestedTimeSlot(TestContext context) {
+		JsonObject allDay = new JsonObject().put("slot", "allDay");
+		JsonObject scenario = new JsonObject()
+				.put("00:00:00-24:00:00", allDay)
+				.put("10:00:00-11:00:00", new JsonObject().put("slot", "nested"));
+		ScenarioKeeping.TimeSlots timeSlots = new ScenarioKeeping.TimeSlots(scenario);
+		for (int secondOfDay = 0; secondOfDay < 24 * HOUR_; secondOfDay += 15 * 60) {
+			context.assertEquals(allDay, timeSlots.subset(secondOfDay));
+		}
+		context.assertEquals(allDay, timeSlots.subset(10 * HOUR_));
+		context.assertEquals(allDay, timeSlots.subset(11 * HOUR_));
+	}
+
+}
@@ -0,0 +1,206 @@
+package jp.co.sony.csl.dcoes.apis.main.evaluation.safety;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * DealCurrentLedger test.
+ * @author OES Project
+ *          
+ * DealCurrentLedger のテスト.
+ * @author OES Project
+ */
+@RunWith(VertxUnitRunner.class)
+public class DealCurrentLedgerTest {
+
+	private static final String DATE_TIME_ = "2020/01/01-00:00:00";
+
+	@Before
+	public void before(TestContext context) {
+		DealCurrentLedger.reset();
+	}
+
+	private static JsonObject deal_(String dealId, String dischargeUnitId, String chargeUnitId, float dealGridCurrentA) {
+		return new JsonObject().put("dealId", dealId).put("createDateTime", DATE_TIME_).put("type", "charge").put("requestUnitId", chargeUnitId).put("acceptUnitId", dischargeUnitId).put("chargeUnitId", chargeUnitId).put("dischargeUnitId", dischargeUnitId).put("dealGridCurrentA", dealGridCurrentA).put("dealAmountWh", 100);
+	}
+	private static JsonObject started_(JsonObject deal) {
+		return deal.put("activateDateTime", DATE_TIME_).put("rampUpDateTime", DATE_TIME_).put("warmUpDateTime", DATE_TIME_).put("startDateTime", DATE_TIME_);
+	}
+	private static JsonObject finished_(JsonObject deal) {
+		return started_(deal).put("stopDateTime", DATE_TIME_).put("deactivateDateTime", DATE_TIME_);
+	}
+
+	/**
+	 * Incremental updates give the same ledger as a reconciliation over the resulting DEAL objects.
+	 * @param context a testcontext object
+	 *          
+	 * 逐次的な更新は結果の DEAL オブジェクトでの突き合わせと同じ台帳になる.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testUpdateAgreesWithReconcile(TestContext context) {
+		GridTopology topology = GridTopology.compiled(GridTopologyTest.policy_(15F));
+		DealCurrentLedger.reconcile(Collections.emptyList());
+		context.assertTrue(DealCurrentLedger.isSynced());
+		context.assertEquals(0F, DealCurrentLedger.sumOfDealGridCurrentA(null));
+
+		JsonObject d1 = started_(deal_("d1", "E001", "E003", 3F));
+		JsonObject d2 = started_(deal_("d2", "E002", "E003", 4F));
+		JsonObject d3 = deal_("d3", "E001", "E002", 5F);
+		DealCurrentLedger.update("d1", d1);
+		DealCurrentLedger.update("d2", d2);
+		DealCurrentLedger.update("d3", d3);
+		context.assertEquals(7F, DealCurrentLedger.sumOfDealGridCurrentA(null));
+		context.assertEquals(4F, DealCurrentLedger.sumOfDealGridCurrentA("d1"));
+		context.assertEquals(2, DealCurrentLedger.numberOfDealingDeals());
+		context.assertEquals(new HashSet<>(Arrays.asList("E001", "E002", "E003")), DealCurrentLedger.dealingUnitIds());
+		context.assertTrue(DealCurrentLedger.branchCurrents(topology, null).exceedance() == null);
+
+		// E003 is now charged by 12 A beyond B0 whose capacity is 10 A
+		// 容量 10 A の B0 の奥で E003 が 12 A で受電するようになる
+		d1 = started_(deal_("d1", "E001", "E003", 8F));
+		DealCurrentLedger.update("d1", d1);
+		context.assertFalse(DealCurrentLedger.branchCurrents(topology, null).exceedance() == null);
+		context.assertTrue(DealCurrentLedger.branchCurrents(topology, "d1").exceedance() == null);
+		context.assertTrue(DealCurrentLedger.branchCurrents(topology, "d2").exceedance() == null);
+
+		// Branch sums are rebuilt for a new topology
+		// ブランチの合計は新しいトポロジ向けに作りなおされる
+		GridTopology other = GridTopology.compiled(GridTopologyTest.policy_(30F));
+		GridTopology.BranchCurrents currents = DealCurrentLedger.branchCurrents(other, null);
+		context.assertTrue(currents.isFor(other));
+		context.assertTrue(currents.exceedance().startsWith("branch : B0, backward sum of charge"));
+		topology = GridTopology.compiled(GridTopologyTest.policy_(15F));
+
+		d2 = finished_(d2);
+		DealCurrentLedger.update("d2", d2);
+		DealCurrentLedger.update("d3", null);
+		float sum = DealCurrentLedger.sumOfDealGridCurrentA(null);
+		int dealing = DealCurrentLedger.numberOfDealingDeals();
+		Set<String> dealingUnitIds = DealCurrentLedger.dealingUnitIds();
+		boolean withinCapacity = DealCurrentLedger.branchCurrents(topology, null).exceedance() == null;
+		context.assertEquals(8F, sum);
+		context.assertEquals(1, dealing);
+		context.assertEquals(new HashSet<>(Arrays.asList("E001", "E003")), dealingUnitIds);
+		context.assertTrue(withinCapacity);
+
+		List<JsonObject> deals = new ArrayList<>(Arrays.asList(d1, d2));
+		DealCurrentLedger.reconcile(deals);
+		context.assertEquals(sum, DealCurrentLedger.sumOfDealGridCurrentA(null));
+		context.assertEquals(dealing, DealCurrentLedger.numberOfDealingDeals());
+		context.assertEquals(dealingUnitIds, DealCurrentLedger.dealingUnitIds());
+		context.assertEquals(withinCapacity, DealCurrentLedger.branchCurrents(topology, null).exceedance() == null);
+	}
+
+	/**
+	 * Reconciliation replaces a ledger that missed writes, and an interchange without {@code dealGridCurrentA} is reported.
+	 * @param context a testcontext object
+	 *          
+	 * 書き込みを見逃した台帳は突き合わせで置き換えられ, {@code dealGridCurrentA} のない融通が報告される.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testReconcileReplacesLedger(TestContext context) {
+		DealCurrentLedger.reconcile(Collections.emptyList());
+		DealCurrentLedger.update("d1", started_(deal_("d1", "E001", "E002", 3F)));
+		// Written on another unit and therefore not seen by update()
+		// 他のユニットで書き込まれたので update() では見えない
+		JsonObject d2 = started_(deal_("d2", "E003", "E004", 0F));
+		d2.remove("dealGridCurrentA");
+		DealCurrentLedger.reconcile(Arrays.asList(d2));
+		context.assertEquals(0F, DealCurrentLedger.sumOfDealGridCurrentA(null));
+		context.assertEquals(new HashSet<>(Arrays.asList("E003", "E004")), DealCurrentLedger.dealingUnitIds());
+		context.assertEquals("d2", DealCurrentLedger.dealIdWithoutDealGridCurrentA(null));
+		context.assertNull(DealCurrentLedger.dealIdWithoutDealGridCurrentA("d2"));
+	}
+
+	/**
+	 * The ledger matches only the interchanges whose master side must be active, and invalidation makes it unusable until reconciled.
+	 * @param context a testcontext object
+	 *          
+	 * 台帳は master 側が起動ずみの融通とだけ一致し, 無効にすると突き合わせるまで使えない.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testMatchesAndInvalidate(TestContext context) {
+		JsonObject d1 = started_(deal_("d1", "E001", "E002", 3F));
+		JsonObject d2 = started_(deal_("d2", "E003", "E004", 4F));
+		DealCurrentLedger.reconcile(Arrays.asList(d1));
+		context.assertTrue(DealCurrentLedger.matches(Arrays.asList(d1), null));
+		context.assertTrue(DealCurrentLedger.matches(Collections.emptyList(), "d1"));
+		// Missed an interchange, kept a stopped one or differs in current
+		// 融通を取りこぼした, 止まった融通が残っている, 電流が違う
+		context.assertFalse(DealCurrentLedger.matches(Arrays.asList(d1, d2), null));
+		context.assertFalse(DealCurrentLedger.matches(Collections.emptyList(), null));
+		context.assertFalse(DealCurrentLedger.matches(Arrays.asList(started_(deal_("d1", "E001", "E002", 5F))), null));
+		DealCurrentLedger.invalidate();
+		context.assertFalse(DealCurrentLedger.isSynced());
+		DealCurrentLedger.reconcile(Arrays.asList(d1, d2));
+		context.assertTrue(DealCurrentLedger.isSynced());
+		context.assertTrue(DealCurrentLedger.matches(Arrays.asList(d1, d2), null));
+	}
+
+	/**
+	 * A new interchange is judged from {@code otherDeals} when the ledger has missed a transition.
+	 * @param context a testcontext object
+	 *          
+	 * 台帳が遷移を取りこぼしていれば新しい融通は {@code otherDeals} から判定する.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testCheckNewDealFallsBack(TestContext context) {
+		Vertx vertx = Vertx.vertx();
+		try {
+			JsonObject policy = new JsonObject().put("safety", new JsonObject().put("sumOfDealGridCurrentMaxA", 10F).put("dealCurrentLedger", new JsonObject().put("enabled", true)));
+			DealCurrentLedger.reconcile(Collections.emptyList());
+			// Activated elsewhere and therefore not in the ledger
+			// 他所で起動されたので台帳にない
+			JsonObject d1 = started_(deal_("d1", "E001", "E002", 8F));
+			String result = GridBranchCurrentCapacity.checkNewDeal(vertx, policy, deal_("d2", "E003", "E004", 5F), Arrays.asList(d1));
+			context.assertNotNull(result);
+			context.assertFalse(DealCurrentLedger.isSynced());
+			DealCurrentLedger.reconcile(Arrays.asList(d1));
+			context.assertNotNull(GridBranchCurrentCapacity.checkNewDeal(vertx, policy, deal_("d2", "E003", "E004", 5F), Arrays.asList(d1)));
+			context.assertTrue(DealCurrentLedger.isSynced());
+			context.assertNull(GridBranchCurrentCapacity.checkNewDeal(vertx, policy, deal_("d2", "E003", "E004", 2F), Arrays.asList(d1)));
+		} finally {
+			vertx.close();
+		}
+	}
+
+	/**
+	 * Reconciliation is due before the first one and then every {@code reconciliationCycles} cycles.
+	 * @param context a testcontext object
+	 *          
+	 * 最初の突き合わせ前と, その後は {@code reconciliationCycles} 周期ごとに突き合わせる.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testReconciliationDue(TestContext context) {
+		JsonObject policy = new JsonObject().put("safety", new JsonObject().put("dealCurrentLedger", new JsonObject().put("enabled", true).put("reconciliationCycles", 2)));
+		context.assertTrue(DealCurrentLedger.enabled(policy));
+		context.assertFalse(DealCurrentLedger.enabled(new JsonObject()));
+		context.assertFalse(DealCurrentLedger.isSynced());
+		context.assertTrue(DealCurrentLedger.reconciliationDue(policy));
+		context.assertTrue(DealCurrentLedger.reconciliationDue(policy));
+		DealCurrentLedger.reconcile(Collections.emptyList());
+		context.assertFalse(DealCurrentLedger.reconciliationDue(policy));
+		context.assertTrue(DealCurrentLedger.reconciliationDue(policy));
+		DealCurrentLedger.reset();
+		context.assertFalse(DealCurrentLedger.isSynced());
+	}
+
+}
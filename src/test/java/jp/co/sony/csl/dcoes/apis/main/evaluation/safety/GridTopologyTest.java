@@ -0,0 +1,142 @@
+package jp.co.sony.csl.dcoes.apis.main.evaluation.safety;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * GridTopology test.
+ * @author OES Project
+ *          
+ * GridTopology のテスト.
+ * @author OES Project
+ */
+@RunWith(VertxUnitRunner.class)
+public class GridTopologyTest {
+
+	/**
+	 * Create a POLICY of a line of three units E001 - E002 - E003.
+	 * B0 lies between E001 and the others, and B1 between E003 and the others.
+	 * @param capacityB1 the capacity of B1. {@code null} to leave it undefined
+	 * @return a POLICY object
+	 *          
+	 * 三つのユニット E001 - E002 - E003 が直列に並んだ POLICY を生成する.
+	 * B0 は E001 と他の間に, B1 は E003 と他の間にある.
+	 * @param capacityB1 B1 の容量. {@code null} なら定義しない
+	 * @return POLICY オブジェクト
+	 */
+	static JsonObject policy_(Float capacityB1) {
+		JsonObject capacity = new JsonObject().put("B0", 10F);
+		if (capacityB1 != null) capacity.put("B1", capacityB1);
+		return new JsonObject().put("safety", new JsonObject().put("gridTopologyBasedEvaluation", new JsonObject()
+				.put("enabled", true)
+				.put("branchIds", new JsonArray().add("B0").add("B1"))
+				.put("branchAssociation", new JsonObject()
+						.put("B0", new JsonObject().put("forwardUnitIds", new JsonArray().add("E001")).put("backwardUnitIds", new JsonArray().add("E002").add("E003")))
+						.put("B1", new JsonObject().put("forwardUnitIds", new JsonArray().add("E001").add("E002")).put("backwardUnitIds", new JsonArray().add("E003"))))
+				.put("branchCurrentCapacityA", capacity)));
+	}
+
+	/**
+	 * Each of the four sums is checked in the same order and reported with the same message as the former rescan over units and deals.
+	 * @param context a testcontext object
+	 *          
+	 * 四つの合計はそれぞれ以前のユニットと融通の走査と同じ順にチェックされ同じメッセージで報告される.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testExceedanceMessages(TestContext context) {
+		GridTopology topology = GridTopology.compiled(policy_(15F));
+		context.assertEquals(Arrays.asList("E001", "E002"), topology.forwardUnitIds(1));
+		context.assertEquals("B1", topology.branchId(1));
+		context.assertEquals(15F, topology.capacityA(1));
+
+		GridTopology.BranchCurrents currents = topology.newBranchCurrents();
+		currents.add("E001", "E002", 11F);
+		context.assertEquals("branch : B0, forward sum of discharge dealGridCurrentA : 11.0, exceeds capacity : 10.0", currents.exceedance());
+
+		currents = topology.newBranchCurrents();
+		currents.add("E002", "E001", 11F);
+		context.assertEquals("branch : B0, forward sum of charge dealGridCurrentA : 11.0, exceeds capacity : 10.0", currents.exceedance());
+
+		// A negative current counts by its magnitude
+		// 負の電流は大きさで数える
+		currents = topology.newBranchCurrents();
+		currents.add("E003", "E002", -11F);
+		context.assertEquals("branch : B0, backward sum of discharge dealGridCurrentA : -11.0, exceeds capacity : 10.0", currents.exceedance());
+
+		// A sum equal to the capacity is still within it
+		// 容量に等しい合計はまだ容量内
+		currents = topology.newBranchCurrents();
+		currents.add("E001", "E003", 6F);
+		currents.add("E002", "E003", 4F);
+		context.assertNull(currents.exceedance());
+		currents.add("E002", "E003", 1F);
+		context.assertEquals("branch : B0, backward sum of charge dealGridCurrentA : 11.0, exceeds capacity : 10.0", currents.exceedance());
+
+		// Units outside the topology do not count
+		// トポロジにないユニットは数えない
+		currents = topology.newBranchCurrents();
+		currents.add("E009", "E008", 100F);
+		context.assertNull(currents.exceedance());
+	}
+
+	/**
+	 * Branches before the first deficient one are still checked, and a POLICY without topology has no branches.
+	 * @param context a testcontext object
+	 *          
+	 * 定義が不足している最初のブランチより前のブランチはチェックされ, トポロジのない POLICY にはブランチがない.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testDeficiency(TestContext context) {
+		GridTopology topology = GridTopology.compiled(policy_(null));
+		context.assertNull(topology.capacityA(1));
+		context.assertEquals("data deficiency ; POLICY.safety.gridTopologyBasedEvaluation.branchCurrentCapacityA.B1 : null, POLICY.safety.gridTopologyBasedEvaluation.branchAssociation.B1.forwardUnitIds : [E001, E002], POLICY.safety.gridTopologyBasedEvaluation.branchAssociation.B1.backwardUnitIds : [E003]", topology.deficiency());
+		GridTopology.BranchCurrents currents = topology.newBranchCurrents();
+		currents.add("E001", "E003", 100F);
+		context.assertTrue(currents.exceedance().startsWith("branch : B0, forward sum of discharge"));
+
+		JsonObject policy = policy_(15F);
+		policy.getJsonObject("safety").getJsonObject("gridTopologyBasedEvaluation").getJsonObject("branchAssociation").getJsonObject("B0").remove("backwardUnitIds");
+		topology = GridTopology.compiled(policy);
+		context.assertTrue(topology.deficiency().contains("branchAssociation.B0.backwardUnitIds : null"));
+		currents = topology.newBranchCurrents();
+		currents.add("E001", "E003", 100F);
+		context.assertNull(currents.exceedance());
+
+		topology = GridTopology.compiled(new JsonObject());
+		context.assertFalse(topology.hasBranchIds());
+		context.assertEquals(0, topology.numberOfBranches());
+		context.assertNull(topology.deficiency());
+		context.assertNull(topology.newBranchCurrents().exceedance());
+	}
+
+	/**
+	 * The compiled topology is reused when the POLICY is reloaded with the same content and compiled again when it changes.
+	 * @param context a testcontext object
+	 *          
+	 * POLICY が同じ内容で読みなおされればコンパイル結果を使い回し, 変われば再びコンパイルする.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testRecompileOnChange(TestContext context) {
+		JsonObject policy = policy_(15F);
+		GridTopology topology = GridTopology.compiled(policy);
+		context.assertTrue(topology == GridTopology.compiled(policy));
+		context.assertTrue(topology == GridTopology.compiled(policy_(15F)));
+		// Only the capacity changes
+		// 容量だけが変わる
+		GridTopology other = GridTopology.compiled(policy_(20F));
+		context.assertFalse(topology == other);
+		context.assertEquals(20F, other.capacityA(1));
+		context.assertFalse(other == GridTopology.compiled(policy_(15F)));
+	}
+
+}
@@ -0,0 +1,204 @@
+package jp.co.sony.csl.dcoes.apis.main.evaluation.scenario.impl;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * GlobalAcceptMatching test.
+ * @author OES Project
+ *          
+ * GlobalAcceptMatching のテスト.
+ * @author OES Project
+ */
+@RunWith(VertxUnitRunner.class)
+public class GlobalAcceptMatchingTest {
+
+	private Vertx vertx;
+
+	@Before
+	public void before(TestContext context) {
+		vertx = Vertx.vertx();
+	}
+
+	@After
+	public void after(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	private static JsonObject policy_() {
+		return new JsonObject().put("mediator", new JsonObject().put("deal", new JsonObject().put("amountMinWh", 50).put("amountMaxWh", 1000).put("amountUnitWh", 50)));
+	}
+	/**
+	 * Create a POLICY with one branch B0 between E001 and the other units.
+	 * @param capacityA the capacity of B0
+	 * @return a POLICY object
+	 *          
+	 * E001 と他のユニットの間にブランチ B0 が一つある POLICY を生成する.
+	 * @param capacityA B0 の容量
+	 * @return POLICY オブジェクト
+	 */
+	private static JsonObject topologyPolicy_(float capacityA) {
+		JsonObject result = policy_();
+		result.put("safety", new JsonObject().put("gridTopologyBasedEvaluation", new JsonObject()
+				.put("enabled", true)
+				.put("branchIds", new JsonArray().add("B0"))
+				.put("branchAssociation", new JsonObject().put("B0", new JsonObject().put("forwardUnitIds", new JsonArray().add("E001")).put("backwardUnitIds", new JsonArray().add("E002").add("E003"))))
+				.put("branchCurrentCapacityA", new JsonObject().put("B0", capacityA))));
+		return result;
+	}
+	private static JsonObject request_(String negotiationId, String unitId, int amountWh, float dealGridCurrentA) {
+		return new JsonObject().put("negotiationId", negotiationId).put("unitId", unitId).put("type", "charge").put("amountWh", amountWh).put("dealGridCurrentA", dealGridCurrentA);
+	}
+	private static JsonObject accept_(String unitId, int amountWh) {
+		return new JsonObject().put("unitId", unitId).put("amountWh", amountWh).put("dealGridCurrentA", 10F);
+	}
+
+	/**
+	 * The total amount is maximized over all requests rather than request by request.
+	 * @param context a testcontext object
+	 *          
+	 * 電力量の合計をリクエストごとではなく全リクエストについて最大化する.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testMaximizesTotalAmount(TestContext context) {
+		List<JsonObject> requests = Arrays.asList(request_("n1", "E001", 200, 5F), request_("n2", "E002", 200, 5F));
+		Map<String, List<JsonObject>> accepts = new HashMap<>();
+		accepts.put("n1", Arrays.asList(accept_("E003", 1000), accept_("E004", 100)));
+		accepts.put("n2", Arrays.asList(accept_("E003", 1000)));
+		Map<String, Integer> freeInterlocks = new HashMap<>();
+		freeInterlocks.put("E003", 1);
+		// Giving E003 to n1 would leave n2 without a partner
+		// E003 を n1 に与えると n2 の相手がいなくなる
+		Map<String, JsonObject> result = GlobalAcceptMatching.match(vertx, policy_(), requests, accepts, freeInterlocks, Collections.emptyList());
+		context.assertEquals(2, result.size());
+		context.assertEquals("E004", result.get("n1").getString("unitId"));
+		context.assertEquals("E003", result.get("n2").getString("unitId"));
+
+		// With every interlock of E003 busy nothing can be matched with it
+		// E003 のインタロックが全て使用中ならそれとは組めない
+		freeInterlocks.put("E003", 0);
+		result = GlobalAcceptMatching.match(vertx, policy_(), requests, accepts, freeInterlocks, Collections.emptyList());
+		context.assertEquals(1, result.size());
+		context.assertEquals("E004", result.get("n1").getString("unitId"));
+	}
+
+	/**
+	 * Matched interchanges do not exceed the branch capacity together with the existing ones.
+	 * @param context a testcontext object
+	 *          
+	 * 組んだ融通は既存の融通とあわせてブランチの容量を超えない.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testBranchCapacity(TestContext context) {
+		List<JsonObject> requests = Arrays.asList(request_("n1", "E002", 400, 8F), request_("n2", "E003", 300, 8F));
+		Map<String, List<JsonObject>> accepts = new HashMap<>();
+		accepts.put("n1", Arrays.asList(accept_("E001", 1000)));
+		accepts.put("n2", Arrays.asList(accept_("E001", 1000)));
+		// Both would discharge 16 A from E001 through B0
+		// 両方組むと E001 から B0 を通して 16 A 送電する
+		Map<String, JsonObject> result = GlobalAcceptMatching.match(vertx, topologyPolicy_(10F), requests, accepts, Collections.emptyMap(), Collections.emptyList());
+		context.assertEquals(1, result.size());
+		context.assertTrue(result.containsKey("n1"));
+
+		result = GlobalAcceptMatching.match(vertx, topologyPolicy_(20F), requests, accepts, Collections.emptyMap(), Collections.emptyList());
+		context.assertEquals(2, result.size());
+
+		// An existing interchange already uses 5 A of B0
+		// 既存の融通が B0 の 5 A をすでに使っている
+		List<JsonObject> otherDeals = new ArrayList<>();
+		otherDeals.add(new JsonObject().put("dealId", "d1").put("dischargeUnitId", "E001").put("chargeUnitId", "E002").put("dealGridCurrentA", 5F));
+		result = GlobalAcceptMatching.match(vertx, topologyPolicy_(10F), requests, accepts, Collections.emptyMap(), otherDeals);
+		context.assertTrue(result.isEmpty());
+	}
+
+	/**
+	 * Matched interchanges do not exceed the sum of deal currents without a grid topology.
+	 * @param context a testcontext object
+	 *          
+	 * グリッドトポロジがなければ組んだ融通は融通電流の合計を超えない.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testSumOfDealGridCurrent(TestContext context) {
+		JsonObject policy = policy_().put("safety", new JsonObject().put("sumOfDealGridCurrentMaxA", 10F));
+		List<JsonObject> requests = Arrays.asList(request_("n1", "E001", 300, 6F), request_("n2", "E002", 400, 6F));
+		Map<String, List<JsonObject>> accepts = new HashMap<>();
+		accepts.put("n1", Arrays.asList(accept_("E003", 1000)));
+		accepts.put("n2", Arrays.asList(accept_("E004", 1000)));
+		Map<String, JsonObject> result = GlobalAcceptMatching.match(vertx, policy, requests, accepts, Collections.emptyMap(), Collections.emptyList());
+		context.assertEquals(1, result.size());
+		context.assertTrue(result.containsKey("n2"));
+	}
+
+	/**
+	 * The interchanges of an accepting unit do not exceed the energy it offers in total.
+	 * @param context a testcontext object
+	 *          
+	 * アクセプト側ユニットの融通は合計で申し出た電力量を超えない.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testAcceptableAmount(TestContext context) {
+		List<JsonObject> requests = Arrays.asList(request_("n1", "E001", 300, 5F), request_("n2", "E002", 200, 5F));
+		Map<String, List<JsonObject>> accepts = new HashMap<>();
+		// E003 offers the same 400 Wh to both requests
+		// E003 は両方のリクエストに同じ 400 Wh を申し出る
+		accepts.put("n1", Arrays.asList(accept_("E003", 400)));
+		accepts.put("n2", Arrays.asList(accept_("E003", 400), accept_("E004", 200)));
+		Map<String, JsonObject> result = GlobalAcceptMatching.match(vertx, policy_(), requests, accepts, Collections.emptyMap(), Collections.emptyList());
+		context.assertEquals(2, result.size());
+		context.assertEquals("E003", result.get("n1").getString("unitId"));
+		context.assertEquals("E004", result.get("n2").getString("unitId"));
+
+		// Without E004 only one of them can be matched with E003
+		// E004 がなければ E003 と組めるのは一方のみ
+		accepts.put("n2", Arrays.asList(accept_("E003", 400)));
+		result = GlobalAcceptMatching.match(vertx, policy_(), requests, accepts, Collections.emptyMap(), Collections.emptyList());
+		context.assertEquals(1, result.size());
+		context.assertEquals("E003", result.get("n1").getString("unitId"));
+	}
+
+	/**
+	 * Prices and {@code pairUnitId} restrict the candidates, and the best price wins among equal amounts.
+	 * @param context a testcontext object
+	 *          
+	 * ポイントと {@code pairUnitId} で候補を絞り, 同じ電力量なら最もよいポイントが勝つ.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testPointAndPairUnitId(TestContext context) {
+		JsonObject request = request_("n1", "E001", 200, 5F).put("pointPerWh", 10F).put("acceptSelection", new JsonObject().put("strategy", "pointAndAmount"));
+		Map<String, List<JsonObject>> accepts = new HashMap<>();
+		accepts.put("n1", Arrays.asList(accept_("E003", 1000).put("pointPerWh", 8F), accept_("E004", 1000).put("pointPerWh", 6F), accept_("E005", 1000).put("pointPerWh", 12F)));
+		Map<String, JsonObject> result = GlobalAcceptMatching.match(vertx, policy_(), Arrays.asList(request), accepts, Collections.emptyMap(), Collections.emptyList());
+		context.assertEquals("E004", result.get("n1").getString("unitId"));
+
+		// E005 asks more than the request pays
+		// E005 はリクエストが払う以上を求める
+		request.put("pairUnitId", "E005");
+		result = GlobalAcceptMatching.match(vertx, policy_(), Arrays.asList(request), accepts, Collections.emptyMap(), Collections.emptyList());
+		context.assertTrue(result.isEmpty());
+
+		request.put("pairUnitId", "E003");
+		result = GlobalAcceptMatching.match(vertx, policy_(), Arrays.asList(request), accepts, Collections.emptyMap(), Collections.emptyList());
+		context.assertEquals("E003", result.get("n1").getString("unitId"));
+	}
+
+}
@@ -0,0 +1,76 @@
+package jp.co.sony.csl.dcoes.apis.main.util;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * EventBusStatistics test.
+ * @author OES Project
+ *          
+ * EventBusStatistics のテスト.
+ * @author OES Project
+ */
+@RunWith(VertxUnitRunner.class)
+public class EventBusStatisticsTest {
+
+	@Before
+	public void before(TestContext context) {
+		EventBusStatistics.reset();
+	}
+
+	@After
+	public void after(TestContext context) {
+		EventBusStatistics.reset();
+	}
+
+	/**
+	 * Local sequence numbers, cluster UUIDs and internal addresses are reply addresses ; service addresses are not.
+	 * @param context a testcontext object
+	 *          
+	 * ローカルの連番, クラスタの UUID, 内部アドレスは返信アドレスで ; サービスのアドレスはそうではない.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testIsReplyAddress(TestContext context) {
+		context.assertTrue(EventBusStatistics.isReplyAddress(null));
+		context.assertTrue(EventBusStatistics.isReplyAddress("1"));
+		context.assertTrue(EventBusStatistics.isReplyAddress("1234567890"));
+		context.assertTrue(EventBusStatistics.isReplyAddress(UUID.randomUUID().toString()));
+		context.assertTrue(EventBusStatistics.isReplyAddress("__vertx.reply.1"));
+		context.assertFalse(EventBusStatistics.isReplyAddress(""));
+		context.assertFalse(EventBusStatistics.isReplyAddress("apis.E001.unitData"));
+		context.assertFalse(EventBusStatistics.isReplyAddress("E001"));
+		context.assertFalse(EventBusStatistics.isReplyAddress("12a"));
+	}
+
+	/**
+	 * Addresses beyond the limit are counted together.
+	 * @param context a testcontext object
+	 *          
+	 * 上限を超えたアドレスはまとめて数える.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testMaxAddresses(TestContext context) {
+		for (int i = 0; i < EventBusStatistics.MAX_ADDRESSES + 10; i++) {
+			EventBusStatistics.address("address." + i).sent.incrementAndGet();
+		}
+		EventBusStatistics.address("address.0").sent.incrementAndGet();
+		JsonObject addresses = EventBusStatistics.toJsonObject().getJsonObject("addresses");
+		context.assertEquals(EventBusStatistics.MAX_ADDRESSES + 1, addresses.size());
+		context.assertEquals(2L, addresses.getJsonObject("address.0").getLong("sent"));
+		context.assertEquals(10L, addresses.getJsonObject(EventBusStatistics.OTHERS_ADDRESS).getLong("sent"));
+		context.assertFalse(addresses.containsKey("address." + EventBusStatistics.MAX_ADDRESSES));
+		EventBusStatistics.reset();
+		context.assertEquals(0, EventBusStatistics.toJsonObject().getJsonObject("addresses").size());
+	}
+
+}
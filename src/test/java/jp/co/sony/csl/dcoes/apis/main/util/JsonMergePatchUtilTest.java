@@ -0,0 +1,91 @@
+package jp.co.sony.csl.dcoes.apis.main.util;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * JsonMergePatchUtil test.
+ * @author OES Project
+ *          
+ * JsonMergePatchUtil のテスト.
+ * @author OES Project
+ */
+@RunWith(VertxUnitRunner.class)
+public class JsonMergePatchUtilTest {
+
+	/**
+	 * A chain of differences over successive unit data rebuilds every snapshot from the first one, as DataCollection does.
+	 * @param context a testcontext object
+	 *          
+	 * 連続するユニットデータの差分の連鎖は DataCollection と同様に最初のものから全てのスナップショットを再構築する.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testUnitDataChain(TestContext context) {
+		JsonObject[] snapshots = new JsonObject[] {
+			new JsonObject("{\"oesunit\":{\"id\":\"E001\"},\"emu\":{\"rsoc\":50.5,\"pvc_charge_power\":120},\"dcdc\":{\"status\":{\"status\":\"0x0000\"},\"meter\":{\"ig\":0,\"vg\":350}}}"),
+			new JsonObject("{\"oesunit\":{\"id\":\"E001\"},\"emu\":{\"rsoc\":50.6,\"pvc_charge_power\":120},\"dcdc\":{\"status\":{\"status\":\"0x0041\"},\"meter\":{\"ig\":1.5,\"vg\":350}}}"),
+			new JsonObject("{\"oesunit\":{\"id\":\"E001\"},\"emu\":{\"rsoc\":50.6,\"pvc_charge_power\":120},\"dcdc\":{\"status\":{\"status\":\"0x0041\"},\"meter\":{\"ig\":1.5,\"vg\":350}}}"),
+			new JsonObject("{\"oesunit\":{\"id\":\"E001\"},\"emu\":{\"rsoc\":50.7},\"dcdc\":{\"status\":{\"status\":\"0x0000\"},\"meter\":{\"ig\":0,\"vg\":350}}}"),
+		};
+		JsonObject baseline = snapshots[0].copy();
+		for (int i = 1; i < snapshots.length; i++) {
+			JsonObject aDiff = JsonMergePatchUtil.diff(snapshots[i - 1], snapshots[i]);
+			// Unchanged sub-objects are not sent
+			// 変化していないサブオブジェクトは送らない
+			context.assertFalse(aDiff.containsKey("oesunit"));
+			JsonMergePatchUtil.apply(baseline, aDiff);
+			context.assertEquals(snapshots[i], baseline, "snapshot " + i);
+		}
+		context.assertTrue(JsonMergePatchUtil.diff(snapshots[1], snapshots[2]).isEmpty());
+		context.assertEquals(new JsonObject("{\"emu\":{\"rsoc\":50.7,\"pvc_charge_power\":null},\"dcdc\":{\"status\":{\"status\":\"0x0000\"},\"meter\":{\"ig\":0}}}"), JsonMergePatchUtil.diff(snapshots[2], snapshots[3]));
+	}
+
+	/**
+	 * An object replaced by a scalar and back, an array and a field holding {@code null} are all handled as whole values.
+	 * @param context a testcontext object
+	 *          
+	 * スカラに置き換わったオブジェクトとその逆, 配列, {@code null} を持つ項目は全て値全体として扱う.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testWholeValues(TestContext context) {
+		JsonObject base = new JsonObject().put("a", new JsonObject().put("b", 1)).put("c", 2).put("d", new JsonArray().add(1).add(2)).putNull("e");
+		JsonObject target = new JsonObject().put("a", "scalar").put("c", new JsonObject().put("b", 1)).put("d", new JsonArray().add(1).add(3));
+		JsonObject diff = JsonMergePatchUtil.diff(base, target);
+		context.assertEquals(new JsonObject().put("a", "scalar").put("c", new JsonObject().put("b", 1)).put("d", new JsonArray().add(1).add(3)), diff);
+		context.assertEquals(target, JsonMergePatchUtil.apply(base.copy(), diff));
+		// A field holding null is the same as an absent one
+		// null を持つ項目は存在しない項目と同じ
+		context.assertTrue(JsonMergePatchUtil.diff(new JsonObject().putNull("e"), new JsonObject()).isEmpty());
+		context.assertEquals(new JsonObject().putNull("a"), JsonMergePatchUtil.diff(new JsonObject().put("a", 1), new JsonObject().putNull("a")));
+	}
+
+	/**
+	 * A difference shares no object with its arguments, and applying modifies and returns the base.
+	 * @param context a testcontext object
+	 *          
+	 * 差分は引数とオブジェクトを共有せず, 適用はベースを変更して返す.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testNoAliasing(TestContext context) {
+		JsonObject base = new JsonObject().put("a", 1);
+		JsonObject target = new JsonObject().put("a", 1).put("b", new JsonObject().put("c", 2));
+		JsonObject diff = JsonMergePatchUtil.diff(base, target);
+		context.assertEquals(new JsonObject().put("a", 1), base);
+		target.getJsonObject("b").put("c", 3);
+		context.assertEquals(2, diff.getJsonObject("b").getInteger("c"));
+
+		JsonObject applied = JsonMergePatchUtil.apply(base, diff);
+		context.assertTrue(applied == base);
+		diff.getJsonObject("b").put("c", 4);
+		context.assertEquals(2, base.getJsonObject("b").getInteger("c"));
+	}
+
+}
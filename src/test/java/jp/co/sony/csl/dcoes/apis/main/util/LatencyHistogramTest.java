@@ -0,0 +1,101 @@
+package jp.co.sony.csl.dcoes.apis.main.util;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * LatencyHistogram test.
+ * @author OES Project
+ *          
+ * LatencyHistogram のテスト.
+ * @author OES Project
+ */
+@RunWith(VertxUnitRunner.class)
+public class LatencyHistogramTest {
+
+	/**
+	 * A percentile is never below the recorded value and, above {@code 128} [us], within 1/64 of it.
+	 * @param context a testcontext object
+	 *          
+	 * パーセンタイルは記録した値を下回らず, {@code 128} [us] 以上では誤差が 1/64 未満.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testBucketBounds(TestContext context) {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long micros = 0L; micros < 100000000L; micros += (micros < 1000L) ? 1L : micros / 100L) {
+			histogram.reset();
+			histogram.recordNanos(micros * 1000L);
+			// A larger value keeps the result from being capped by the maximum
+			// より大きな値を入れて結果が最大値で抑えられないようにする
+			histogram.recordNanos(1000000000000L);
+			long p50 = histogram.percentileMicros(50D);
+			if (micros < 128L) {
+				context.assertEquals(micros, p50);
+			} else {
+				context.assertTrue(micros <= p50 && p50 < micros + micros / 64L, micros + " -> " + p50);
+			}
+		}
+	}
+
+	/**
+	 * Percentiles, counts and sums of a uniform distribution.
+	 * @param context a testcontext object
+	 *          
+	 * 一様分布のパーセンタイル, 件数, 合計.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testPercentiles(TestContext context) {
+		LatencyHistogram histogram = new LatencyHistogram();
+		context.assertEquals(0L, histogram.percentileMicros(50D));
+		for (long micros = 1L; micros <= 1000L; micros++) {
+			histogram.recordNanos(micros * 1000L + 999L);
+		}
+		context.assertEquals(1000L, histogram.totalCount());
+		context.assertEquals(500500L, histogram.sumMicros());
+		context.assertEquals(1L, histogram.percentileMicros(0D));
+		context.assertEquals(1000L, histogram.percentileMicros(100D));
+		long p50 = histogram.percentileMicros(50D);
+		context.assertTrue(500L <= p50 && p50 < 500L + 500L / 64L, String.valueOf(p50));
+		long p90 = histogram.percentileMicros(90D);
+		context.assertTrue(900L <= p90 && p90 < 900L + 900L / 64L, String.valueOf(p90));
+
+		JsonObject summary = histogram.toJsonObject();
+		context.assertEquals(1000L, summary.getLong("count"));
+		context.assertEquals(0.001D, summary.getDouble("minMsec"));
+		context.assertEquals(0.5005D, summary.getDouble("meanMsec"));
+		context.assertEquals(1D, summary.getDouble("maxMsec"));
+
+		histogram.reset();
+		context.assertEquals(0L, histogram.totalCount());
+		context.assertEquals(0D, histogram.toJsonObject().getDouble("minMsec"));
+	}
+
+	/**
+	 * Values beyond the range are counted in the last bucket and reported as the maximum.
+	 * @param context a testcontext object
+	 *          
+	 * 範囲を超えた値は最後のバケットに数え最大値として報告する.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testOutOfRange(TestContext context) {
+		LatencyHistogram histogram = new LatencyHistogram();
+		long micros = 1L << 40;
+		histogram.recordNanos(1000L);
+		histogram.recordNanos(micros * 1000L);
+		context.assertEquals(micros, histogram.percentileMicros(99D));
+		// Negative durations are recorded as zero
+		// 負の時間はゼロとして記録する
+		histogram.reset();
+		histogram.recordNanos(-1000L);
+		context.assertEquals(0L, histogram.percentileMicros(100D));
+		context.assertEquals(0L, histogram.sumMicros());
+	}
+
+}
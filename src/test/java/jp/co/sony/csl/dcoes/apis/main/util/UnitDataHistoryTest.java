@@ -0,0 +1,146 @@
+package jp.co.sony.csl.dcoes.apis.main.util;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * UnitDataHistory test.
+ * @author OES Project
+ *          
+ * UnitDataHistory のテスト.
+ * @author OES Project
+ */
+@RunWith(VertxUnitRunner.class)
+public class UnitDataHistoryTest {
+
+	private static JsonObject ig_(Object ig) {
+		return new JsonObject().put("dcdc", new JsonObject().put("meter", new JsonObject().put("ig", ig)));
+	}
+
+	/**
+	 * After the ring wraps around, samples stay oldest first and a period spanning the wrap point is sliced with {@code from} inclusive and {@code to} exclusive.
+	 * @param context a testcontext object
+	 *          
+	 * リングが一周した後もサンプルは古い順のままで, 一周した位置をまたぐ期間は {@code from} を含み {@code to} を含まずに切り出される.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testWrapAround(TestContext context) {
+		UnitDataHistory history = new UnitDataHistory(4);
+		for (int i = 1; i <= 10; i++) {
+			history.record("E001", i * 1000L, ig_(i));
+		}
+		JsonObject result = history.query("E001", null, null, null);
+		context.assertEquals(new JsonArray().add(7000L).add(8000L).add(9000L).add(10000L), result.getJsonArray("time"));
+		context.assertEquals(new JsonArray().add(7F).add(8F).add(9F).add(10F), result.getJsonArray("dcdc.meter.ig"));
+		// Every channel has one value per sample, null when missing
+		// 全チャネルがサンプルごとに一つの値を持ち, なければ null
+		context.assertEquals(4, result.getJsonArray("battery.rsoc").size());
+		context.assertNull(result.getJsonArray("battery.rsoc").getValue(3));
+
+		result = history.query("E001", 8000L, 10000L, null);
+		context.assertEquals(new JsonArray().add(8000L).add(9000L), result.getJsonArray("time"));
+		context.assertTrue(history.query("E001", 11000L, null, null).getJsonArray("time").isEmpty());
+		context.assertNull(history.query("E002", null, null, null));
+	}
+
+	/**
+	 * Buckets are aligned to multiples of {@code bucketMsec} even for negative times, skip empty spans and average only present values.
+	 * @param context a testcontext object
+	 *          
+	 * バケットは負の時刻でも {@code bucketMsec} の倍数に揃い, 空の区間を飛ばし, 存在する値だけを平均する.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testBucketAlignment(TestContext context) {
+		UnitDataHistory history = new UnitDataHistory(UnitDataHistory.DEFAULT_CAPACITY);
+		history.record("E001", -1L, ig_(1));
+		history.record("E001", 0L, ig_(2));
+		history.record("E001", 999L, ig_(4));
+		history.record("E001", 1000L, new JsonObject());
+		history.record("E001", 5000L, ig_(-3));
+		JsonObject result = history.query("E001", null, null, 1000L);
+		context.assertEquals(new JsonArray().add(-1000L).add(0L).add(1000L).add(5000L), result.getJsonArray("time"));
+		JsonObject ig = result.getJsonObject("dcdc.meter.ig");
+		context.assertEquals(new JsonArray().add(1F).add(2F).addNull().add(-3F), ig.getJsonArray("min"));
+		context.assertEquals(new JsonArray().add(1F).add(4F).addNull().add(-3F), ig.getJsonArray("max"));
+		context.assertEquals(new JsonArray().add(1F).add(3F).addNull().add(-3F), ig.getJsonArray("avg"));
+
+		// A bucket size that is not positive means raw samples
+		// 正でないバケットサイズは生のサンプルを意味する
+		context.assertEquals(5, history.query("E001", null, null, 0L).getJsonArray("time").size());
+	}
+
+	/**
+	 * Values given as strings are parsed, the capacity is at least one, and entries of a unit data map that are not objects are ignored.
+	 * @param context a testcontext object
+	 *          
+	 * 文字列で与えられた値は解析し, 容量は最低一つで, ユニットデータのマップのオブジェクトでない項目は無視する.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testLenientInput(TestContext context) {
+		UnitDataHistory history = new UnitDataHistory(0);
+		history.recordAll(1000L, new JsonObject().put("E001", ig_("1.5")).put("E002", ig_("broken")).put("E003", "broken").putNull("E004"));
+		history.recordAll(2000L, new JsonObject().put("E001", ig_(2.5)));
+		history.record(null, 3000L, ig_(1));
+		history.record("E001", 3000L, null);
+		context.assertEquals(new JsonArray().add(2000L), history.query("E001", null, null, null).getJsonArray("time"));
+		context.assertEquals(2.5F, history.query("E001", null, null, null).getJsonArray("dcdc.meter.ig").getFloat(0));
+		context.assertNull(history.query("E002", null, null, null).getJsonArray("dcdc.meter.ig").getValue(0));
+		context.assertNull(history.query("E003", null, null, null));
+		context.assertNull(history.query("E004", null, null, null));
+	}
+
+	/**
+	 * A unit missing from more consecutive collections than allowed is forgotten, a unit present again in time is kept, and a unit back after being forgotten starts afresh.
+	 * @param context a testcontext object
+	 *          
+	 * 許されるより多く連続して収集に含まれなかったユニットは忘れ, 間に合って再び含まれたユニットは残し, 忘れた後に戻ったユニットは最初からやり直す.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testIdleEviction(TestContext context) {
+		UnitDataHistory history = new UnitDataHistory(10, 2);
+		history.recordAll(1000L, new JsonObject().put("E001", ig_(1)).put("E002", ig_(1)));
+		history.recordAll(2000L, new JsonObject().put("E001", ig_(2)));
+		history.recordAll(3000L, new JsonObject().put("E001", ig_(3)));
+		context.assertNotNull(history.query("E002", null, null, null));
+		history.recordAll(4000L, new JsonObject().put("E001", ig_(4)).put("E002", ig_(4)));
+		for (long t = 5000L; t <= 7000L; t += 1000L) {
+			history.recordAll(t, new JsonObject().put("E001", ig_(t / 1000L)));
+		}
+		context.assertNull(history.query("E002", null, null, null));
+		context.assertEquals(7, history.query("E001", null, null, null).getJsonArray("time").size());
+		history.recordAll(8000L, new JsonObject().put("E002", ig_(8)));
+		context.assertEquals(new JsonArray().add(8000L), history.query("E002", null, null, null).getJsonArray("time"));
+	}
+
+	/**
+	 * Units not in the member list are forgotten, and no list forgets nothing.
+	 * @param context a testcontext object
+	 *          
+	 * メンバのリストにないユニットは忘れ, リストがなければ何も忘れない.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testRetain(TestContext context) {
+		UnitDataHistory history = new UnitDataHistory(10);
+		history.recordAll(1000L, new JsonObject().put("E001", ig_(1)).put("E002", ig_(1)).put("E003", ig_(1)));
+		history.retain(null);
+		context.assertNotNull(history.query("E003", null, null, null));
+		history.retain(Arrays.asList("E001", "E003", "E004"));
+		context.assertNotNull(history.query("E001", null, null, null));
+		context.assertNull(history.query("E002", null, null, null));
+		context.assertNotNull(history.query("E003", null, null, null));
+		context.assertNull(history.query("E004", null, null, null));
+	}
+
+}
@@ -0,0 +1,94 @@
+package jp.co.sony.csl.dcoes.apis.main.util;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * UnitDataView test.
+ * @author OES Project
+ *          
+ * UnitDataView のテスト.
+ * @author OES Project
+ */
+@RunWith(VertxUnitRunner.class)
+public class UnitDataViewTest {
+
+	/**
+	 * Units keep their index and values while the arrays grow.
+	 * @param context a testcontext object
+	 *          
+	 * 配列が大きくなってもユニットはインデクスと値を保つ.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testGrowth(TestContext context) {
+		UnitDataView view = new UnitDataView();
+		for (int i = 0; i < 100; i++) {
+			view.update(String.format("E%03d", i), new JsonObject().put("dcdc", new JsonObject().put("meter", new JsonObject().put("ig", i).put("vg", 350)).put("vdis", new JsonObject().put("dvg", 350))));
+		}
+		context.assertEquals(100, view.size());
+		for (int i = 0; i < 100; i++) {
+			String unitId = String.format("E%03d", i);
+			context.assertEquals(i, view.indexOf(unitId));
+			context.assertEquals(unitId, view.unitId(i));
+			context.assertEquals((float) i, view.ig(i));
+			context.assertEquals(350F, view.dvg(unitId));
+		}
+	}
+
+	/**
+	 * A reset with fewer units reuses the slots without leaking the values of the units that left.
+	 * @param context a testcontext object
+	 *          
+	 * より少ないユニットでの reset は去ったユニットの値を漏らさずにスロットを再利用する.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testResetReusesSlots(TestContext context) {
+		JsonObject full = new JsonObject().put("dcdc", new JsonObject().put("meter", new JsonObject().put("ig", 5).put("vg", 380).put("wb", 100)).put("param", new JsonObject().put("dig", 3))).put("battery", new JsonObject().put("rsoc", 70));
+		UnitDataView view = UnitDataView.of(new JsonObject().put("E001", full).put("E002", full).put("E003", full));
+		view.reset(new JsonObject().put("E009", new JsonObject().put("dcdc", new JsonObject().put("meter", new JsonObject().put("ig", -1)))).put("E010", "broken"));
+		context.assertEquals(1, view.size());
+		context.assertEquals(0, view.indexOf("E009"));
+		context.assertEquals(-1, view.indexOf("E001"));
+		context.assertEquals(-1, view.indexOf("E010"));
+		context.assertEquals(-1F, view.ig(0));
+		context.assertTrue(Float.isNaN(view.vg(0)));
+		context.assertTrue(Float.isNaN(view.wb(0)));
+		context.assertTrue(Float.isNaN(view.dig(0)));
+		context.assertTrue(Float.isNaN(view.rsoc(0)));
+		context.assertTrue(Float.isNaN(view.ig("E001")));
+
+		// A unit without data is known but has no values
+		// データのないユニットは既知だが値を持たない
+		view.update("E009", null);
+		context.assertEquals(0, view.indexOf("E009"));
+		context.assertTrue(Float.isNaN(view.ig("E009")));
+		view.update(null, full);
+		context.assertEquals(1, view.size());
+	}
+
+	/**
+	 * A value is read through nested objects only ; a scalar on the way, a broken string or a non-numeric value give {@code NaN}.
+	 * @param context a testcontext object
+	 *          
+	 * 値は入れ子のオブジェクトのみを通して読む ; 途中のスカラ, 壊れた文字列, 数値でない値は {@code NaN}.
+	 * @param context testcontext オブジェクト
+	 */
+	@Test
+	public void testValue(TestContext context) {
+		String[] path = new String[] { "dcdc", "meter", "ig" };
+		context.assertEquals(-2.5F, UnitDataView.value(new JsonObject("{\"dcdc\":{\"meter\":{\"ig\":\"-2.5\"}}}"), path));
+		context.assertEquals(1F, UnitDataView.value(new JsonObject("{\"dcdc\":{\"meter\":{\"ig\":1}}}"), path));
+		context.assertTrue(Float.isNaN(UnitDataView.value(new JsonObject("{\"dcdc\":{\"meter\":\"1\"}}"), path)));
+		context.assertTrue(Float.isNaN(UnitDataView.value(new JsonObject("{\"dcdc\":{\"meter\":{\"ig\":\"1A\"}}}"), path)));
+		context.assertTrue(Float.isNaN(UnitDataView.value(new JsonObject("{\"dcdc\":{\"meter\":{\"ig\":true}}}"), path)));
+		context.assertTrue(Float.isNaN(UnitDataView.value(new JsonObject("{\"dcdc\":{\"meter\":{\"ig\":null}}}"), path)));
+		context.assertTrue(Float.isNaN(UnitDataView.value(null, path)));
+	}
+
+}